@@ -16,12 +16,19 @@
 package nl.esciencecenter.xenon.adaptors.filesystems.local;
 
 import static nl.esciencecenter.xenon.utils.LocalFileSystemUtils.isWindows;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assume.assumeFalse;
 
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -216,4 +223,98 @@ public class LocalFileSystemTest extends FileSystemTestParent {
 
         assertTrue(fileSystem.exists(testDir));
     }
+
+    @Test
+    public void test_list_recursive_symbolicLinkToDirectory_notFollowed() throws Exception {
+        generateAndCreateTestDir();
+        Path sub = createTestSubDir(testDir);
+        Path file = createTestFile(sub, null);
+        Path link = testDir.resolve("link");
+        fileSystem.createSymbolicLink(link, sub);
+
+        Set<PathAttributes> expected = new HashSet<>();
+        expected.add(fileSystem.getAttributes(sub));
+        expected.add(fileSystem.getAttributes(file));
+        expected.add(fileSystem.getAttributes(link));
+
+        assertListSetEqual(listSet(testDir, true), expected);
+    }
+
+    // The order of a recursive listing in the generic implementation: all entries of a directory, followed by the content of each subdirectory.
+    private void listInGenericOrder(Path dir, List<Path> result) throws XenonException {
+
+        ArrayList<PathAttributes> entries = new ArrayList<>();
+
+        for (PathAttributes a : fileSystem.list(dir, false)) {
+            entries.add(a);
+            result.add(a.getPath());
+        }
+
+        for (PathAttributes a : entries) {
+            if (a.isDirectory()) {
+                listInGenericOrder(a.getPath(), result);
+            }
+        }
+    }
+
+    @Test
+    public void test_list_recursive_genericOrder() throws Exception {
+        generateAndCreateTestDir();
+
+        for (int i = 0; i < 3; i++) {
+            Path sub = createTestSubDir(testDir);
+            createTestFile(sub, null);
+            createTestFile(createTestSubDir(sub), null);
+            createTestFile(testDir, null);
+        }
+
+        List<Path> expected = new ArrayList<>();
+        listInGenericOrder(testDir, expected);
+
+        List<Path> actual = new ArrayList<>();
+
+        for (PathAttributes a : fileSystem.list(testDir, true)) {
+            actual.add(a.getPath());
+        }
+
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void test_delete_recursive_symbolicLinkToDirectory_targetRemains() throws Exception {
+        generateAndCreateTestDir();
+        Path outside = createTestSubDir(testDir);
+        Path file = createTestFile(outside, null);
+        Path tree = createTestSubDir(testDir);
+        Path sub = createTestSubDir(tree);
+        createTestFile(sub, null);
+        fileSystem.createSymbolicLink(sub.resolve("link"), outside);
+
+        fileSystem.delete(tree, true);
+
+        assertFalse(fileSystem.exists(tree));
+        assertTrue(fileSystem.exists(file));
+    }
+
+    @Test
+    public void test_readToBuffer_largeFile_mapped() throws Exception {
+        generateAndCreateTestDir();
+
+        byte[] data = new byte[1024 * 1024];
+
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i % 251);
+        }
+
+        Path file = createTestFile(testDir, data);
+
+        ByteBuffer buffer = fileSystem.readToBuffer(file, 1000, data.length);
+
+        assertTrue(buffer instanceof MappedByteBuffer);
+        assertEquals(data.length - 1000, buffer.remaining());
+
+        byte[] result = new byte[buffer.remaining()];
+        buffer.get(result);
+        assertArrayEquals(Arrays.copyOfRange(data, 1000, data.length), result);
+    }
 }
@@ -20,6 +20,9 @@ import static org.junit.Assert.assertTrue;
 import static org.junit.Assume.assumeFalse;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import org.junit.Test;
 
@@ -92,6 +95,37 @@ public class CommandRunnerTest {
         new CommandRunner("Hello World\n", workingDir, "/bin/cat");
     }
 
+    @Test
+    public void test_runAsync_manyCommands() throws Exception {
+
+        assumeFalse(LocalFileSystemUtils.isWindows());
+
+        List<CompletableFuture<CommandRunner>> results = new ArrayList<>();
+
+        for (int i = 0; i < 50; i++) {
+            results.add(CommandRunner.runAsync("Hello " + i + "\n", null, "/bin/cat"));
+        }
+
+        for (int i = 0; i < 50; i++) {
+            CommandRunner r = results.get(i).get();
+            assertEquals(0, r.getExitCode());
+            assertEquals("Hello " + i + "\n", r.getStdout());
+            assertTrue(r.getStderr().isEmpty());
+        }
+    }
+
+    @Test
+    public void test_runAsync_exitCodeAndStderr() throws Exception {
+
+        assumeFalse(LocalFileSystemUtils.isWindows());
+
+        CommandRunner r = CommandRunner.runAsync(null, null, "/bin/sh", "-c", "echo oops >&2; exit 3").get();
+
+        assertEquals(3, r.getExitCode());
+        assertTrue(r.getStdout().isEmpty());
+        assertEquals("oops\n", r.getStderr());
+    }
+
 
 
 }
@@ -15,7 +15,14 @@
  */
 package nl.esciencecenter.xenon.adaptors.schedulers.local;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeFalse;
+
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
 
 import org.junit.Test;
 
@@ -23,11 +30,15 @@ import nl.esciencecenter.xenon.InvalidCredentialException;
 import nl.esciencecenter.xenon.InvalidLocationException;
 import nl.esciencecenter.xenon.UnknownPropertyException;
 import nl.esciencecenter.xenon.XenonException;
+import nl.esciencecenter.xenon.adaptors.schedulers.JobQueueScheduler;
+import nl.esciencecenter.xenon.adaptors.schedulers.RemoteCommandRunner;
 import nl.esciencecenter.xenon.adaptors.schedulers.SchedulerLocationConfig;
 import nl.esciencecenter.xenon.adaptors.schedulers.SchedulerTestParent;
 import nl.esciencecenter.xenon.credentials.DefaultCredential;
 import nl.esciencecenter.xenon.credentials.PasswordCredential;
+import nl.esciencecenter.xenon.schedulers.JobDescription;
 import nl.esciencecenter.xenon.schedulers.Scheduler;
+import nl.esciencecenter.xenon.utils.LocalFileSystemUtils;
 
 public class LocalSchedulerTest extends SchedulerTestParent {
 
@@ -104,4 +115,53 @@ public class LocalSchedulerTest extends SchedulerTestParent {
         map.put("key", "value");
         Scheduler.create("local", "", null, map);
     }
+
+    @Test
+    public void test_runCommandAsync_noJob() throws Exception {
+
+        assumeFalse(LocalFileSystemUtils.isWindows());
+
+        JobQueueScheduler s = (JobQueueScheduler) Scheduler.create("local");
+
+        try {
+            JobDescription description = new JobDescription();
+            description.setExecutable("/bin/sh");
+            description.setArguments("-c", "cat; echo $XENON_TEST >&2; exit 3");
+            description.setEnvironment(Collections.singletonMap("XENON_TEST", "value"));
+            description.setQueueName("unlimited");
+
+            CompletableFuture<RemoteCommandRunner> f = s.runCommandAsync(description, "Hello World");
+
+            assertNotNull(f);
+
+            RemoteCommandRunner r = f.get();
+
+            assertEquals(3, r.getExitCode());
+            assertEquals("Hello World", r.getStdout());
+            assertEquals("value\n", r.getStderr());
+
+            // The command is not run as a job.
+            assertEquals(0, s.getJobs().length);
+        } finally {
+            s.close();
+        }
+    }
+
+    @Test
+    public void test_remoteCommandRunner_run() throws Exception {
+
+        assumeFalse(LocalFileSystemUtils.isWindows());
+
+        Scheduler s = Scheduler.create("local");
+
+        try {
+            RemoteCommandRunner r = RemoteCommandRunner.run(s, "Hello World", "/bin/cat");
+
+            assertEquals(0, r.getExitCode());
+            assertEquals("Hello World", r.getStdout());
+            assertTrue(r.getStderr().isEmpty());
+        } finally {
+            s.close();
+        }
+    }
 }
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.filesystems.archive;
+
+import java.io.OutputStream;
+import java.util.AbstractMap;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.AfterClass;
+
+import nl.esciencecenter.xenon.XenonException;
+import nl.esciencecenter.xenon.adaptors.filesystems.FileSystemTestParent;
+import nl.esciencecenter.xenon.adaptors.filesystems.LocationConfig;
+import nl.esciencecenter.xenon.credentials.DefaultCredential;
+import nl.esciencecenter.xenon.filesystems.FileSystem;
+import nl.esciencecenter.xenon.filesystems.Path;
+
+/**
+ * Runs the file system tests on an archive stored in an in-memory file system.
+ */
+public abstract class ArchiveFileSystemTestParent extends FileSystemTestParent {
+
+    private static final String STORE = "archive-file-system-test";
+
+    // Keeps the store containing the archive alive while the tests open and close file systems.
+    private static FileSystem store;
+
+    protected static void createFixture(String archive) throws Exception {
+
+        store = FileSystem.create("memory", STORE);
+
+        try (FileSystem fixture = FileSystem.create("archive", archive, new DefaultCredential(), getProperties())) {
+            fixture.createDirectories(new Path("/home/xenon/filesystem-test-fixture/links"));
+
+            try (OutputStream out = fixture.writeToFile(new Path("/home/xenon/filesystem-test-fixture/links/file0"))) {
+                out.write("Hello World\n".getBytes());
+            }
+
+            fixture.createSymbolicLink(new Path("/home/xenon/filesystem-test-fixture/links/link0"),
+                    new Path("/home/xenon/filesystem-test-fixture/links/file0"));
+            fixture.createDirectories(new Path("/tmp"));
+        }
+    }
+
+    @AfterClass
+    public static void destroyFixture() throws XenonException {
+        store.close();
+    }
+
+    private static Map<String, String> getProperties() {
+        Map<String, String> properties = new HashMap<>();
+        properties.put(ArchiveFileAdaptor.ADAPTOR, "memory");
+        properties.put(ArchiveFileAdaptor.LOCATION, STORE);
+        return properties;
+    }
+
+    protected abstract String getArchive();
+
+    @Override
+    protected LocationConfig setupLocationConfig(FileSystem fileSystem) {
+        return new LocationConfig() {
+            @Override
+            public Path getExistingPath() {
+                return new Path("/home/xenon/filesystem-test-fixture/links/file0");
+            }
+
+            @Override
+            public Map.Entry<Path, Path> getSymbolicLinksToExistingFile() {
+                return new AbstractMap.SimpleEntry<>(new Path("/home/xenon/filesystem-test-fixture/links/link0"),
+                        new Path("/home/xenon/filesystem-test-fixture/links/file0"));
+            }
+
+            @Override
+            public Path getWritableTestDir() {
+                return new Path("/tmp");
+            }
+
+            @Override
+            public Path getExpectedWorkingDirectory() {
+                return new Path("/");
+            }
+        };
+    }
+
+    @Override
+    public FileSystem setupFileSystem() throws XenonException {
+        return FileSystem.create("archive", getArchive(), new DefaultCredential(), getProperties());
+    }
+}
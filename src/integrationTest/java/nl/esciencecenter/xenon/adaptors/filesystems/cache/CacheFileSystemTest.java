@@ -0,0 +1,93 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.filesystems.cache;
+
+import java.io.OutputStream;
+import java.util.AbstractMap;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+
+import nl.esciencecenter.xenon.XenonException;
+import nl.esciencecenter.xenon.adaptors.filesystems.FileSystemTestParent;
+import nl.esciencecenter.xenon.adaptors.filesystems.LocationConfig;
+import nl.esciencecenter.xenon.credentials.DefaultCredential;
+import nl.esciencecenter.xenon.filesystems.FileSystem;
+import nl.esciencecenter.xenon.filesystems.Path;
+
+/**
+ * Runs the file system tests on a cache of an in-memory file system.
+ */
+public class CacheFileSystemTest extends FileSystemTestParent {
+
+    private static final String STORE = "cache-file-system-test";
+
+    // Keeps the store, and therefore the fixture, alive while the tests open and close file systems.
+    private static FileSystem fixture;
+
+    @BeforeClass
+    public static void createFixture() throws Exception {
+        fixture = FileSystem.create("memory", STORE);
+        fixture.createDirectories(new Path("/home/xenon/filesystem-test-fixture/links"));
+
+        try (OutputStream out = fixture.writeToFile(new Path("/home/xenon/filesystem-test-fixture/links/file0"))) {
+            out.write("Hello World\n".getBytes());
+        }
+
+        fixture.createSymbolicLink(new Path("/home/xenon/filesystem-test-fixture/links/link0"), new Path("/home/xenon/filesystem-test-fixture/links/file0"));
+        fixture.createDirectories(new Path("/tmp"));
+    }
+
+    @AfterClass
+    public static void destroyFixture() throws XenonException {
+        fixture.close();
+    }
+
+    @Override
+    protected LocationConfig setupLocationConfig(FileSystem fileSystem) {
+        return new LocationConfig() {
+            @Override
+            public Path getExistingPath() {
+                return new Path("/home/xenon/filesystem-test-fixture/links/file0");
+            }
+
+            @Override
+            public Map.Entry<Path, Path> getSymbolicLinksToExistingFile() {
+                return new AbstractMap.SimpleEntry<>(new Path("/home/xenon/filesystem-test-fixture/links/link0"),
+                        new Path("/home/xenon/filesystem-test-fixture/links/file0"));
+            }
+
+            @Override
+            public Path getWritableTestDir() {
+                return new Path("/tmp");
+            }
+
+            @Override
+            public Path getExpectedWorkingDirectory() {
+                return new Path("/");
+            }
+        };
+    }
+
+    @Override
+    public FileSystem setupFileSystem() throws XenonException {
+        Map<String, String> properties = new HashMap<>();
+        properties.put(CacheFileAdaptor.ADAPTOR, "memory");
+        return FileSystem.create("cache", STORE, new DefaultCredential(), properties);
+    }
+}
@@ -0,0 +1,344 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.filesystems.s3;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import nl.esciencecenter.xenon.XenonException;
+import nl.esciencecenter.xenon.adaptors.filesystems.FileSystemTestParent;
+import nl.esciencecenter.xenon.adaptors.filesystems.LocationConfig;
+import nl.esciencecenter.xenon.credentials.DefaultCredential;
+import nl.esciencecenter.xenon.credentials.PasswordCredential;
+import nl.esciencecenter.xenon.filesystems.CopyMode;
+import nl.esciencecenter.xenon.filesystems.CopyStatus;
+import nl.esciencecenter.xenon.filesystems.FileSystem;
+import nl.esciencecenter.xenon.filesystems.Path;
+import nl.esciencecenter.xenon.filesystems.PathAttributes;
+
+/**
+ * Runs the file system tests on a bucket of an in-process S3 stand-in.
+ */
+public class S3FileSystemTest extends FileSystemTestParent {
+
+    private static S3StandIn server;
+
+    @BeforeClass
+    public static void startServer() throws Exception {
+        server = new S3StandIn("xenon", "xenon-key");
+        server.setPageSize(7);
+        server.putObject("home/xenon/filesystem-test-fixture/links/", new byte[0]);
+        server.putObject("home/xenon/filesystem-test-fixture/links/file0", "Hello World\n".getBytes());
+        server.putObject("tmp/", new byte[0]);
+    }
+
+    @AfterClass
+    public static void stopServer() {
+        server.close();
+    }
+
+    @Override
+    protected LocationConfig setupLocationConfig(FileSystem fileSystem) {
+        return new LocationConfig() {
+            @Override
+            public Path getExistingPath() {
+                return new Path("/home/xenon/filesystem-test-fixture/links/file0");
+            }
+
+            @Override
+            public Map.Entry<Path, Path> getSymbolicLinksToExistingFile() {
+                throw new Error("Symlinks not supported on s3");
+            }
+
+            @Override
+            public Path getWritableTestDir() {
+                return new Path("/tmp");
+            }
+
+            @Override
+            public Path getExpectedWorkingDirectory() {
+                return new Path("/");
+            }
+        };
+    }
+
+    @Override
+    public FileSystem setupFileSystem() throws XenonException {
+        return FileSystem.create("s3", server.getLocation(), new PasswordCredential("xenon-key", "xenon-secret".toCharArray()));
+    }
+
+    private static FileSystem createFileSystem(Map<String, String> properties) throws XenonException {
+        return FileSystem.create("s3", server.getLocation(), new PasswordCredential("xenon-key", "xenon-secret".toCharArray()), properties);
+    }
+
+    private static byte[] randomData(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        try (InputStream tmp = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[64 * 1024];
+            for (int n = tmp.read(buffer); n >= 0; n = tmp.read(buffer)) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private static void write(FileSystem fs, Path path, byte[] data, boolean knownSize) throws Exception {
+        try (OutputStream out = knownSize ? fs.writeToFile(path, data.length) : fs.writeToFile(path)) {
+            // Write in uneven chunks, so parts are filled by several writes.
+            for (int off = 0; off < data.length; off += 100_000) {
+                out.write(data, off, Math.min(100_000, data.length - off));
+            }
+        }
+    }
+
+    @Test
+    public void test_writeToFile_small_singlePut() throws Exception {
+        try (FileSystem fs = createFileSystem(null)) {
+            server.resetCounts();
+            byte[] data = randomData(1000);
+            write(fs, new Path("/tmp/s3-small"), data, true);
+
+            assertEquals(1, server.getCount("PUT"));
+            assertEquals(0, server.getCount("INITIATE"));
+            assertArrayEquals(data, server.getObject("tmp/s3-small"));
+        }
+    }
+
+    @Test
+    public void test_writeToFile_large_parallelMultipartUpload() throws Exception {
+        Map<String, String> properties = new HashMap<>();
+        properties.put(S3FileAdaptor.PART_SIZE, "5M");
+        properties.put(S3FileAdaptor.PARALLEL_PARTS, "4");
+
+        try (FileSystem fs = createFileSystem(properties)) {
+            server.resetCounts();
+            server.setTransferDelay(100);
+
+            byte[] data = randomData(23 * 1024 * 1024);
+            write(fs, new Path("/tmp/s3-multipart"), data, true);
+
+            assertEquals(1, server.getCount("INITIATE"));
+            assertEquals(5, server.getCount("PART"));
+            assertEquals(1, server.getCount("COMPLETE"));
+            assertEquals(0, server.getCount("PUT"));
+            assertTrue("parts were not uploaded concurrently", server.getPeakTransfers() > 1);
+            assertArrayEquals(data, server.getObject("tmp/s3-multipart"));
+        } finally {
+            server.setTransferDelay(0);
+        }
+    }
+
+    @Test
+    public void test_writeToFile_unknownSize_multipartUpload() throws Exception {
+        Map<String, String> properties = new HashMap<>();
+        properties.put(S3FileAdaptor.PART_SIZE, "5M");
+
+        try (FileSystem fs = createFileSystem(properties)) {
+            server.resetCounts();
+
+            byte[] data = randomData(12 * 1024 * 1024);
+            write(fs, new Path("/tmp/s3-unknown"), data, false);
+
+            assertEquals(3, server.getCount("PART"));
+            assertArrayEquals(data, server.getObject("tmp/s3-unknown"));
+        }
+    }
+
+    @Test
+    public void test_writeToFile_failedPart_uploadAborted() throws Exception {
+        Map<String, String> properties = new HashMap<>();
+        properties.put(S3FileAdaptor.PART_SIZE, "5M");
+
+        try (FileSystem fs = createFileSystem(properties)) {
+            server.resetCounts();
+            server.setFailParts(true);
+
+            try {
+                write(fs, new Path("/tmp/s3-failed"), randomData(11 * 1024 * 1024), true);
+                fail("upload should have failed");
+            } catch (IOException e) {
+                // expected
+            }
+
+            assertEquals(1, server.getCount("ABORT"));
+            assertEquals(0, server.getCount("COMPLETE"));
+            assertEquals(0, server.getPendingUploads());
+            assertFalse(server.hasObject("tmp/s3-failed"));
+        } finally {
+            server.setFailParts(false);
+        }
+    }
+
+    @Test
+    public void test_copy_toOtherFileSystem_parallelRangedDownload() throws Exception {
+        Map<String, String> properties = new HashMap<>();
+        properties.put(S3FileAdaptor.SEGMENT_SIZE, "4M");
+        properties.put(S3FileAdaptor.PARALLEL_SEGMENTS, "4");
+
+        byte[] data = randomData(18 * 1024 * 1024);
+        server.putObject("tmp/s3-download", data);
+
+        try (FileSystem fs = createFileSystem(properties); FileSystem memory = FileSystem.create("memory")) {
+            server.resetCounts();
+            server.setTransferDelay(100);
+
+            CopyStatus status = fs.waitUntilDone(fs.copy(new Path("/tmp/s3-download"), memory, new Path("/download"), CopyMode.CREATE, false), 60000);
+
+            assertTrue(status.isDone());
+            assertNull(status.getException());
+            assertEquals(5, server.getCount("RANGE"));
+            assertEquals(0, server.getCount("GET"));
+            assertTrue("segments were not downloaded concurrently", server.getPeakTransfers() > 1);
+            assertArrayEquals(data, readAll(memory.readFromFile(new Path("/download"))));
+        } finally {
+            server.setTransferDelay(0);
+        }
+    }
+
+    @Test
+    public void test_readFromFile_offset_rangeRequest() throws Exception {
+        byte[] data = randomData(1000);
+        server.putObject("tmp/s3-offset", data);
+
+        try (FileSystem fs = createFileSystem(null)) {
+            server.resetCounts();
+
+            byte[] tail = readAll(fs.readFromFile(new Path("/tmp/s3-offset"), 600));
+
+            assertEquals(1, server.getCount("RANGE"));
+            assertEquals(400, tail.length);
+            assertEquals(data[600], tail[0]);
+        }
+    }
+
+    @Test
+    public void test_copy_sameBucket_serverSideCopy() throws Exception {
+        byte[] data = randomData(100_000);
+        server.putObject("tmp/s3-copy-source", data);
+
+        try (FileSystem source = createFileSystem(null); FileSystem target = createFileSystem(null)) {
+            server.resetCounts();
+
+            String copy = source.copy(new Path("/tmp/s3-copy-source"), target, new Path("/tmp/s3-copy-target"), CopyMode.CREATE, false);
+            CopyStatus status = source.waitUntilDone(copy, 60000);
+
+            assertNull(status.getException());
+            assertEquals(1, server.getCount("COPY"));
+            assertEquals(0, server.getCount("GET") + server.getCount("RANGE") + server.getCount("PUT"));
+            assertArrayEquals(data, server.getObject("tmp/s3-copy-target"));
+        }
+    }
+
+    @Test
+    public void test_copy_sync_sameContent_skipped() throws Exception {
+        byte[] data = randomData(100_000);
+        server.putObject("tmp/s3-sync-source", data);
+        server.putObject("tmp/s3-sync-target", data);
+
+        try (FileSystem fs = createFileSystem(null)) {
+            server.resetCounts();
+
+            CopyStatus status = fs.waitUntilDone(fs.copy(new Path("/tmp/s3-sync-source"), fs, new Path("/tmp/s3-sync-target"), CopyMode.SYNC, false), 60000);
+
+            assertNull(status.getException());
+            // The ETags show the content is the same, so nothing is copied.
+            assertEquals(0, server.getCount("COPY") + server.getCount("GET") + server.getCount("RANGE") + server.getCount("PUT"));
+        }
+    }
+
+    @Test
+    public void test_checksums_md5_fromListing() throws Exception {
+        server.putObject("tmp/s3-checksums/a", "Hello World!".getBytes());
+        server.putObject("tmp/s3-checksums/b/c", new byte[0]);
+
+        try (FileSystem fs = createFileSystem(null)) {
+            server.resetCounts();
+
+            Map<Path, String> result = fs.checksums(new Path("/tmp/s3-checksums"), "MD5", true);
+
+            assertEquals(2, result.size());
+            assertEquals("ed076287532e86365e841e92bfc50d8c", result.get(new Path("/tmp/s3-checksums/a")));
+            assertEquals("d41d8cd98f00b204e9800998ecf8427e", result.get(new Path("/tmp/s3-checksums/b/c")));
+            assertEquals(0, server.getCount("GET") + server.getCount("RANGE"));
+        }
+    }
+
+    @Test
+    public void test_list_recursive_prefixListing() throws Exception {
+        // Objects created by other tools do not have directory markers.
+        server.putObject("tmp/s3-list/a", new byte[1]);
+        server.putObject("tmp/s3-list/b/c", new byte[2]);
+        server.putObject("tmp/s3-list/b/d/e", new byte[3]);
+        server.putObject("tmp/s3-list/f/", new byte[0]);
+
+        try (FileSystem fs = createFileSystem(null)) {
+            server.resetCounts();
+            fs.list(new Path("/tmp/s3-list"), false);
+            int single = server.getCount("LIST");
+
+            server.resetCounts();
+
+            HashSet<String> result = new HashSet<>();
+
+            for (PathAttributes p : fs.list(new Path("/tmp/s3-list"), true)) {
+                result.add(p.getPath().toString() + (p.isDirectory() ? "/" : ""));
+            }
+
+            HashSet<String> expected = new HashSet<>();
+            expected.add("/tmp/s3-list/a");
+            expected.add("/tmp/s3-list/b/");
+            expected.add("/tmp/s3-list/b/c");
+            expected.add("/tmp/s3-list/b/d/");
+            expected.add("/tmp/s3-list/b/d/e");
+            expected.add("/tmp/s3-list/f/");
+
+            assertEquals(expected, result);
+
+            // All keys below the directory are retrieved with a single listing, instead of a listing per directory.
+            assertEquals(single, server.getCount("LIST"));
+        }
+    }
+
+    @Test(expected = XenonException.class)
+    public void test_anonymous_accessDenied() throws Exception {
+        try (FileSystem fs = FileSystem.create("s3", server.getLocation(), new DefaultCredential())) {
+            fs.list(new Path("/tmp"), false);
+        }
+    }
+}
@@ -0,0 +1,593 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.filesystems.s3;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.http.client.utils.DateUtils;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An in-process stand-in for an S3 server, serving a single bucket from memory.
+ *
+ * Supports the requests used by the s3 adaptor: HEAD, GET (including ranges and If-Match), PUT (including copies and parts), DELETE, multipart uploads
+ * and ListObjectsV2. Requests are counted per type, and the peak number of concurrent part uploads and range requests is recorded, so tests can check how
+ * the adaptor talks to the server. Signatures are not verified, but signed requests must use the expected access key.
+ */
+public class S3StandIn implements AutoCloseable {
+
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d*)");
+    private static final Pattern PART = Pattern.compile("<PartNumber>(\\d+)</PartNumber>\\s*<ETag>([^<]*)</ETag>");
+
+    private static class StoredObject {
+
+        final byte[] data;
+        final String etag;
+        final long lastModified;
+
+        StoredObject(byte[] data) {
+            this.data = data;
+            this.etag = "\"" + md5(data) + "\"";
+            // S3 reports times with a resolution of seconds in headers.
+            this.lastModified = (System.currentTimeMillis() / 1000) * 1000;
+        }
+    }
+
+    private final String bucket;
+    private final String accessKey;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    private final ConcurrentSkipListMap<String, StoredObject> objects = new ConcurrentSkipListMap<>();
+    private final ConcurrentHashMap<String, ConcurrentSkipListMap<Integer, StoredObject>> uploads = new ConcurrentHashMap<>();
+    private final AtomicInteger nextUpload = new AtomicInteger();
+
+    private final ConcurrentHashMap<String, AtomicInteger> counts = new ConcurrentHashMap<>();
+
+    private final AtomicInteger activeTransfers = new AtomicInteger();
+    private final AtomicInteger peakTransfers = new AtomicInteger();
+
+    private volatile int pageSize = 1000;
+    private volatile long transferDelay = 0;
+    private volatile boolean failParts = false;
+
+    /**
+     * @param bucket
+     *            the name of the bucket served.
+     * @param accessKey
+     *            the access key signed requests must use, or null to accept anonymous requests.
+     */
+    public S3StandIn(String bucket, String accessKey) throws IOException {
+        this.bucket = bucket;
+        this.accessKey = accessKey;
+
+        executor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "S3StandIn");
+            t.setDaemon(true);
+            return t;
+        });
+
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    public String getLocation() {
+        return "http://localhost:" + server.getAddress().getPort() + "/" + bucket;
+    }
+
+    /** The maximum number of keys returned in a single page of a listing. */
+    public void setPageSize(int pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    /** A delay added to each part upload and range request, to make concurrent transfers observable. */
+    public void setTransferDelay(long transferDelay) {
+        this.transferDelay = transferDelay;
+    }
+
+    /** Let all part uploads fail with an internal error. */
+    public void setFailParts(boolean failParts) {
+        this.failParts = failParts;
+    }
+
+    public void putObject(String key, byte[] data) {
+        objects.put(key, new StoredObject(data));
+    }
+
+    public byte[] getObject(String key) {
+        StoredObject o = objects.get(key);
+        return o == null ? null : o.data;
+    }
+
+    public boolean hasObject(String key) {
+        return objects.containsKey(key);
+    }
+
+    public int getPendingUploads() {
+        return uploads.size();
+    }
+
+    /**
+     * Get the number of requests of a type: HEAD, GET, RANGE, PUT, COPY, PART, INITIATE, COMPLETE, ABORT, LIST or DELETE.
+     */
+    public int getCount(String type) {
+        AtomicInteger c = counts.get(type);
+        return c == null ? 0 : c.get();
+    }
+
+    /**
+     * Get the peak number of part uploads and range requests that were handled concurrently.
+     */
+    public int getPeakTransfers() {
+        return peakTransfers.get();
+    }
+
+    public void resetCounts() {
+        counts.clear();
+        peakTransfers.set(0);
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private static String md5(byte[] data) {
+        try {
+            StringBuilder sb = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("MD5").digest(data)) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String decode(String s) {
+        try {
+            return URLDecoder.decode(s.replace("+", "%2B"), "UTF-8");
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    private static String escape(String s) {
+        return s.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[64 * 1024];
+        for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private void count(String type) {
+        counts.computeIfAbsent(type, t -> new AtomicInteger()).incrementAndGet();
+    }
+
+    private void startTransfer() {
+        int active = activeTransfers.incrementAndGet();
+        peakTransfers.accumulateAndGet(active, Math::max);
+
+        if (transferDelay > 0) {
+            try {
+                Thread.sleep(transferDelay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void endTransfer() {
+        activeTransfers.decrementAndGet();
+    }
+
+    private static void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+
+        if ("HEAD".equals(exchange.getRequestMethod()) || status == 204) {
+            // The JDK server resets a connection that is reused after a response that may not have a body, so tell the client not to reuse it.
+            exchange.getResponseHeaders().set("Connection", "close");
+        }
+
+        exchange.sendResponseHeaders(status, body == null || body.length == 0 ? -1 : body.length);
+        if (body != null && body.length > 0) {
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+        exchange.close();
+    }
+
+    private static void sendXml(HttpExchange exchange, int status, String xml) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/xml");
+        send(exchange, status, ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" + xml).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String code) throws IOException {
+        if ("HEAD".equals(exchange.getRequestMethod())) {
+            send(exchange, status, null);
+        } else {
+            sendXml(exchange, status, "<Error><Code>" + code + "</Code><Message>" + code + "</Message></Error>");
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            dispatch(exchange);
+        } catch (Exception e) {
+            sendError(exchange, 500, "InternalError");
+        }
+    }
+
+    private void dispatch(HttpExchange exchange) throws IOException {
+
+        if (accessKey != null) {
+            String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+
+            if (authorization == null || !authorization.startsWith("AWS4-HMAC-SHA256 Credential=" + accessKey + "/")
+                    || exchange.getRequestHeaders().getFirst("x-amz-date") == null) {
+                sendError(exchange, 403, "AccessDenied");
+                return;
+            }
+        }
+
+        String path = exchange.getRequestURI().getRawPath();
+
+        Map<String, String> query = new HashMap<>();
+        String rawQuery = exchange.getRequestURI().getRawQuery();
+
+        if (rawQuery != null) {
+            for (String p : rawQuery.split("&")) {
+                int index = p.indexOf('=');
+                query.put(decode(index < 0 ? p : p.substring(0, index)), index < 0 ? "" : decode(p.substring(index + 1)));
+            }
+        }
+
+        String prefix = "/" + bucket;
+
+        if (!path.equals(prefix) && !path.startsWith(prefix + "/")) {
+            sendError(exchange, 404, "NoSuchBucket");
+            return;
+        }
+
+        String key = path.length() > prefix.length() + 1 ? decode(path.substring(prefix.length() + 1)) : "";
+        String method = exchange.getRequestMethod();
+
+        if (key.isEmpty()) {
+            if ("GET".equals(method) && "2".equals(query.get("list-type"))) {
+                list(exchange, query);
+            } else {
+                sendError(exchange, 400, "InvalidRequest");
+            }
+            return;
+        }
+
+        switch (method) {
+        case "HEAD":
+        case "GET":
+            get(exchange, key);
+            break;
+        case "PUT":
+            if (query.containsKey("uploadId")) {
+                uploadPart(exchange, key, query);
+            } else if (exchange.getRequestHeaders().containsKey("x-amz-copy-source")) {
+                copy(exchange, key);
+            } else {
+                count("PUT");
+                objects.put(key, new StoredObject(readAll(exchange.getRequestBody())));
+                exchange.getResponseHeaders().set("ETag", objects.get(key).etag);
+                send(exchange, 200, null);
+            }
+            break;
+        case "POST":
+            if (query.containsKey("uploads")) {
+                count("INITIATE");
+                String id = "upload-" + nextUpload.incrementAndGet();
+                uploads.put(id, new ConcurrentSkipListMap<>());
+                sendXml(exchange, 200, "<InitiateMultipartUploadResult><Bucket>" + bucket + "</Bucket><Key>" + escape(key) + "</Key><UploadId>" + id
+                        + "</UploadId></InitiateMultipartUploadResult>");
+            } else if (query.containsKey("uploadId")) {
+                complete(exchange, key, query.get("uploadId"));
+            } else {
+                sendError(exchange, 400, "InvalidRequest");
+            }
+            break;
+        case "DELETE":
+            if (query.containsKey("uploadId")) {
+                count("ABORT");
+                uploads.remove(query.get("uploadId"));
+            } else {
+                count("DELETE");
+                objects.remove(key);
+            }
+            send(exchange, 204, null);
+            break;
+        default:
+            sendError(exchange, 405, "MethodNotAllowed");
+        }
+    }
+
+    private void get(HttpExchange exchange, String key) throws IOException {
+
+        StoredObject o = objects.get(key);
+
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        boolean head = "HEAD".equals(exchange.getRequestMethod());
+
+        count(head ? "HEAD" : range == null ? "GET" : "RANGE");
+
+        if (o == null) {
+            sendError(exchange, 404, "NoSuchKey");
+            return;
+        }
+
+        String ifMatch = exchange.getRequestHeaders().getFirst("If-Match");
+
+        if (ifMatch != null && !ifMatch.equals(o.etag)) {
+            sendError(exchange, 412, "PreconditionFailed");
+            return;
+        }
+
+        exchange.getResponseHeaders().set("ETag", o.etag);
+        exchange.getResponseHeaders().set("Last-Modified", DateUtils.formatDate(new java.util.Date(o.lastModified)));
+        exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+
+        if (head) {
+            exchange.getResponseHeaders().set("Content-Length", Integer.toString(o.data.length));
+            send(exchange, 200, null);
+            return;
+        }
+
+        if (range == null) {
+            send(exchange, 200, o.data);
+            return;
+        }
+
+        Matcher m = RANGE.matcher(range);
+
+        if (!m.matches()) {
+            send(exchange, 200, o.data);
+            return;
+        }
+
+        long start = Long.parseLong(m.group(1));
+        long end = m.group(2).isEmpty() ? o.data.length - 1 : Math.min(Long.parseLong(m.group(2)), o.data.length - 1);
+
+        if (start >= o.data.length) {
+            sendError(exchange, 416, "InvalidRange");
+            return;
+        }
+
+        startTransfer();
+
+        try {
+            byte[] body = new byte[(int) (end - start + 1)];
+            System.arraycopy(o.data, (int) start, body, 0, body.length);
+            exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + o.data.length);
+            send(exchange, 206, body);
+        } finally {
+            endTransfer();
+        }
+    }
+
+    private void copy(HttpExchange exchange, String key) throws IOException {
+
+        count("COPY");
+
+        String source = decode(exchange.getRequestHeaders().getFirst("x-amz-copy-source"));
+
+        if (source.startsWith("/")) {
+            source = source.substring(1);
+        }
+
+        if (!source.startsWith(bucket + "/")) {
+            sendError(exchange, 404, "NoSuchBucket");
+            return;
+        }
+
+        StoredObject o = objects.get(source.substring(bucket.length() + 1));
+
+        if (o == null) {
+            sendError(exchange, 404, "NoSuchKey");
+            return;
+        }
+
+        StoredObject copy = new StoredObject(o.data);
+        objects.put(key, copy);
+
+        sendXml(exchange, 200, "<CopyObjectResult><LastModified>" + Instant.ofEpochMilli(copy.lastModified) + "</LastModified><ETag>" + escape(copy.etag)
+                + "</ETag></CopyObjectResult>");
+    }
+
+    private void uploadPart(HttpExchange exchange, String key, Map<String, String> query) throws IOException {
+
+        count("PART");
+
+        ConcurrentSkipListMap<Integer, StoredObject> parts = uploads.get(query.get("uploadId"));
+
+        if (failParts) {
+            readAll(exchange.getRequestBody());
+            sendError(exchange, 500, "InternalError");
+            return;
+        }
+
+        if (parts == null) {
+            sendError(exchange, 404, "NoSuchUpload");
+            return;
+        }
+
+        startTransfer();
+
+        try {
+            StoredObject part = new StoredObject(readAll(exchange.getRequestBody()));
+            parts.put(Integer.parseInt(query.get("partNumber")), part);
+            exchange.getResponseHeaders().set("ETag", part.etag);
+            send(exchange, 200, null);
+        } finally {
+            endTransfer();
+        }
+    }
+
+    private void complete(HttpExchange exchange, String key, String uploadId) throws IOException {
+
+        count("COMPLETE");
+
+        ConcurrentSkipListMap<Integer, StoredObject> parts = uploads.get(uploadId);
+
+        if (parts == null) {
+            sendError(exchange, 404, "NoSuchUpload");
+            return;
+        }
+
+        String body = new String(readAll(exchange.getRequestBody()), StandardCharsets.UTF_8);
+
+        Matcher m = PART.matcher(body);
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        int expected = 1;
+
+        while (m.find()) {
+            StoredObject part = parts.get(Integer.parseInt(m.group(1)));
+
+            if (expected++ != Integer.parseInt(m.group(1)) || part == null || !part.etag.equals(m.group(2).replace("&quot;", "\""))) {
+                sendError(exchange, 400, "InvalidPart");
+                return;
+            }
+
+            data.write(part.data);
+        }
+
+        uploads.remove(uploadId);
+        objects.put(key, new StoredObject(data.toByteArray()));
+
+        sendXml(exchange, 200, "<CompleteMultipartUploadResult><Bucket>" + bucket + "</Bucket><Key>" + escape(key) + "</Key><ETag>"
+                + escape(objects.get(key).etag) + "</ETag></CompleteMultipartUploadResult>");
+    }
+
+    private void list(HttpExchange exchange, Map<String, String> query) throws IOException {
+
+        count("LIST");
+
+        String prefix = query.getOrDefault("prefix", "");
+        String delimiter = query.get("delimiter");
+        String token = query.get("continuation-token");
+        int max = Math.min(pageSize, Integer.parseInt(query.getOrDefault("max-keys", "1000")));
+
+        // The token is the last key returned ("K"), or the last common prefix returned ("P"), whose keys must all be skipped.
+        String skip = token != null && token.startsWith("P") ? token.substring(1) : null;
+
+        NavigableMap<String, StoredObject> tail = token == null ? objects.tailMap(prefix, true) : objects.tailMap(token.substring(1), false);
+
+        List<Map.Entry<String, StoredObject>> contents = new ArrayList<>();
+        TreeMap<String, Boolean> prefixes = new TreeMap<>();
+        String last = null;
+        boolean truncated = false;
+
+        for (Map.Entry<String, StoredObject> e : tail.entrySet()) {
+
+            String key = e.getKey();
+
+            if (!key.startsWith(prefix)) {
+                break;
+            }
+
+            if (skip != null && key.startsWith(skip)) {
+                continue;
+            }
+
+            String common = null;
+
+            if (delimiter != null && !delimiter.isEmpty()) {
+                int index = key.indexOf(delimiter, prefix.length());
+
+                if (index >= 0) {
+                    common = key.substring(0, index + delimiter.length());
+                }
+            }
+
+            if (common != null && prefixes.containsKey(common)) {
+                continue;
+            }
+
+            if (contents.size() + prefixes.size() == max) {
+                truncated = true;
+                break;
+            }
+
+            if (common != null) {
+                prefixes.put(common, Boolean.TRUE);
+                last = "P" + common;
+            } else {
+                contents.add(e);
+                last = "K" + key;
+            }
+        }
+
+        StringBuilder xml = new StringBuilder("<ListBucketResult xmlns=\"http://s3.amazonaws.com/doc/2006-03-01/\">");
+        xml.append("<Name>").append(bucket).append("</Name><Prefix>").append(escape(prefix)).append("</Prefix>");
+        xml.append("<KeyCount>").append(contents.size() + prefixes.size()).append("</KeyCount><MaxKeys>").append(max).append("</MaxKeys>");
+        xml.append("<IsTruncated>").append(truncated).append("</IsTruncated>");
+
+        for (Map.Entry<String, StoredObject> e : contents) {
+            xml.append("<Contents><Key>").append(escape(e.getKey())).append("</Key><LastModified>").append(Instant.ofEpochMilli(e.getValue().lastModified))
+                    .append("</LastModified><ETag>").append(escape(e.getValue().etag)).append("</ETag><Size>").append(e.getValue().data.length)
+                    .append("</Size><StorageClass>STANDARD</StorageClass></Contents>");
+        }
+
+        for (String p : prefixes.keySet()) {
+            xml.append("<CommonPrefixes><Prefix>").append(escape(p)).append("</Prefix></CommonPrefixes>");
+        }
+
+        if (truncated) {
+            xml.append("<NextContinuationToken>").append(escape(last)).append("</NextContinuationToken>");
+        }
+
+        xml.append("</ListBucketResult>");
+
+        sendXml(exchange, 200, xml.toString());
+    }
+}
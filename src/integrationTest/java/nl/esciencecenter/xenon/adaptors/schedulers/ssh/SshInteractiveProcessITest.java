@@ -40,7 +40,7 @@ public abstract class SshInteractiveProcessITest {
     @Test
     public void test_run_hostname() throws Exception {
         SshClient client = SSHUtil.createSSHClient(false, false, false, false, false);
-        SSHConnection conn = SSHUtil.connect("test", client, getLocation(), getCorrectCredential(), 0, 10 * 1000);
+        SSHConnection conn = SSHUtil.connect("test", client, getLocation(), getCorrectCredential(), 10 * 1000);
 
         JobDescription desc = new JobDescription();
         desc.setExecutable("/bin/hostname");
@@ -75,7 +75,7 @@ public abstract class SshInteractiveProcessITest {
     @Test
     public void test_run_cat() throws Exception {
         SshClient client = SSHUtil.createSSHClient(false, false, false, false, false);
-        SSHConnection conn = SSHUtil.connect("test", client, getLocation(), getCorrectCredential(), 0, 10 * 1000);
+        SSHConnection conn = SSHUtil.connect("test", client, getLocation(), getCorrectCredential(), 10 * 1000);
 
         JobDescription desc = new JobDescription();
         desc.setExecutable("/bin/cat");
@@ -111,7 +111,7 @@ public abstract class SshInteractiveProcessITest {
     @Test
     public void test_exitStatusBeforeFinish() throws Exception {
         SshClient client = SSHUtil.createSSHClient(false, false, false, false, false);
-        SSHConnection conn = SSHUtil.connect("test", client, getLocation(), getCorrectCredential(), 0, 10 * 1000);
+        SSHConnection conn = SSHUtil.connect("test", client, getLocation(), getCorrectCredential(), 10 * 1000);
 
         JobDescription desc = new JobDescription();
         desc.setExecutable("/bin/sleep");
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.filesystems;
+
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import nl.esciencecenter.xenon.XenonException;
+
+/**
+ * Benchmarks of the copy engine and listing code on the <code>memory</code> adaptor. As no I/O is performed, the results show the overhead of Xenon itself.
+ * Run with <code>./gradlew jmh -Pbenchmarks=MemoryFileSystemBenchmark</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MemoryFileSystemBenchmark {
+
+    /** Number of files in the source tree */
+    @Param({ "100", "1000" })
+    public int files;
+
+    /** Size of each file in bytes */
+    @Param({ "1024", "65536" })
+    public int fileSize;
+
+    private FileSystem fs;
+
+    private final Path source = new Path("/source");
+    private final Path target = new Path("/target");
+
+    @Setup
+    public void setup() throws Exception {
+        fs = FileSystem.create("memory");
+
+        byte[] data = new byte[fileSize];
+
+        for (int i = 0; i < files; i++) {
+            Path dir = source.resolve("dir" + (i % 10));
+
+            if (!fs.exists(dir)) {
+                fs.createDirectories(dir);
+            }
+
+            try (OutputStream out = fs.writeToFile(dir.resolve("file" + i), data.length)) {
+                out.write(data);
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws XenonException {
+        fs.close();
+    }
+
+    @TearDown(Level.Invocation)
+    public void removeCopy() throws XenonException {
+        if (fs.exists(target)) {
+            fs.delete(target, true);
+        }
+    }
+
+    /**
+     * Recursively list the source tree.
+     */
+    @Benchmark
+    public void listRecursive(Blackhole bh) throws XenonException {
+        for (PathAttributes a : fs.list(source, true)) {
+            bh.consume(a);
+        }
+    }
+
+    /**
+     * Recursively copy the source tree through the copy engine.
+     */
+    @Benchmark
+    public CopyStatus copyRecursive() throws XenonException {
+        String id = fs.copy(source, fs, target, CopyMode.CREATE, true);
+        CopyStatus status = fs.waitUntilDone(id, Long.MAX_VALUE);
+        status.maybeThrowException();
+        return status;
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.filesystems;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks of the {@link Path} operations performed for every entry of a recursive listing or copy. Run with <code>./gradlew jmh</code>, which also
+ * reports the number of bytes allocated per operation (<code>gc.alloc.rate.norm</code>).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PathBenchmark {
+
+    /** Number of elements in the directory paths */
+    @Param({ "4", "12" })
+    public int depth;
+
+    private Path workingDirectory;
+    private Path directory;
+    private Path destination;
+    private Path relative;
+    private String[] names;
+
+    @Setup
+    public void setup() {
+        StringBuilder tmp = new StringBuilder();
+
+        for (int i = 0; i < depth; i++) {
+            tmp.append("/directory").append(i);
+        }
+
+        directory = new Path(tmp.toString());
+        workingDirectory = directory.getParent();
+        destination = new Path("/scratch/copy");
+        relative = new Path(directory.getFileNameAsString());
+
+        names = new String[100];
+
+        for (int i = 0; i < names.length; i++) {
+            names[i] = "file-" + i + ".dat";
+        }
+    }
+
+    /**
+     * Create the path of each entry of a directory listing, as done by the adaptors.
+     */
+    @Benchmark
+    public void listEntries(Blackhole bh) {
+        for (String name : names) {
+            bh.consume(directory.resolve(name));
+        }
+    }
+
+    /**
+     * Walk up from each entry of a directory listing to its parent and compare them, as done by recursive operations.
+     */
+    @Benchmark
+    public void parentOfEntries(Blackhole bh) {
+        for (String name : names) {
+            Path entry = directory.resolve(name);
+            bh.consume(entry.getParent().equals(directory));
+        }
+    }
+
+    /**
+     * Make a path absolute and normalize it, as done at the start of every file system operation.
+     */
+    @Benchmark
+    public Path toAbsolutePath() {
+        return workingDirectory.resolve(relative).normalize();
+    }
+
+    /**
+     * Map each entry of a directory listing to the destination of a copy.
+     */
+    @Benchmark
+    public void copyDestinations(Blackhole bh) {
+        for (String name : names) {
+            Path entry = directory.resolve(name);
+            bh.consume(destination.resolve(directory.relativize(entry)));
+        }
+    }
+
+    /**
+     * Convert the entries of a directory listing to Strings, as done when the paths are passed to a remote server, and use them as keys.
+     */
+    @Benchmark
+    public void entryStrings(Blackhole bh) {
+        for (String name : names) {
+            Path entry = directory.resolve(name);
+            bh.consume(entry.toString());
+            bh.consume(entry.toString());
+            bh.consume(entry.hashCode());
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.filesystems;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+
+/**
+ * ChecksumUtils contains several utility functions related to file checksums.
+ */
+public class ChecksumUtils {
+
+    /** The MD5 algorithm */
+    public static final String MD5 = "MD5";
+
+    /** The SHA-1 algorithm */
+    public static final String SHA1 = "SHA-1";
+
+    /** The SHA-256 algorithm */
+    public static final String SHA256 = "SHA-256";
+
+    /** The SHA-512 algorithm */
+    public static final String SHA512 = "SHA-512";
+
+    private ChecksumUtils() {
+        // utility class
+    }
+
+    /**
+     * Convert the name of a checksum algorithm to the name used by {@link MessageDigest}. Names are case insensitive, and the dash in the SHA names is
+     * optional, so <code>sha256</code> is the same algorithm as <code>SHA-256</code>.
+     *
+     * @param algorithm
+     *            the name of the algorithm.
+     * @return the canonical name of the algorithm.
+     * @throws IllegalArgumentException
+     *             if the algorithm is null or not supported by the platform.
+     */
+    public static String getCanonicalName(String algorithm) {
+
+        if (algorithm == null) {
+            throw new IllegalArgumentException("Algorithm is null");
+        }
+
+        String name = algorithm.trim().toUpperCase(Locale.ROOT);
+
+        if (name.matches("SHA\\d+")) {
+            name = "SHA-" + name.substring(3);
+        }
+
+        // Validate the name.
+        createDigest(name);
+        return name;
+    }
+
+    /**
+     * Create a digest for an algorithm.
+     *
+     * @param algorithm
+     *            the canonical name of the algorithm.
+     * @return a new digest.
+     * @throws IllegalArgumentException
+     *             if the algorithm is not supported by the platform.
+     */
+    public static MessageDigest createDigest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("Unsupported checksum algorithm: " + algorithm, e);
+        }
+    }
+
+    /**
+     * Convert a digest to a lower case hexadecimal string.
+     *
+     * @param digest
+     *            the digest to convert.
+     * @return the hexadecimal representation of the digest.
+     */
+    public static String toHex(byte[] digest) {
+
+        StringBuilder sb = new StringBuilder(digest.length * 2);
+
+        for (byte b : digest) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Compute the checksum of all data in a stream. The stream is not closed.
+     *
+     * @param in
+     *            the stream to read.
+     * @param algorithm
+     *            the canonical name of the algorithm.
+     * @param bufferSize
+     *            the size of the buffer used to read the stream.
+     * @return the checksum, as a lower case hexadecimal string.
+     * @throws IOException
+     *             if the stream could not be read.
+     */
+    public static String checksum(InputStream in, String algorithm, int bufferSize) throws IOException {
+
+        MessageDigest digest = createDigest(algorithm);
+        byte[] buffer = new byte[bufferSize];
+
+        for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+            digest.update(buffer, 0, n);
+        }
+
+        return toHex(digest.digest());
+    }
+}
@@ -81,6 +81,18 @@ public abstract class FileAdaptor extends Adaptor implements FileSystemAdaptorDe
         return false;
     }
 
+    @Override
+    public boolean canWriteAtOffset() {
+        // By default, adaptors cannot write at an offset.
+        return false;
+    }
+
+    @Override
+    public boolean canOpenWritableChannel() {
+        // By default, adaptors only offer read-only channels.
+        return false;
+    }
+
     public abstract FileSystem createFileSystem(String location, Credential credential, Map<String, String> properties)
             throws XenonException;
 }
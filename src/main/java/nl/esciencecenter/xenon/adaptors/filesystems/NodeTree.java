@@ -0,0 +1,280 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.filesystems;
+
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import nl.esciencecenter.xenon.XenonException;
+import nl.esciencecenter.xenon.filesystems.DirectoryNotEmptyException;
+import nl.esciencecenter.xenon.filesystems.InvalidPathException;
+import nl.esciencecenter.xenon.filesystems.NoSuchPathException;
+import nl.esciencecenter.xenon.filesystems.Path;
+import nl.esciencecenter.xenon.filesystems.PathAlreadyExistsException;
+
+/**
+ * A directory tree of nodes kept by a file system adaptor, such as the memory and archive adaptors.
+ *
+ * The tree resolves absolute, normalized paths to nodes, following symbolic links wherever they occur in a path. The structure of the tree is protected by a
+ * read-write lock, which must be held while the tree is searched or changed. The adaptor defines the nodes, and tells the tree which nodes are directories and
+ * which are symbolic links.
+ *
+ * @param <N>
+ *            the type of the nodes in the tree
+ * @param <D>
+ *            the type of the directory nodes in the tree
+ */
+public abstract class NodeTree<N, D extends N> {
+
+    /** Maximum number of symbolic links followed while resolving a single path */
+    public static final int MAX_LINK_DEPTH = 40;
+
+    private static final Path ROOT = new Path("/");
+
+    private final String adaptorName;
+    private final D root;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    protected NodeTree(String adaptorName, D root) {
+        this.adaptorName = adaptorName;
+        this.root = root;
+    }
+
+    /**
+     * Return the node as a directory, or null if it is not a directory.
+     */
+    protected abstract D asDirectory(N node);
+
+    /**
+     * Return the entries of a directory.
+     */
+    protected abstract Map<String, N> getChildren(D dir);
+
+    /**
+     * Return the target of a symbolic link, or null if the node is not a symbolic link.
+     */
+    protected abstract Path getLinkTarget(N node);
+
+    /**
+     * Called when a node has been added to or removed from a directory. The caller holds the write lock.
+     */
+    protected void changed(D dir) {
+        // Nothing to do by default.
+    }
+
+    public D getRoot() {
+        return root;
+    }
+
+    public ReentrantReadWriteLock.ReadLock readLock() {
+        return lock.readLock();
+    }
+
+    public ReentrantReadWriteLock.WriteLock writeLock() {
+        return lock.writeLock();
+    }
+
+    /**
+     * Find the node of an absolute, normalized path. Symbolic links in the path are followed, except for the last element if followLast is false. Returns null
+     * if the path does not exist. The caller must hold the (read) lock.
+     */
+    public N find(Path path, boolean followLast) throws XenonException {
+        return find(path, followLast, 0);
+    }
+
+    private N find(Path path, boolean followLast, int depth) throws XenonException {
+
+        N current = root;
+        Path parent = ROOT;
+
+        int count = path.getNameCount();
+        int index = 0;
+
+        // Iterating over a path returns its prefixes, the last element of which is the name of the next node.
+        for (Path prefix : path) {
+
+            index++;
+
+            D dir = asDirectory(current);
+
+            if (dir == null) {
+                return null;
+            }
+
+            String name = prefix.getFileNameAsString();
+
+            current = getChildren(dir).get(name);
+
+            if (current == null) {
+                return null;
+            }
+
+            Path target = getLinkTarget(current);
+
+            if (target != null && (followLast || index < count)) {
+
+                if (depth >= MAX_LINK_DEPTH) {
+                    throw new InvalidPathException(adaptorName, "Too many levels of symbolic links: " + path);
+                }
+
+                target = target.isAbsolute() ? target.normalize() : parent.resolve(target).normalize();
+                current = find(target, true, depth + 1);
+
+                if (current == null) {
+                    return null;
+                }
+
+                parent = target;
+            } else {
+                parent = parent.resolve(name);
+            }
+        }
+
+        return current;
+    }
+
+    /**
+     * Return the directory containing path, following symbolic links. The caller must hold the lock.
+     */
+    public D findParent(Path path) throws XenonException {
+
+        Path parent = path.getParent();
+
+        if (parent == null) {
+            // A single element path is located in the root directory.
+            parent = ROOT;
+        }
+
+        N node = find(parent, true);
+
+        if (node == null) {
+            throw new NoSuchPathException(adaptorName, "Parent directory does not exist: " + parent);
+        }
+
+        D dir = asDirectory(node);
+
+        if (dir == null) {
+            throw new InvalidPathException(adaptorName, "Parent is not a directory: " + parent);
+        }
+
+        return dir;
+    }
+
+    /**
+     * Return the node of an existing path. The caller must hold the lock.
+     */
+    public N getNode(Path path, boolean followLast) throws XenonException {
+
+        N node = find(path, followLast);
+
+        if (node == null) {
+            throw new NoSuchPathException(adaptorName, "Path does not exist: " + path);
+        }
+
+        return node;
+    }
+
+    /**
+     * Add a new node to the tree. The write lock is taken by this method.
+     */
+    public void insert(Path path, N node) throws XenonException {
+
+        Lock l = writeLock();
+        l.lock();
+
+        try {
+            if (path.isEmpty()) {
+                throw new PathAlreadyExistsException(adaptorName, "Path already exists: " + path);
+            }
+
+            D parent = findParent(path);
+            Map<String, N> children = getChildren(parent);
+
+            String name = path.getFileNameAsString();
+
+            if (children.containsKey(name)) {
+                throw new PathAlreadyExistsException(adaptorName, "Path already exists: " + path);
+            }
+
+            children.put(name, node);
+            changed(parent);
+        } finally {
+            l.unlock();
+        }
+    }
+
+    /**
+     * Remove a node from the tree. A directory can only be removed if it is empty. The write lock is taken by this method.
+     *
+     * @return the node that was removed
+     */
+    public N remove(Path path) throws XenonException {
+
+        Lock l = writeLock();
+        l.lock();
+
+        try {
+            if (path.isEmpty()) {
+                throw new InvalidPathException(adaptorName, "Cannot delete the root directory");
+            }
+
+            D parent = findParent(path);
+            Map<String, N> children = getChildren(parent);
+
+            String name = path.getFileNameAsString();
+
+            N node = children.get(name);
+
+            if (node == null) {
+                throw new NoSuchPathException(adaptorName, "Path does not exist: " + path);
+            }
+
+            D dir = asDirectory(node);
+
+            if (dir != null && !getChildren(dir).isEmpty()) {
+                throw new DirectoryNotEmptyException(adaptorName, "Directory not empty: " + path);
+            }
+
+            children.remove(name);
+            changed(parent);
+            return node;
+        } finally {
+            l.unlock();
+        }
+    }
+
+    /**
+     * Return if node is dir itself, or is located somewhere below dir. The caller must hold the lock.
+     */
+    public boolean contains(D dir, N node) {
+
+        if (dir == node) {
+            return true;
+        }
+
+        for (N child : getChildren(dir).values()) {
+
+            D childDir = asDirectory(child);
+
+            if (childDir != null && contains(childDir, node)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.filesystems;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * An {@link InputStream} that downloads a file as a sequence of range requests, several of which are performed in parallel.
+ *
+ * The first segment is streamed directly from its response. The following segments are prefetched into memory by an executor, at most
+ * <code>parallel - 1</code> at a time, and returned in order. All requests carry the same precondition headers, so the segments are guaranteed to come
+ * from the same version of the file.
+ */
+public class SegmentedInputStream extends InputStream {
+
+    /**
+     * Performs the range requests of a {@link SegmentedInputStream}.
+     */
+    public interface RangeReader {
+
+        /**
+         * Retrieve part of a file.
+         *
+         * @param url
+         *            the URL (or other identifier) of the file.
+         * @param start
+         *            the offset of the first byte to retrieve.
+         * @param end
+         *            the offset of the last byte to retrieve (inclusive), or -1 to retrieve the rest of the file.
+         * @param headers
+         *            additional headers to send with the request.
+         * @return a stream containing the requested data, or <code>null</code> if the server does not support range requests.
+         * @throws IOException
+         *             if the request failed.
+         */
+        InputStream getRange(String url, long start, long end, Map<String, String> headers) throws IOException;
+    }
+
+    private final RangeReader client;
+    private final String url;
+    private final long size;
+    private final int segmentSize;
+    private final int window;
+    private final Map<String, String> headers;
+    private final ExecutorService executor;
+
+    private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+
+    /** Offset of the next segment to submit */
+    private long nextOffset;
+
+    private InputStream current;
+
+    /** Number of bytes expected and read from the current segment */
+    private long currentExpected;
+    private long currentRead;
+
+    private boolean closed = false;
+
+    /**
+     * Create a new SegmentedInputStream.
+     *
+     * @param client
+     *            the client used to perform the range requests.
+     * @param url
+     *            the URL of the file.
+     * @param size
+     *            the size of the file.
+     * @param segmentSize
+     *            the size of each segment.
+     * @param parallel
+     *            the number of requests to perform in parallel (at least 2).
+     * @param headers
+     *            the precondition headers to send with each request.
+     * @param executor
+     *            the executor used to prefetch the segments.
+     * @param first
+     *            the stream containing the first segment.
+     */
+    public SegmentedInputStream(RangeReader client, String url, long size, int segmentSize, int parallel, Map<String, String> headers, ExecutorService executor,
+            InputStream first) {
+        this.client = client;
+        this.url = url;
+        this.size = size;
+        this.segmentSize = segmentSize;
+        this.window = Math.max(1, parallel - 1);
+        this.headers = headers;
+        this.executor = executor;
+
+        current = first;
+        currentExpected = Math.min(segmentSize, size);
+        currentRead = 0;
+        nextOffset = currentExpected;
+
+        fillWindow();
+    }
+
+    private void fillWindow() {
+        while (pending.size() < window && nextOffset < size) {
+            final long start = nextOffset;
+            final int length = (int) Math.min(segmentSize, size - start);
+            pending.add(executor.submit(() -> readSegment(start, length)));
+            nextOffset += length;
+        }
+    }
+
+    private byte[] readSegment(long start, int length) throws IOException {
+
+        InputStream in = client.getRange(url, start, start + length - 1, headers);
+
+        if (in == null) {
+            throw new IOException("Server does not support range requests: " + url);
+        }
+
+        try {
+            byte[] data = new byte[length];
+            int off = 0;
+
+            while (off < length) {
+                int n = in.read(data, off, length - off);
+
+                if (n < 0) {
+                    throw new IOException("Unexpected end of segment at offset " + (start + off) + " of " + url);
+                }
+
+                off += n;
+            }
+
+            return data;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Move to the next segment once the current one has been read completely. If there are no more segments, <code>current</code> is set to
+     * <code>null</code>.
+     */
+    private void nextSegment() throws IOException {
+
+        if (currentRead < currentExpected) {
+            throw new IOException("Unexpected end of segment of " + url + ": got " + currentRead + " of " + currentExpected + " bytes");
+        }
+
+        current.close();
+
+        Future<byte[]> f = pending.poll();
+
+        if (f == null) {
+            current = null;
+            return;
+        }
+
+        byte[] data;
+
+        try {
+            data = f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while downloading " + url);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Failed to download " + url, e.getCause());
+        }
+
+        fillWindow();
+
+        current = new ByteArrayInputStream(data);
+        currentExpected = data.length;
+        currentRead = 0;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] tmp = new byte[1];
+        int n = read(tmp, 0, 1);
+        return n < 0 ? -1 : tmp[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+
+        if (len == 0) {
+            return 0;
+        }
+
+        while (current != null) {
+            int n = current.read(b, off, len);
+
+            if (n >= 0) {
+                currentRead += n;
+                return n;
+            }
+
+            nextSegment();
+        }
+
+        return -1;
+    }
+
+    @Override
+    public void close() throws IOException {
+
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+
+        for (Future<byte[]> f : pending) {
+            f.cancel(true);
+        }
+
+        pending.clear();
+
+        if (current != null) {
+            current.close();
+        }
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.filesystems;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+
+import nl.esciencecenter.xenon.XenonException;
+import nl.esciencecenter.xenon.filesystems.FileSystem;
+import nl.esciencecenter.xenon.filesystems.Path;
+
+/**
+ * A read-only {@link SeekableByteChannel} on top of {@link FileSystem#readFromFile(Path, long)}.
+ *
+ * A stream is opened at the current position when data is first read. Sequential reads continue on the same stream. A small forward seek skips data on
+ * the open stream, while any other seek closes it, so the next read opens a new stream at the new position. This makes random access efficient for
+ * adaptors that implement <code>readFromFile(Path, long)</code> natively.
+ */
+public class StreamBackedByteChannel implements SeekableByteChannel {
+
+    private final FileSystem fileSystem;
+    private final Path path;
+    private final long size;
+    private final int bufferSize;
+
+    private InputStream in;
+
+    /** The position of the next read on the channel */
+    private long position = 0;
+
+    /** The position of the next read on the stream */
+    private long streamPosition = 0;
+
+    private boolean open = true;
+
+    public StreamBackedByteChannel(FileSystem fileSystem, Path path, long size, int bufferSize) {
+        this.fileSystem = fileSystem;
+        this.path = path;
+        this.size = size;
+        this.bufferSize = bufferSize;
+    }
+
+    private void assertOpen() throws ClosedChannelException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    private void closeStream() throws IOException {
+        if (in != null) {
+            InputStream tmp = in;
+            in = null;
+            tmp.close();
+        }
+    }
+
+    private void positionStream() throws IOException {
+
+        if (in != null && position > streamPosition && position - streamPosition <= bufferSize) {
+            // Cheaper to skip a little data than to open a new stream.
+            while (streamPosition < position) {
+                long n = in.skip(position - streamPosition);
+
+                if (n <= 0) {
+                    break;
+                }
+
+                streamPosition += n;
+            }
+        }
+
+        if (in != null && streamPosition == position) {
+            return;
+        }
+
+        closeStream();
+
+        try {
+            in = fileSystem.readFromFile(path, position);
+        } catch (XenonException e) {
+            throw new IOException("Failed to read from " + path, e);
+        }
+
+        streamPosition = position;
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer dst) throws IOException {
+
+        assertOpen();
+
+        if (position >= size) {
+            return -1;
+        }
+
+        if (!dst.hasRemaining()) {
+            return 0;
+        }
+
+        positionStream();
+
+        int len = (int) Math.min(dst.remaining(), size - position);
+        int n;
+
+        if (dst.hasArray()) {
+            n = in.read(dst.array(), dst.arrayOffset() + dst.position(), len);
+
+            if (n > 0) {
+                dst.position(dst.position() + n);
+            }
+        } else {
+            byte[] tmp = new byte[Math.min(len, bufferSize)];
+            n = in.read(tmp);
+
+            if (n > 0) {
+                dst.put(tmp, 0, n);
+            }
+        }
+
+        if (n < 0) {
+            return -1;
+        }
+
+        position += n;
+        streamPosition += n;
+        return n;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        assertOpen();
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public synchronized long position() throws IOException {
+        assertOpen();
+        return position;
+    }
+
+    @Override
+    public synchronized SeekableByteChannel position(long newPosition) throws IOException {
+
+        assertOpen();
+
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("Position may not be negative: " + newPosition);
+        }
+
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        assertOpen();
+        return size;
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) throws IOException {
+        assertOpen();
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public synchronized boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (open) {
+            open = false;
+            closeStream();
+        }
+    }
+}
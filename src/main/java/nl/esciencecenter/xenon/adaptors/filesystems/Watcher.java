@@ -0,0 +1,27 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.filesystems;
+
+/**
+ * A Watcher delivers the changes to a watched directory to a {@link nl.esciencecenter.xenon.filesystems.WatchListener} until it is stopped.
+ */
+public interface Watcher {
+
+    /**
+     * Stop delivering changes. No events are delivered after this method returns, except for an event that is being delivered at that moment.
+     */
+    void stop();
+}
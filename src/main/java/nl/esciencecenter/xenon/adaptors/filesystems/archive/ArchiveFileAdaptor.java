@@ -0,0 +1,296 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.filesystems.archive;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import nl.esciencecenter.xenon.InvalidLocationException;
+import nl.esciencecenter.xenon.InvalidPropertyException;
+import nl.esciencecenter.xenon.XenonException;
+import nl.esciencecenter.xenon.XenonPropertyDescription;
+import nl.esciencecenter.xenon.XenonPropertyDescription.Type;
+import nl.esciencecenter.xenon.adaptors.XenonProperties;
+import nl.esciencecenter.xenon.adaptors.filesystems.FileAdaptor;
+import nl.esciencecenter.xenon.credentials.Credential;
+import nl.esciencecenter.xenon.credentials.DefaultCredential;
+import nl.esciencecenter.xenon.filesystems.FileSystem;
+import nl.esciencecenter.xenon.filesystems.InvalidPathException;
+import nl.esciencecenter.xenon.filesystems.NoSuchPathException;
+import nl.esciencecenter.xenon.filesystems.Path;
+import nl.esciencecenter.xenon.filesystems.PathAttributes;
+
+/**
+ * ArchiveFileAdaptor implements a Xenon <code>Files</code> adaptor for the content of a zip, tar or gzip compressed tar archive.
+ *
+ * The archive itself is stored on another file system, which is created using the adaptor, location and credential given to this adaptor. The location of
+ * this adaptor is the path of the archive on that file system. If the archive does not exist, a new archive is created when the file system is closed.
+ * Properties of the underlying adaptor can be passed along with the properties of this adaptor.
+ */
+public class ArchiveFileAdaptor extends FileAdaptor {
+
+    /** Name of the archive adaptor is defined in the engine. */
+    public static final String ADAPTOR_NAME = "archive";
+
+    /** Archive properties start with this prefix. */
+    public static final String PREFIX = FileAdaptor.ADAPTORS_PREFIX + ADAPTOR_NAME + ".";
+
+    /** Description of the adaptor */
+    public static final String ADAPTOR_DESCRIPTION = "This is the archive file adaptor that implements file functionality for the content of zip and"
+            + " tar files.";
+
+    /** The adaptor of the file system containing the archive. */
+    public static final String ADAPTOR = PREFIX + "adaptor";
+
+    /** The location of the file system containing the archive. */
+    public static final String LOCATION = PREFIX + "location";
+
+    /** The format of the archive. */
+    public static final String FORMAT = PREFIX + "format";
+
+    /** The buffer size to use when copying data. */
+    public static final String BUFFER_SIZE = PREFIX + "bufferSize";
+
+    /** The locations supported by the adaptor */
+    private static final String[] ADAPTOR_LOCATIONS = new String[] { "path/to/archive.zip", "path/to/archive.tar", "path/to/archive.tar.gz",
+            "path/to/archive.tgz" };
+
+    /** Counter for the IDs of file systems created on a file system that is already open */
+    private static final AtomicLong NESTED_ID = new AtomicLong();
+
+    /** List of properties supported by this archive adaptor */
+    private static final XenonPropertyDescription[] VALID_PROPERTIES = new XenonPropertyDescription[] {
+            new XenonPropertyDescription(ADAPTOR, Type.STRING, "file", "The adaptor of the file system containing the archive."),
+            new XenonPropertyDescription(LOCATION, Type.STRING, "", "The location of the file system containing the archive."),
+            new XenonPropertyDescription(FORMAT, Type.STRING, "auto",
+                    "The format of the archive: \"zip\", \"tar\", \"tgz\" or \"auto\" to derive the format from the file name."),
+            new XenonPropertyDescription(BUFFER_SIZE, Type.SIZE, "64K", "The buffer size to use when copying files (in bytes).") };
+
+    public ArchiveFileAdaptor() {
+        super(ADAPTOR_NAME, ADAPTOR_DESCRIPTION, ADAPTOR_LOCATIONS, VALID_PROPERTIES);
+    }
+
+    @Override
+    public boolean canCreateSymboliclinks() {
+        return true;
+    }
+
+    @Override
+    public boolean supportsReadingPosixPermissions() {
+        return true;
+    }
+
+    @Override
+    public boolean supportsSettingPosixPermissions() {
+        return true;
+    }
+
+    @Override
+    public boolean canWriteAtOffset() {
+        return false;
+    }
+
+    @Override
+    public boolean canOpenWritableChannel() {
+        return false;
+    }
+
+    @SuppressWarnings("rawtypes")
+    @Override
+    public Class[] getSupportedCredentials() {
+        // The credential is passed on to the file system containing the archive.
+        return new Class[] { Credential.class };
+    }
+
+    private static String getFormat(XenonProperties xp, Path archive) throws XenonException {
+
+        String format = xp.getStringProperty(FORMAT);
+
+        switch (format) {
+        case "zip":
+        case "tar":
+        case "tgz":
+            return format;
+        case "auto":
+            break;
+        default:
+            throw new InvalidPropertyException(ADAPTOR_NAME, "Invalid value for " + FORMAT + ": " + format);
+        }
+
+        String name = archive.getFileNameAsString();
+
+        if (name != null) {
+            name = name.toLowerCase();
+
+            if (name.endsWith(".zip") || name.endsWith(".jar")) {
+                return "zip";
+            } else if (name.endsWith(".tar")) {
+                return "tar";
+            } else if (name.endsWith(".tar.gz") || name.endsWith(".tgz")) {
+                return "tgz";
+            }
+        }
+
+        throw new InvalidLocationException(ADAPTOR_NAME, "Cannot determine the archive format of " + archive + ", please set " + FORMAT);
+    }
+
+    private static int getBufferSize(XenonProperties xp) throws XenonException {
+
+        long size = xp.getSizeProperty(BUFFER_SIZE);
+
+        if (size <= 0 || size >= Integer.MAX_VALUE) {
+            throw new InvalidPropertyException(ADAPTOR_NAME,
+                    "Invalid value for " + BUFFER_SIZE + ": " + size + " (must be between 1 and " + Integer.MAX_VALUE + ")");
+        }
+
+        return (int) size;
+    }
+
+    /*
+     * Split the properties in those of this adaptor and those of the file system containing the archive.
+     */
+    private static Map<String, String> split(Map<String, String> properties, Map<String, String> baseProperties) {
+
+        HashMap<String, String> result = new HashMap<>();
+
+        if (properties != null) {
+            for (Map.Entry<String, String> e : properties.entrySet()) {
+                if (e.getKey().startsWith(PREFIX)) {
+                    result.put(e.getKey(), e.getValue());
+                } else {
+                    baseProperties.put(e.getKey(), e.getValue());
+                }
+            }
+        }
+
+        return result;
+    }
+
+    @Override
+    public FileSystem createFileSystem(String location, Credential credential, Map<String, String> properties) throws XenonException {
+
+        if (location == null || location.isEmpty()) {
+            throw new InvalidLocationException(ADAPTOR_NAME, "Location may not be empty");
+        }
+
+        HashMap<String, String> baseProperties = new HashMap<>();
+
+        XenonProperties xp = new XenonProperties(VALID_PROPERTIES, split(properties, baseProperties));
+
+        FileSystem base = FileSystem.create(xp.getStringProperty(ADAPTOR), xp.getStringProperty(LOCATION),
+                credential == null ? new DefaultCredential() : credential, baseProperties);
+
+        try {
+            Path archive = new Path(base.getPathSeparator().charAt(0), location);
+            return open(base, true, getNewUniqueID(), location, credential, base.getWorkingDirectory().resolve(archive), xp);
+        } catch (XenonException | RuntimeException e) {
+            base.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Create a file system on the content of an archive stored on a file system that is already open. The file system containing the archive is not closed
+     * when the returned file system is closed.
+     *
+     * @param base
+     *            the file system containing the archive.
+     * @param archive
+     *            the path of the archive on <code>base</code>.
+     * @param properties
+     *            optional properties of this adaptor, may be <code>null</code>.
+     * @return the file system on the content of the archive.
+     * @throws XenonException
+     *             if the archive could not be opened.
+     */
+    public static FileSystem createFileSystem(FileSystem base, Path archive, Map<String, String> properties) throws XenonException {
+
+        if (base == null) {
+            throw new IllegalArgumentException("Base file system may not be null");
+        }
+
+        if (archive == null) {
+            throw new IllegalArgumentException("Archive may not be null");
+        }
+
+        XenonProperties xp = new XenonProperties(VALID_PROPERTIES, properties);
+
+        Path absArchive = base.getWorkingDirectory().resolve(archive).normalize();
+
+        return open(base, false, ADAPTOR_NAME + ".nested." + NESTED_ID.getAndIncrement(), absArchive.toString(), new DefaultCredential(), absArchive, xp);
+    }
+
+    private static FileSystem open(FileSystem base, boolean closeBase, String uniqueID, String location, Credential credential, Path archive,
+            XenonProperties xp) throws XenonException {
+
+        String formatName = getFormat(xp, archive);
+        int bufferSize = getBufferSize(xp);
+
+        boolean exists = base.exists(archive);
+
+        if (exists) {
+            PathAttributes attributes = base.getAttributes(archive);
+
+            if (!attributes.isRegular()) {
+                throw new InvalidPathException(ADAPTOR_NAME, "Archive is not a file: " + archive);
+            }
+        } else {
+            Path parent = archive.getParent();
+
+            if (parent != null && !base.exists(parent)) {
+                throw new NoSuchPathException(ADAPTOR_NAME, "Directory containing the archive does not exist: " + parent);
+            }
+        }
+
+        ArchiveFormat format;
+
+        if ("zip".equals(formatName)) {
+            format = new ZipArchiveFormat(exists ? base.openChannel(archive, false) : null);
+        } else {
+            boolean appendable = FileSystem.getAdaptorDescription(base.getAdaptorName()).canOpenWritableChannel();
+            format = new TarArchiveFormat(base, archive, "tgz".equals(formatName), appendable, bufferSize);
+        }
+
+        ArchiveTree tree = new ArchiveTree();
+
+        if (exists) {
+            try {
+                format.load(tree);
+            } catch (IOException e) {
+                closeQuietly(format);
+
+                if (e.getCause() instanceof XenonException) {
+                    throw (XenonException) e.getCause();
+                }
+
+                throw new XenonException(ADAPTOR_NAME, "Failed to read archive " + archive, e);
+            }
+        }
+
+        // A new archive is written when the file system is closed, even if it remains empty.
+        return new ArchiveFileSystem(uniqueID, location, credential, base, closeBase, archive, format, tree, !exists, bufferSize, xp);
+    }
+
+    private static void closeQuietly(ArchiveFormat format) {
+        try {
+            format.close();
+        } catch (IOException e) {
+            // ignored
+        }
+    }
+}
@@ -0,0 +1,752 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.filesystems.archive;
+
+import static nl.esciencecenter.xenon.adaptors.filesystems.archive.ArchiveFileAdaptor.ADAPTOR_NAME;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+
+import nl.esciencecenter.xenon.XenonException;
+import nl.esciencecenter.xenon.adaptors.XenonProperties;
+import nl.esciencecenter.xenon.adaptors.filesystems.PathAttributesImplementation;
+import nl.esciencecenter.xenon.adaptors.filesystems.PosixFileUtils;
+import nl.esciencecenter.xenon.adaptors.filesystems.archive.ArchiveTree.DirectoryNode;
+import nl.esciencecenter.xenon.adaptors.filesystems.archive.ArchiveTree.FileNode;
+import nl.esciencecenter.xenon.adaptors.filesystems.archive.ArchiveTree.LinkNode;
+import nl.esciencecenter.xenon.adaptors.filesystems.archive.ArchiveTree.Node;
+import nl.esciencecenter.xenon.credentials.Credential;
+import nl.esciencecenter.xenon.filesystems.FileSystem;
+import nl.esciencecenter.xenon.filesystems.InvalidPathException;
+import nl.esciencecenter.xenon.filesystems.NoSuchPathException;
+import nl.esciencecenter.xenon.filesystems.Path;
+import nl.esciencecenter.xenon.filesystems.PathAlreadyExistsException;
+import nl.esciencecenter.xenon.filesystems.PathAttributes;
+import nl.esciencecenter.xenon.filesystems.PosixFilePermission;
+
+/**
+ * A file system on the content of a zip or tar archive, which itself is stored on another file system.
+ *
+ * The index of the archive is read when the file system is created, after which directories can be listed without accessing the archive. Changes to the
+ * tree are kept in memory, while the data written to files is staged in local temporary files. The archive is rewritten when the file system is closed.
+ * New files added to an uncompressed tar archive are appended to the archive directly where possible, so adding files does not require a rewrite.
+ */
+public class ArchiveFileSystem extends FileSystem {
+
+    private static final Path ROOT = new Path("/");
+
+    private final FileSystem base;
+    private final boolean closeBase;
+    private final Path archive;
+    private final ArchiveFormat format;
+    private final ArchiveTree tree;
+
+    private volatile boolean open = true;
+
+    /** Set when the archive must be rewritten on close */
+    private volatile boolean modified;
+
+    /** The local directory containing the staged data of changed files, or null if nothing has been staged */
+    private java.nio.file.Path staging;
+
+    protected ArchiveFileSystem(String uniqueID, String location, Credential credential, FileSystem base, boolean closeBase, Path archive,
+            ArchiveFormat format, ArchiveTree tree, boolean modified, int bufferSize, XenonProperties properties) {
+        super(uniqueID, ADAPTOR_NAME, location, credential, ROOT, bufferSize, properties);
+        this.base = base;
+        this.closeBase = closeBase;
+        this.archive = archive;
+        this.format = format;
+        this.tree = tree;
+        this.modified = modified;
+    }
+
+    /*
+     * Return the node of an existing file, following symbolic links.
+     */
+    private FileNode getFileNode(Path path) throws XenonException {
+
+        Lock lock = tree.readLock();
+        lock.lock();
+
+        try {
+            Node node = tree.getNode(path, true);
+
+            if (!(node instanceof FileNode)) {
+                throw new InvalidPathException(ADAPTOR_NAME, "Path is not a file: " + path);
+            }
+
+            return (FileNode) node;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Remove a node from the tree.
+     */
+    private void remove(Path path) throws XenonException {
+        tree.remove(path);
+        modified = true;
+    }
+
+    /*
+     * Remove a new file from the tree after the data could not be written to it. The file is left alone if it was replaced or moved in the meantime.
+     */
+    private void discard(Path path, FileNode node) {
+
+        Lock lock = tree.writeLock();
+        lock.lock();
+
+        try {
+            DirectoryNode parent = tree.findParent(path);
+            String name = path.getFileNameAsString();
+
+            if (parent.children.get(name) == node) {
+                parent.children.remove(name);
+            }
+        } catch (XenonException e) {
+            // The parent directory is gone, and the file with it.
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private PathAttributes getAttributes(Path path, Node node) {
+
+        PathAttributesImplementation result = new PathAttributesImplementation();
+
+        int mode = node.mode;
+
+        result.setPath(path);
+        result.setDirectory(node instanceof DirectoryNode);
+        result.setRegular(node instanceof FileNode);
+        result.setSymbolicLink(node instanceof LinkNode);
+        result.setOther(false);
+        result.setHidden(path.getFileNameAsString() != null && path.getFileNameAsString().startsWith("."));
+
+        result.setReadable((mode & PosixFileUtils.READ_OWNER) != 0);
+        result.setWritable((mode & PosixFileUtils.WRITE_OWNER) != 0);
+        result.setExecutable((mode & PosixFileUtils.EXEC_OWNER) != 0);
+
+        result.setCreationTime(node.lastModifiedTime);
+        result.setLastAccessTime(node.lastModifiedTime);
+        result.setLastModifiedTime(node.lastModifiedTime);
+
+        if (node instanceof FileNode) {
+            result.setSize(((FileNode) node).size);
+        }
+
+        result.setOwner(node.owner);
+        result.setGroup(node.group);
+        result.setPermissions(PosixFileUtils.bitsToPermissions(mode));
+
+        return result;
+    }
+
+    private XenonException toXenonException(String message, IOException e) {
+
+        if (e.getCause() instanceof XenonException) {
+            return (XenonException) e.getCause();
+        }
+
+        return new XenonException(ADAPTOR_NAME, message, e);
+    }
+
+    /*
+     * Create a new local file to stage the data of a file in. The files are kept in a temporary directory, which is removed when the file system is closed.
+     */
+    private synchronized java.nio.file.Path createStagingFile() throws IOException {
+
+        if (staging == null) {
+            staging = Files.createTempDirectory("xenon-archive-");
+        }
+
+        return Files.createTempFile(staging, "member-", ".tmp");
+    }
+
+    private static void deleteStagingFile(java.nio.file.Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            // The file is removed with the staging directory on close.
+        }
+    }
+
+    private synchronized void deleteStagingDirectory() throws IOException {
+
+        if (staging == null) {
+            return;
+        }
+
+        try (DirectoryStream<java.nio.file.Path> files = Files.newDirectoryStream(staging)) {
+            for (java.nio.file.Path file : files) {
+                Files.deleteIfExists(file);
+            }
+        }
+
+        Files.deleteIfExists(staging);
+        staging = null;
+    }
+
+    /*
+     * Open the current content of a file.
+     */
+    private InputStream openContent(FileNode node) throws IOException {
+
+        java.nio.file.Path staged = node.staged;
+
+        if (staged != null) {
+            return Files.newInputStream(staged);
+        }
+
+        if (node.archived == null) {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+
+        return format.open(node.archived);
+    }
+
+    /*
+     * Collects the data written to a file in a local staging file, and stores it in the file when closed. When appending, the current content of the file is
+     * copied to the staging file first. New files are appended to the archive in place if the format supports this.
+     */
+    private class StagingOutputStream extends FilterOutputStream {
+
+        private final String name;
+        private final FileNode node;
+        private final java.nio.file.Path file;
+        private final boolean append;
+
+        private boolean closed = false;
+
+        StagingOutputStream(String name, FileNode node, java.nio.file.Path file, boolean append) throws IOException {
+            super(new BufferedOutputStream(Files.newOutputStream(file), getBufferSize()));
+            this.name = name;
+            this.node = node;
+            this.file = file;
+            this.append = append;
+
+            if (append) {
+                try (InputStream in = openContent(node)) {
+                    copy(in, out);
+                } catch (IOException e) {
+                    out.close();
+                    deleteStagingFile(file);
+                    throw e;
+                }
+            }
+        }
+
+        @Override
+        public synchronized void write(int b) throws IOException {
+            out.write(b);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+
+            if (closed) {
+                return;
+            }
+
+            closed = true;
+
+            boolean staged = false;
+
+            try {
+                out.close();
+
+                long length = Files.size(file);
+
+                if (!append && format.canAppend() && appendInPlace(length)) {
+                    return;
+                }
+
+                java.nio.file.Path old = node.stage(file, length);
+                staged = true;
+                modified = true;
+
+                if (old != null) {
+                    deleteStagingFile(old);
+                }
+            } finally {
+                if (!staged) {
+                    deleteStagingFile(file);
+                }
+            }
+        }
+
+        /*
+         * Append the staged data to the archive in place. Returns false if this is not possible, in which case the data stays staged.
+         */
+        private boolean appendInPlace(long length) {
+
+            try (OutputStream archived = format.append(name, node, length)) {
+
+                if (archived == null) {
+                    return false;
+                }
+
+                Files.copy(file, archived);
+                return true;
+            } catch (IOException e) {
+                // The format has restored the end of the archive. Keep the data staged, and rewrite the archive on close instead.
+                return false;
+            }
+        }
+    }
+
+    /*
+     * Passes the data of a new file directly to the archive. If the file cannot be added, it is removed from the tree again, and the archive is rewritten on
+     * close in case it was left in an inconsistent state.
+     */
+    private class AppendOutputStream extends FilterOutputStream {
+
+        private final Path path;
+        private final FileNode node;
+
+        private boolean closed = false;
+
+        AppendOutputStream(Path path, FileNode node, OutputStream out) {
+            super(out);
+            this.path = path;
+            this.node = node;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+
+            if (closed) {
+                return;
+            }
+
+            closed = true;
+
+            try {
+                out.close();
+            } catch (IOException e) {
+                discard(path, node);
+                modified = true;
+                throw e;
+            }
+        }
+    }
+
+    private void copy(InputStream in, OutputStream out) throws IOException {
+
+        byte[] buffer = new byte[getBufferSize()];
+
+        int n = in.read(buffer);
+
+        while (n >= 0) {
+            out.write(buffer, 0, n);
+            n = in.read(buffer);
+        }
+    }
+
+    @Override
+    public boolean isOpen() throws XenonException {
+        return open;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * If the content of the archive was changed, the archive is rewritten. The new archive is written next to the existing one, and replaces it when
+     * complete. The existing archive is kept until the new one has been put in its place.
+     */
+    @Override
+    public void close() throws XenonException {
+
+        synchronized (this) {
+            if (!open) {
+                return;
+            }
+
+            open = false;
+        }
+
+        try {
+            if (modified) {
+                writeArchive();
+            } else {
+                format.close();
+            }
+        } catch (IOException e) {
+            throw toXenonException("Failed to close archive " + archive, e);
+        } finally {
+            try {
+                deleteStagingDirectory();
+            } catch (IOException e) {
+                // Best effort, the directory is in the temporary directory of the system.
+            } finally {
+                try {
+                    if (closeBase) {
+                        base.close();
+                    }
+                } finally {
+                    super.close();
+                }
+            }
+        }
+    }
+
+    private Path sibling(String suffix) {
+        return archive.resolveSibling(new Path(archive.getFileNameAsString() + suffix));
+    }
+
+    private void writeArchive() throws XenonException, IOException {
+
+        List<Map.Entry<String, Node>> entries;
+
+        Lock lock = tree.readLock();
+        lock.lock();
+
+        try {
+            entries = tree.entries();
+        } finally {
+            lock.unlock();
+        }
+
+        Path tmp = sibling(".tmp");
+
+        if (base.exists(tmp)) {
+            base.delete(tmp, false);
+        }
+
+        try (OutputStream out = new BufferedOutputStream(base.writeToFile(tmp), getBufferSize())) {
+            format.write(entries, out);
+        } catch (IOException | XenonException e) {
+            format.close();
+            base.delete(tmp, false);
+            throw e;
+        }
+
+        format.close();
+
+        if (!base.exists(archive)) {
+            base.rename(tmp, archive);
+            return;
+        }
+
+        // Move the existing archive aside rather than deleting it, so it can be restored if the new archive cannot be put in its place.
+        Path old = sibling(".old");
+
+        if (base.exists(old)) {
+            base.delete(old, false);
+        }
+
+        base.rename(archive, old);
+
+        try {
+            base.rename(tmp, archive);
+        } catch (XenonException e) {
+            base.rename(old, archive);
+            throw e;
+        }
+
+        base.delete(old, false);
+    }
+
+    @Override
+    public void rename(Path source, Path target) throws XenonException {
+
+        assertIsOpen();
+
+        Path absSource = toAbsolutePath(source);
+        Path absTarget = toAbsolutePath(target);
+
+        if (areSamePaths(absSource, absTarget)) {
+            return;
+        }
+
+        if (absSource.isEmpty()) {
+            throw new InvalidPathException(ADAPTOR_NAME, "Cannot rename the root directory");
+        }
+
+        Lock lock = tree.writeLock();
+        lock.lock();
+
+        try {
+            DirectoryNode sourceParent = tree.findParent(absSource);
+            String sourceName = absSource.getFileNameAsString();
+            Node node = sourceParent.children.get(sourceName);
+
+            if (node == null) {
+                throw new NoSuchPathException(ADAPTOR_NAME, "Source does not exist: " + absSource);
+            }
+
+            if (absTarget.isEmpty() || tree.find(absTarget, false) != null) {
+                throw new PathAlreadyExistsException(ADAPTOR_NAME, "Target already exists: " + absTarget);
+            }
+
+            DirectoryNode targetParent = tree.findParent(absTarget);
+
+            if (node instanceof DirectoryNode && tree.contains((DirectoryNode) node, targetParent)) {
+                throw new InvalidPathException(ADAPTOR_NAME, "Cannot move directory " + absSource + " into itself: " + absTarget);
+            }
+
+            sourceParent.children.remove(sourceName);
+            targetParent.children.put(absTarget.getFileNameAsString(), node);
+            modified = true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void createDirectory(Path dir) throws XenonException {
+        assertIsOpen();
+        tree.insert(toAbsolutePath(dir), new DirectoryNode());
+        modified = true;
+    }
+
+    @Override
+    public void createFile(Path file) throws XenonException {
+        assertIsOpen();
+        tree.insert(toAbsolutePath(file), new FileNode());
+        modified = true;
+    }
+
+    @Override
+    public void createSymbolicLink(Path link, Path target) throws XenonException {
+
+        assertIsOpen();
+
+        if (target == null) {
+            throw new IllegalArgumentException("Target is null");
+        }
+
+        tree.insert(toAbsolutePath(link), new LinkNode(target));
+        modified = true;
+    }
+
+    @Override
+    protected void deleteFile(Path file) throws XenonException {
+        remove(file);
+    }
+
+    @Override
+    protected void deleteDirectory(Path dir) throws XenonException {
+        remove(dir);
+    }
+
+    @Override
+    public boolean exists(Path path) throws XenonException {
+
+        assertIsOpen();
+
+        Path absPath = toAbsolutePath(path);
+
+        Lock lock = tree.readLock();
+        lock.lock();
+
+        try {
+            return tree.find(absPath, false) != null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    protected List<PathAttributes> listDirectory(Path dir) throws XenonException {
+
+        assertIsOpen();
+
+        Lock lock = tree.readLock();
+        lock.lock();
+
+        try {
+            Node node = tree.getNode(dir, true);
+
+            if (!(node instanceof DirectoryNode)) {
+                throw new InvalidPathException(ADAPTOR_NAME, "Path is not a directory: " + dir);
+            }
+
+            ArrayList<PathAttributes> result = new ArrayList<>(((DirectoryNode) node).children.size());
+
+            for (Map.Entry<String, Node> entry : ((DirectoryNode) node).children.entrySet()) {
+                result.add(getAttributes(dir.resolve(entry.getKey()), entry.getValue()));
+            }
+
+            return result;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public InputStream readFromFile(Path file) throws XenonException {
+
+        assertIsOpen();
+
+        Path absFile = toAbsolutePath(file);
+
+        FileNode node = getFileNode(absFile);
+
+        try {
+            return openContent(node);
+        } catch (IOException e) {
+            throw toXenonException("Failed to read " + absFile + " from archive " + archive, e);
+        }
+    }
+
+    @Override
+    public OutputStream writeToFile(Path file, long size) throws XenonException {
+
+        assertIsOpen();
+
+        Path absFile = toAbsolutePath(file);
+
+        FileNode node = new FileNode();
+        tree.insert(absFile, node);
+
+        String name = absFile.toRelativePath().toString();
+
+        if (size >= 0 && format.canAppend()) {
+            try {
+                OutputStream out = format.append(name, node, size);
+
+                if (out != null) {
+                    return new AppendOutputStream(absFile, node, out);
+                }
+            } catch (IOException e) {
+                discard(absFile, node);
+                modified = true;
+                throw toXenonException("Failed to append " + absFile + " to archive " + archive, e);
+            }
+        }
+
+        try {
+            return new StagingOutputStream(name, node, createStagingFile(), false);
+        } catch (IOException e) {
+            discard(absFile, node);
+            throw toXenonException("Failed to stage " + absFile + " for archive " + archive, e);
+        }
+    }
+
+    @Override
+    public OutputStream writeToFile(Path file) throws XenonException {
+        return writeToFile(file, -1);
+    }
+
+    @Override
+    public OutputStream appendToFile(Path file) throws XenonException {
+
+        assertIsOpen();
+
+        Path absFile = toAbsolutePath(file);
+
+        FileNode node = getFileNode(absFile);
+
+        try {
+            return new StagingOutputStream(absFile.toRelativePath().toString(), node, createStagingFile(), true);
+        } catch (IOException e) {
+            throw toXenonException("Failed to read " + absFile + " from archive " + archive, e);
+        }
+    }
+
+    @Override
+    public PathAttributes getAttributes(Path path) throws XenonException {
+
+        assertIsOpen();
+
+        Path absPath = toAbsolutePath(path);
+
+        Lock lock = tree.readLock();
+        lock.lock();
+
+        try {
+            return getAttributes(absPath, tree.getNode(absPath, false));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Path readSymbolicLink(Path link) throws XenonException {
+
+        assertIsOpen();
+
+        Path absLink = toAbsolutePath(link);
+
+        Lock lock = tree.readLock();
+        lock.lock();
+
+        try {
+            Node node = tree.getNode(absLink, false);
+
+            if (!(node instanceof LinkNode)) {
+                throw new InvalidPathException(ADAPTOR_NAME, "Not a symbolic link: " + absLink);
+            }
+
+            Path target = ((LinkNode) node).target;
+
+            if (target.isAbsolute()) {
+                return target;
+            }
+
+            Path parent = absLink.getParent();
+            return parent == null ? ROOT.resolve(target) : parent.resolve(target);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void setPosixFilePermissions(Path path, Set<PosixFilePermission> permissions) throws XenonException {
+
+        if (permissions == null) {
+            throw new IllegalArgumentException("Permissions is null!");
+        }
+
+        assertIsOpen();
+
+        Path absPath = toAbsolutePath(path);
+
+        Lock lock = tree.writeLock();
+        lock.lock();
+
+        try {
+            Node node = tree.getNode(absPath, true);
+            node.mode = PosixFileUtils.permissionsToBits(permissions);
+            modified = true;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.filesystems.archive;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import nl.esciencecenter.xenon.adaptors.filesystems.archive.ArchiveTree.FileNode;
+import nl.esciencecenter.xenon.adaptors.filesystems.archive.ArchiveTree.Node;
+
+/**
+ * The on-disk format of an archive. A format reads the index of an existing archive into an {@link ArchiveTree}, reads the data of the entries, and writes a
+ * complete archive from a tree.
+ */
+abstract class ArchiveFormat implements Closeable {
+
+    /**
+     * The location of the data of a file in the archive.
+     */
+    abstract static class Data {
+
+        /** The position of the entry in the archive */
+        final int ordinal;
+
+        Data(int ordinal) {
+            this.ordinal = ordinal;
+        }
+    }
+
+    /**
+     * Read the index of the archive into the tree. Not called for a new archive.
+     */
+    abstract void load(ArchiveTree tree) throws IOException;
+
+    /**
+     * Open the data of a file in the archive.
+     */
+    abstract InputStream open(Data data) throws IOException;
+
+    /**
+     * Write a complete archive containing the entries in the tree. The data of files that are still in this archive is read from it.
+     */
+    abstract void write(List<Map.Entry<String, Node>> entries, OutputStream out) throws IOException;
+
+    /**
+     * Return if new files can be appended to the archive in place, so it does not have to be rewritten.
+     */
+    boolean canAppend() {
+        return false;
+    }
+
+    /**
+     * Append a new file of the given size to the archive in place. The file is added when the returned stream is closed.
+     */
+    OutputStream append(String name, FileNode node, long size) throws IOException {
+        throw new IOException("Appending to the archive is not supported");
+    }
+
+    /**
+     * Copy the staged data of a file to the new archive. Nothing is written for an empty file.
+     */
+    static void writeStaged(FileNode file, OutputStream out) throws IOException {
+
+        java.nio.file.Path staged = file.staged;
+
+        if (staged != null) {
+            Files.copy(staged, out);
+        }
+    }
+
+    /**
+     * Return the entries in the order in which they should be written: directories, links and new files first, followed by the files that are still in
+     * this archive in the order in which they are stored. This allows the old archive to be read sequentially while the new one is written.
+     */
+    static List<Map.Entry<String, Node>> inWriteOrder(List<Map.Entry<String, Node>> entries) {
+
+        ArrayList<Map.Entry<String, Node>> result = new ArrayList<>(entries.size());
+        ArrayList<Map.Entry<String, Node>> archived = new ArrayList<>();
+
+        for (Map.Entry<String, Node> e : entries) {
+            if (e.getValue() instanceof FileNode && ((FileNode) e.getValue()).archived != null) {
+                archived.add(e);
+            } else {
+                result.add(e);
+            }
+        }
+
+        archived.sort(Comparator.comparingInt(e -> ((FileNode) e.getValue()).archived.ordinal));
+        result.addAll(archived);
+        return result;
+    }
+}
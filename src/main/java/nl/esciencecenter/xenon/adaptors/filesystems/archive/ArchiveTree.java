@@ -0,0 +1,207 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.filesystems.archive;
+
+import static nl.esciencecenter.xenon.adaptors.filesystems.archive.ArchiveFileAdaptor.ADAPTOR_NAME;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import nl.esciencecenter.xenon.adaptors.filesystems.NodeTree;
+import nl.esciencecenter.xenon.filesystems.Path;
+
+/**
+ * The directory tree of an archive, built from the entries in the archive and changed in memory while the archive is open.
+ *
+ * The structure of the tree is protected by a read-write lock, which must be held while the tree is searched or changed.
+ */
+class ArchiveTree extends NodeTree<ArchiveTree.Node, ArchiveTree.DirectoryNode> {
+
+    /** Default permissions of a new file (rw-r--r--) */
+    static final int FILE_MODE = 0644;
+
+    /** Default permissions of a new directory (rwxr-xr-x) */
+    static final int DIRECTORY_MODE = 0755;
+
+    /** Permissions of a symbolic link (rwxrwxrwx) */
+    static final int LINK_MODE = 0777;
+
+    abstract static class Node {
+
+        volatile int mode;
+        volatile long lastModifiedTime = System.currentTimeMillis();
+        volatile String owner;
+        volatile String group;
+
+        Node(int mode) {
+            this.mode = mode;
+        }
+    }
+
+    static class DirectoryNode extends Node {
+
+        final TreeMap<String, Node> children = new TreeMap<>();
+
+        DirectoryNode() {
+            super(DIRECTORY_MODE);
+        }
+    }
+
+    static class FileNode extends Node {
+
+        /** The entry in the archive containing the data, or null if the data is staged */
+        volatile ArchiveFormat.Data archived;
+
+        /** A local file containing the data written since the archive was opened, or null if the data is in the archive or the file is empty */
+        volatile java.nio.file.Path staged;
+
+        volatile long size;
+
+        FileNode(ArchiveFormat.Data archived, long size) {
+            super(FILE_MODE);
+            this.archived = archived;
+            this.size = size;
+        }
+
+        /** Create a new, empty file */
+        FileNode() {
+            super(FILE_MODE);
+        }
+
+        /** Replace the data of the file with the content of a local file. Returns the previously staged file, if any, which is no longer used. */
+        java.nio.file.Path stage(java.nio.file.Path data, long length) {
+            java.nio.file.Path old = staged;
+            staged = data;
+            archived = null;
+            size = length;
+            lastModifiedTime = System.currentTimeMillis();
+            return old;
+        }
+    }
+
+    static class LinkNode extends Node {
+
+        final Path target;
+
+        LinkNode(Path target) {
+            super(LINK_MODE);
+            this.target = target;
+        }
+    }
+
+    ArchiveTree() {
+        super(ADAPTOR_NAME, new DirectoryNode());
+    }
+
+    @Override
+    protected DirectoryNode asDirectory(Node node) {
+        return node instanceof DirectoryNode ? (DirectoryNode) node : null;
+    }
+
+    @Override
+    protected Map<String, Node> getChildren(DirectoryNode dir) {
+        return dir.children;
+    }
+
+    @Override
+    protected Path getLinkTarget(Node node) {
+        return node instanceof LinkNode ? ((LinkNode) node).target : null;
+    }
+
+    /**
+     * Add a node for an entry read from the archive. Missing parent directories are created, and an existing node is replaced, as later entries in an
+     * archive override earlier ones. Names that do not stay within the archive (for example "../file") are ignored.
+     *
+     * @return if the node was added
+     */
+    boolean add(String name, Node node) {
+
+        ArrayList<String> elements = new ArrayList<>();
+
+        for (String element : name.split("/")) {
+            if (!element.isEmpty()) {
+                elements.add(element);
+            }
+        }
+
+        Path path = new Path('/', true, elements).normalize();
+
+        if (path.isEmpty() || "..".equals(path.getName(0).getFileNameAsString())) {
+            return false;
+        }
+
+        DirectoryNode dir = getRoot();
+
+        for (Path prefix : path) {
+
+            String element = prefix.getFileNameAsString();
+
+            if (prefix.getNameCount() == path.getNameCount()) {
+
+                Node old = dir.children.get(element);
+
+                if (node instanceof DirectoryNode && old instanceof DirectoryNode) {
+                    // Keep the content of a directory that was created implicitly.
+                    old.mode = node.mode;
+                    old.lastModifiedTime = node.lastModifiedTime;
+                    old.owner = node.owner;
+                    old.group = node.group;
+                } else {
+                    dir.children.put(element, node);
+                }
+
+                return true;
+            }
+
+            Node child = dir.children.get(element);
+
+            if (!(child instanceof DirectoryNode)) {
+                child = new DirectoryNode();
+                dir.children.put(element, child);
+            }
+
+            dir = (DirectoryNode) child;
+        }
+
+        return true;
+    }
+
+    /**
+     * Return all nodes in the tree, in depth-first order, together with their name in the archive. The root directory is not included. The caller must hold
+     * the lock.
+     */
+    List<Map.Entry<String, Node>> entries() {
+        ArrayList<Map.Entry<String, Node>> result = new ArrayList<>();
+        addEntries("", getRoot(), result);
+        return result;
+    }
+
+    private static void addEntries(String prefix, DirectoryNode dir, List<Map.Entry<String, Node>> result) {
+        for (Map.Entry<String, Node> e : dir.children.entrySet()) {
+
+            String name = prefix + e.getKey();
+
+            result.add(new AbstractMap.SimpleImmutableEntry<>(name, e.getValue()));
+
+            if (e.getValue() instanceof DirectoryNode) {
+                addEntries(name + "/", (DirectoryNode) e.getValue(), result);
+            }
+        }
+    }
+}
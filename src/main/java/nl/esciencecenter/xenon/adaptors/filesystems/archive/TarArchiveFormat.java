@@ -0,0 +1,571 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.filesystems.archive;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.tar.TarConstants;
+import org.apache.commons.compress.archivers.tar.TarFile;
+
+import nl.esciencecenter.xenon.XenonException;
+import nl.esciencecenter.xenon.adaptors.filesystems.archive.ArchiveTree.DirectoryNode;
+import nl.esciencecenter.xenon.adaptors.filesystems.archive.ArchiveTree.FileNode;
+import nl.esciencecenter.xenon.adaptors.filesystems.archive.ArchiveTree.LinkNode;
+import nl.esciencecenter.xenon.adaptors.filesystems.archive.ArchiveTree.Node;
+import nl.esciencecenter.xenon.filesystems.FileSystem;
+import nl.esciencecenter.xenon.filesystems.Path;
+
+/**
+ * The tar format, optionally compressed with gzip.
+ *
+ * The index of an uncompressed archive is read by skipping from header to header, after which each entry is read directly at its offset. New files are
+ * appended in place if the underlying file system supports writable channels, by overwriting the end-of-archive marker with the new entry followed by a new
+ * marker.
+ *
+ * A compressed archive can only be read sequentially, so reading an entry decompresses the archive up to that entry, and any change requires the archive to
+ * be rewritten.
+ */
+class TarArchiveFormat extends ArchiveFormat {
+
+    /** Size of the blocks in a tar archive */
+    private static final int BLOCK_SIZE = 512;
+
+    private static class TarData extends Data {
+
+        /** The entry as read from the archive, or null if the entry was appended */
+        final TarArchiveEntry entry;
+
+        /** The offset of the data in an uncompressed archive */
+        final long offset;
+
+        final long size;
+
+        TarData(int ordinal, TarArchiveEntry entry, long offset, long size) {
+            super(ordinal);
+            this.entry = entry;
+            this.offset = offset;
+            this.size = size;
+        }
+    }
+
+    /*
+     * Limits a stream to the data of a single entry.
+     */
+    private static class EntryInputStream extends FilterInputStream {
+
+        private long remaining;
+
+        EntryInputStream(InputStream in, long size) {
+            super(in);
+            this.remaining = size;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] tmp = new byte[1];
+            return read(tmp, 0, 1) < 0 ? -1 : tmp[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+
+            if (remaining <= 0) {
+                return -1;
+            }
+
+            int n = super.read(b, off, (int) Math.min(len, remaining));
+
+            if (n > 0) {
+                remaining -= n;
+            }
+
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(super.available(), remaining);
+        }
+    }
+
+    /*
+     * Reads the entries of a compressed archive sequentially, reopening the archive only when an earlier entry is requested.
+     */
+    private class SequentialReader {
+
+        private TarArchiveInputStream in;
+        private int next = 0;
+
+        InputStream open(int ordinal) throws IOException {
+
+            if (in == null || ordinal < next) {
+                close();
+                in = openCompressed();
+                next = 0;
+            }
+
+            while (next <= ordinal) {
+                if (in.getNextEntry() == null) {
+                    throw new IOException("Entry " + ordinal + " not found in archive " + archive);
+                }
+                next++;
+            }
+
+            return in;
+        }
+
+        void close() throws IOException {
+            if (in != null) {
+                in.close();
+                in = null;
+            }
+        }
+    }
+
+    private final FileSystem base;
+    private final Path archive;
+    private final boolean compressed;
+    private final boolean appendable;
+    private final int bufferSize;
+
+    private SeekableByteChannel channel;
+    private TarFile tar;
+
+    /** The offset of the end-of-archive marker in an uncompressed archive */
+    private long end = 0;
+
+    private int nextOrdinal = 0;
+
+    private boolean appending = false;
+
+    /**
+     * @param base
+     *            the file system containing the archive
+     * @param archive
+     *            the path to the archive
+     * @param compressed
+     *            if the archive is compressed with gzip
+     * @param appendable
+     *            if new files may be appended to the existing archive in place
+     * @param bufferSize
+     *            the buffer size to use when reading or writing a compressed archive
+     */
+    TarArchiveFormat(FileSystem base, Path archive, boolean compressed, boolean appendable, int bufferSize) {
+        this.base = base;
+        this.archive = archive;
+        this.compressed = compressed;
+        this.appendable = appendable && !compressed;
+        this.bufferSize = bufferSize;
+    }
+
+    private static IOException toIOException(XenonException e) {
+        return new IOException(e.getMessage(), e);
+    }
+
+    private InputStream readArchive(long offset) throws IOException {
+        try {
+            return base.readFromFile(archive, offset);
+        } catch (XenonException e) {
+            throw toIOException(e);
+        }
+    }
+
+    private TarArchiveInputStream openCompressed() throws IOException {
+
+        InputStream in = readArchive(0);
+
+        try {
+            return new TarArchiveInputStream(new GZIPInputStream(in, bufferSize));
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    private static String key(String name) {
+
+        while (name.startsWith("./") || name.startsWith("/")) {
+            name = name.substring(name.indexOf('/') + 1);
+        }
+
+        return name;
+    }
+
+    private static long padded(long size) {
+        return (size + BLOCK_SIZE - 1) / BLOCK_SIZE * BLOCK_SIZE;
+    }
+
+    private void add(ArchiveTree tree, TarArchiveEntry entry, TarData data, Map<String, TarData> files) {
+
+        Node node;
+
+        if (entry.isDirectory()) {
+            node = new DirectoryNode();
+        } else if (entry.isSymbolicLink()) {
+            node = new LinkNode(new Path(entry.getLinkName()));
+        } else if (entry.isLink()) {
+            // A hard link shares the data of an earlier entry.
+            TarData target = files.get(key(entry.getLinkName()));
+
+            if (target == null) {
+                return;
+            }
+
+            node = new FileNode(target, target.size);
+        } else if (entry.isFile()) {
+            node = new FileNode(data, entry.isSparse() ? entry.getRealSize() : entry.getSize());
+            files.put(key(entry.getName()), data);
+        } else {
+            // Devices and pipes cannot be represented.
+            return;
+        }
+
+        node.mode = entry.getMode() & 07777;
+        node.lastModifiedTime = entry.getModTime().getTime();
+        node.owner = entry.getUserName();
+        node.group = entry.getGroupName();
+
+        tree.add(entry.getName(), node);
+    }
+
+    @Override
+    void load(ArchiveTree tree) throws IOException {
+
+        HashMap<String, TarData> files = new HashMap<>();
+
+        if (compressed) {
+            try (TarArchiveInputStream in = openCompressed()) {
+
+                TarArchiveEntry entry = in.getNextEntry();
+
+                while (entry != null) {
+                    add(tree, entry, new TarData(nextOrdinal++, entry, -1, entry.getSize()), files);
+                    entry = in.getNextEntry();
+                }
+            }
+            return;
+        }
+
+        try {
+            channel = base.openChannel(archive, false);
+        } catch (XenonException e) {
+            throw toIOException(e);
+        }
+
+        tar = new TarFile(channel);
+
+        for (TarArchiveEntry entry : tar.getEntries()) {
+            add(tree, entry, new TarData(nextOrdinal++, entry, entry.getDataOffset(), entry.getSize()), files);
+            end = Math.max(end, entry.getDataOffset() + padded(entry.getSize()));
+        }
+    }
+
+    @Override
+    InputStream open(Data data) throws IOException {
+
+        TarData d = (TarData) data;
+
+        if (d.size == 0) {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+
+        if (compressed) {
+            SequentialReader reader = new SequentialReader();
+            return new FilterInputStream(reader.open(d.ordinal)) {
+                @Override
+                public void close() throws IOException {
+                    reader.close();
+                }
+            };
+        }
+
+        if (d.entry != null && d.entry.isSparse()) {
+            return tar.getInputStream(d.entry);
+        }
+
+        return new EntryInputStream(readArchive(d.offset), d.size);
+    }
+
+    private static TarArchiveOutputStream createOutput(OutputStream out, int blockSize) {
+        TarArchiveOutputStream tout = new TarArchiveOutputStream(out, blockSize);
+        tout.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+        tout.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+        tout.setAddPaxHeadersForNonAsciiNames(true);
+        return tout;
+    }
+
+    private static TarArchiveEntry createEntry(String name, Node node, int type) {
+
+        TarArchiveEntry entry;
+
+        if (node instanceof LinkNode) {
+            entry = new TarArchiveEntry(name, TarConstants.LF_SYMLINK);
+            entry.setLinkName(((LinkNode) node).target.toString());
+        } else {
+            entry = new TarArchiveEntry(name);
+        }
+
+        entry.setMode(type | node.mode);
+        entry.setModTime(node.lastModifiedTime);
+
+        if (node.owner != null) {
+            entry.setUserName(node.owner);
+        }
+
+        if (node.group != null) {
+            entry.setGroupName(node.group);
+        }
+
+        return entry;
+    }
+
+    @Override
+    boolean canAppend() {
+        return appendable && channel != null;
+    }
+
+    /*
+     * Write an end-of-archive marker at the given offset, to undo an append that failed after (part of) the new entry was written over the old marker.
+     * Anything the failed append wrote after the marker is ignored by readers.
+     */
+    private static void writeEnd(SeekableByteChannel out, long offset) throws IOException {
+
+        ByteBuffer marker = ByteBuffer.allocate(2 * BLOCK_SIZE);
+
+        out.position(offset);
+
+        while (marker.hasRemaining()) {
+            out.write(marker);
+        }
+    }
+
+    /*
+     * Undo a failed append, and close the channel used for it. Any problem doing so is added to the original exception.
+     */
+    private static void abortAppend(SeekableByteChannel out, long offset, IOException e) {
+
+        try {
+            writeEnd(out, offset);
+        } catch (IOException e2) {
+            e.addSuppressed(e2);
+        }
+
+        try {
+            out.close();
+        } catch (IOException e2) {
+            e.addSuppressed(e2);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The new entry is written over the current end-of-archive marker. If the append fails, for example because the amount of data written to the stream does
+     * not match the size, the marker is restored, so the archive keeps its previous content, and closing the stream throws an exception.
+     */
+    @Override
+    synchronized OutputStream append(String name, FileNode node, long size) throws IOException {
+
+        if (!canAppend() || appending) {
+            return null;
+        }
+
+        SeekableByteChannel target;
+
+        try {
+            target = base.openChannel(archive, true);
+        } catch (XenonException e) {
+            throw toIOException(e);
+        }
+
+        final long start = end;
+
+        final TarArchiveOutputStream tout;
+        final long offset;
+
+        try {
+            target.position(start);
+
+            tout = createOutput(Channels.newOutputStream(target), BLOCK_SIZE);
+
+            TarArchiveEntry entry = createEntry(name, node, 0100000);
+            entry.setSize(size);
+
+            tout.putArchiveEntry(entry);
+
+            offset = start + tout.getBytesWritten();
+        } catch (IOException e) {
+            abortAppend(target, start, e);
+            throw e;
+        }
+
+        appending = true;
+
+        return new FilterOutputStream(tout) {
+
+            private boolean closed = false;
+            private boolean failed = false;
+
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] { (byte) b }, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                try {
+                    tout.write(b, off, len);
+                } catch (IOException e) {
+                    failed = true;
+                    throw e;
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+
+                if (closed) {
+                    return;
+                }
+
+                closed = true;
+
+                try {
+                    if (failed) {
+                        throw new IOException("Failed to append " + name + " to archive " + archive);
+                    }
+
+                    tout.closeArchiveEntry();
+
+                    long newEnd = start + tout.getBytesWritten();
+
+                    // Writes a new end-of-archive marker.
+                    tout.finish();
+                    tout.flush();
+
+                    target.close();
+
+                    synchronized (TarArchiveFormat.this) {
+                        node.archived = new TarData(nextOrdinal++, null, offset, size);
+                        node.staged = null;
+                        node.size = size;
+                        end = newEnd;
+                    }
+                } catch (IOException e) {
+                    abortAppend(target, start, e);
+                    throw e;
+                } finally {
+                    synchronized (TarArchiveFormat.this) {
+                        appending = false;
+                    }
+                }
+            }
+        };
+    }
+
+    @Override
+    void write(List<Map.Entry<String, Node>> entries, OutputStream out) throws IOException {
+
+        GZIPOutputStream gzip = compressed ? new GZIPOutputStream(out, bufferSize) : null;
+
+        TarArchiveOutputStream tout = createOutput(compressed ? gzip : out, TarConstants.DEFAULT_BLKSIZE);
+
+        SequentialReader reader = new SequentialReader();
+
+        byte[] buffer = new byte[bufferSize];
+
+        try {
+            for (Map.Entry<String, Node> e : inWriteOrder(entries)) {
+
+                Node node = e.getValue();
+
+                if (node instanceof DirectoryNode) {
+                    tout.putArchiveEntry(createEntry(e.getKey() + "/", node, 040000));
+                } else if (node instanceof LinkNode) {
+                    tout.putArchiveEntry(createEntry(e.getKey(), node, 0120000));
+                } else {
+                    FileNode file = (FileNode) node;
+                    TarData data = (TarData) file.archived;
+
+                    TarArchiveEntry entry = createEntry(e.getKey(), node, 0100000);
+                    entry.setSize(file.size);
+                    tout.putArchiveEntry(entry);
+
+                    if (data == null) {
+                        writeStaged(file, tout);
+                    } else if (data.size > 0) {
+                        InputStream in = compressed ? new EntryInputStream(reader.open(data.ordinal), data.size) : open(data);
+
+                        try {
+                            int n = in.read(buffer);
+
+                            while (n >= 0) {
+                                tout.write(buffer, 0, n);
+                                n = in.read(buffer);
+                            }
+                        } finally {
+                            if (!compressed) {
+                                in.close();
+                            }
+                        }
+                    }
+                }
+
+                tout.closeArchiveEntry();
+            }
+
+            tout.finish();
+
+            if (gzip != null) {
+                gzip.finish();
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (tar != null) {
+            tar.close();
+        } else if (channel != null) {
+            channel.close();
+        }
+    }
+}
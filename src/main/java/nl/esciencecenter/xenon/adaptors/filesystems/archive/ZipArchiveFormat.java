@@ -0,0 +1,174 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.filesystems.archive;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.compress.archivers.zip.UnixStat;
+import org.apache.commons.compress.archivers.zip.Zip64Mode;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+
+import nl.esciencecenter.xenon.adaptors.filesystems.archive.ArchiveTree.DirectoryNode;
+import nl.esciencecenter.xenon.adaptors.filesystems.archive.ArchiveTree.FileNode;
+import nl.esciencecenter.xenon.adaptors.filesystems.archive.ArchiveTree.LinkNode;
+import nl.esciencecenter.xenon.adaptors.filesystems.archive.ArchiveTree.Node;
+import nl.esciencecenter.xenon.filesystems.Path;
+
+/**
+ * The zip format. The index is read from the central directory at the end of the archive, after which each entry is read directly at its offset.
+ *
+ * When the archive is rewritten, the compressed data of the existing entries is copied as is, so it is not decompressed and compressed again.
+ */
+class ZipArchiveFormat extends ArchiveFormat {
+
+    private static class ZipData extends Data {
+
+        final ZipArchiveEntry entry;
+
+        ZipData(int ordinal, ZipArchiveEntry entry) {
+            super(ordinal);
+            this.entry = entry;
+        }
+    }
+
+    private final SeekableByteChannel channel;
+
+    private ZipFile zip;
+
+    /**
+     * @param channel
+     *            a channel to read the existing archive, or null for a new archive
+     */
+    ZipArchiveFormat(SeekableByteChannel channel) {
+        this.channel = channel;
+    }
+
+    private static void setMode(Node node, ZipArchiveEntry entry) {
+
+        int mode = entry.getUnixMode() & 07777;
+
+        if (entry.getPlatform() == ZipArchiveEntry.PLATFORM_UNIX && mode != 0) {
+            node.mode = mode;
+        }
+
+        if (entry.getTime() != -1) {
+            node.lastModifiedTime = entry.getTime();
+        }
+    }
+
+    @Override
+    void load(ArchiveTree tree) throws IOException {
+
+        zip = ZipFile.builder().setSeekableByteChannel(channel).get();
+
+        Enumeration<ZipArchiveEntry> entries = zip.getEntriesInPhysicalOrder();
+
+        int ordinal = 0;
+
+        while (entries.hasMoreElements()) {
+
+            ZipArchiveEntry entry = entries.nextElement();
+
+            Node node;
+
+            if (entry.isDirectory()) {
+                node = new DirectoryNode();
+            } else if (entry.isUnixSymlink()) {
+                node = new LinkNode(new Path(zip.getUnixSymlink(entry)));
+            } else {
+                node = new FileNode(new ZipData(ordinal, entry), entry.getSize());
+            }
+
+            setMode(node, entry);
+            tree.add(entry.getName(), node);
+            ordinal++;
+        }
+    }
+
+    @Override
+    InputStream open(Data data) throws IOException {
+        return zip.getInputStream(((ZipData) data).entry);
+    }
+
+    private static ZipArchiveEntry createEntry(String name, Node node, int type) {
+        ZipArchiveEntry entry = new ZipArchiveEntry(name);
+        entry.setUnixMode(type | node.mode);
+        entry.setTime(node.lastModifiedTime);
+        return entry;
+    }
+
+    @Override
+    void write(List<Map.Entry<String, Node>> entries, OutputStream out) throws IOException {
+
+        ZipArchiveOutputStream zout = new ZipArchiveOutputStream(out);
+        zout.setUseZip64(Zip64Mode.AsNeeded);
+
+        for (Map.Entry<String, Node> e : inWriteOrder(entries)) {
+
+            Node node = e.getValue();
+
+            if (node instanceof DirectoryNode) {
+                zout.putArchiveEntry(createEntry(e.getKey() + "/", node, UnixStat.DIR_FLAG));
+                zout.closeArchiveEntry();
+            } else if (node instanceof LinkNode) {
+                zout.putArchiveEntry(createEntry(e.getKey(), node, UnixStat.LINK_FLAG));
+                zout.write(((LinkNode) node).target.toString().getBytes(StandardCharsets.UTF_8));
+                zout.closeArchiveEntry();
+            } else {
+                FileNode file = (FileNode) node;
+                ZipArchiveEntry entry = createEntry(e.getKey(), node, UnixStat.FILE_FLAG);
+                ZipData data = (ZipData) file.archived;
+
+                if (data != null) {
+                    // Copy the compressed data as is.
+                    ZipArchiveEntry original = data.entry;
+                    entry.setMethod(original.getMethod());
+                    entry.setCrc(original.getCrc());
+                    entry.setSize(original.getSize());
+                    entry.setCompressedSize(original.getCompressedSize());
+
+                    try (InputStream in = zip.getRawInputStream(original)) {
+                        zout.addRawArchiveEntry(entry, in);
+                    }
+                } else {
+                    zout.putArchiveEntry(entry);
+                    writeStaged(file, zout);
+                    zout.closeArchiveEntry();
+                }
+            }
+        }
+
+        zout.finish();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (zip != null) {
+            zip.close();
+        } else if (channel != null) {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.filesystems.cache;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import nl.esciencecenter.xenon.InvalidPropertyException;
+import nl.esciencecenter.xenon.XenonException;
+import nl.esciencecenter.xenon.XenonPropertyDescription;
+import nl.esciencecenter.xenon.XenonPropertyDescription.Type;
+import nl.esciencecenter.xenon.adaptors.XenonProperties;
+import nl.esciencecenter.xenon.adaptors.filesystems.FileAdaptor;
+import nl.esciencecenter.xenon.credentials.Credential;
+import nl.esciencecenter.xenon.credentials.DefaultCredential;
+import nl.esciencecenter.xenon.filesystems.FileSystem;
+
+/**
+ * CacheFileAdaptor implements a Xenon <code>Files</code> adaptor that caches the files of another file system on the local disk.
+ *
+ * The location and credential are used to create a file system with the adaptor given in the properties, which is typically a slow or remote file system.
+ * Properties of that adaptor can be passed along with the properties of this adaptor. If no cache directory is given, a temporary cache is used, which is
+ * removed when the file system is closed. A cache directory can be reused by later file systems, so data read by one job is available to the next.
+ *
+ * Optional operations are forwarded to the underlying file system, so whether they are supported depends on that file system.
+ */
+public class CacheFileAdaptor extends FileAdaptor {
+
+    /** Name of the cache adaptor is defined in the engine. */
+    public static final String ADAPTOR_NAME = "cache";
+
+    /** Cache properties start with this prefix. */
+    public static final String PREFIX = FileAdaptor.ADAPTORS_PREFIX + ADAPTOR_NAME + ".";
+
+    /** Description of the adaptor */
+    public static final String ADAPTOR_DESCRIPTION = "This is the cache file adaptor that caches the files of another file system on the local disk.";
+
+    /** The adaptor of the file system to cache. */
+    public static final String ADAPTOR = PREFIX + "adaptor";
+
+    /** The local directory in which the files are cached. */
+    public static final String DIRECTORY = PREFIX + "directory";
+
+    /** The maximum total size of the cached files. */
+    public static final String MAX_SIZE = PREFIX + "maxSize";
+
+    /** The order in which files are evicted. */
+    public static final String EVICTION = PREFIX + "eviction";
+
+    /** Compare cached files with the remote file before using them. */
+    public static final String VALIDATE = PREFIX + "validate";
+
+    /** The time directory listings are cached. */
+    public static final String LISTING_TIMEOUT = PREFIX + "listingTimeout";
+
+    /** How files are written. */
+    public static final String WRITE_MODE = PREFIX + "writeMode";
+
+    /** The buffer size to use when copying data. */
+    public static final String BUFFER_SIZE = PREFIX + "bufferSize";
+
+    /** The locations supported by the adaptor */
+    private static final String[] ADAPTOR_LOCATIONS = new String[] { "(any location supported by the cached adaptor)" };
+
+    /** List of properties supported by this cache adaptor */
+    private static final XenonPropertyDescription[] VALID_PROPERTIES = new XenonPropertyDescription[] {
+            new XenonPropertyDescription(ADAPTOR, Type.STRING, "file", "The adaptor of the file system to cache."),
+            new XenonPropertyDescription(DIRECTORY, Type.STRING, "",
+                    "The local directory in which the files are cached. If empty, a temporary directory is used that is removed on close."),
+            new XenonPropertyDescription(MAX_SIZE, Type.SIZE, "1G", "The maximum total size of the cached files (in bytes)."),
+            new XenonPropertyDescription(EVICTION, Type.STRING, "lru",
+                    "The order in which files are evicted when the cache is full: \"lru\" (least recently used) or \"lfu\" (least frequently used)."),
+            new XenonPropertyDescription(VALIDATE, Type.BOOLEAN, "true",
+                    "Compare the size and modification time of a cached file with the remote file before using it. Disable for data that never changes."),
+            new XenonPropertyDescription(LISTING_TIMEOUT, Type.LONG, "10000", "The time directory listings are cached (in milliseconds). 0 disables caching."),
+            new XenonPropertyDescription(WRITE_MODE, Type.STRING, "through",
+                    "How files are written: \"through\" (to the remote file system directly) or \"back\" (uploaded in the background)."),
+            new XenonPropertyDescription(BUFFER_SIZE, Type.SIZE, "64K", "The buffer size to use when copying files (in bytes).") };
+
+    /** Counter for the IDs of file systems created on a file system that is already open */
+    private static final AtomicLong WRAPPED_ID = new AtomicLong();
+
+    public CacheFileAdaptor() {
+        super(ADAPTOR_NAME, ADAPTOR_DESCRIPTION, ADAPTOR_LOCATIONS, VALID_PROPERTIES);
+    }
+
+    @Override
+    public boolean canCreateSymboliclinks() {
+        return true;
+    }
+
+    @Override
+    public boolean supportsReadingPosixPermissions() {
+        return true;
+    }
+
+    @Override
+    public boolean supportsSettingPosixPermissions() {
+        return true;
+    }
+
+    @SuppressWarnings("rawtypes")
+    @Override
+    public Class[] getSupportedCredentials() {
+        // The credential is passed on to the cached file system.
+        return new Class[] { Credential.class };
+    }
+
+    private static String getChoice(XenonProperties xp, String name, String... choices) throws XenonException {
+
+        String value = xp.getStringProperty(name);
+
+        for (String choice : choices) {
+            if (choice.equals(value)) {
+                return value;
+            }
+        }
+
+        throw new InvalidPropertyException(ADAPTOR_NAME, "Invalid value for " + name + ": " + value);
+    }
+
+    private static long getPositive(XenonProperties xp, String name, long max) throws XenonException {
+
+        long size = xp.getSizeProperty(name);
+
+        if (size <= 0 || size >= max) {
+            throw new InvalidPropertyException(ADAPTOR_NAME, "Invalid value for " + name + ": " + size + " (must be between 1 and " + max + ")");
+        }
+
+        return size;
+    }
+
+    /*
+     * Split the properties in those of this adaptor and those of the cached file system.
+     */
+    private static Map<String, String> split(Map<String, String> properties, Map<String, String> remoteProperties) {
+
+        HashMap<String, String> result = new HashMap<>();
+
+        if (properties != null) {
+            for (Map.Entry<String, String> e : properties.entrySet()) {
+                if (e.getKey().startsWith(PREFIX)) {
+                    result.put(e.getKey(), e.getValue());
+                } else {
+                    remoteProperties.put(e.getKey(), e.getValue());
+                }
+            }
+        }
+
+        return result;
+    }
+
+    @Override
+    public FileSystem createFileSystem(String location, Credential credential, Map<String, String> properties) throws XenonException {
+
+        HashMap<String, String> remoteProperties = new HashMap<>();
+
+        XenonProperties xp = new XenonProperties(VALID_PROPERTIES, split(properties, remoteProperties));
+
+        String adaptor = xp.getStringProperty(ADAPTOR);
+
+        if (ADAPTOR_NAME.equals(adaptor)) {
+            throw new InvalidPropertyException(ADAPTOR_NAME, "Cannot cache a cache file system");
+        }
+
+        FileSystem remote = FileSystem.create(adaptor, location, credential == null ? new DefaultCredential() : credential, remoteProperties);
+
+        try {
+            return open(remote, true, getNewUniqueID(), location == null ? "" : location, remote.getCredential(), xp);
+        } catch (XenonException | RuntimeException e) {
+            remote.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Create a file system that caches the files of a file system that is already open. The cached file system is not closed when the returned file system
+     * is closed.
+     *
+     * @param remote
+     *            the file system to cache.
+     * @param properties
+     *            optional properties of this adaptor, may be <code>null</code>. The adaptor property is ignored.
+     * @return the caching file system.
+     * @throws XenonException
+     *             if the cache could not be created.
+     */
+    public static CacheFileSystem createFileSystem(FileSystem remote, Map<String, String> properties) throws XenonException {
+
+        if (remote == null) {
+            throw new IllegalArgumentException("Remote file system may not be null");
+        }
+
+        XenonProperties xp = new XenonProperties(VALID_PROPERTIES, properties);
+
+        return open(remote, false, ADAPTOR_NAME + ".wrapped." + WRAPPED_ID.getAndIncrement(), remote.getLocation(), remote.getCredential(), xp);
+    }
+
+    private static CacheFileSystem open(FileSystem remote, boolean closeRemote, String uniqueID, String location, Credential credential,
+            XenonProperties xp) throws XenonException {
+
+        long maxSize = getPositive(xp, MAX_SIZE, Long.MAX_VALUE);
+        int bufferSize = (int) getPositive(xp, BUFFER_SIZE, Integer.MAX_VALUE);
+
+        CacheIndex.Eviction eviction = "lfu".equals(getChoice(xp, EVICTION, "lru", "lfu")) ? CacheIndex.Eviction.LFU : CacheIndex.Eviction.LRU;
+        boolean writeBack = "back".equals(getChoice(xp, WRITE_MODE, "through", "back"));
+        boolean validate = xp.getBooleanProperty(VALIDATE);
+        long listingTimeout = xp.getLongProperty(LISTING_TIMEOUT);
+
+        if (listingTimeout < 0) {
+            throw new InvalidPropertyException(ADAPTOR_NAME, "Invalid value for " + LISTING_TIMEOUT + ": " + listingTimeout);
+        }
+
+        String directory = xp.getStringProperty(DIRECTORY);
+        boolean temporary = directory == null || directory.isEmpty();
+
+        CacheIndex index;
+
+        try {
+            java.nio.file.Path dir = temporary ? Files.createTempDirectory("xenon-cache-") : Paths.get(directory);
+            index = new CacheIndex(dir, remote.getAdaptorName() + ":" + remote.getLocation(), maxSize, eviction);
+        } catch (IOException | RuntimeException e) {
+            throw new XenonException(ADAPTOR_NAME, "Failed to create cache directory " + directory, e);
+        }
+
+        return new CacheFileSystem(uniqueID, location, credential, remote, closeRemote, index, temporary, validate, listingTimeout, writeBack, bufferSize,
+                xp);
+    }
+}
@@ -0,0 +1,981 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.filesystems.cache;
+
+import static nl.esciencecenter.xenon.adaptors.filesystems.cache.CacheFileAdaptor.ADAPTOR_NAME;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import nl.esciencecenter.xenon.XenonException;
+import nl.esciencecenter.xenon.adaptors.XenonProperties;
+import nl.esciencecenter.xenon.adaptors.filesystems.cache.CacheIndex.Entry;
+import nl.esciencecenter.xenon.credentials.Credential;
+import nl.esciencecenter.xenon.filesystems.FileSystem;
+import nl.esciencecenter.xenon.filesystems.InvalidPathException;
+import nl.esciencecenter.xenon.filesystems.NoSuchPathException;
+import nl.esciencecenter.xenon.filesystems.Path;
+import nl.esciencecenter.xenon.filesystems.PathAlreadyExistsException;
+import nl.esciencecenter.xenon.filesystems.PathAttributes;
+import nl.esciencecenter.xenon.filesystems.PosixFilePermission;
+import nl.esciencecenter.xenon.utils.DaemonThreadFactory;
+
+/**
+ * A file system that caches the files and directory listings of another (remote) file system on the local disk.
+ *
+ * Files read from the remote file system are stored in a local cache directory, and read from there the next time they are needed. Before a cached copy is
+ * used, its size and modification time are compared with the remote file, unless validation is disabled. Directory listings are kept in memory for a
+ * configurable time. Changes made through this file system update or invalidate the cache immediately, changes made by others are noticed when a file is
+ * validated or a listing expires.
+ *
+ * Files written through this file system are either written to the remote file system directly and stored in the cache at the same time (write-through), or
+ * written to the cache and uploaded to the remote file system in the background (write-back). In write-back mode, any operation other than reading a file
+ * first waits for the pending uploads, so it observes the same remote state as in write-through mode. If an upload fails, the failure is reported by the
+ * next operation, and the cached copy is kept, so the file can still be read and the upload is retried by {@link #flush()}.
+ *
+ * All other operations are forwarded to the remote file system.
+ */
+public class CacheFileSystem extends FileSystem {
+
+    private static class Listing {
+
+        final long time;
+        final List<PathAttributes> entries;
+
+        Listing(long time, List<PathAttributes> entries) {
+            this.time = time;
+            this.entries = entries;
+        }
+    }
+
+    private final FileSystem remote;
+    private final boolean closeRemote;
+    private final CacheIndex index;
+    private final boolean temporary;
+    private final boolean validate;
+    private final long listingTimeout;
+    private final boolean writeBack;
+
+    private final HashMap<Path, Listing> listings = new HashMap<>();
+    private final ConcurrentHashMap<Path, FutureTask<Entry>> downloads = new ConcurrentHashMap<>();
+
+    private final ExecutorService uploader;
+    private final ArrayList<Future<?>> uploads = new ArrayList<>();
+
+    /** Files of which the upload failed, which are uploaded again by the next flush. Guarded by uploads. */
+    private final LinkedHashMap<Path, Entry> failed = new LinkedHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong listingHits = new AtomicLong();
+    private final AtomicLong listingMisses = new AtomicLong();
+    private final AtomicLong bytesFromCache = new AtomicLong();
+    private final AtomicLong bytesFromRemote = new AtomicLong();
+
+    private volatile boolean open = true;
+
+    protected CacheFileSystem(String uniqueID, String location, Credential credential, FileSystem remote, boolean closeRemote, CacheIndex index,
+            boolean temporary, boolean validate, long listingTimeout, boolean writeBack, int bufferSize, XenonProperties properties) {
+        super(uniqueID, ADAPTOR_NAME, location, credential, remote.getWorkingDirectory(), bufferSize, properties);
+        this.remote = remote;
+        this.closeRemote = closeRemote;
+        this.index = index;
+        this.temporary = temporary;
+        this.validate = validate;
+        this.listingTimeout = listingTimeout;
+        this.writeBack = writeBack;
+        this.uploader = writeBack ? Executors.newSingleThreadExecutor(new DaemonThreadFactory("CacheUpload." + uniqueID)) : null;
+    }
+
+    /**
+     * Get the file system of which the files are cached.
+     *
+     * @return the remote file system.
+     */
+    public FileSystem getRemoteFileSystem() {
+        return remote;
+    }
+
+    /**
+     * Get the local directory in which the files are cached.
+     *
+     * @return the cache directory.
+     */
+    public java.nio.file.Path getCacheDirectory() {
+        return index.getDirectory();
+    }
+
+    /**
+     * Get the statistics of the cache.
+     *
+     * @return a snapshot of the statistics of the cache.
+     */
+    public CacheStatistics getStatistics() {
+        return new CacheStatistics(hits.get(), misses.get(), index.getEvictions(), listingHits.get(), listingMisses.get(), bytesFromCache.get(),
+                bytesFromRemote.get(), index.getCount(), index.getSize());
+    }
+
+    /**
+     * Pin a file in the cache. The file is downloaded if it is not cached yet, and is not evicted until it is unpinned. A file may be pinned several times,
+     * in which case it must be unpinned the same number of times.
+     *
+     * @param file
+     *            the file to pin.
+     * @throws NoSuchPathException
+     *             If the file does not exists.
+     * @throws InvalidPathException
+     *             If the file is not a regular file, or is larger than the cache.
+     * @throws XenonException
+     *             if an I/O error occurred.
+     */
+    public void pin(Path file) throws XenonException {
+
+        assertIsOpen();
+
+        Path absFile = toAbsolutePath(file);
+        String key = absFile.toString();
+
+        Entry entry;
+
+        do {
+            entry = index.get(key);
+
+            if (entry == null || (validate && !entry.dirty)) {
+
+                PathAttributes attributes = getRemoteAttributes(absFile);
+
+                if (attributes.isSymbolicLink() || !attributes.isRegular() || attributes.getSize() > index.getMaxSize()) {
+                    throw new InvalidPathException(ADAPTOR_NAME, "File cannot be cached: " + absFile);
+                }
+
+                if (entry != null && !isCurrent(entry, attributes)) {
+                    index.invalidate(key);
+                    entry = null;
+                }
+
+                if (entry == null) {
+                    entry = download(absFile, attributes);
+                }
+            }
+
+            // The file may have been evicted and replaced in the meantime.
+        } while (!index.pin(entry));
+    }
+
+    /**
+     * Unpin a file pinned with {@link #pin(Path)}.
+     *
+     * @param file
+     *            the file to unpin.
+     * @throws XenonException
+     *             If file system is closed.
+     */
+    public void unpin(Path file) throws XenonException {
+        assertIsOpen();
+        index.unpin(toAbsolutePath(file).toString());
+    }
+
+    /**
+     * Wait until all files written in write-back mode have been uploaded to the remote file system. Files of which an earlier upload failed are uploaded
+     * again.
+     *
+     * @throws XenonException
+     *             if one of the uploads failed.
+     */
+    public void flush() throws XenonException {
+
+        if (!writeBack) {
+            return;
+        }
+
+        synchronized (uploads) {
+            for (Map.Entry<Path, Entry> e : failed.entrySet()) {
+                submitUpload(e.getKey(), e.getValue());
+            }
+
+            failed.clear();
+        }
+
+        waitForUploads();
+    }
+
+    /*
+     * Wait until the pending uploads have completed. The first failure is thrown, after waiting for all uploads.
+     */
+    private void waitForUploads() throws XenonException {
+
+        if (!writeBack) {
+            return;
+        }
+
+        XenonException failure = null;
+
+        while (true) {
+
+            Future<?> upload;
+
+            synchronized (uploads) {
+                if (uploads.isEmpty()) {
+                    break;
+                }
+
+                upload = uploads.get(0);
+            }
+
+            try {
+                upload.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new XenonException(ADAPTOR_NAME, "Interrupted while waiting for uploads", e);
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = toXenonException("Failed to upload file", e.getCause());
+                }
+            }
+
+            synchronized (uploads) {
+                uploads.remove(upload);
+            }
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static XenonException toXenonException(String message, Throwable e) {
+
+        if (e instanceof XenonException) {
+            return (XenonException) e;
+        }
+
+        if (e.getCause() instanceof XenonException) {
+            return (XenonException) e.getCause();
+        }
+
+        return new XenonException(ADAPTOR_NAME, message, e);
+    }
+
+    private static void deleteQuietly(java.nio.file.Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            // ignored
+        }
+    }
+
+    /*
+     * Return the directory containing an absolute path, or null for the root directory.
+     */
+    private static Path getParent(Path path) {
+
+        if (path.isEmpty()) {
+            return null;
+        }
+
+        Path parent = path.getParent();
+
+        return parent == null ? new Path(path.getSeparator(), true, Collections.emptyList()) : parent;
+    }
+
+    /*
+     * Forget the cached listings of the directory containing path, and of path itself and everything below it.
+     */
+    private void invalidateListings(Path path) {
+
+        Path parent = getParent(path);
+
+        synchronized (listings) {
+            if (parent != null) {
+                listings.remove(parent);
+            }
+
+            listings.keySet().removeIf(dir -> dir.startsWith(path));
+        }
+    }
+
+    /*
+     * Return the attributes of a file from a recent listing of its directory, or null if no such listing is cached.
+     */
+    private PathAttributes getListedAttributes(Path file) {
+
+        Path parent = getParent(file);
+
+        if (parent == null || listingTimeout <= 0) {
+            return null;
+        }
+
+        synchronized (listings) {
+            Listing listing = listings.get(parent);
+
+            if (listing == null || System.currentTimeMillis() - listing.time > listingTimeout) {
+                return null;
+            }
+
+            for (PathAttributes a : listing.entries) {
+                if (file.equals(a.getPath())) {
+                    return a;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /*
+     * Return the attributes of a remote file, taken from a recent listing of its directory if possible.
+     */
+    private PathAttributes getRemoteAttributes(Path file) throws XenonException {
+
+        PathAttributes attributes = getListedAttributes(file);
+
+        return attributes == null ? remote.getAttributes(file) : attributes;
+    }
+
+    private static boolean isCurrent(Entry entry, PathAttributes attributes) {
+        return entry.size == attributes.getSize() && entry.lastModified == attributes.getLastModifiedTime();
+    }
+
+    private InputStream openCached(Entry entry) throws IOException {
+        InputStream in = Files.newInputStream(entry.data);
+        index.hit(entry);
+        hits.incrementAndGet();
+        bytesFromCache.addAndGet(entry.size);
+        return in;
+    }
+
+    private Entry transfer(Path file, PathAttributes attributes) throws XenonException, IOException {
+
+        java.nio.file.Path tmp = index.createTemporaryFile();
+
+        try {
+            try (InputStream in = remote.readFromFile(file); OutputStream out = Files.newOutputStream(tmp)) {
+
+                byte[] buffer = new byte[getBufferSize()];
+
+                int n = in.read(buffer);
+
+                while (n >= 0) {
+                    out.write(buffer, 0, n);
+                    bytesFromRemote.addAndGet(n);
+                    n = in.read(buffer);
+                }
+            }
+
+            return index.add(file.toString(), tmp, attributes.getLastModifiedTime(), false);
+        } catch (IOException | XenonException | RuntimeException e) {
+            deleteQuietly(tmp);
+            throw e;
+        }
+    }
+
+    /*
+     * Download a file into the cache. If several threads need the same file, it is only downloaded once.
+     */
+    private Entry download(Path file, PathAttributes attributes) throws XenonException {
+
+        FutureTask<Entry> task = new FutureTask<>(() -> transfer(file, attributes));
+        FutureTask<Entry> running = downloads.putIfAbsent(file, task);
+
+        if (running == null) {
+            try {
+                task.run();
+            } finally {
+                downloads.remove(file, task);
+            }
+
+            running = task;
+        }
+
+        try {
+            return running.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new XenonException(ADAPTOR_NAME, "Interrupted while downloading " + file, e);
+        } catch (ExecutionException e) {
+            throw toXenonException("Failed to download " + file, e.getCause());
+        }
+    }
+
+    /*
+     * Download a file into the cache, and open the cached copy.
+     */
+    private InputStream fetch(Path file, PathAttributes attributes) throws XenonException {
+
+        misses.incrementAndGet();
+
+        if (attributes.getSize() > index.getMaxSize()) {
+            // Too large to cache
+            bytesFromRemote.addAndGet(attributes.getSize());
+            return remote.readFromFile(file);
+        }
+
+        Entry entry = download(file, attributes);
+
+        try {
+            return Files.newInputStream(entry.data);
+        } catch (IOException e) {
+            // Evicted before it could be opened, so read the remote file directly.
+            return remote.readFromFile(file);
+        }
+    }
+
+    @Override
+    public InputStream readFromFile(Path file) throws XenonException {
+
+        assertIsOpen();
+
+        Path absFile = toAbsolutePath(file);
+
+        Entry entry = index.get(absFile.toString());
+
+        if (entry != null && entry.dirty) {
+            // Written in write-back mode and not uploaded yet, so the cached copy is the only one.
+            try {
+                return openCached(entry);
+            } catch (IOException e) {
+                throw new XenonException(ADAPTOR_NAME, "Failed to read cached file " + absFile, e);
+            }
+        }
+
+        PathAttributes attributes = null;
+
+        if (validate || entry == null) {
+
+            attributes = getRemoteAttributes(absFile);
+
+            if (attributes.isSymbolicLink()) {
+                // The target may change without the link changing, so links are not cached.
+                misses.incrementAndGet();
+                return remote.readFromFile(absFile);
+            }
+
+            if (!attributes.isRegular()) {
+                throw new InvalidPathException(ADAPTOR_NAME, "Path is not a file: " + absFile);
+            }
+
+            if (entry != null && !isCurrent(entry, attributes)) {
+                index.invalidate(absFile.toString());
+                entry = null;
+            }
+        }
+
+        if (entry != null) {
+            try {
+                return openCached(entry);
+            } catch (IOException e) {
+                // Evicted in the meantime.
+                if (attributes == null) {
+                    attributes = remote.getAttributes(absFile);
+                }
+            }
+        }
+
+        return fetch(absFile, attributes);
+    }
+
+    /*
+     * Forwards the data written to a remote file to a temporary file in the cache, which is added to the cache when the file is complete.
+     */
+    private class WriteThroughOutputStream extends FilterOutputStream {
+
+        private final Path file;
+
+        private java.nio.file.Path tmp;
+        private OutputStream copy;
+        private long size = 0;
+        private boolean closed = false;
+
+        WriteThroughOutputStream(Path file, OutputStream out) throws IOException {
+            super(out);
+            this.file = file;
+            this.tmp = index.createTemporaryFile();
+            this.copy = Files.newOutputStream(tmp);
+        }
+
+        private void discard() {
+            if (copy != null) {
+                try {
+                    copy.close();
+                } catch (IOException e) {
+                    // ignored
+                }
+
+                deleteQuietly(tmp);
+                copy = null;
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+
+            out.write(b, off, len);
+
+            if (copy != null) {
+                size += len;
+
+                if (size > index.getMaxSize()) {
+                    // Too large to cache
+                    discard();
+                } else {
+                    try {
+                        copy.write(b, off, len);
+                    } catch (IOException e) {
+                        discard();
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void close() throws IOException {
+
+            if (closed) {
+                return;
+            }
+
+            closed = true;
+
+            try {
+                out.close();
+            } catch (IOException e) {
+                discard();
+                throw e;
+            }
+
+            if (copy == null) {
+                return;
+            }
+
+            try {
+                copy.close();
+                index.add(file.toString(), tmp, remote.getAttributes(file).getLastModifiedTime(), false);
+            } catch (IOException | XenonException e) {
+                // The file was written, only caching it failed.
+                deleteQuietly(tmp);
+            } finally {
+                copy = null;
+                invalidateListings(file);
+            }
+        }
+    }
+
+    /*
+     * Writes a file to the cache, and uploads it to the remote file system in the background when complete.
+     */
+    private class WriteBackOutputStream extends FilterOutputStream {
+
+        private final Path file;
+        private final java.nio.file.Path tmp;
+
+        private boolean closed = false;
+
+        WriteBackOutputStream(Path file, java.nio.file.Path tmp) throws IOException {
+            super(Files.newOutputStream(tmp));
+            this.file = file;
+            this.tmp = tmp;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+
+            if (closed) {
+                return;
+            }
+
+            closed = true;
+
+            Entry entry;
+
+            try {
+                out.close();
+                entry = index.add(file.toString(), tmp, 0, true);
+            } catch (IOException e) {
+                deleteQuietly(tmp);
+                throw e;
+            }
+
+            synchronized (uploads) {
+                failed.remove(file);
+                submitUpload(file, entry);
+            }
+        }
+    }
+
+    /*
+     * Start the upload of a cached file. The caller must hold the lock of uploads.
+     */
+    private void submitUpload(Path file, Entry entry) {
+        uploads.add(uploader.submit(() -> {
+            upload(file, entry);
+            return null;
+        }));
+    }
+
+    private void upload(Path file, Entry entry) throws XenonException, IOException {
+
+        if (index.get(file.toString()) != entry) {
+            // Replaced by a newer version of the file, which is uploaded separately.
+            return;
+        }
+
+        boolean partial = false;
+
+        try {
+            try (InputStream in = Files.newInputStream(entry.data); OutputStream out = remote.writeToFile(file, entry.size)) {
+
+                partial = true;
+
+                byte[] buffer = new byte[getBufferSize()];
+
+                int n = in.read(buffer);
+
+                while (n >= 0) {
+                    out.write(buffer, 0, n);
+                    n = in.read(buffer);
+                }
+            }
+
+            partial = false;
+        } catch (IOException | XenonException | RuntimeException e) {
+            // The cached copy is the only copy of the data, so it is kept until the upload is retried. What was written of the remote file is removed, so it
+            // does not stand in the way of the retry.
+            if (partial) {
+                deleteRemoteQuietly(file);
+            }
+
+            synchronized (uploads) {
+                failed.put(file, entry);
+            }
+
+            throw e;
+        } finally {
+            invalidateListings(file);
+        }
+
+        long lastModified = -1;
+
+        try {
+            lastModified = remote.getAttributes(file).getLastModifiedTime();
+        } catch (XenonException e) {
+            // The file was uploaded. Without its modification time, the cached copy is validated again when it is used.
+        }
+
+        index.clean(entry, lastModified);
+    }
+
+    private void deleteRemoteQuietly(Path file) {
+        try {
+            remote.delete(file, false);
+        } catch (XenonException e) {
+            // Nothing was written, or the file cannot be removed. Either way the retry reports the problem.
+        }
+    }
+
+    @Override
+    public OutputStream writeToFile(Path file, long size) throws XenonException {
+
+        assertIsOpen();
+        waitForUploads();
+
+        Path absFile = toAbsolutePath(file);
+
+        index.invalidate(absFile.toString());
+        invalidateListings(absFile);
+
+        if (writeBack) {
+
+            if (remote.exists(absFile)) {
+                throw new PathAlreadyExistsException(ADAPTOR_NAME, "File already exists: " + absFile);
+            }
+
+            Path parent = absFile.getParent();
+
+            if (parent != null && !remote.exists(parent)) {
+                throw new NoSuchPathException(ADAPTOR_NAME, "Parent directory does not exist: " + parent);
+            }
+
+            try {
+                return new WriteBackOutputStream(absFile, index.createTemporaryFile());
+            } catch (IOException e) {
+                throw new XenonException(ADAPTOR_NAME, "Failed to create cached file " + absFile, e);
+            }
+        }
+
+        OutputStream out = size < 0 ? remote.writeToFile(absFile) : remote.writeToFile(absFile, size);
+
+        try {
+            return new WriteThroughOutputStream(absFile, out);
+        } catch (IOException e) {
+            // Cannot cache the file, but it can still be written.
+            return out;
+        }
+    }
+
+    @Override
+    public OutputStream writeToFile(Path file) throws XenonException {
+        return writeToFile(file, -1);
+    }
+
+    @Override
+    public OutputStream appendToFile(Path file) throws XenonException {
+
+        assertIsOpen();
+        waitForUploads();
+
+        Path absFile = toAbsolutePath(file);
+
+        index.invalidate(absFile.toString());
+        invalidateListings(absFile);
+
+        return remote.appendToFile(absFile);
+    }
+
+    @Override
+    protected List<PathAttributes> listDirectory(Path dir) throws XenonException {
+
+        assertIsOpen();
+        waitForUploads();
+
+        if (listingTimeout > 0) {
+            synchronized (listings) {
+                Listing listing = listings.get(dir);
+
+                if (listing != null && System.currentTimeMillis() - listing.time <= listingTimeout) {
+                    listingHits.incrementAndGet();
+                    return new ArrayList<>(listing.entries);
+                }
+            }
+        }
+
+        listingMisses.incrementAndGet();
+
+        long time = System.currentTimeMillis();
+
+        ArrayList<PathAttributes> result = new ArrayList<>();
+
+        for (PathAttributes a : remote.list(dir, false)) {
+            result.add(a);
+        }
+
+        if (listingTimeout > 0) {
+            synchronized (listings) {
+                listings.put(dir, new Listing(time, new ArrayList<>(result)));
+            }
+        }
+
+        return result;
+    }
+
+    @Override
+    public boolean isOpen() throws XenonException {
+        return open;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Pending uploads are completed before the file system is closed. A temporary cache directory is removed.
+     */
+    @Override
+    public void close() throws XenonException {
+
+        synchronized (this) {
+            if (!open) {
+                return;
+            }
+
+            open = false;
+        }
+
+        try {
+            flush();
+        } finally {
+            try {
+                if (uploader != null) {
+                    uploader.shutdown();
+                }
+
+                if (temporary) {
+                    index.destroy();
+                }
+            } catch (IOException e) {
+                throw new XenonException(ADAPTOR_NAME, "Failed to remove cache directory " + index.getDirectory(), e);
+            } finally {
+                try {
+                    if (closeRemote) {
+                        remote.close();
+                    }
+                } finally {
+                    super.close();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void rename(Path source, Path target) throws XenonException {
+
+        assertIsOpen();
+        waitForUploads();
+
+        Path absSource = toAbsolutePath(source);
+        Path absTarget = toAbsolutePath(target);
+
+        try {
+            remote.rename(absSource, absTarget);
+        } finally {
+            index.invalidateAll(absSource.toString());
+            index.invalidateAll(absTarget.toString());
+            invalidateListings(absSource);
+            invalidateListings(absTarget);
+        }
+    }
+
+    @Override
+    public void createDirectory(Path dir) throws XenonException {
+
+        assertIsOpen();
+        waitForUploads();
+
+        Path absDir = toAbsolutePath(dir);
+
+        try {
+            remote.createDirectory(absDir);
+        } finally {
+            invalidateListings(absDir);
+        }
+    }
+
+    @Override
+    public void createFile(Path file) throws XenonException {
+
+        assertIsOpen();
+        waitForUploads();
+
+        Path absFile = toAbsolutePath(file);
+
+        try {
+            remote.createFile(absFile);
+        } finally {
+            invalidateListings(absFile);
+        }
+    }
+
+    @Override
+    public void createSymbolicLink(Path link, Path target) throws XenonException {
+
+        assertIsOpen();
+        waitForUploads();
+
+        Path absLink = toAbsolutePath(link);
+
+        try {
+            remote.createSymbolicLink(absLink, target);
+        } finally {
+            invalidateListings(absLink);
+        }
+    }
+
+    @Override
+    protected void deleteFile(Path file) throws XenonException {
+
+        waitForUploads();
+
+        try {
+            remote.delete(file, false);
+        } finally {
+            index.invalidate(file.toString());
+            invalidateListings(file);
+        }
+    }
+
+    @Override
+    protected void deleteDirectory(Path dir) throws XenonException {
+
+        waitForUploads();
+
+        try {
+            remote.delete(dir, false);
+        } finally {
+            index.invalidateAll(dir.toString());
+            invalidateListings(dir);
+        }
+    }
+
+    @Override
+    public boolean exists(Path path) throws XenonException {
+        assertIsOpen();
+        waitForUploads();
+        return remote.exists(toAbsolutePath(path));
+    }
+
+    @Override
+    public PathAttributes getAttributes(Path path) throws XenonException {
+        assertIsOpen();
+        waitForUploads();
+        return remote.getAttributes(toAbsolutePath(path));
+    }
+
+    @Override
+    public Path readSymbolicLink(Path link) throws XenonException {
+        assertIsOpen();
+        waitForUploads();
+        return remote.readSymbolicLink(toAbsolutePath(link));
+    }
+
+    @Override
+    public void setPosixFilePermissions(Path path, Set<PosixFilePermission> permissions) throws XenonException {
+
+        assertIsOpen();
+        waitForUploads();
+
+        Path absPath = toAbsolutePath(path);
+
+        try {
+            remote.setPosixFilePermissions(absPath, permissions);
+        } finally {
+            invalidateListings(absPath);
+        }
+    }
+}
@@ -0,0 +1,425 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.filesystems.cache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * The index of the files stored in a local cache directory.
+ *
+ * Each cached file is stored as a data file and a small metadata file, both named after a hash of the file system location and the path of the file. The
+ * metadata records the path, size and modification time of the original, and the access statistics used for eviction. This allows a cache directory to be
+ * reused by later processes, and shared by file systems on different locations.
+ *
+ * When the total size of the cached files exceeds the maximum size, unpinned files are evicted, either least recently used first or least frequently used
+ * first. All operations are synchronized.
+ */
+class CacheIndex {
+
+    private static final String DATA_SUFFIX = ".data";
+    private static final String META_SUFFIX = ".meta";
+    private static final String TMP_SUFFIX = ".tmp";
+
+    enum Eviction {
+        LRU, LFU
+    }
+
+    static class Entry {
+
+        final String key;
+        final String path;
+        final java.nio.file.Path data;
+
+        long size;
+        long lastModified;
+        long lastAccess;
+        long hits;
+        int pins;
+
+        /** Set while the file has been written locally, but not to the remote file system yet */
+        boolean dirty;
+
+        Entry(String key, String path, java.nio.file.Path data) {
+            this.key = key;
+            this.path = path;
+            this.data = data;
+        }
+
+        boolean isEvictable() {
+            return pins == 0 && !dirty;
+        }
+    }
+
+    private final java.nio.file.Path directory;
+    private final String location;
+    private final long maxSize;
+    private final Eviction eviction;
+
+    private final HashMap<String, Entry> entries = new HashMap<>();
+
+    private long size = 0;
+    private long evictions = 0;
+    private long tmpCount = 0;
+
+    CacheIndex(java.nio.file.Path directory, String location, long maxSize, Eviction eviction) throws IOException {
+        this.directory = directory;
+        this.location = location;
+        this.maxSize = maxSize;
+        this.eviction = eviction;
+
+        Files.createDirectories(directory);
+        load();
+    }
+
+    java.nio.file.Path getDirectory() {
+        return directory;
+    }
+
+    long getMaxSize() {
+        return maxSize;
+    }
+
+    synchronized long getSize() {
+        return size;
+    }
+
+    synchronized int getCount() {
+        return entries.size();
+    }
+
+    synchronized long getEvictions() {
+        return evictions;
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+
+        return sb.toString();
+    }
+
+    private String key(String path) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(location.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(path.getBytes(StandardCharsets.UTF_8));
+            return toHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private java.nio.file.Path meta(Entry entry) {
+        return directory.resolve(entry.key + META_SUFFIX);
+    }
+
+    /*
+     * Load the entries of this location from the cache directory. Incomplete entries, for example left behind by a process that was killed, are removed.
+     */
+    private void load() throws IOException {
+
+        try (DirectoryStream<java.nio.file.Path> stream = Files.newDirectoryStream(directory, "*" + META_SUFFIX)) {
+            for (java.nio.file.Path file : stream) {
+
+                Properties p = new Properties();
+
+                try (InputStream in = Files.newInputStream(file)) {
+                    p.load(in);
+                } catch (IOException e) {
+                    continue;
+                }
+
+                if (!location.equals(p.getProperty("location"))) {
+                    continue;
+                }
+
+                String name = file.getFileName().toString();
+                String key = name.substring(0, name.length() - META_SUFFIX.length());
+
+                Entry entry = new Entry(key, p.getProperty("path"), directory.resolve(key + DATA_SUFFIX));
+
+                try {
+                    entry.size = Long.parseLong(p.getProperty("size"));
+                    entry.lastModified = Long.parseLong(p.getProperty("lastModified"));
+                    entry.lastAccess = Long.parseLong(p.getProperty("lastAccess"));
+                    entry.hits = Long.parseLong(p.getProperty("hits"));
+                } catch (NumberFormatException e) {
+                    delete(entry);
+                    continue;
+                }
+
+                if (entry.path == null || !key.equals(key(entry.path)) || !Files.isRegularFile(entry.data) || Files.size(entry.data) != entry.size) {
+                    delete(entry);
+                    continue;
+                }
+
+                entries.put(key, entry);
+                size += entry.size;
+            }
+        }
+
+        evict(null);
+    }
+
+    private void writeMeta(Entry entry) {
+
+        Properties p = new Properties();
+        p.setProperty("location", location);
+        p.setProperty("path", entry.path);
+        p.setProperty("size", Long.toString(entry.size));
+        p.setProperty("lastModified", Long.toString(entry.lastModified));
+        p.setProperty("lastAccess", Long.toString(entry.lastAccess));
+        p.setProperty("hits", Long.toString(entry.hits));
+
+        java.nio.file.Path tmp = directory.resolve(entry.key + META_SUFFIX + TMP_SUFFIX);
+
+        try {
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                p.store(out, null);
+            }
+
+            Files.move(tmp, meta(entry), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // The metadata is only needed to reuse the entry in a later process.
+            deleteQuietly(tmp);
+        }
+    }
+
+    private static void deleteQuietly(java.nio.file.Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            // ignored
+        }
+    }
+
+    private void delete(Entry entry) {
+        // The metadata is deleted first, so a partially deleted entry is never loaded.
+        deleteQuietly(meta(entry));
+        deleteQuietly(entry.data);
+    }
+
+    private void remove(Entry entry) {
+        entries.remove(entry.key);
+        size -= entry.size;
+        delete(entry);
+    }
+
+    /**
+     * Evict unpinned entries until the cache fits its maximum size. The entry given is never evicted, as it is about to be used.
+     */
+    private void evict(Entry keep) {
+
+        if (size <= maxSize) {
+            return;
+        }
+
+        ArrayList<Entry> candidates = new ArrayList<>();
+
+        for (Entry e : entries.values()) {
+            if (e != keep && e.isEvictable()) {
+                candidates.add(e);
+            }
+        }
+
+        Comparator<Entry> order = Comparator.comparingLong(e -> e.lastAccess);
+
+        if (eviction == Eviction.LFU) {
+            order = Comparator.<Entry> comparingLong(e -> e.hits).thenComparing(order);
+        }
+
+        Collections.sort(candidates, order);
+
+        for (int i = 0; i < candidates.size() && size > maxSize; i++) {
+            remove(candidates.get(i));
+            evictions++;
+        }
+    }
+
+    /**
+     * Return the entry of a path, or null if the path is not cached.
+     */
+    synchronized Entry get(String path) {
+        return entries.get(key(path));
+    }
+
+    /**
+     * Record a cache hit on an entry.
+     */
+    synchronized void hit(Entry entry) {
+        entry.hits++;
+        entry.lastAccess = System.currentTimeMillis();
+
+        if (!entry.dirty) {
+            writeMeta(entry);
+        }
+    }
+
+    /**
+     * Return a new temporary file in the cache directory, to which a file can be downloaded before it is added to the cache.
+     */
+    synchronized java.nio.file.Path createTemporaryFile() throws IOException {
+        return Files.createFile(directory.resolve("download-" + System.nanoTime() + "-" + (tmpCount++) + TMP_SUFFIX));
+    }
+
+    /**
+     * Add a downloaded file to the cache, replacing any existing entry of the same path. The temporary file is moved into the cache.
+     *
+     * @return the new entry
+     */
+    synchronized Entry add(String path, java.nio.file.Path tmp, long lastModified, boolean dirty) throws IOException {
+
+        String key = key(path);
+
+        Entry old = entries.get(key);
+
+        int pins = 0;
+
+        if (old != null) {
+            pins = old.pins;
+            remove(old);
+        }
+
+        Entry entry = new Entry(key, path, directory.resolve(key + DATA_SUFFIX));
+        entry.size = Files.size(tmp);
+        entry.lastModified = lastModified;
+        entry.lastAccess = System.currentTimeMillis();
+        entry.pins = pins;
+        entry.dirty = dirty;
+
+        Files.move(tmp, entry.data, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        if (!dirty) {
+            writeMeta(entry);
+        }
+
+        entries.put(key, entry);
+        size += entry.size;
+
+        evict(entry);
+        return entry;
+    }
+
+    /**
+     * Mark a dirty entry as written to the remote file system.
+     */
+    synchronized void clean(Entry entry, long lastModified) {
+
+        if (entries.get(entry.key) != entry) {
+            return;
+        }
+
+        entry.dirty = false;
+        entry.lastModified = lastModified;
+        writeMeta(entry);
+        evict(null);
+    }
+
+    /**
+     * Remove the entry of a path from the cache, if it exists.
+     */
+    synchronized void invalidate(String path) {
+
+        Entry entry = entries.get(key(path));
+
+        if (entry != null && !entry.dirty) {
+            remove(entry);
+        }
+    }
+
+    /**
+     * Remove the entries of all paths in a directory from the cache.
+     */
+    synchronized void invalidateAll(String directory) {
+
+        String prefix = directory.endsWith("/") ? directory : directory + "/";
+
+        for (Entry e : new ArrayList<>(entries.values())) {
+            if (!e.dirty && (e.path.equals(directory) || e.path.startsWith(prefix))) {
+                remove(e);
+            }
+        }
+    }
+
+    /**
+     * Pin an entry, so it is not evicted.
+     *
+     * @return if the entry was pinned, or false if it is no longer in the cache
+     */
+    synchronized boolean pin(Entry entry) {
+
+        if (entries.get(entry.key) != entry) {
+            return false;
+        }
+
+        entry.pins++;
+        return true;
+    }
+
+    synchronized void unpin(String path) {
+
+        Entry entry = entries.get(key(path));
+
+        if (entry != null && entry.pins > 0) {
+            entry.pins--;
+            evict(null);
+        }
+    }
+
+    /**
+     * Return the entries in the cache.
+     */
+    synchronized List<Entry> getEntries() {
+        return new ArrayList<>(entries.values());
+    }
+
+    /**
+     * Remove all files from the cache directory, and the directory itself. Used for a temporary cache.
+     */
+    synchronized void destroy() throws IOException {
+
+        entries.clear();
+        size = 0;
+
+        try (DirectoryStream<java.nio.file.Path> stream = Files.newDirectoryStream(directory)) {
+            for (java.nio.file.Path file : stream) {
+                deleteQuietly(file);
+            }
+        }
+
+        Files.deleteIfExists(directory);
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.filesystems.cache;
+
+/**
+ * A snapshot of the statistics of a {@link CacheFileSystem}.
+ */
+public class CacheStatistics {
+
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+    private final long listingHits;
+    private final long listingMisses;
+    private final long bytesFromCache;
+    private final long bytesFromRemote;
+    private final long cachedFiles;
+    private final long cachedBytes;
+
+    CacheStatistics(long hits, long misses, long evictions, long listingHits, long listingMisses, long bytesFromCache, long bytesFromRemote,
+            long cachedFiles, long cachedBytes) {
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.listingHits = listingHits;
+        this.listingMisses = listingMisses;
+        this.bytesFromCache = bytesFromCache;
+        this.bytesFromRemote = bytesFromRemote;
+        this.cachedFiles = cachedFiles;
+        this.cachedBytes = cachedBytes;
+    }
+
+    /**
+     * @return the number of files read from the cache.
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of files read from the remote file system, because they were not cached or the cached copy was out of date.
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return the number of files evicted from the cache to make room for other files.
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return the number of directory listings served from the cache.
+     */
+    public long getListingHits() {
+        return listingHits;
+    }
+
+    /**
+     * @return the number of directory listings retrieved from the remote file system.
+     */
+    public long getListingMisses() {
+        return listingMisses;
+    }
+
+    /**
+     * @return the size of the files read from the cache (in bytes).
+     */
+    public long getBytesFromCache() {
+        return bytesFromCache;
+    }
+
+    /**
+     * @return the size of the files downloaded from the remote file system (in bytes).
+     */
+    public long getBytesFromRemote() {
+        return bytesFromRemote;
+    }
+
+    /**
+     * @return the number of files currently in the cache.
+     */
+    public long getCachedFiles() {
+        return cachedFiles;
+    }
+
+    /**
+     * @return the total size of the files currently in the cache (in bytes).
+     */
+    public long getCachedBytes() {
+        return cachedBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "CacheStatistics [hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + ", listingHits=" + listingHits + ", listingMisses="
+                + listingMisses + ", bytesFromCache=" + bytesFromCache + ", bytesFromRemote=" + bytesFromRemote + ", cachedFiles=" + cachedFiles
+                + ", cachedBytes=" + cachedBytes + "]";
+    }
+}
@@ -60,12 +60,17 @@ public class FtpFileAdaptor extends FileAdaptor {
     /** The buffer size to use when copying data. */
     public static final String BUFFER_SIZE = PREFIX + "bufferSize";
 
+    /** The maximum number of idle transfer connections kept open for reuse. */
+    public static final String CONNECTION_POOL_SIZE = PREFIX + "connectionPoolSize";
+
     /** The locations supported by this adaptor */
     private static final String[] ADAPTOR_LOCATIONS = new String[] { "host[:port][/workdir]" };
 
     /** List of properties supported by this FTP adaptor */
     private static final XenonPropertyDescription[] VALID_PROPERTIES = new XenonPropertyDescription[] {
-            new XenonPropertyDescription(BUFFER_SIZE, Type.SIZE, "64K", "The buffer size to use when copying files (in bytes).") };
+            new XenonPropertyDescription(BUFFER_SIZE, Type.SIZE, "64K", "The buffer size to use when copying files (in bytes)."),
+            new XenonPropertyDescription(CONNECTION_POOL_SIZE, Type.INTEGER, "4",
+                    "The maximum number of idle transfer connections kept open for reuse by subsequent reads and writes.") };
 
     public FtpFileAdaptor() {
         super(ADAPTOR_NAME, ADAPTOR_DESCRIPTION, ADAPTOR_LOCATIONS, VALID_PROPERTIES);
@@ -131,6 +136,12 @@ public class FtpFileAdaptor extends FileAdaptor {
                     "Invalid value for " + BUFFER_SIZE + ": " + bufferSize + " (must be between 1 and " + Integer.MAX_VALUE + ")");
         }
 
+        int poolSize = xp.getIntegerProperty(CONNECTION_POOL_SIZE);
+
+        if (poolSize < 0) {
+            throw new InvalidPropertyException(ADAPTOR_NAME, "Invalid value for " + CONNECTION_POOL_SIZE + ": " + poolSize + " (must be 0 or larger)");
+        }
+
         FTPClient ftpClient = connect(location, credential);
 
         String cwd = null;
@@ -148,7 +159,7 @@ public class FtpFileAdaptor extends FileAdaptor {
 
         LOGGER.debug("CWD is {}", cwd);
 
-        return new FtpFileSystem(getNewUniqueID(), ADAPTOR_NAME, location, new Path(cwd), (int) bufferSize, ftpClient, credential, this, xp);
+        return new FtpFileSystem(getNewUniqueID(), ADAPTOR_NAME, location, new Path(cwd), (int) bufferSize, poolSize, ftpClient, credential, this, xp);
     }
 
     private String getCurrentWorkingDirectory(FTPClient ftpClient, String location) throws XenonException {
@@ -223,6 +234,11 @@ public class FtpFileAdaptor extends FileAdaptor {
         return true;
     }
 
+    @Override
+    public boolean canWriteAtOffset() {
+        return true;
+    }
+
     @SuppressWarnings("rawtypes")
     @Override
     public Class[] getSupportedCredentials() {
@@ -22,6 +22,7 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.HashSet;
@@ -31,6 +32,7 @@ import java.util.Set;
 import org.apache.commons.net.ftp.FTPClient;
 import org.apache.commons.net.ftp.FTPFile;
 import org.apache.commons.net.ftp.FTPFileFilters;
+import org.apache.commons.net.ftp.FTPReply;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -61,7 +63,13 @@ public class FtpFileSystem extends FileSystem {
     private final Credential credential;
     private final FtpFileAdaptor adaptor;
 
-    private static class CloseableClient implements Closeable {
+    /** The maximum number of idle transfer clients to keep */
+    private final int poolSize;
+
+    /** Idle transfer clients that can be reused by the next read or write */
+    private final ArrayDeque<FTPClient> idleClients = new ArrayDeque<>();
+
+    private class CloseableClient implements Closeable {
 
         private final FTPClient client;
         private boolean closed = false;
@@ -75,18 +83,26 @@ public class FtpFileSystem extends FileSystem {
             // Added functionality:
             if (!closed) {
                 closed = true;
-                client.completePendingCommand();
-                client.disconnect();
+
+                boolean completed = false;
+
+                try {
+                    completed = client.completePendingCommand();
+                } finally {
+                    // Only a client that cleanly finished its transfer can be reused.
+                    releaseTransferClient(client, completed);
+                }
             }
         }
     }
 
-    protected FtpFileSystem(String uniqueID, String name, String location, Path entryPath, int bufferSize, FTPClient ftpClient, Credential credential,
-            FtpFileAdaptor adaptor, XenonProperties properties) {
+    protected FtpFileSystem(String uniqueID, String name, String location, Path entryPath, int bufferSize, int poolSize, FTPClient ftpClient,
+            Credential credential, FtpFileAdaptor adaptor, XenonProperties properties) {
         super(uniqueID, name, location, credential, entryPath, bufferSize, properties);
         this.ftpClient = ftpClient;
         this.credential = credential;
         this.adaptor = adaptor;
+        this.poolSize = poolSize;
     }
 
     @Override
@@ -101,6 +117,8 @@ public class FtpFileSystem extends FileSystem {
             ftpClient.disconnect();
         } catch (IOException e) {
             throw new XenonException(ADAPTOR_NAME, "Exception while disconnecting ftp file system.", e);
+        } finally {
+            disconnectIdleClients();
         }
 
         super.close();
@@ -113,6 +131,73 @@ public class FtpFileSystem extends FileSystem {
         return ftpClient.isConnected();
     }
 
+    /**
+     * Get a connected client for a single transfer.
+     *
+     * Since FTP connections can only do a single thing a time, each transfer needs a client of its own. Clients that completed a previous transfer are reused
+     * when possible, otherwise a new connection is created.
+     *
+     * @return a connected and logged in client in passive binary mode.
+     * @throws XenonException
+     *             if no new client could be connected.
+     */
+    private FTPClient getTransferClient() throws XenonException {
+
+        FTPClient client;
+
+        while ((client = pollIdleClient()) != null) {
+            try {
+                // Check if the server did not drop the idle connection in the mean time.
+                if (client.sendNoOp()) {
+                    LOGGER.debug("Reusing idle transfer client");
+                    return client;
+                }
+            } catch (IOException e) {
+                LOGGER.debug("Dropping broken idle transfer client", e);
+            }
+            disconnect(client);
+        }
+
+        client = adaptor.connect(getLocation(), credential);
+        client.enterLocalPassiveMode();
+        return client;
+    }
+
+    private synchronized FTPClient pollIdleClient() {
+        return idleClients.poll();
+    }
+
+    private void releaseTransferClient(FTPClient client, boolean reusable) {
+
+        if (reusable && client.isConnected()) {
+            synchronized (this) {
+                if (ftpClient.isConnected() && idleClients.size() < poolSize) {
+                    idleClients.push(client);
+                    return;
+                }
+            }
+        }
+
+        disconnect(client);
+    }
+
+    private void disconnectIdleClients() {
+
+        FTPClient client;
+
+        while ((client = pollIdleClient()) != null) {
+            disconnect(client);
+        }
+    }
+
+    private void disconnect(FTPClient client) {
+        try {
+            client.disconnect();
+        } catch (IOException e) {
+            LOGGER.debug("Failed to disconnect transfer client", e);
+        }
+    }
+
     private HashSet<PosixFilePermission> getPermissions(FTPFile attributes) {
         HashSet<PosixFilePermission> permissions = new HashSet<>();
         for (int userType : USER_TYPES) {
@@ -424,26 +509,51 @@ public class FtpFileSystem extends FileSystem {
 
     @Override
     public InputStream readFromFile(Path path) throws XenonException {
-        LOGGER.debug("newInputStream path = {}", path);
+        return readFromFile(path, 0);
+    }
 
+    /**
+     * {@inheritDoc}
+     *
+     * The FTP <code>REST</code> command is used to let the server start the transfer at <code>offset</code>, so the skipped data is never transferred.
+     */
+    @Override
+    public InputStream readFromFile(Path path, long offset) throws XenonException {
+        LOGGER.debug("readFromFile path = {} offset = {}", path, offset);
+
+        assertValidOffset(offset);
         assertIsOpen();
         Path absPath = toAbsolutePath(path);
-        assertPathExists(absPath);
-        assertPathIsFile(absPath);
 
-        // Since FTP connections can only do a single thing a time, we need a
-        // new FTPClient to handle the stream.
-        FTPClient newClient = adaptor.connect(getLocation(), credential);
-        newClient.enterLocalPassiveMode();
+        FTPFile info = getFTPFileInfo(absPath);
+
+        if (!info.isFile()) {
+            throw new InvalidPathException(ADAPTOR_NAME, "Path is not a file: " + absPath);
+        }
+
+        if (offset > 0 && offset >= info.getSize()) {
+            // Nothing left to read. Some servers refuse a restart beyond the end of the file.
+            return new ByteArrayInputStream(new byte[0]);
+        }
+
+        FTPClient client = getTransferClient();
 
         try {
-            InputStream in = newClient.retrieveFileStream(absPath.toString());
+            client.setRestartOffset(offset);
+            InputStream in = client.retrieveFileStream(absPath.toString());
 
-            checkClientReply(newClient, "Failed to read from path: " + absPath.toString());
+            if (in == null) {
+                checkClientReply(client, "Failed to read from path: " + absPath.toString());
+                throw new XenonException(ADAPTOR_NAME, "Failed to read from path: " + absPath);
+            }
 
-            return new TransferClientInputStream(in, new CloseableClient(newClient));
+            return new TransferClientInputStream(in, new CloseableClient(client));
         } catch (IOException e) {
-            throw new XenonException(ADAPTOR_NAME, "Failed to read from path: " + absPath);
+            disconnect(client);
+            throw new XenonException(ADAPTOR_NAME, "Failed to read from path: " + absPath, e);
+        } catch (XenonException e) {
+            disconnect(client);
+            throw e;
         }
     }
 
@@ -456,19 +566,7 @@ public class FtpFileSystem extends FileSystem {
         assertPathNotExists(absPath);
         assertParentDirectoryExists(absPath);
 
-        // Since FTP connections can only do a single thing a time, we need a
-        // new FTPClient to handle the stream.
-        FTPClient newClient = adaptor.connect(getLocation(), credential);
-        newClient.enterLocalPassiveMode();
-
-        try {
-            newClient.setFileType(FTPClient.BINARY_FILE_TYPE);
-            OutputStream out = newClient.storeFileStream(absPath.toString());
-            checkClientReply(newClient, "Failed to write to path: " + absPath.toString());
-            return new TransferClientOutputStream(out, new CloseableClient(newClient));
-        } catch (IOException e) {
-            throw new XenonException(ADAPTOR_NAME, "Failed to write to path: " + absPath);
-        }
+        return store(getTransferClient(), absPath, false, "Failed to write to path: " + absPath);
     }
 
     @Override
@@ -485,20 +583,94 @@ public class FtpFileSystem extends FileSystem {
         assertPathExists(absPath);
         assertPathIsNotDirectory(absPath);
 
+        return store(getTransferClient(), absPath, true, "Failed to append to path: " + absPath);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * When <code>offset</code> is equal to the current size of the file, the data is appended using the FTP <code>APPE</code> command. Otherwise the
+     * <code>REST</code> command is used to let the subsequent <code>STOR</code> start at <code>offset</code>. Whether the data beyond the written range is
+     * kept in this case depends on the server. For an <code>offset</code> of <code>0</code> in a non-empty file an explicit <code>REST 0</code> is sent, as a
+     * plain <code>STOR</code> truncates the file. An <code>offset</code> beyond the end of the file is rejected.
+     */
+    @Override
+    public OutputStream writeToFileAt(Path path, long offset) throws XenonException {
+        LOGGER.debug("writeToFileAt path = {} offset = {}", path, offset);
+
+        assertValidOffset(offset);
+        assertIsOpen();
+        Path absPath = toAbsolutePath(path);
+
+        FTPFile info = getFTPFileInfo(absPath);
+
+        if (info.isDirectory()) {
+            throw new InvalidPathException(ADAPTOR_NAME, "Was expecting a regular file, but got a directory: " + absPath);
+        }
+
+        // REST beyond the end of the file would leave a gap, which servers fill (or reject) in different ways.
+        if (offset > info.getSize()) {
+            throw new IllegalArgumentException("Offset " + offset + " is beyond the end of " + absPath + " (size " + info.getSize() + ")");
+        }
+
+        String message = "Failed to write to path: " + absPath + " at offset " + offset;
+
+        if (offset == info.getSize()) {
+            return store(getTransferClient(), absPath, true, message);
+        }
+
+        FTPClient client = getTransferClient();
+
+        if (offset == 0) {
+            restartAtZero(client, message);
+        } else {
+            client.setRestartOffset(offset);
+        }
+
+        return store(client, absPath, false, message);
+    }
+
+    /*
+     * The client only sends a REST command for a positive offset, so send it ourselves. Without it, the STOR truncates the file.
+     */
+    private void restartAtZero(FTPClient client, String message) throws XenonException {
+
+        try {
+            if (!FTPReply.isPositiveIntermediate(client.rest("0"))) {
+                disconnect(client);
+                throw new XenonException(ADAPTOR_NAME, message, new IOException(client.getReplyString()));
+            }
+        } catch (IOException e) {
+            disconnect(client);
+            throw new XenonException(ADAPTOR_NAME, message, e);
+        }
+    }
+
+    private OutputStream store(FTPClient client, Path absPath, boolean append, String message) throws XenonException {
+
         try {
-            // Since FTP connections can only do a single thing a time, we need
-            // a new FTPClient to handle the stream.
-            FTPClient newClient = adaptor.connect(getLocation(), credential);
-            newClient.enterLocalPassiveMode();
-            OutputStream out = newClient.appendFileStream(absPath.toString());
+            client.setFileType(FTPClient.BINARY_FILE_TYPE);
+
+            OutputStream out;
+
+            if (append) {
+                out = client.appendFileStream(absPath.toString());
+            } else {
+                out = client.storeFileStream(absPath.toString());
+            }
 
             if (out == null) {
-                checkClientReply("Failed to append to path: " + absPath.toString());
+                checkClientReply(client, message);
+                throw new XenonException(ADAPTOR_NAME, message);
             }
 
-            return new TransferClientOutputStream(out, new CloseableClient(newClient));
+            return new TransferClientOutputStream(out, new CloseableClient(client));
         } catch (IOException e) {
-            throw new XenonException(ADAPTOR_NAME, "Failed to append to path: " + absPath);
+            disconnect(client);
+            throw new XenonException(ADAPTOR_NAME, message, e);
+        } catch (XenonException e) {
+            disconnect(client);
+            throw e;
         }
     }
 
@@ -57,12 +57,17 @@ public class LocalFileAdaptor extends FileAdaptor {
     /** The buffer size to use when copying data. */
     public static final String BUFFER_SIZE = PREFIX + "bufferSize";
 
+    /** The number of files hashed in parallel when computing the checksums of a directory. */
+    public static final String CHECKSUM_THREADS = PREFIX + "checksumThreads";
+
     /** The locations supported by the adaptor */
     private static final String[] ADAPTOR_LOCATIONS = new String[] { "(null)", "(empty string)", "[/workdir]", "driveletter:[/workdir]" };
 
     /** List of properties supported by this FTP adaptor */
     private static final XenonPropertyDescription[] VALID_PROPERTIES = new XenonPropertyDescription[] {
-            new XenonPropertyDescription(BUFFER_SIZE, Type.SIZE, "64K", "The buffer size to use when copying files (in bytes).") };
+            new XenonPropertyDescription(BUFFER_SIZE, Type.SIZE, "64K", "The buffer size to use when copying files (in bytes)."),
+            new XenonPropertyDescription(CHECKSUM_THREADS, Type.INTEGER, "4",
+                    "The number of files hashed in parallel when computing the checksums of a directory.") };
 
     public LocalFileAdaptor() {
         super(ADAPTOR_NAME, ADAPTOR_DESCRIPTION, ADAPTOR_LOCATIONS, VALID_PROPERTIES);
@@ -89,6 +94,11 @@ public class LocalFileAdaptor extends FileAdaptor {
         return true;
     }
 
+    @Override
+    public boolean canOpenWritableChannel() {
+        return true;
+    }
+
     @SuppressWarnings("rawtypes")
     @Override
     public Class[] getSupportedCredentials() {
@@ -119,9 +129,15 @@ public class LocalFileAdaptor extends FileAdaptor {
                     "Invalid value for " + BUFFER_SIZE + ": " + bufferSize + " (must be between 1 and " + Integer.MAX_VALUE + ")");
         }
 
+        int checksumThreads = xp.getIntegerProperty(CHECKSUM_THREADS);
+
+        if (checksumThreads < 1) {
+            throw new InvalidPropertyException(ADAPTOR_NAME, "Invalid value for " + CHECKSUM_THREADS + ": " + checksumThreads + " (must be at least 1)");
+        }
+
         Path entry = new Path(LocalFileSystemUtils.getLocalSeparator(), path);
         // for Windows remove the drive letter from entry?
 
-        return new LocalFileSystem(getNewUniqueID(), location, new DefaultCredential(), root, entry, (int) bufferSize, xp);
+        return new LocalFileSystem(getNewUniqueID(), location, new DefaultCredential(), root, entry, (int) bufferSize, checksumThreads, xp);
     }
 }
@@ -21,38 +21,78 @@ import static nl.esciencecenter.xenon.utils.LocalFileSystemUtils.getLocalRootles
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.SecureDirectoryStream;
+import java.nio.file.SimpleFileVisitor;
 import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributeView;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import nl.esciencecenter.xenon.XenonException;
 import nl.esciencecenter.xenon.adaptors.XenonProperties;
+import nl.esciencecenter.xenon.adaptors.filesystems.ChecksumUtils;
 import nl.esciencecenter.xenon.adaptors.filesystems.PathAttributesImplementation;
+import nl.esciencecenter.xenon.adaptors.filesystems.Watcher;
 import nl.esciencecenter.xenon.credentials.Credential;
+import nl.esciencecenter.xenon.filesystems.CopyMode;
 import nl.esciencecenter.xenon.filesystems.DirectoryNotEmptyException;
 import nl.esciencecenter.xenon.filesystems.FileSystem;
+import nl.esciencecenter.xenon.filesystems.InvalidPathException;
 import nl.esciencecenter.xenon.filesystems.NoSuchPathException;
 import nl.esciencecenter.xenon.filesystems.Path;
+import nl.esciencecenter.xenon.filesystems.PathAlreadyExistsException;
 import nl.esciencecenter.xenon.filesystems.PathAttributes;
 import nl.esciencecenter.xenon.filesystems.PosixFilePermission;
+import nl.esciencecenter.xenon.filesystems.WatchListener;
+import nl.esciencecenter.xenon.utils.DaemonThreadFactory;
 import nl.esciencecenter.xenon.utils.LocalFileSystemUtils;
 
 public class LocalFileSystem extends FileSystem {
 
+    /** Reads of at least this many bytes into a buffer are served by memory mapping the file */
+    private static final int MAP_THRESHOLD = 256 * 1024;
+
+    /** Size of the memory mapped chunks used to compute a checksum */
+    private static final long CHECKSUM_CHUNK_SIZE = 64L * 1024 * 1024;
+
+    /** The checksum algorithms that are computed natively, in order of preference */
+    private static final List<String> CHECKSUM_ALGORITHMS = Collections
+            .unmodifiableList(Arrays.asList(ChecksumUtils.SHA256, ChecksumUtils.SHA512, ChecksumUtils.SHA1, ChecksumUtils.MD5));
+
     private final String root;
 
-    protected LocalFileSystem(String uniqueID, String location, Credential credential, String root, Path entryPath, int bufferSize,
+    private final int checksumThreads;
+
+    protected LocalFileSystem(String uniqueID, String location, Credential credential, String root, Path entryPath, int bufferSize, int checksumThreads,
             XenonProperties properties) {
         super(uniqueID, ADAPTOR_NAME, location, credential, entryPath, bufferSize, properties);
         this.root = root;
+        this.checksumThreads = checksumThreads;
     }
 
     java.nio.file.Path javaPath(Path path) {
@@ -114,56 +154,86 @@ public class LocalFileSystem extends FileSystem {
 
     PathAttributes getLocalFileAttributes(Path p, java.nio.file.Path path) throws XenonException {
         try {
-            PathAttributesImplementation result = new PathAttributesImplementation();
+            return getLocalFileAttributes(p, path, null);
+        } catch (IOException e) {
+            throw new XenonException(ADAPTOR_NAME, "Cannot read attributes.", e);
+        }
+    }
+
+    /*
+     * Convert the attributes of a local file. If attributes are provided (for example by a tree walk), they are used instead of reading them again. On a
+     * posix system the file is then not accessed at all: the access flags are derived from the owner permissions, as the other adaptors do.
+     */
+    PathAttributes getLocalFileAttributes(Path p, java.nio.file.Path path, BasicFileAttributes attributes) throws IOException {
+
+        PathAttributesImplementation result = new PathAttributesImplementation();
+
+        result.setPath(p);
 
-            result.setPath(p);
+        boolean isWindows = LocalFileSystemUtils.isWindows();
+
+        BasicFileAttributes basicAttributes;
+
+        if (isWindows) {
             result.setExecutable(Files.isExecutable(path));
             result.setReadable(Files.isReadable(path));
-            result.setReadable(Files.isWritable(path));
+            result.setWritable(Files.isWritable(path));
 
-            boolean isWindows = LocalFileSystemUtils.isWindows();
+            // The Files.isHidden seems to fail in Windows, so we directly set it to false.
+            result.setHidden(false);
 
-            BasicFileAttributes basicAttributes;
+            // These should always work.
+            basicAttributes = attributes != null ? attributes : Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
 
-            if (isWindows) {
-                // The Files.isHidden seems to fail in Windows, so we directly set it to false.
-                result.setHidden(false);
+        } else {
+            // This is what Files.isHidden does on posix systems.
+            java.nio.file.Path name = path.getFileName();
+            result.setHidden(name != null && name.toString().startsWith("."));
 
-                // These should always work.
-                basicAttributes = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            // Note: when in a posix environment, basicAttributes point to
+            // posixAttributes. The attributes produced by a tree walk usually
+            // are posix attributes already.
+            PosixFileAttributes posixAttributes;
 
+            if (attributes instanceof PosixFileAttributes) {
+                posixAttributes = (PosixFileAttributes) attributes;
             } else {
-                result.setHidden(Files.isHidden(path));
+                posixAttributes = Files.readAttributes(path, PosixFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            }
 
-                // Note: when in a posix environment, basicAttributes point to
-                // posixAttributes.
-                java.nio.file.attribute.PosixFileAttributes posixAttributes = Files.readAttributes(path, java.nio.file.attribute.PosixFileAttributes.class,
-                        LinkOption.NOFOLLOW_LINKS);
+            basicAttributes = posixAttributes;
 
-                basicAttributes = posixAttributes;
+            Set<PosixFilePermission> permissions = xenonPermissions(posixAttributes.permissions());
 
-                result.setOwner(posixAttributes.owner().getName());
-                result.setGroup(posixAttributes.group().getName());
-                result.setPermissions(xenonPermissions(posixAttributes.permissions()));
+            if (attributes == null) {
+                result.setExecutable(Files.isExecutable(path));
+                result.setReadable(Files.isReadable(path));
+                result.setWritable(Files.isWritable(path));
+            } else {
+                result.setExecutable(permissions.contains(PosixFilePermission.OWNER_EXECUTE));
+                result.setReadable(permissions.contains(PosixFilePermission.OWNER_READ));
+                result.setWritable(permissions.contains(PosixFilePermission.OWNER_WRITE));
             }
 
-            result.setCreationTime(basicAttributes.creationTime().toMillis());
-            result.setLastAccessTime(basicAttributes.lastAccessTime().toMillis());
-            result.setLastModifiedTime(basicAttributes.lastModifiedTime().toMillis());
+            result.setOwner(posixAttributes.owner().getName());
+            result.setGroup(posixAttributes.group().getName());
+            result.setPermissions(permissions);
+        }
 
-            result.setDirectory(basicAttributes.isDirectory());
-            result.setRegular(basicAttributes.isRegularFile());
-            result.setSymbolicLink(basicAttributes.isSymbolicLink());
-            result.setOther(basicAttributes.isOther());
+        result.setCreationTime(basicAttributes.creationTime().toMillis());
+        result.setLastAccessTime(basicAttributes.lastAccessTime().toMillis());
+        result.setLastModifiedTime(basicAttributes.lastModifiedTime().toMillis());
 
-            if (result.isRegular()) {
-                result.setSize(basicAttributes.size());
-            }
+        result.setDirectory(basicAttributes.isDirectory());
+        result.setRegular(basicAttributes.isRegularFile());
+        result.setSymbolicLink(basicAttributes.isSymbolicLink());
+        result.setOther(basicAttributes.isOther());
 
-            return result;
-        } catch (IOException e) {
-            throw new XenonException(ADAPTOR_NAME, "Cannot read attributes.", e);
+        if (result.isRegular()) {
+            result.setSize(basicAttributes.size());
         }
+
+        return result;
     }
 
     @Override
@@ -266,6 +336,354 @@ public class LocalFileSystem extends FileSystem {
         }
     }
 
+    /*
+     * The entries of a directory found while walking a tree, and the directories below it that have been walked so far.
+     */
+    private static class WalkedDirectory {
+
+        final Path path;
+        final ArrayList<PathAttributes> entries = new ArrayList<>();
+        final ArrayList<WalkedDirectory> subdirectories = new ArrayList<>();
+
+        WalkedDirectory(Path path) {
+            this.path = path;
+        }
+
+        // Add the entries of this directory first, followed by the content of each subdirectory, which is the order of the generic implementation.
+        void addTo(ArrayList<PathAttributes> list) {
+
+            list.addAll(entries);
+
+            for (WalkedDirectory d : subdirectories) {
+                d.addTo(list);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * A recursive listing is performed by a single {@link Files#walkFileTree} which provides the attributes of each entry, instead of listing and
+     * inspecting each directory separately. The entries are returned in the same order as the generic implementation: all entries of a directory,
+     * followed by the content of each of its subdirectories.
+     */
+    @Override
+    protected void list(Path dir, ArrayList<PathAttributes> list, boolean recursive) throws XenonException {
+
+        if (!recursive) {
+            super.list(dir, list, false);
+            return;
+        }
+
+        WalkedDirectory root = new WalkedDirectory(dir);
+
+        try {
+            Files.walkFileTree(javaPath(dir), new SimpleFileVisitor<java.nio.file.Path>() {
+
+                // The directories currently being walked.
+                private final ArrayDeque<WalkedDirectory> parents = new ArrayDeque<>();
+
+                @Override
+                public FileVisitResult preVisitDirectory(java.nio.file.Path d, BasicFileAttributes attributes) throws IOException {
+
+                    if (parents.isEmpty()) {
+                        // The directory being listed is not part of the result.
+                        parents.push(root);
+                    } else {
+                        WalkedDirectory parent = parents.peek();
+                        WalkedDirectory current = new WalkedDirectory(parent.path.resolve(d.getFileName().toString()));
+                        parent.entries.add(getLocalFileAttributes(current.path, d, attributes));
+                        parent.subdirectories.add(current);
+                        parents.push(current);
+                    }
+
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(java.nio.file.Path file, BasicFileAttributes attributes) throws IOException {
+                    WalkedDirectory parent = parents.peek();
+                    parent.entries.add(getLocalFileAttributes(parent.path.resolve(file.getFileName().toString()), file, attributes));
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(java.nio.file.Path d, IOException e) throws IOException {
+
+                    if (e != null) {
+                        throw e;
+                    }
+
+                    parents.pop();
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            throw new XenonException(ADAPTOR_NAME, "Failed to list directory: " + dir, e);
+        }
+
+        root.addTo(list);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * A recursive delete removes the tree relative to open directory handles if the platform supports a {@link SecureDirectoryStream}, which also prevents
+     * a concurrently created symbolic link from redirecting the delete outside of the tree. Otherwise {@link Files#walkFileTree} is used.
+     */
+    @Override
+    public void delete(Path path, boolean recursive) throws XenonException {
+
+        Path absPath = toAbsolutePath(path);
+
+        if (!recursive) {
+            super.delete(absPath, false);
+            return;
+        }
+
+        java.nio.file.Path p = javaPath(absPath);
+
+        BasicFileAttributes attributes;
+
+        try {
+            attributes = Files.readAttributes(p, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (NoSuchFileException e) {
+            throw new NoSuchPathException(ADAPTOR_NAME, "Path does not exist: " + absPath, e);
+        } catch (IOException e) {
+            throw new XenonException(ADAPTOR_NAME, "Failed to delete " + absPath, e);
+        }
+
+        if (!attributes.isDirectory()) {
+            deleteLocal(absPath);
+            return;
+        }
+
+        try {
+            deleteTree(p);
+        } catch (IOException e) {
+            throw new XenonException(ADAPTOR_NAME, "Failed to delete directory " + absPath, e);
+        }
+    }
+
+    private static void deleteTree(java.nio.file.Path dir) throws IOException {
+
+        boolean deleted = false;
+
+        try (DirectoryStream<java.nio.file.Path> stream = Files.newDirectoryStream(dir)) {
+            if (stream instanceof SecureDirectoryStream) {
+                deleteContent((SecureDirectoryStream<java.nio.file.Path>) stream);
+                deleted = true;
+            }
+        }
+
+        if (deleted) {
+            Files.delete(dir);
+            return;
+        }
+
+        Files.walkFileTree(dir, new SimpleFileVisitor<java.nio.file.Path>() {
+            @Override
+            public FileVisitResult visitFile(java.nio.file.Path file, BasicFileAttributes attributes) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(java.nio.file.Path d, IOException e) throws IOException {
+
+                if (e != null) {
+                    throw e;
+                }
+
+                Files.delete(d);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static void deleteContent(SecureDirectoryStream<java.nio.file.Path> dir) throws IOException {
+
+        for (java.nio.file.Path entry : dir) {
+
+            java.nio.file.Path name = entry.getFileName();
+
+            BasicFileAttributes attributes = dir.getFileAttributeView(name, BasicFileAttributeView.class, LinkOption.NOFOLLOW_LINKS).readAttributes();
+
+            if (attributes.isDirectory()) {
+                try (SecureDirectoryStream<java.nio.file.Path> sub = dir.newDirectoryStream(name, LinkOption.NOFOLLOW_LINKS)) {
+                    deleteContent(sub);
+                }
+                dir.deleteDirectory(name);
+            } else {
+                dir.deleteFile(name);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Files are copied directly if the destination is a local file system as well.
+     */
+    @Override
+    protected long nativeCopyFile(Path source, FileSystem destinationFS, Path destination, CopyMode mode) throws XenonException {
+
+        if (!(destinationFS instanceof LocalFileSystem)) {
+            return -1;
+        }
+
+        LocalFileSystem target = (LocalFileSystem) destinationFS;
+
+        java.nio.file.Path src = javaPath(source);
+        java.nio.file.Path dst = target.javaPath(destination);
+
+        BasicFileAttributes attributes;
+
+        try {
+            attributes = Files.readAttributes(src, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (NoSuchFileException e) {
+            throw new NoSuchPathException(ADAPTOR_NAME, "Path does not exist: " + source, e);
+        } catch (IOException e) {
+            throw new XenonException(ADAPTOR_NAME, "Failed to copy " + source, e);
+        }
+
+        if (!attributes.isRegularFile()) {
+            throw new InvalidPathException(ADAPTOR_NAME, "Source is not a regular file: " + source);
+        }
+
+        target.assertParentDirectoryExists(destination);
+
+        if (Files.exists(dst, LinkOption.NOFOLLOW_LINKS)) {
+            switch (mode) {
+            case CREATE:
+                throw new PathAlreadyExistsException(ADAPTOR_NAME, "Destination path already exists: " + destination);
+            case IGNORE:
+                return 0;
+            case REPLACE:
+                target.delete(destination, true);
+                // continue
+                break;
+            }
+        }
+
+        try {
+            Files.copy(src, dst, LinkOption.NOFOLLOW_LINKS);
+        } catch (FileAlreadyExistsException e) {
+            throw new PathAlreadyExistsException(ADAPTOR_NAME, "Destination path already exists: " + destination, e);
+        } catch (IOException e) {
+            throw new XenonException(ADAPTOR_NAME, "Failed to copy " + source + " to " + destination, e);
+        }
+
+        return attributes.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Large files are hashed in memory mapped chunks, so their content is not copied into the Java heap.
+     */
+    @Override
+    protected String nativeChecksum(Path file, String algorithm) throws XenonException {
+
+        MessageDigest digest = ChecksumUtils.createDigest(algorithm);
+
+        try (FileChannel channel = FileChannel.open(javaPath(file), StandardOpenOption.READ)) {
+
+            long size = channel.size();
+
+            if (size >= MAP_THRESHOLD) {
+                for (long offset = 0; offset < size; offset += CHECKSUM_CHUNK_SIZE) {
+                    digest.update(channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(CHECKSUM_CHUNK_SIZE, size - offset)));
+                }
+            } else {
+                ByteBuffer buffer = ByteBuffer.allocate((int) size);
+
+                while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                    // keep reading
+                }
+
+                buffer.flip();
+                digest.update(buffer);
+            }
+        } catch (NoSuchFileException e) {
+            throw new NoSuchPathException(ADAPTOR_NAME, "File does not exist: " + file, e);
+        } catch (IOException e) {
+            throw new XenonException(ADAPTOR_NAME, "Failed to compute checksum of " + file, e);
+        }
+
+        return ChecksumUtils.toHex(digest.digest());
+    }
+
+    @Override
+    protected List<String> getNativeChecksumAlgorithms() {
+        return CHECKSUM_ALGORITHMS;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * A single digest can only be computed sequentially, so the files are hashed in parallel instead.
+     */
+    @Override
+    protected Map<Path, String> checksumTree(Path dir, String algorithm, boolean recursive) throws XenonException {
+
+        ArrayList<PathAttributes> listing = new ArrayList<>();
+        list(dir, listing, recursive);
+
+        List<Path> files = new ArrayList<>();
+
+        for (PathAttributes p : listing) {
+            if (p.isRegular()) {
+                files.add(p.getPath());
+            }
+        }
+
+        Map<Path, String> result = new LinkedHashMap<>();
+
+        if (files.size() <= 1 || checksumThreads <= 1) {
+            for (Path file : files) {
+                result.put(file, nativeChecksum(file, algorithm));
+            }
+            return result;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(checksumThreads, files.size()), new DaemonThreadFactory("ChecksumThread"));
+
+        try {
+            List<Future<String>> checksums = new ArrayList<>(files.size());
+
+            for (Path file : files) {
+                checksums.add(executor.submit(() -> nativeChecksum(file, algorithm)));
+            }
+
+            for (int i = 0; i < files.size(); i++) {
+                result.put(files.get(i), checksums.get(i).get());
+            }
+
+            return result;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new XenonException(ADAPTOR_NAME, "Interrupted while computing checksums in " + dir, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof XenonException) {
+                throw (XenonException) e.getCause();
+            }
+            throw new XenonException(ADAPTOR_NAME, "Failed to compute checksums in " + dir, e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Changes are received from a {@link java.nio.file.WatchService} as they happen, so the interval is not used.
+     */
+    @Override
+    protected Watcher startWatch(Path dir, boolean recursive, long interval, WatchListener listener) throws XenonException {
+        return new LocalWatcher(this, dir, recursive, listener);
+    }
+
     @Override
     public InputStream readFromFile(Path path) throws XenonException {
 
@@ -309,6 +727,78 @@ public class LocalFileSystem extends FileSystem {
         }
     }
 
+    @Override
+    public SeekableByteChannel openChannel(Path path, boolean write) throws XenonException {
+
+        Path absPath = toAbsolutePath(path);
+        assertFileExists(absPath);
+
+        try {
+            if (write) {
+                return FileChannel.open(javaPath(absPath), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            }
+            return FileChannel.open(javaPath(absPath), StandardOpenOption.READ);
+        } catch (IOException e) {
+            throw new XenonException(ADAPTOR_NAME, "Failed to open channel.", e);
+        }
+    }
+
+    @Override
+    public ByteBuffer readToBuffer(Path path, long offset, int length) throws XenonException {
+
+        assertValidOffset(offset);
+        assertValidLength(length);
+
+        Path absPath = toAbsolutePath(path);
+        assertFileExists(absPath);
+
+        try (FileChannel channel = FileChannel.open(javaPath(absPath), StandardOpenOption.READ)) {
+
+            int len = (int) Math.max(0, Math.min(length, channel.size() - offset));
+
+            if (len >= MAP_THRESHOLD) {
+                // The mapping remains valid after the channel is closed.
+                return channel.map(FileChannel.MapMode.READ_ONLY, offset, len);
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocateDirect(len);
+
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, offset + buffer.position()) < 0) {
+                    break;
+                }
+            }
+
+            buffer.flip();
+            return buffer;
+        } catch (IOException e) {
+            throw new XenonException(ADAPTOR_NAME, "Failed to read from file " + absPath, e);
+        }
+    }
+
+    @Override
+    public void writeFromBuffer(Path path, ByteBuffer data) throws XenonException {
+
+        if (data == null) {
+            throw new IllegalArgumentException("Data is null");
+        }
+
+        Path absPath = toAbsolutePath(path);
+        assertPathNotExists(absPath);
+
+        try (FileChannel channel = FileChannel.open(javaPath(absPath), StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW)) {
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+        } catch (FileAlreadyExistsException e) {
+            throw new PathAlreadyExistsException(ADAPTOR_NAME, "File already exists: " + absPath, e);
+        } catch (NoSuchFileException e) {
+            throw new NoSuchPathException(ADAPTOR_NAME, "Parent directory does not exist: " + absPath, e);
+        } catch (IOException e) {
+            throw new XenonException(ADAPTOR_NAME, "Failed to write to file " + absPath, e);
+        }
+    }
+
     @Override
     public PathAttributes getAttributes(Path path) throws XenonException {
         Path absPath = toAbsolutePath(path);
@@ -0,0 +1,258 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.filesystems.local;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+import static nl.esciencecenter.xenon.adaptors.filesystems.local.LocalFileAdaptor.ADAPTOR_NAME;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import nl.esciencecenter.xenon.XenonException;
+import nl.esciencecenter.xenon.adaptors.filesystems.Watcher;
+import nl.esciencecenter.xenon.filesystems.Path;
+import nl.esciencecenter.xenon.filesystems.WatchEvent;
+import nl.esciencecenter.xenon.filesystems.WatchListener;
+import nl.esciencecenter.xenon.utils.DaemonThreadFactory;
+
+/**
+ * A Watcher that receives changes from a {@link WatchService}, so changes are delivered as they happen instead of being polled for.
+ *
+ * A {@link WatchService} only watches a single directory, so for a recursive watch every subdirectory is registered separately, including the
+ * subdirectories that are created while watching.
+ */
+class LocalWatcher implements Watcher, Runnable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LocalWatcher.class);
+
+    private final LocalFileSystem fileSystem;
+    private final boolean recursive;
+    private final WatchListener listener;
+
+    private final WatchService service;
+
+    /** The directory watched by each key. Only used by the watch thread after construction. */
+    private final Map<WatchKey, Path> keys = new HashMap<>();
+
+    private volatile boolean stopped = false;
+
+    LocalWatcher(LocalFileSystem fileSystem, Path dir, boolean recursive, WatchListener listener) throws XenonException {
+        this.fileSystem = fileSystem;
+        this.recursive = recursive;
+        this.listener = listener;
+
+        java.nio.file.Path javaDir = fileSystem.javaPath(dir);
+
+        try {
+            service = javaDir.getFileSystem().newWatchService();
+        } catch (IOException e) {
+            throw new XenonException(ADAPTOR_NAME, "Failed to watch " + dir, e);
+        }
+
+        try {
+            register(dir, javaDir, null);
+        } catch (IOException e) {
+            stop();
+            throw new XenonException(ADAPTOR_NAME, "Failed to watch " + dir, e);
+        }
+
+        new DaemonThreadFactory("LocalWatchThread").newThread(this).start();
+    }
+
+    private static Path resolve(Path dir, java.nio.file.Path relative) {
+
+        Path result = dir;
+
+        for (java.nio.file.Path element : relative) {
+            result = result.resolve(element.toString());
+        }
+
+        return result;
+    }
+
+    /*
+     * Register a directory and, for a recursive watch, all directories below it. If events is not null, a creation event is added for every path below the
+     * directory, as these may have been created before the directory was registered.
+     */
+    private void register(Path dir, java.nio.file.Path javaDir, List<WatchEvent> events) throws IOException {
+
+        if (!recursive) {
+            keys.put(javaDir.register(service, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), dir);
+            return;
+        }
+
+        Files.walkFileTree(javaDir, new SimpleFileVisitor<java.nio.file.Path>() {
+
+            @Override
+            public FileVisitResult preVisitDirectory(java.nio.file.Path current, BasicFileAttributes attributes) throws IOException {
+
+                Path path = dir;
+
+                if (!current.equals(javaDir)) {
+                    path = resolve(dir, javaDir.relativize(current));
+
+                    if (events != null) {
+                        events.add(new WatchEvent(WatchEvent.Kind.CREATED, path));
+                    }
+                }
+
+                keys.put(current.register(service, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), path);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(java.nio.file.Path current, BasicFileAttributes attributes) {
+
+                if (events != null) {
+                    events.add(new WatchEvent(WatchEvent.Kind.CREATED, resolve(dir, javaDir.relativize(current))));
+                }
+
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(java.nio.file.Path current, IOException e) {
+                // The path was deleted while walking the tree, which is reported separately.
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private List<WatchEvent> getEvents(WatchKey key, Path dir) {
+
+        List<WatchEvent> events = new ArrayList<>();
+
+        for (java.nio.file.WatchEvent<?> e : key.pollEvents()) {
+
+            if (e.kind() == OVERFLOW) {
+                events.add(new WatchEvent(WatchEvent.Kind.OVERFLOW, dir));
+                continue;
+            }
+
+            java.nio.file.Path name = (java.nio.file.Path) e.context();
+            Path path = dir.resolve(name.toString());
+            java.nio.file.Path javaPath = fileSystem.javaPath(path);
+
+            WatchEvent event;
+
+            if (e.kind() == ENTRY_CREATE) {
+                event = new WatchEvent(WatchEvent.Kind.CREATED, path);
+            } else if (e.kind() == ENTRY_DELETE) {
+                event = new WatchEvent(WatchEvent.Kind.DELETED, path);
+            } else if (!Files.isDirectory(javaPath, LinkOption.NOFOLLOW_LINKS)) {
+                event = new WatchEvent(WatchEvent.Kind.MODIFIED, path);
+            } else {
+                // The content of a subdirectory changed, which is reported by the events for its content.
+                continue;
+            }
+
+            // A single write may be reported several times.
+            if (!events.isEmpty() && events.get(events.size() - 1).equals(event)) {
+                continue;
+            }
+
+            events.add(event);
+
+            if (e.kind() == ENTRY_CREATE && recursive && Files.isDirectory(javaPath, LinkOption.NOFOLLOW_LINKS)) {
+                try {
+                    register(path, javaPath, events);
+                } catch (IOException ex) {
+                    LOGGER.warn("Failed to watch new directory {}", path, ex);
+                }
+            }
+        }
+
+        return events;
+    }
+
+    @Override
+    public void run() {
+
+        while (!stopped) {
+
+            WatchKey key;
+
+            try {
+                key = service.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ClosedWatchServiceException e) {
+                return;
+            }
+
+            Path dir = keys.get(key);
+
+            if (dir == null) {
+                key.cancel();
+                continue;
+            }
+
+            List<WatchEvent> events = getEvents(key, dir);
+
+            if (!key.reset()) {
+                // The directory was deleted.
+                keys.remove(key);
+            }
+
+            for (WatchEvent event : events) {
+                if (stopped) {
+                    return;
+                }
+
+                try {
+                    listener.onEvent(event);
+                } catch (RuntimeException e) {
+                    LOGGER.warn("Watch listener failed on {}", event, e);
+                }
+            }
+
+            if (keys.isEmpty()) {
+                LOGGER.debug("Stopped watching, directory was deleted");
+                stop();
+            }
+        }
+    }
+
+    @Override
+    public void stop() {
+
+        stopped = true;
+
+        try {
+            service.close();
+        } catch (IOException e) {
+            LOGGER.warn("Failed to close watch service", e);
+        }
+    }
+}
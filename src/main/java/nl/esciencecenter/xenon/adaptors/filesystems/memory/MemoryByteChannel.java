@@ -0,0 +1,134 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.filesystems.memory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * A {@link SeekableByteChannel} on the content of an in-memory file.
+ */
+class MemoryByteChannel implements SeekableByteChannel {
+
+    private final MemoryFileContent content;
+    private final boolean writable;
+
+    private long position = 0;
+    private boolean open = true;
+
+    MemoryByteChannel(MemoryFileContent content, boolean writable) {
+        this.content = content;
+        this.writable = writable;
+    }
+
+    private void assertOpen() throws ClosedChannelException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    private void assertWritable() {
+        if (!writable) {
+            throw new NonWritableChannelException();
+        }
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer dst) throws IOException {
+
+        assertOpen();
+
+        if (!dst.hasRemaining()) {
+            return 0;
+        }
+
+        int n = content.read(position, dst);
+
+        if (n > 0) {
+            position += n;
+        }
+
+        return n;
+    }
+
+    @Override
+    public synchronized int write(ByteBuffer src) throws IOException {
+
+        assertOpen();
+        assertWritable();
+
+        int n = content.write(position, src);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public synchronized long position() throws IOException {
+        assertOpen();
+        return position;
+    }
+
+    @Override
+    public synchronized SeekableByteChannel position(long newPosition) throws IOException {
+
+        assertOpen();
+
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("Position may not be negative: " + newPosition);
+        }
+
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public synchronized long size() throws IOException {
+        assertOpen();
+        return content.size();
+    }
+
+    @Override
+    public synchronized SeekableByteChannel truncate(long size) throws IOException {
+
+        assertOpen();
+        assertWritable();
+
+        if (size < 0) {
+            throw new IllegalArgumentException("Size may not be negative: " + size);
+        }
+
+        content.truncate(size);
+
+        if (position > size) {
+            position = size;
+        }
+
+        return this;
+    }
+
+    @Override
+    public synchronized boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public synchronized void close() {
+        open = false;
+    }
+}
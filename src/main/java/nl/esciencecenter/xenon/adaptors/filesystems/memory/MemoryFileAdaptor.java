@@ -0,0 +1,137 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.filesystems.memory;
+
+import java.util.Map;
+
+import nl.esciencecenter.xenon.InvalidCredentialException;
+import nl.esciencecenter.xenon.InvalidPropertyException;
+import nl.esciencecenter.xenon.XenonException;
+import nl.esciencecenter.xenon.XenonPropertyDescription;
+import nl.esciencecenter.xenon.XenonPropertyDescription.Type;
+import nl.esciencecenter.xenon.adaptors.XenonProperties;
+import nl.esciencecenter.xenon.adaptors.filesystems.FileAdaptor;
+import nl.esciencecenter.xenon.credentials.Credential;
+import nl.esciencecenter.xenon.credentials.DefaultCredential;
+import nl.esciencecenter.xenon.filesystems.FileSystem;
+
+/**
+ * MemoryFileAdaptor implements a Xenon <code>Files</code> adaptor that keeps all data in memory.
+ *
+ * The location is the name of a store. All file systems created on the same name share the same data, which is discarded when the last of these file systems
+ * is closed. If no location is given, the file system gets a private store. This makes the adaptor useful as a fast scratch area, and as a baseline for
+ * measuring the overhead of the copy engine and listing code without any I/O.
+ */
+public class MemoryFileAdaptor extends FileAdaptor {
+
+    /** Name of the memory adaptor is defined in the engine. */
+    public static final String ADAPTOR_NAME = "memory";
+
+    /** Memory properties start with this prefix. */
+    public static final String PREFIX = FileAdaptor.ADAPTORS_PREFIX + ADAPTOR_NAME + ".";
+
+    /** Description of the adaptor */
+    public static final String ADAPTOR_DESCRIPTION = "This is the memory file adaptor that implements file functionality in memory.";
+
+    /** The buffer size to use when copying data. */
+    public static final String BUFFER_SIZE = PREFIX + "bufferSize";
+
+    /** The size of the blocks in which file content is stored. */
+    public static final String BLOCK_SIZE = PREFIX + "blockSize";
+
+    /** Store file content off-heap. */
+    public static final String DIRECT = PREFIX + "direct";
+
+    /** The locations supported by the adaptor */
+    private static final String[] ADAPTOR_LOCATIONS = new String[] { "(null)", "(empty string)", "name" };
+
+    /** List of properties supported by this memory adaptor */
+    private static final XenonPropertyDescription[] VALID_PROPERTIES = new XenonPropertyDescription[] {
+            new XenonPropertyDescription(BUFFER_SIZE, Type.SIZE, "64K", "The buffer size to use when copying files (in bytes)."),
+            new XenonPropertyDescription(BLOCK_SIZE, Type.SIZE, "64K",
+                    "The size of the blocks in which file content is stored (in bytes). Only used when a new store is created."),
+            new XenonPropertyDescription(DIRECT, Type.BOOLEAN, "false",
+                    "Store file content in direct (off-heap) buffers. Only used when a new store is created.") };
+
+    public MemoryFileAdaptor() {
+        super(ADAPTOR_NAME, ADAPTOR_DESCRIPTION, ADAPTOR_LOCATIONS, VALID_PROPERTIES);
+    }
+
+    @Override
+    public boolean canCreateSymboliclinks() {
+        return true;
+    }
+
+    @Override
+    public boolean supportsReadingPosixPermissions() {
+        return true;
+    }
+
+    @Override
+    public boolean supportsSettingPosixPermissions() {
+        return true;
+    }
+
+    @Override
+    public boolean canWriteAtOffset() {
+        return true;
+    }
+
+    @Override
+    public boolean canOpenWritableChannel() {
+        return true;
+    }
+
+    @SuppressWarnings("rawtypes")
+    @Override
+    public Class[] getSupportedCredentials() {
+        // The memory adaptor supports these credentials
+        return new Class[] { DefaultCredential.class };
+    }
+
+    private static int getSize(XenonProperties xp, String name) throws XenonException {
+
+        long size = xp.getSizeProperty(name);
+
+        if (size <= 0 || size >= Integer.MAX_VALUE) {
+            throw new InvalidPropertyException(ADAPTOR_NAME, "Invalid value for " + name + ": " + size + " (must be between 1 and " + Integer.MAX_VALUE + ")");
+        }
+
+        return (int) size;
+    }
+
+    @Override
+    public FileSystem createFileSystem(String location, Credential credential, Map<String, String> properties) throws XenonException {
+
+        if (location == null) {
+            location = "";
+        }
+
+        if (credential != null && !(credential instanceof DefaultCredential)) {
+            throw new InvalidCredentialException(ADAPTOR_NAME, "Adaptor does not support this credential!");
+        }
+
+        XenonProperties xp = new XenonProperties(VALID_PROPERTIES, properties);
+
+        int bufferSize = getSize(xp, BUFFER_SIZE);
+        int blockSize = getSize(xp, BLOCK_SIZE);
+        boolean direct = xp.getBooleanProperty(DIRECT);
+
+        MemoryStore store = MemoryStore.acquire(location, blockSize, direct);
+
+        return new MemoryFileSystem(getNewUniqueID(), location, new DefaultCredential(), store, direct, bufferSize, xp);
+    }
+}
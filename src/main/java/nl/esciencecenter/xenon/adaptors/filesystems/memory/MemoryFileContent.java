@@ -0,0 +1,189 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.filesystems.memory;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+/**
+ * The content of a file in memory, stored as a list of fixed size blocks.
+ *
+ * Blocks are allocated when data is written to them, so a file only uses as much memory as it needs, and growing a file never copies the existing data.
+ * The blocks are either heap or direct (off-heap) buffers. All operations are synchronized, so the content can be used by several streams and channels at
+ * the same time.
+ */
+class MemoryFileContent {
+
+    private final int blockSize;
+    private final boolean direct;
+
+    private final ArrayList<ByteBuffer> blocks = new ArrayList<>();
+
+    private long size = 0;
+
+    private volatile long lastModifiedTime = System.currentTimeMillis();
+
+    MemoryFileContent(int blockSize, boolean direct) {
+        this.blockSize = blockSize;
+        this.direct = direct;
+    }
+
+    long getLastModifiedTime() {
+        return lastModifiedTime;
+    }
+
+    synchronized long size() {
+        return size;
+    }
+
+    /*
+     * Return the block containing position, positioned at that position, and limited to the end of the block or the end of the file, whichever comes first.
+     * The caller must hold the lock, and must only use the block until it releases it.
+     */
+    private ByteBuffer block(long position, long end) {
+        ByteBuffer block = blocks.get((int) (position / blockSize));
+        int offset = (int) (position % blockSize);
+        block.clear();
+        block.limit((int) Math.min(blockSize, offset + end - position));
+        block.position(offset);
+        return block;
+    }
+
+    /*
+     * Make sure all blocks up to the one containing the byte before end exist.
+     */
+    private void allocate(long end) {
+        long needed = (end + blockSize - 1) / blockSize;
+
+        while (blocks.size() < needed) {
+            blocks.add(direct ? ByteBuffer.allocateDirect(blockSize) : ByteBuffer.allocate(blockSize));
+        }
+    }
+
+    synchronized int read(long position, byte[] b, int off, int len) {
+
+        if (position >= size) {
+            return -1;
+        }
+
+        long end = Math.min(size, position + len);
+        long current = position;
+
+        while (current < end) {
+            ByteBuffer block = block(current, end);
+            int n = block.remaining();
+            block.get(b, off, n);
+            off += n;
+            current += n;
+        }
+
+        return (int) (end - position);
+    }
+
+    synchronized int read(long position, ByteBuffer dst) {
+
+        if (position >= size) {
+            return -1;
+        }
+
+        long end = Math.min(size, position + dst.remaining());
+        long current = position;
+
+        while (current < end) {
+            ByteBuffer block = block(current, end);
+            current += block.remaining();
+            dst.put(block);
+        }
+
+        return (int) (end - position);
+    }
+
+    synchronized void write(long position, byte[] b, int off, int len) {
+
+        long end = position + len;
+        allocate(end);
+
+        long current = position;
+
+        while (current < end) {
+            ByteBuffer block = block(current, end);
+            int n = block.remaining();
+            block.put(b, off, n);
+            off += n;
+            current += n;
+        }
+
+        size = Math.max(size, end);
+        lastModifiedTime = System.currentTimeMillis();
+    }
+
+    synchronized int write(long position, ByteBuffer src) {
+
+        int len = src.remaining();
+        long end = position + len;
+        allocate(end);
+
+        long current = position;
+        int limit = src.limit();
+
+        while (current < end) {
+            ByteBuffer block = block(current, end);
+            int n = block.remaining();
+            src.limit(src.position() + n);
+            block.put(src);
+            current += n;
+        }
+
+        src.limit(limit);
+
+        size = Math.max(size, end);
+        lastModifiedTime = System.currentTimeMillis();
+        return len;
+    }
+
+    synchronized void append(byte[] b, int off, int len) {
+        write(size, b, off, len);
+    }
+
+    synchronized void truncate(long newSize) {
+
+        if (newSize >= size) {
+            return;
+        }
+
+        long needed = (newSize + blockSize - 1) / blockSize;
+
+        while (blocks.size() > needed) {
+            blocks.remove(blocks.size() - 1);
+        }
+
+        // Clear the remainder of the last block, so the file reads as zeros if it grows again.
+        int offset = (int) (newSize % blockSize);
+
+        if (offset > 0) {
+            ByteBuffer block = blocks.get(blocks.size() - 1);
+            block.clear();
+            block.position(offset);
+
+            while (block.hasRemaining()) {
+                block.put((byte) 0);
+            }
+        }
+
+        size = newSize;
+        lastModifiedTime = System.currentTimeMillis();
+    }
+}
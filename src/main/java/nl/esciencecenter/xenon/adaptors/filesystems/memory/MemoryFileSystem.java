@@ -0,0 +1,445 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.filesystems.memory;
+
+import static nl.esciencecenter.xenon.adaptors.filesystems.memory.MemoryFileAdaptor.ADAPTOR_NAME;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+
+import nl.esciencecenter.xenon.XenonException;
+import nl.esciencecenter.xenon.adaptors.XenonProperties;
+import nl.esciencecenter.xenon.adaptors.filesystems.PathAttributesImplementation;
+import nl.esciencecenter.xenon.adaptors.filesystems.PosixFileUtils;
+import nl.esciencecenter.xenon.adaptors.filesystems.memory.MemoryStore.DirectoryNode;
+import nl.esciencecenter.xenon.adaptors.filesystems.memory.MemoryStore.FileNode;
+import nl.esciencecenter.xenon.adaptors.filesystems.memory.MemoryStore.LinkNode;
+import nl.esciencecenter.xenon.adaptors.filesystems.memory.MemoryStore.Node;
+import nl.esciencecenter.xenon.credentials.Credential;
+import nl.esciencecenter.xenon.filesystems.FileSystem;
+import nl.esciencecenter.xenon.filesystems.InvalidPathException;
+import nl.esciencecenter.xenon.filesystems.NoSuchPathException;
+import nl.esciencecenter.xenon.filesystems.Path;
+import nl.esciencecenter.xenon.filesystems.PathAlreadyExistsException;
+import nl.esciencecenter.xenon.filesystems.PathAttributes;
+import nl.esciencecenter.xenon.filesystems.PosixFilePermission;
+
+/**
+ * A file system that keeps all directories, files and symbolic links in memory.
+ *
+ * Symbolic links are followed wherever they occur in a path, so files can be read and written through a link. Like the local and sftp adaptors, a link
+ * that is the last element of a path is not followed when checking if the path exists, getting its attributes, reading the link, deleting or renaming it.
+ * Files are not copied natively, so a copy within or between memory file systems runs through the same copy engine as any other copy.
+ */
+public class MemoryFileSystem extends FileSystem {
+
+    private static final Path ROOT = new Path("/");
+
+    private static final String OWNER = System.getProperty("user.name");
+
+    private final MemoryStore store;
+    private final boolean direct;
+
+    private volatile boolean open = true;
+
+    protected MemoryFileSystem(String uniqueID, String location, Credential credential, MemoryStore store, boolean direct, int bufferSize,
+            XenonProperties properties) {
+        super(uniqueID, ADAPTOR_NAME, location, credential, ROOT, bufferSize, properties);
+        this.store = store;
+        this.direct = direct;
+    }
+
+    /*
+     * Return the file node of an existing file, following a symbolic link to the file. The caller must hold the lock of the store.
+     */
+    private FileNode getFileNode(Path path) throws XenonException {
+
+        Node node = store.getNode(path, true);
+
+        if (!(node instanceof FileNode)) {
+            throw new InvalidPathException(ADAPTOR_NAME, "Path is not a file: " + path);
+        }
+
+        return (FileNode) node;
+    }
+
+    private PathAttributes getAttributes(Path path, Node node) {
+
+        PathAttributesImplementation result = new PathAttributesImplementation();
+
+        int mode = node.mode;
+
+        result.setPath(path);
+        result.setDirectory(node instanceof DirectoryNode);
+        result.setRegular(node instanceof FileNode);
+        result.setSymbolicLink(node instanceof LinkNode);
+        result.setOther(false);
+        result.setHidden(path.getFileNameAsString() != null && path.getFileNameAsString().startsWith("."));
+
+        result.setReadable((mode & PosixFileUtils.READ_OWNER) != 0);
+        result.setWritable((mode & PosixFileUtils.WRITE_OWNER) != 0);
+        result.setExecutable((mode & PosixFileUtils.EXEC_OWNER) != 0);
+
+        result.setCreationTime(node.creationTime);
+        result.setLastAccessTime(node.lastAccessTime);
+        result.setLastModifiedTime(node.getLastModifiedTime());
+
+        if (node instanceof FileNode) {
+            result.setSize(((FileNode) node).content.size());
+        }
+
+        result.setOwner(OWNER);
+        result.setGroup(OWNER);
+        result.setPermissions(PosixFileUtils.bitsToPermissions(mode));
+
+        return result;
+    }
+
+    @Override
+    public boolean isOpen() throws XenonException {
+        return open;
+    }
+
+    @Override
+    public void close() throws XenonException {
+
+        synchronized (this) {
+            if (!open) {
+                return;
+            }
+
+            open = false;
+        }
+
+        try {
+            super.close();
+        } finally {
+            MemoryStore.release(store);
+        }
+    }
+
+    @Override
+    public void rename(Path source, Path target) throws XenonException {
+
+        assertIsOpen();
+
+        Path absSource = toAbsolutePath(source);
+        Path absTarget = toAbsolutePath(target);
+
+        if (areSamePaths(absSource, absTarget)) {
+            return;
+        }
+
+        if (absSource.isEmpty()) {
+            throw new InvalidPathException(ADAPTOR_NAME, "Cannot rename the root directory");
+        }
+
+        Lock lock = store.writeLock();
+        lock.lock();
+
+        try {
+            DirectoryNode sourceParent = store.findParent(absSource);
+            String sourceName = absSource.getFileNameAsString();
+            Node node = sourceParent.children.get(sourceName);
+
+            if (node == null) {
+                throw new NoSuchPathException(ADAPTOR_NAME, "Source does not exist: " + absSource);
+            }
+
+            if (absTarget.isEmpty() || store.find(absTarget, false) != null) {
+                throw new PathAlreadyExistsException(ADAPTOR_NAME, "Target already exists: " + absTarget);
+            }
+
+            DirectoryNode targetParent = store.findParent(absTarget);
+
+            if (node instanceof DirectoryNode && store.contains((DirectoryNode) node, targetParent)) {
+                throw new InvalidPathException(ADAPTOR_NAME, "Cannot move directory " + absSource + " into itself: " + absTarget);
+            }
+
+            sourceParent.children.remove(sourceName);
+            sourceParent.touch();
+            targetParent.children.put(absTarget.getFileNameAsString(), node);
+            targetParent.touch();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void createDirectory(Path dir) throws XenonException {
+        assertIsOpen();
+        store.insert(toAbsolutePath(dir), new DirectoryNode());
+    }
+
+    @Override
+    public void createFile(Path file) throws XenonException {
+        assertIsOpen();
+        store.insert(toAbsolutePath(file), store.createFileNode());
+    }
+
+    @Override
+    public void createSymbolicLink(Path link, Path target) throws XenonException {
+
+        assertIsOpen();
+
+        if (target == null) {
+            throw new IllegalArgumentException("Target is null");
+        }
+
+        store.insert(toAbsolutePath(link), new LinkNode(target));
+    }
+
+    @Override
+    protected void deleteFile(Path file) throws XenonException {
+        store.remove(file);
+    }
+
+    @Override
+    protected void deleteDirectory(Path dir) throws XenonException {
+        store.remove(dir);
+    }
+
+    @Override
+    public boolean exists(Path path) throws XenonException {
+
+        assertIsOpen();
+
+        Path absPath = toAbsolutePath(path);
+
+        Lock lock = store.readLock();
+        lock.lock();
+
+        try {
+            return store.find(absPath, false) != null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    protected List<PathAttributes> listDirectory(Path dir) throws XenonException {
+
+        assertIsOpen();
+
+        Lock lock = store.readLock();
+        lock.lock();
+
+        try {
+            Node node = store.getNode(dir, true);
+
+            if (!(node instanceof DirectoryNode)) {
+                throw new InvalidPathException(ADAPTOR_NAME, "Path is not a directory: " + dir);
+            }
+
+            node.lastAccessTime = System.currentTimeMillis();
+
+            ArrayList<PathAttributes> result = new ArrayList<>(((DirectoryNode) node).children.size());
+
+            for (Map.Entry<String, Node> entry : ((DirectoryNode) node).children.entrySet()) {
+                result.add(getAttributes(dir.resolve(entry.getKey()), entry.getValue()));
+            }
+
+            return result;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Return the content of an existing file, and mark the file as accessed.
+     */
+    private MemoryFileContent getContent(Path file) throws XenonException {
+
+        Lock lock = store.readLock();
+        lock.lock();
+
+        try {
+            FileNode node = getFileNode(file);
+            node.lastAccessTime = System.currentTimeMillis();
+            return node.content;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public InputStream readFromFile(Path file) throws XenonException {
+        return readFromFile(file, 0);
+    }
+
+    @Override
+    public InputStream readFromFile(Path file, long offset) throws XenonException {
+
+        assertIsOpen();
+        assertValidOffset(offset);
+
+        return new MemoryInputStream(getContent(toAbsolutePath(file)), offset);
+    }
+
+    @Override
+    public OutputStream writeToFile(Path file, long size) throws XenonException {
+
+        assertIsOpen();
+
+        FileNode node = store.createFileNode();
+        store.insert(toAbsolutePath(file), node);
+        return new MemoryOutputStream(node.content, 0, false);
+    }
+
+    @Override
+    public OutputStream writeToFile(Path file) throws XenonException {
+        return writeToFile(file, -1);
+    }
+
+    @Override
+    public OutputStream appendToFile(Path file) throws XenonException {
+        assertIsOpen();
+        return new MemoryOutputStream(getContent(toAbsolutePath(file)), 0, true);
+    }
+
+    @Override
+    public OutputStream writeToFileAt(Path file, long offset) throws XenonException {
+
+        assertIsOpen();
+        assertValidOffset(offset);
+
+        Path absFile = toAbsolutePath(file);
+        MemoryFileContent content = getContent(absFile);
+
+        if (offset > content.size()) {
+            throw new IllegalArgumentException("Offset " + offset + " is beyond the end of " + absFile + " (size " + content.size() + ")");
+        }
+
+        return new MemoryOutputStream(content, offset, false);
+    }
+
+    @Override
+    public SeekableByteChannel openChannel(Path file, boolean write) throws XenonException {
+        assertIsOpen();
+        return new MemoryByteChannel(getContent(toAbsolutePath(file)), write);
+    }
+
+    @Override
+    public ByteBuffer readToBuffer(Path file, long offset, int length) throws XenonException {
+
+        assertIsOpen();
+        assertValidOffset(offset);
+        assertValidLength(length);
+
+        MemoryFileContent content = getContent(toAbsolutePath(file));
+
+        int len = (int) Math.max(0, Math.min(length, content.size() - offset));
+
+        ByteBuffer buffer = direct ? ByteBuffer.allocateDirect(len) : ByteBuffer.allocate(len);
+
+        if (len > 0) {
+            content.read(offset, buffer);
+        }
+
+        buffer.flip();
+        return buffer;
+    }
+
+    @Override
+    public void writeFromBuffer(Path file, ByteBuffer data) throws XenonException {
+
+        if (data == null) {
+            throw new IllegalArgumentException("Data is null");
+        }
+
+        assertIsOpen();
+
+        FileNode node = store.createFileNode();
+        node.content.write(0, data);
+        store.insert(toAbsolutePath(file), node);
+    }
+
+    @Override
+    public PathAttributes getAttributes(Path path) throws XenonException {
+
+        assertIsOpen();
+
+        Path absPath = toAbsolutePath(path);
+
+        Lock lock = store.readLock();
+        lock.lock();
+
+        try {
+            return getAttributes(absPath, store.getNode(absPath, false));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Path readSymbolicLink(Path link) throws XenonException {
+
+        assertIsOpen();
+
+        Path absLink = toAbsolutePath(link);
+
+        Lock lock = store.readLock();
+        lock.lock();
+
+        try {
+            Node node = store.getNode(absLink, false);
+
+            if (!(node instanceof LinkNode)) {
+                throw new InvalidPathException(ADAPTOR_NAME, "Not a symbolic link: " + absLink);
+            }
+
+            Path target = ((LinkNode) node).target;
+
+            if (target.isAbsolute()) {
+                return target;
+            }
+
+            Path parent = absLink.getParent();
+            return parent == null ? ROOT.resolve(target) : parent.resolve(target);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void setPosixFilePermissions(Path path, Set<PosixFilePermission> permissions) throws XenonException {
+
+        if (permissions == null) {
+            throw new IllegalArgumentException("Permissions is null!");
+        }
+
+        assertIsOpen();
+
+        Path absPath = toAbsolutePath(path);
+
+        Lock lock = store.writeLock();
+        lock.lock();
+
+        try {
+            Node node = store.getNode(absPath, true);
+            node.mode = PosixFileUtils.permissionsToBits(permissions);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
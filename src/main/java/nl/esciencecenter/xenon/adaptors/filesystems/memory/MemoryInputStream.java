@@ -0,0 +1,90 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.filesystems.memory;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An {@link InputStream} reading the content of an in-memory file, starting at a given position.
+ */
+class MemoryInputStream extends InputStream {
+
+    private final MemoryFileContent content;
+
+    private long position;
+    private boolean closed = false;
+
+    MemoryInputStream(MemoryFileContent content, long position) {
+        this.content = content;
+        this.position = position;
+    }
+
+    private void assertOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] tmp = new byte[1];
+        return read(tmp, 0, 1) < 0 ? -1 : tmp[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+
+        assertOpen();
+
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        if (len == 0) {
+            return 0;
+        }
+
+        int n = content.read(position, b, off, len);
+
+        if (n > 0) {
+            position += n;
+        }
+
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+
+        assertOpen();
+
+        long skipped = Math.max(0, Math.min(n, content.size() - position));
+        position += skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        assertOpen();
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(0, content.size() - position));
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.filesystems.memory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An {@link OutputStream} writing to an in-memory file. The data is either written starting at a given position, or appended to the end of the file.
+ */
+class MemoryOutputStream extends OutputStream {
+
+    private final MemoryFileContent content;
+    private final boolean append;
+
+    private long position;
+    private boolean closed = false;
+
+    MemoryOutputStream(MemoryFileContent content, long position, boolean append) {
+        this.content = content;
+        this.position = position;
+        this.append = append;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        if (append) {
+            content.append(b, off, len);
+        } else {
+            content.write(position, b, off, len);
+            position += len;
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.filesystems.memory;
+
+import static nl.esciencecenter.xenon.adaptors.filesystems.memory.MemoryFileAdaptor.ADAPTOR_NAME;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import nl.esciencecenter.xenon.adaptors.filesystems.NodeTree;
+import nl.esciencecenter.xenon.filesystems.Path;
+
+/**
+ * The directory tree of an in-memory file system.
+ *
+ * A store with a name is shared by all file systems opened on that name, and is discarded when the last of these file systems is closed. A store without a
+ * name is private to a single file system.
+ *
+ * The structure of the tree is protected by a read-write lock, which must be held while the tree is searched or changed. The content of a file has its own
+ * lock, so reading or writing a file does not block other operations on the tree.
+ */
+class MemoryStore extends NodeTree<MemoryStore.Node, MemoryStore.DirectoryNode> {
+
+    /** Default permissions of a new file (rw-r--r--) */
+    static final int FILE_MODE = 0644;
+
+    /** Default permissions of a new directory (rwxr-xr-x) */
+    static final int DIRECTORY_MODE = 0755;
+
+    /** Permissions of a symbolic link (rwxrwxrwx) */
+    static final int LINK_MODE = 0777;
+
+    private static final HashMap<String, MemoryStore> STORES = new HashMap<>();
+
+    abstract static class Node {
+
+        final long creationTime = System.currentTimeMillis();
+
+        volatile long lastAccessTime = creationTime;
+        volatile long lastModifiedTime = creationTime;
+        volatile int mode;
+
+        Node(int mode) {
+            this.mode = mode;
+        }
+
+        long getLastModifiedTime() {
+            return lastModifiedTime;
+        }
+
+        void touch() {
+            lastModifiedTime = System.currentTimeMillis();
+            lastAccessTime = lastModifiedTime;
+        }
+    }
+
+    static class DirectoryNode extends Node {
+
+        final TreeMap<String, Node> children = new TreeMap<>();
+
+        DirectoryNode() {
+            super(DIRECTORY_MODE);
+        }
+    }
+
+    static class FileNode extends Node {
+
+        final MemoryFileContent content;
+
+        FileNode(MemoryFileContent content) {
+            super(FILE_MODE);
+            this.content = content;
+        }
+
+        @Override
+        long getLastModifiedTime() {
+            return Math.max(lastModifiedTime, content.getLastModifiedTime());
+        }
+    }
+
+    static class LinkNode extends Node {
+
+        final Path target;
+
+        LinkNode(Path target) {
+            super(LINK_MODE);
+            this.target = target;
+        }
+    }
+
+    private final String name;
+    private final int blockSize;
+    private final boolean direct;
+
+    private int references = 0;
+
+    private MemoryStore(String name, int blockSize, boolean direct) {
+        super(ADAPTOR_NAME, new DirectoryNode());
+        this.name = name;
+        this.blockSize = blockSize;
+        this.direct = direct;
+    }
+
+    /**
+     * Get the store with the given name, creating it if it does not exist yet. A new store is returned if the name is empty. Each store returned must be
+     * released when it is no longer used.
+     *
+     * The block size and direct setting are only used if a new store is created.
+     */
+    static synchronized MemoryStore acquire(String name, int blockSize, boolean direct) {
+
+        MemoryStore store = null;
+
+        if (!name.isEmpty()) {
+            store = STORES.get(name);
+        }
+
+        if (store == null) {
+            store = new MemoryStore(name, blockSize, direct);
+
+            if (!name.isEmpty()) {
+                STORES.put(name, store);
+            }
+        }
+
+        store.references++;
+        return store;
+    }
+
+    /**
+     * Release a store returned by {@link #acquire(String, int, boolean)}. The store is discarded when it is no longer used.
+     */
+    static synchronized void release(MemoryStore store) {
+
+        store.references--;
+
+        if (store.references == 0 && !store.name.isEmpty()) {
+            STORES.remove(store.name);
+        }
+    }
+
+    static synchronized boolean exists(String name) {
+        return STORES.containsKey(name);
+    }
+
+    @Override
+    protected DirectoryNode asDirectory(Node node) {
+        return node instanceof DirectoryNode ? (DirectoryNode) node : null;
+    }
+
+    @Override
+    protected Map<String, Node> getChildren(DirectoryNode dir) {
+        return dir.children;
+    }
+
+    @Override
+    protected Path getLinkTarget(Node node) {
+        return node instanceof LinkNode ? ((LinkNode) node).target : null;
+    }
+
+    @Override
+    protected void changed(DirectoryNode dir) {
+        dir.touch();
+    }
+
+    FileNode createFileNode() {
+        return new FileNode(new MemoryFileContent(blockSize, direct));
+    }
+}
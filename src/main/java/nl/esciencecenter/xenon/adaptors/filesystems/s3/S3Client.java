@@ -0,0 +1,522 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.filesystems.s3;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.util.EntityUtils;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import nl.esciencecenter.xenon.adaptors.filesystems.SegmentedInputStream;
+
+/**
+ * A minimal client for the S3 REST API, covering the requests needed by the S3 file system.
+ *
+ * Requests use path-style addressing (<code>endpoint/bucket/key</code>), which is supported by AWS as well as by S3 compatible stores. Requests are signed
+ * with AWS Signature Version 4, or sent anonymously if no signer is given. The payload of a request is not signed, so data does not have to be hashed
+ * before it is sent. All requests share the connection pool of the HTTP client.
+ */
+class S3Client implements SegmentedInputStream.RangeReader, Closeable {
+
+    private static final byte[] EMPTY = new byte[0];
+
+    static class ObjectInfo {
+
+        final String key;
+        final long size;
+        final long lastModified;
+        final String etag;
+
+        ObjectInfo(String key, long size, long lastModified, String etag) {
+            this.key = key;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.etag = etag;
+        }
+    }
+
+    static class Listing {
+
+        final List<ObjectInfo> objects = new ArrayList<>();
+        final List<String> prefixes = new ArrayList<>();
+
+        /** The token to retrieve the next page of the listing, or null if the listing is complete */
+        String nextToken;
+    }
+
+    /**
+     * An input stream on the body of a response. If the stream is closed before the end of the body is reached, the connection is closed instead of
+     * reading the remainder of the body, so abandoning a large download is cheap.
+     */
+    private static class ResponseInputStream extends FilterInputStream {
+
+        private final CloseableHttpResponse response;
+        private boolean eof = false;
+
+        ResponseInputStream(CloseableHttpResponse response, InputStream in) {
+            super(in);
+            this.response = response;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            eof = b < 0;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            eof = n < 0;
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (eof) {
+                // Returns the connection to the pool.
+                in.close();
+            } else {
+                response.close();
+            }
+        }
+    }
+
+    private final CloseableHttpClient client;
+    private final String endpoint;
+    private final String host;
+    private final String bucket;
+    private final S3Signer signer;
+
+    /**
+     * @param client
+     *            the HTTP client to use.
+     * @param endpoint
+     *            the URI of the server, without a path.
+     * @param bucket
+     *            the name of the bucket.
+     * @param signer
+     *            the signer of the requests, or null to send requests anonymously.
+     */
+    S3Client(CloseableHttpClient client, URI endpoint, String bucket, S3Signer signer) {
+        this.client = client;
+        this.endpoint = endpoint.getScheme() + "://" + endpoint.getRawAuthority();
+        this.host = endpoint.getRawAuthority();
+        this.bucket = bucket;
+        this.signer = signer;
+    }
+
+    String getBucket() {
+        return bucket;
+    }
+
+    String getEndpoint() {
+        return endpoint;
+    }
+
+    private String path(String key) {
+        return "/" + S3Signer.encode(bucket, false) + "/" + S3Signer.encode(key, true);
+    }
+
+    private static SortedMap<String, String> query(String... parameters) {
+
+        TreeMap<String, String> result = new TreeMap<>();
+
+        for (int i = 0; i < parameters.length; i += 2) {
+            if (parameters[i + 1] != null) {
+                result.put(parameters[i], parameters[i + 1]);
+            }
+        }
+
+        return result;
+    }
+
+    private CloseableHttpResponse execute(HttpRequestBase request, String path, SortedMap<String, String> query, Map<String, String> headers)
+            throws IOException {
+
+        StringBuilder uri = new StringBuilder(endpoint).append(path);
+
+        char separator = '?';
+
+        for (Map.Entry<String, String> e : query.entrySet()) {
+            uri.append(separator).append(S3Signer.encode(e.getKey(), false)).append('=').append(S3Signer.encode(e.getValue(), false));
+            separator = '&';
+        }
+
+        request.setURI(URI.create(uri.toString()));
+
+        TreeMap<String, String> signed = new TreeMap<>();
+
+        for (Map.Entry<String, String> e : headers.entrySet()) {
+            request.setHeader(e.getKey(), e.getValue());
+            signed.put(e.getKey().toLowerCase(), e.getValue());
+        }
+
+        if (signer != null) {
+            String dateTime = S3Signer.now();
+
+            request.setHeader("Host", host);
+            request.setHeader("x-amz-date", dateTime);
+            request.setHeader("x-amz-content-sha256", S3Signer.UNSIGNED_PAYLOAD);
+
+            signed.put("host", host);
+            signed.put("x-amz-date", dateTime);
+            signed.put("x-amz-content-sha256", S3Signer.UNSIGNED_PAYLOAD);
+
+            request.setHeader("Authorization", signer.authorization(request.getMethod(), path, query, signed, S3Signer.UNSIGNED_PAYLOAD, dateTime));
+        }
+
+        return client.execute(request);
+    }
+
+    private static Document parse(InputStream in) throws IOException {
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            factory.setExpandEntityReferences(false);
+            return factory.newDocumentBuilder().parse(in);
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new IOException("Failed to parse response", e);
+        }
+    }
+
+    private static String text(Element parent, String name) {
+
+        NodeList list = parent.getElementsByTagName(name);
+
+        if (list.getLength() == 0) {
+            return null;
+        }
+
+        return list.item(0).getTextContent();
+    }
+
+    /*
+     * Check if the start of a response body holds an error document.
+     */
+    private static boolean isError(byte[] body) {
+        return new String(body, 0, Math.min(body.length, 200), StandardCharsets.UTF_8).contains("<Error>");
+    }
+
+    private static S3ResponseException error(int status, byte[] body) {
+
+        if (body != null && body.length > 0) {
+            try {
+                Element root = parse(new ByteArrayInputStream(body)).getDocumentElement();
+                return new S3ResponseException(status, text(root, "Code"), text(root, "Message"));
+            } catch (IOException e) {
+                // Not an S3 error response
+            }
+        }
+
+        return new S3ResponseException(status, null, null);
+    }
+
+    /*
+     * Check the status of a response, and return its body. Some requests (copy, complete multipart upload) may fail after the status has been sent, in
+     * which case the body contains an error.
+     */
+    private static byte[] read(CloseableHttpResponse response, int... expected) throws IOException {
+
+        try {
+            HttpEntity entity = response.getEntity();
+            byte[] body = entity == null ? new byte[0] : EntityUtils.toByteArray(entity);
+
+            int status = response.getStatusLine().getStatusCode();
+
+            for (int e : expected) {
+                if (status == e) {
+                    if (status == HttpStatus.SC_OK && isError(body)) {
+                        throw error(HttpStatus.SC_INTERNAL_SERVER_ERROR, body);
+                    }
+                    return body;
+                }
+            }
+
+            throw error(status, body);
+        } finally {
+            response.close();
+        }
+    }
+
+    private static long parseTime(String value) {
+
+        if (value == null) {
+            return 0;
+        }
+
+        try {
+            return Instant.parse(value).toEpochMilli();
+        } catch (DateTimeParseException e) {
+            Date date = DateUtils.parseDate(value);
+            return date == null ? 0 : date.getTime();
+        }
+    }
+
+    /**
+     * Retrieve the metadata of an object.
+     *
+     * @return the metadata, or null if the object does not exist.
+     */
+    ObjectInfo head(String key) throws IOException {
+
+        try (CloseableHttpResponse response = execute(new HttpHead(), path(key), query(), Collections.emptyMap())) {
+
+            int status = response.getStatusLine().getStatusCode();
+
+            if (status == HttpStatus.SC_NOT_FOUND) {
+                return null;
+            }
+
+            if (status != HttpStatus.SC_OK) {
+                throw new S3ResponseException(status, null, null);
+            }
+
+            Header length = response.getFirstHeader("Content-Length");
+            Header modified = response.getFirstHeader("Last-Modified");
+            Header etag = response.getFirstHeader("ETag");
+
+            return new ObjectInfo(key, length == null ? 0 : Long.parseLong(length.getValue()), modified == null ? 0 : parseTime(modified.getValue()),
+                    etag == null ? null : etag.getValue());
+        }
+    }
+
+    static Listing parseListing(InputStream in) throws IOException {
+
+        Element root = parse(in).getDocumentElement();
+
+        Listing result = new Listing();
+
+        NodeList contents = root.getElementsByTagName("Contents");
+
+        for (int i = 0; i < contents.getLength(); i++) {
+            Element e = (Element) contents.item(i);
+            String size = text(e, "Size");
+            result.objects.add(new ObjectInfo(text(e, "Key"), size == null ? 0 : Long.parseLong(size), parseTime(text(e, "LastModified")), text(e, "ETag")));
+        }
+
+        NodeList prefixes = root.getElementsByTagName("CommonPrefixes");
+
+        for (int i = 0; i < prefixes.getLength(); i++) {
+            result.prefixes.add(text((Element) prefixes.item(i), "Prefix"));
+        }
+
+        if ("true".equals(text(root, "IsTruncated"))) {
+            result.nextToken = text(root, "NextContinuationToken");
+        }
+
+        return result;
+    }
+
+    /**
+     * List (a page of) the objects with a prefix, optionally grouping the keys that contain the delimiter after the prefix.
+     */
+    Listing list(String prefix, String delimiter, String token, int maxKeys) throws IOException {
+
+        SortedMap<String, String> query = query("list-type", "2", "prefix", prefix, "delimiter", delimiter, "continuation-token", token, "max-keys",
+                maxKeys > 0 ? Integer.toString(maxKeys) : null);
+
+        CloseableHttpResponse response = execute(new HttpGet(), "/" + S3Signer.encode(bucket, false), query, Collections.emptyMap());
+
+        return parseListing(new ByteArrayInputStream(read(response, HttpStatus.SC_OK)));
+    }
+
+    private InputStream open(CloseableHttpResponse response) throws IOException {
+
+        HttpEntity entity = response.getEntity();
+
+        if (entity == null) {
+            response.close();
+            return new ByteArrayInputStream(new byte[0]);
+        }
+
+        return new ResponseInputStream(response, entity.getContent());
+    }
+
+    /**
+     * Retrieve the content of an object.
+     */
+    InputStream get(String key, Map<String, String> headers) throws IOException {
+
+        CloseableHttpResponse response = execute(new HttpGet(), path(key), query(), headers);
+
+        if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK) {
+            read(response, HttpStatus.SC_OK);
+        }
+
+        return open(response);
+    }
+
+    @Override
+    public InputStream getRange(String key, long start, long end, Map<String, String> headers) throws IOException {
+
+        TreeMap<String, String> tmp = new TreeMap<>(headers);
+        tmp.put("Range", "bytes=" + start + "-" + (end >= 0 ? Long.toString(end) : ""));
+
+        CloseableHttpResponse response = execute(new HttpGet(), path(key), query(), tmp);
+
+        int status = response.getStatusLine().getStatusCode();
+
+        if (status == HttpStatus.SC_OK) {
+            // The range was ignored.
+            response.close();
+            return null;
+        }
+
+        if (status != HttpStatus.SC_PARTIAL_CONTENT) {
+            read(response, HttpStatus.SC_PARTIAL_CONTENT);
+        }
+
+        return open(response);
+    }
+
+    private CloseableHttpResponse send(HttpEntityEnclosingRequestBase request, String key, SortedMap<String, String> query, Map<String, String> headers,
+            byte[] data, int offset, int length) throws IOException {
+        request.setEntity(new ByteArrayEntity(data, offset, length));
+        return execute(request, path(key), query, headers);
+    }
+
+    /**
+     * Store an object in a single request.
+     */
+    void put(String key, byte[] data, int offset, int length) throws IOException {
+        read(send(new HttpPut(), key, query(), Collections.emptyMap(), data, offset, length), HttpStatus.SC_OK);
+    }
+
+    /**
+     * Delete an object. Deleting an object that does not exist is not an error.
+     */
+    void delete(String key) throws IOException {
+        read(execute(new HttpDelete(), path(key), query(), Collections.emptyMap()), HttpStatus.SC_NO_CONTENT, HttpStatus.SC_OK, HttpStatus.SC_NOT_FOUND);
+    }
+
+    /**
+     * Copy an object within the bucket on the server. Only supported for objects up to 5 GB.
+     */
+    void copy(String source, String target) throws IOException {
+        read(send(new HttpPut(), target, query(), Collections.singletonMap("x-amz-copy-source", path(source)), EMPTY, 0, 0), HttpStatus.SC_OK);
+    }
+
+    /**
+     * Start a multipart upload.
+     *
+     * @return the ID of the upload.
+     */
+    String createMultipartUpload(String key) throws IOException {
+
+        byte[] body = read(execute(new HttpPost(), path(key), query("uploads", ""), Collections.emptyMap()), HttpStatus.SC_OK);
+
+        String id = text(parse(new ByteArrayInputStream(body)).getDocumentElement(), "UploadId");
+
+        if (id == null) {
+            throw new IOException("Missing UploadId in response");
+        }
+
+        return id;
+    }
+
+    /**
+     * Upload a part of a multipart upload.
+     *
+     * @return the ETag of the part.
+     */
+    String uploadPart(String key, String uploadId, int partNumber, byte[] data, int length) throws IOException {
+
+        CloseableHttpResponse response = send(new HttpPut(), key, query("partNumber", Integer.toString(partNumber), "uploadId", uploadId),
+                Collections.emptyMap(), data, 0, length);
+
+        Header etag = response.getFirstHeader("ETag");
+
+        read(response, HttpStatus.SC_OK);
+
+        if (etag == null) {
+            throw new IOException("Missing ETag of part " + partNumber);
+        }
+
+        return etag.getValue();
+    }
+
+    /**
+     * Complete a multipart upload.
+     *
+     * @param etags
+     *            the ETags of the parts, in order.
+     */
+    void completeMultipartUpload(String key, String uploadId, List<String> etags) throws IOException {
+
+        StringBuilder xml = new StringBuilder("<CompleteMultipartUpload>");
+
+        for (int i = 0; i < etags.size(); i++) {
+            xml.append("<Part><PartNumber>").append(i + 1).append("</PartNumber><ETag>");
+            xml.append(etags.get(i).replace("&", "&amp;").replace("\"", "&quot;")).append("</ETag></Part>");
+        }
+
+        xml.append("</CompleteMultipartUpload>");
+
+        byte[] body = xml.toString().getBytes(StandardCharsets.UTF_8);
+
+        read(send(new HttpPost(), key, query("uploadId", uploadId), Collections.emptyMap(), body, 0, body.length), HttpStatus.SC_OK);
+    }
+
+    /**
+     * Abort a multipart upload, discarding the parts uploaded so far.
+     */
+    void abortMultipartUpload(String key, String uploadId) throws IOException {
+        read(execute(new HttpDelete(), path(key), query("uploadId", uploadId), Collections.emptyMap()), HttpStatus.SC_NO_CONTENT, HttpStatus.SC_OK,
+                HttpStatus.SC_NOT_FOUND);
+    }
+
+    @Override
+    public void close() throws IOException {
+        client.close();
+    }
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.filesystems.s3;
+
+import java.net.URI;
+import java.util.Map;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import nl.esciencecenter.xenon.InvalidCredentialException;
+import nl.esciencecenter.xenon.InvalidLocationException;
+import nl.esciencecenter.xenon.InvalidPropertyException;
+import nl.esciencecenter.xenon.XenonException;
+import nl.esciencecenter.xenon.XenonPropertyDescription;
+import nl.esciencecenter.xenon.XenonPropertyDescription.Type;
+import nl.esciencecenter.xenon.adaptors.XenonProperties;
+import nl.esciencecenter.xenon.adaptors.filesystems.FileAdaptor;
+import nl.esciencecenter.xenon.credentials.Credential;
+import nl.esciencecenter.xenon.credentials.DefaultCredential;
+import nl.esciencecenter.xenon.credentials.PasswordCredential;
+import nl.esciencecenter.xenon.filesystems.FileSystem;
+import nl.esciencecenter.xenon.filesystems.Path;
+
+public class S3FileAdaptor extends FileAdaptor {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(S3FileAdaptor.class);
+
+    /** The name of this adaptor */
+    public static final String ADAPTOR_NAME = "s3";
+
+    /** A description of this adaptor */
+    public static final String ADAPTOR_DESCRIPTION = "The s3 file adaptor implements file access to a bucket of an S3 compatible object store.";
+
+    /** All our own properties start with this prefix. */
+    public static final String PREFIX = FileAdaptor.ADAPTORS_PREFIX + ADAPTOR_NAME + ".";
+
+    /** The buffer size to use when copying data. */
+    public static final String BUFFER_SIZE = PREFIX + "bufferSize";
+
+    /** The region used to sign requests. */
+    public static final String REGION = PREFIX + "region";
+
+    /** The maximum number of HTTP connections kept open to the server. */
+    public static final String MAX_CONNECTIONS = PREFIX + "maxConnections";
+
+    /** The maximum time an idle HTTP connection is kept alive for reuse. */
+    public static final String KEEP_ALIVE = PREFIX + "keepAlive";
+
+    /** The size of the parts in which large files are uploaded. */
+    public static final String PART_SIZE = PREFIX + "partSize";
+
+    /** The number of parts of a large file that are uploaded in parallel. */
+    public static final String PARALLEL_PARTS = PREFIX + "parallelParts";
+
+    /** The size of the segments in which large files are downloaded in parallel. */
+    public static final String SEGMENT_SIZE = PREFIX + "segmentSize";
+
+    /** The number of segments of a large file that are downloaded in parallel. */
+    public static final String PARALLEL_SEGMENTS = PREFIX + "parallelSegments";
+
+    /** The minimum size of a part of a multipart upload allowed by S3. */
+    static final long MIN_PART_SIZE = 5L * 1024 * 1024;
+
+    /** The locations supported by this adaptor */
+    private static final String[] ADAPTOR_LOCATIONS = new String[] { "http://host[:port]/bucket[/workdir]", "https://host[:port]/bucket[/workdir]" };
+
+    /** List of properties supported by this S3 adaptor */
+    private static final XenonPropertyDescription[] VALID_PROPERTIES = new XenonPropertyDescription[] {
+            new XenonPropertyDescription(BUFFER_SIZE, Type.SIZE, "64K", "The buffer size to use when copying or uploading files (in bytes)."),
+            new XenonPropertyDescription(REGION, Type.STRING, "us-east-1", "The region of the bucket, used to sign requests."),
+            new XenonPropertyDescription(MAX_CONNECTIONS, Type.INTEGER, "20",
+                    "The maximum number of HTTP connections kept open to the server. This also limits the number of concurrent requests."),
+            new XenonPropertyDescription(KEEP_ALIVE, Type.NATURAL, "60000", "The maximum time an idle HTTP connection is kept alive for reuse (in ms)."),
+            new XenonPropertyDescription(PART_SIZE, Type.SIZE, "8M",
+                    "The size of the parts in which large files are uploaded (in bytes). Files smaller than this are uploaded using a single request."),
+            new XenonPropertyDescription(PARALLEL_PARTS, Type.INTEGER, "4",
+                    "The number of parts of a large file that are uploaded in parallel. Each part in progress is buffered in memory."),
+            new XenonPropertyDescription(SEGMENT_SIZE, Type.SIZE, "8M",
+                    "The size of the segments in which large files are downloaded when copying (in bytes)."),
+            new XenonPropertyDescription(PARALLEL_SEGMENTS, Type.INTEGER, "4",
+                    "The number of segments of a large file that are downloaded in parallel when copying. Use 1 to disable parallel downloads.") };
+
+    public S3FileAdaptor() {
+        super(ADAPTOR_NAME, ADAPTOR_DESCRIPTION, ADAPTOR_LOCATIONS, VALID_PROPERTIES);
+    }
+
+    @Override
+    public boolean canReadSymboliclinks() {
+        // S3 has no symbolic links.
+        return false;
+    }
+
+    @Override
+    public boolean isConnectionless() {
+        // S3 is connectionless.
+        return true;
+    }
+
+    @Override
+    public boolean canAppend() {
+        // S3 objects cannot be appended to.
+        return false;
+    }
+
+    @SuppressWarnings("rawtypes")
+    @Override
+    public Class[] getSupportedCredentials() {
+        // The s3 adaptor supports these credentials
+        return new Class[] { DefaultCredential.class, PasswordCredential.class };
+    }
+
+    private static int getPositiveInteger(XenonProperties xp, String name) throws XenonException {
+
+        int value = xp.getIntegerProperty(name);
+
+        if (value <= 0) {
+            throw new InvalidPropertyException(ADAPTOR_NAME, "Invalid value for " + name + ": " + value + " (must be larger than 0)");
+        }
+
+        return value;
+    }
+
+    private static int getSize(XenonProperties xp, String name, long min) throws XenonException {
+
+        long value = xp.getSizeProperty(name);
+
+        if (value < min || value >= Integer.MAX_VALUE) {
+            throw new InvalidPropertyException(ADAPTOR_NAME,
+                    "Invalid value for " + name + ": " + value + " (must be between " + min + " and " + Integer.MAX_VALUE + ")");
+        }
+
+        return (int) value;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The location consists of the URL of the server, followed by the name of the bucket and optionally a working directory in the bucket. A
+     * {@link PasswordCredential} contains the access key (as user name) and the secret key (as password) used to sign the requests. With a
+     * {@link DefaultCredential} requests are sent anonymously.
+     */
+    @Override
+    public FileSystem createFileSystem(String location, Credential credential, Map<String, String> properties) throws XenonException {
+
+        LOGGER.debug("newFileSystem location = {} credential = {} properties = {}", location, credential, properties);
+
+        if (location == null || location.isEmpty()) {
+            throw new InvalidLocationException(ADAPTOR_NAME, "Location may not be empty");
+        }
+
+        if (credential == null) {
+            throw new InvalidCredentialException(getName(), "Credential may not be null.");
+        }
+
+        if (!(credential instanceof PasswordCredential || credential instanceof DefaultCredential)) {
+            throw new InvalidCredentialException(getName(), "Credential type not supported.");
+        }
+
+        XenonProperties xp = new XenonProperties(VALID_PROPERTIES, properties);
+
+        int bufferSize = getSize(xp, BUFFER_SIZE, 1);
+        int maxConnections = getPositiveInteger(xp, MAX_CONNECTIONS);
+        long keepAlive = xp.getNaturalProperty(KEEP_ALIVE);
+        int partSize = getSize(xp, PART_SIZE, MIN_PART_SIZE);
+        int parallelParts = getPositiveInteger(xp, PARALLEL_PARTS);
+        int segmentSize = getSize(xp, SEGMENT_SIZE, 1);
+        int parallelSegments = getPositiveInteger(xp, PARALLEL_SEGMENTS);
+
+        String region = xp.getStringProperty(REGION);
+
+        if (region == null || region.isEmpty()) {
+            throw new InvalidPropertyException(ADAPTOR_NAME, "Invalid value for " + REGION + ": region may not be empty");
+        }
+
+        URI uri;
+
+        try {
+            uri = new URI(location);
+        } catch (Exception e) {
+            throw new InvalidLocationException(ADAPTOR_NAME, "Failed to parse location: " + location, e);
+        }
+
+        if (!"http".equals(uri.getScheme()) && !"https".equals(uri.getScheme())) {
+            throw new InvalidLocationException(ADAPTOR_NAME, "Location must start with http:// or https://: " + location);
+        }
+
+        if (uri.getHost() == null) {
+            throw new InvalidLocationException(ADAPTOR_NAME, "Location does not contain a host: " + location);
+        }
+
+        Path path = new Path(uri.getPath() == null ? "" : uri.getPath());
+
+        if (path.isEmpty()) {
+            throw new InvalidLocationException(ADAPTOR_NAME, "Location does not contain a bucket: " + location);
+        }
+
+        String bucket = path.getName(0).getFileNameAsString();
+        Path cwd = new Path("/" + (path.getNameCount() == 1 ? "" : path.subpath(1, path.getNameCount()).toString()));
+
+        S3Signer signer = null;
+
+        if (credential instanceof PasswordCredential) {
+            PasswordCredential tmp = (PasswordCredential) credential;
+            signer = new S3Signer(tmp.getUsername(), tmp.getPassword(), region);
+        }
+
+        S3Client client = new S3Client(createClient(maxConnections, keepAlive), uri, bucket, signer);
+
+        return new S3FileSystem(getNewUniqueID(), ADAPTOR_NAME, location, credential, cwd, bufferSize, client, maxConnections, partSize, parallelParts,
+                segmentSize, parallelSegments, xp);
+    }
+
+    /**
+     * Create the HTTP client shared by all requests of a file system.
+     *
+     * Connections are pooled, and idle connections are reused for at most <code>keepAlive</code> milliseconds. Content compression is disabled, as it would
+     * change the length of ranged responses.
+     *
+     * @param maxConnections
+     *            the maximum number of connections in the pool.
+     * @param keepAlive
+     *            the maximum time an idle connection is kept alive (in ms).
+     * @return the HTTP client.
+     */
+    static CloseableHttpClient createClient(int maxConnections, long keepAlive) {
+
+        PoolingHttpClientConnectionManager manager = new PoolingHttpClientConnectionManager();
+        manager.setMaxTotal(maxConnections);
+        manager.setDefaultMaxPerRoute(maxConnections);
+
+        return HttpClients.custom().setConnectionManager(manager).disableContentCompression()
+                .setDefaultRequestConfig(RequestConfig.custom().setExpectContinueEnabled(false).build()).setKeepAliveStrategy((response, context) -> {
+                    // Never keep a connection longer than allowed, even if the server would.
+                    long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+                    return duration < 0 ? keepAlive : Math.min(duration, keepAlive);
+                }).build();
+    }
+}
@@ -0,0 +1,841 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.filesystems.s3;
+
+import static nl.esciencecenter.xenon.adaptors.filesystems.s3.S3FileAdaptor.ADAPTOR_NAME;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import nl.esciencecenter.xenon.UnsupportedOperationException;
+import nl.esciencecenter.xenon.XenonException;
+import nl.esciencecenter.xenon.adaptors.XenonProperties;
+import nl.esciencecenter.xenon.adaptors.filesystems.ChecksumUtils;
+import nl.esciencecenter.xenon.adaptors.filesystems.PathAttributesImplementation;
+import nl.esciencecenter.xenon.adaptors.filesystems.SegmentedInputStream;
+import nl.esciencecenter.xenon.adaptors.filesystems.s3.S3Client.Listing;
+import nl.esciencecenter.xenon.adaptors.filesystems.s3.S3Client.ObjectInfo;
+import nl.esciencecenter.xenon.credentials.Credential;
+import nl.esciencecenter.xenon.filesystems.CopyMode;
+import nl.esciencecenter.xenon.filesystems.FileSystem;
+import nl.esciencecenter.xenon.filesystems.InvalidPathException;
+import nl.esciencecenter.xenon.filesystems.NoSuchPathException;
+import nl.esciencecenter.xenon.filesystems.Path;
+import nl.esciencecenter.xenon.filesystems.PathAlreadyExistsException;
+import nl.esciencecenter.xenon.filesystems.PathAttributes;
+import nl.esciencecenter.xenon.filesystems.PosixFilePermission;
+import nl.esciencecenter.xenon.utils.DaemonThreadFactory;
+
+/**
+ * A file system on a bucket of an S3 compatible object store.
+ *
+ * The path of a file is used as the key of its object, without the leading slash. S3 has no directories, so a directory is represented by an empty marker
+ * object whose key ends with a slash. A path is also considered a directory if any object has it as a prefix, so objects created by other tools are visible
+ * as well.
+ */
+public class S3FileSystem extends FileSystem {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(S3FileSystem.class);
+
+    /** The maximum size of an object that can be copied using a single copy request. */
+    static final long MAX_COPY_SIZE = 5L * 1024 * 1024 * 1024;
+
+    private static final byte[] EMPTY = new byte[0];
+
+    /** The only checksum algorithm available from the server */
+    private static final List<String> CHECKSUM_ALGORITHMS = Collections.singletonList(ChecksumUtils.MD5);
+
+    private final S3Client client;
+
+    /** Thread pool used to upload the parts of multipart uploads and to download the segments of large files. */
+    private final ThreadPoolExecutor executor;
+
+    private final int partSize;
+    private final int parallelParts;
+    private final int segmentSize;
+    private final int parallelSegments;
+
+    private boolean closed = false;
+
+    protected S3FileSystem(String uniqueID, String name, String location, Credential credential, Path entryPath, int bufferSize, S3Client client,
+            int maxConcurrentRequests, int partSize, int parallelParts, int segmentSize, int parallelSegments, XenonProperties properties) {
+        super(uniqueID, name, location, credential, entryPath, bufferSize, properties);
+        this.client = client;
+        this.partSize = partSize;
+        this.parallelParts = parallelParts;
+        this.segmentSize = segmentSize;
+        this.parallelSegments = parallelSegments;
+
+        executor = new ThreadPoolExecutor(maxConcurrentRequests, maxConcurrentRequests, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                new DaemonThreadFactory("S3RequestThread." + uniqueID));
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Get the name of the bucket this file system is opened on.
+     *
+     * @return the name of the bucket.
+     */
+    public String getBucket() {
+        return client.getBucket();
+    }
+
+    private static String getKey(Path path) {
+
+        if (!path.isAbsolute()) {
+            throw new IllegalArgumentException("Path must be absolute!");
+        }
+
+        return path.toRelativePath().toString();
+    }
+
+    /*
+     * The prefix shared by all objects in a directory.
+     */
+    private static String getPrefix(Path dir) {
+
+        String key = getKey(dir);
+
+        return key.isEmpty() ? key : key + "/";
+    }
+
+    private static PathAttributes getFileAttributes(Path path, ObjectInfo info) {
+
+        PathAttributesImplementation attributes = new PathAttributesImplementation();
+
+        attributes.setPath(path);
+        attributes.setRegular(true);
+        attributes.setSize(info.size);
+        attributes.setCreationTime(info.lastModified);
+        attributes.setLastModifiedTime(info.lastModified);
+        attributes.setLastAccessTime(info.lastModified);
+        attributes.setReadable(true);
+        attributes.setWritable(true);
+
+        return attributes;
+    }
+
+    private static PathAttributes getDirectoryAttributes(Path path, long lastModified) {
+
+        PathAttributesImplementation attributes = new PathAttributesImplementation();
+
+        attributes.setPath(path);
+        attributes.setDirectory(true);
+        attributes.setCreationTime(lastModified);
+        attributes.setLastModifiedTime(lastModified);
+        attributes.setLastAccessTime(lastModified);
+        attributes.setReadable(true);
+        attributes.setWritable(true);
+
+        return attributes;
+    }
+
+    private ObjectInfo getObject(Path path) throws XenonException {
+
+        if (path.isEmpty()) {
+            return null;
+        }
+
+        try {
+            return client.head(getKey(path));
+        } catch (IOException e) {
+            throw new XenonException(ADAPTOR_NAME, "Failed to get attributes for path: " + path, e);
+        }
+    }
+
+    private boolean isDirectory(Path path) throws XenonException {
+
+        if (path.isEmpty()) {
+            return true;
+        }
+
+        try {
+            Listing listing = client.list(getPrefix(path), null, null, 1);
+            return !listing.objects.isEmpty() || !listing.prefixes.isEmpty();
+        } catch (IOException e) {
+            throw new XenonException(ADAPTOR_NAME, "Failed to get attributes for path: " + path, e);
+        }
+    }
+
+    /**
+     * Retrieve the attributes of a path. A HEAD request finds a file. If there is none, a listing of at most one key tells if the path is a directory.
+     *
+     * @param path
+     *            the absolute path.
+     * @return the attributes, or <code>null</code> if the path does not exist.
+     * @throws XenonException
+     *             if the attributes could not be retrieved.
+     */
+    private PathAttributes getAttributesOrNull(Path path) throws XenonException {
+
+        ObjectInfo info = getObject(path);
+
+        if (info != null) {
+            return getFileAttributes(path, info);
+        }
+
+        if (isDirectory(path)) {
+            return getDirectoryAttributes(path, 0);
+        }
+
+        return null;
+    }
+
+    private PathAttributes getExistingPath(Path path) throws XenonException {
+
+        PathAttributes attributes = getAttributesOrNull(path);
+
+        if (attributes == null) {
+            throw new NoSuchPathException(ADAPTOR_NAME, "Path does not exist: " + path);
+        }
+
+        return attributes;
+    }
+
+    private ObjectInfo getExistingFile(Path path) throws XenonException {
+
+        ObjectInfo info = getObject(path);
+
+        if (info != null) {
+            return info;
+        }
+
+        if (isDirectory(path)) {
+            throw new InvalidPathException(ADAPTOR_NAME, "Path is not a file: " + path);
+        }
+
+        throw new NoSuchPathException(ADAPTOR_NAME, "Path does not exist: " + path);
+    }
+
+    private void assertResourceNotExists(Path path) throws XenonException {
+        if (getAttributesOrNull(path) != null) {
+            throw new PathAlreadyExistsException(ADAPTOR_NAME, "Path already exists: " + path);
+        }
+    }
+
+    private void assertParentIsDirectory(Path path) throws XenonException {
+
+        Path parent = path.getParent();
+
+        if (parent != null && !getExistingPath(parent).isDirectory()) {
+            throw new InvalidPathException(ADAPTOR_NAME, "Path is not a directory: " + parent);
+        }
+    }
+
+    private static Map<String, String> getRevalidationHeaders(ObjectInfo info) {
+
+        if (info.etag == null || info.etag.isEmpty() || info.etag.startsWith("W/")) {
+            return Collections.emptyMap();
+        }
+
+        return Collections.singletonMap("If-Match", info.etag);
+    }
+
+    /*
+     * Retrieve all keys starting with prefix, optionally grouped by the delimiter, following the continuation tokens.
+     */
+    private Listing listAll(String prefix, String delimiter) throws IOException {
+
+        Listing result = new Listing();
+        String token = null;
+
+        do {
+            Listing page = client.list(prefix, delimiter, token, 0);
+            result.objects.addAll(page.objects);
+            result.prefixes.addAll(page.prefixes);
+            token = page.nextToken;
+        } while (token != null);
+
+        return result;
+    }
+
+    @Override
+    protected List<PathAttributes> listDirectory(Path path) throws XenonException {
+
+        assertIsOpen();
+
+        String prefix = getPrefix(path);
+
+        Listing listing;
+
+        try {
+            listing = listAll(prefix, "/");
+        } catch (IOException e) {
+            throw new XenonException(ADAPTOR_NAME, "Failed to list directory: " + path, e);
+        }
+
+        ArrayList<PathAttributes> result = new ArrayList<>();
+
+        for (String p : listing.prefixes) {
+            String name = p.substring(prefix.length(), p.length() - 1);
+
+            if (!name.isEmpty()) {
+                result.add(getDirectoryAttributes(path.resolve(name), 0));
+            }
+        }
+
+        for (ObjectInfo info : listing.objects) {
+            String name = info.key.substring(prefix.length());
+
+            // Skip the marker of the directory itself.
+            if (!name.isEmpty()) {
+                result.add(getFileAttributes(path.resolve(name), info));
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * A recursive listing retrieves all keys below the directory using a single (paged) listing without a delimiter, instead of listing each
+     * subdirectory separately. Directories that only exist as a prefix of other keys are included.
+     */
+    @Override
+    protected void list(Path dir, ArrayList<PathAttributes> list, boolean recursive) throws XenonException {
+
+        if (!recursive) {
+            super.list(dir, list, false);
+            return;
+        }
+
+        assertIsOpen();
+
+        String prefix = getPrefix(dir);
+
+        Listing listing;
+
+        try {
+            listing = listAll(prefix, null);
+        } catch (IOException e) {
+            throw new XenonException(ADAPTOR_NAME, "Failed to list directory: " + dir, e);
+        }
+
+        LinkedHashMap<String, PathAttributes> entries = new LinkedHashMap<>();
+
+        for (ObjectInfo info : listing.objects) {
+
+            String name = info.key.substring(prefix.length());
+
+            if (name.isEmpty() || name.startsWith("/") || name.contains("//")) {
+                continue;
+            }
+
+            boolean marker = name.endsWith("/");
+
+            if (marker) {
+                name = name.substring(0, name.length() - 1);
+            }
+
+            // Add the directories implied by the key.
+            for (int index = name.indexOf('/'); index >= 0; index = name.indexOf('/', index + 1)) {
+                String parent = name.substring(0, index);
+                entries.computeIfAbsent(parent, p -> getDirectoryAttributes(dir.resolve(p), 0));
+            }
+
+            if (marker) {
+                entries.putIfAbsent(name, getDirectoryAttributes(dir.resolve(name), info.lastModified));
+            } else {
+                entries.put(name, getFileAttributes(dir.resolve(name), info));
+            }
+        }
+
+        list.addAll(entries.values());
+    }
+
+    @Override
+    public synchronized boolean isOpen() throws XenonException {
+        return !closed;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Closing an S3 file system shuts down its connection pool. As S3 is connectionless, closing a file system more than once is allowed.
+     */
+    @Override
+    public void close() throws XenonException {
+
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+
+        executor.shutdownNow();
+
+        try {
+            client.close();
+        } catch (IOException e) {
+            throw new XenonException(ADAPTOR_NAME, "Failed to shut down connection pool", e);
+        } finally {
+            super.close();
+        }
+    }
+
+    /*
+     * Copy an object within the bucket. Objects larger than the maximum size of a copy request are streamed through this file system instead.
+     */
+    private void copyObject(ObjectInfo source, String target) throws IOException {
+
+        if (source.size <= MAX_COPY_SIZE) {
+            client.copy(source.key, target);
+            return;
+        }
+
+        try (InputStream in = client.get(source.key, getRevalidationHeaders(source));
+                OutputStream out = new S3OutputStream(client, target, source.size, getBufferSize(), partSize, parallelParts, executor)) {
+
+            byte[] buffer = new byte[getBufferSize()];
+
+            for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                out.write(buffer, 0, n);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * S3 cannot rename objects, so each object is copied on the server and then deleted. Renaming a directory copies all objects below it, so it is not
+     * atomic, and its cost grows with the number of objects.
+     */
+    @Override
+    public void rename(Path source, Path target) throws XenonException {
+
+        LOGGER.debug("move source = {} to target = {}", source, target);
+
+        assertIsOpen();
+
+        Path absSource = toAbsolutePath(source);
+        Path absTarget = toAbsolutePath(target);
+
+        PathAttributes attributes = getExistingPath(absSource);
+
+        if (areSamePaths(absSource, absTarget)) {
+            return;
+        }
+
+        assertResourceNotExists(absTarget);
+        assertParentIsDirectory(absTarget);
+
+        try {
+            if (attributes.isRegular()) {
+                ObjectInfo info = getExistingFile(absSource);
+                copyObject(info, getKey(absTarget));
+                client.delete(info.key);
+                return;
+            }
+
+            if (absTarget.startsWith(absSource)) {
+                throw new InvalidPathException(ADAPTOR_NAME, "Cannot move directory into itself: " + absTarget);
+            }
+
+            String sourcePrefix = getPrefix(absSource);
+            String targetPrefix = getPrefix(absTarget);
+
+            // Make sure the target directory exists, even if the source only exists as a prefix.
+            client.put(targetPrefix, EMPTY, 0, 0);
+
+            Listing listing = listAll(sourcePrefix, null);
+
+            for (ObjectInfo info : listing.objects) {
+                String name = info.key.substring(sourcePrefix.length());
+
+                if (!name.isEmpty()) {
+                    copyObject(info, targetPrefix + name);
+                }
+            }
+
+            for (ObjectInfo info : listing.objects) {
+                client.delete(info.key);
+            }
+        } catch (IOException e) {
+            throw new XenonException(ADAPTOR_NAME, "Failed to move from " + absSource + " to " + absTarget, e);
+        }
+    }
+
+    @Override
+    public void createDirectory(Path dir) throws XenonException {
+        LOGGER.debug("createDirectory dir = {}", dir);
+
+        assertIsOpen();
+
+        Path absDir = toAbsolutePath(dir);
+        assertResourceNotExists(absDir);
+        assertParentIsDirectory(absDir);
+
+        try {
+            client.put(getPrefix(absDir), EMPTY, 0, 0);
+        } catch (IOException e) {
+            throw new XenonException(ADAPTOR_NAME, "Failed to create directory: " + absDir, e);
+        }
+    }
+
+    @Override
+    public void createFile(Path file) throws XenonException {
+        LOGGER.debug("createFile path = {}", file);
+
+        assertIsOpen();
+
+        Path absFile = toAbsolutePath(file);
+        assertResourceNotExists(absFile);
+        assertParentIsDirectory(absFile);
+
+        try {
+            client.put(getKey(absFile), EMPTY, 0, 0);
+        } catch (IOException e) {
+            throw new XenonException(ADAPTOR_NAME, "Failed to create file: " + absFile, e);
+        }
+    }
+
+    @Override
+    public void createSymbolicLink(Path link, Path path) throws XenonException {
+        throw new UnsupportedOperationException(ADAPTOR_NAME, "Operation not supported");
+    }
+
+    @Override
+    protected void deleteFile(Path path) throws XenonException {
+        try {
+            client.delete(getKey(path));
+        } catch (IOException e) {
+            throw new XenonException(ADAPTOR_NAME, "Failed to delete file: " + path, e);
+        }
+    }
+
+    @Override
+    protected void deleteDirectory(Path path) throws XenonException {
+        try {
+            client.delete(getPrefix(path));
+        } catch (IOException e) {
+            throw new XenonException(ADAPTOR_NAME, "Failed to delete directory: " + path, e);
+        }
+    }
+
+    @Override
+    public boolean exists(Path path) throws XenonException {
+
+        assertIsOpen();
+
+        return getAttributesOrNull(toAbsolutePath(path)) != null;
+    }
+
+    @Override
+    public InputStream readFromFile(Path path) throws XenonException {
+
+        assertIsOpen();
+
+        Path absPath = toAbsolutePath(path);
+
+        ObjectInfo info = getExistingFile(absPath);
+
+        try {
+            return client.get(info.key, getRevalidationHeaders(info));
+        } catch (IOException e) {
+            throw getReadException(absPath, e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The data is retrieved using a range request.
+     */
+    @Override
+    public InputStream readFromFile(Path path, long offset) throws XenonException {
+
+        assertValidOffset(offset);
+        assertIsOpen();
+
+        if (offset == 0) {
+            return readFromFile(path);
+        }
+
+        Path absPath = toAbsolutePath(path);
+
+        ObjectInfo info = getExistingFile(absPath);
+
+        if (offset >= info.size) {
+            return new ByteArrayInputStream(EMPTY);
+        }
+
+        try {
+            InputStream in = client.getRange(info.key, offset, -1, getRevalidationHeaders(info));
+
+            if (in == null) {
+                return super.readFromFile(absPath, offset);
+            }
+
+            return in;
+        } catch (S3ResponseException e) {
+            if (e.getStatusCode() == HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE) {
+                return new ByteArrayInputStream(EMPTY);
+            }
+            throw getReadException(absPath, e);
+        } catch (IOException e) {
+            throw getReadException(absPath, e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * A file larger than the segment size is downloaded as a sequence of range requests, of which up to <code>parallelSegments</code> are performed
+     * concurrently using the connection pool. Each request carries an If-Match header with the ETag of the object, so all segments are guaranteed to come
+     * from the same version of the object.
+     */
+    @Override
+    protected InputStream readFromFileForCopy(Path source, PathAttributes attributes) throws XenonException {
+
+        long size = attributes.getSize();
+
+        if (parallelSegments < 2 || size <= segmentSize) {
+            return readFromFile(source);
+        }
+
+        Path absPath = toAbsolutePath(source);
+
+        ObjectInfo info = getExistingFile(absPath);
+
+        Map<String, String> headers = getRevalidationHeaders(info);
+
+        if (headers.isEmpty() || info.size != size) {
+            return readFromFile(absPath);
+        }
+
+        try {
+            // The first segment is requested by the calling thread, which also tells us if the server supports range requests at all.
+            InputStream first = client.getRange(info.key, 0, segmentSize - 1, headers);
+
+            if (first == null) {
+                return client.get(info.key, headers);
+            }
+
+            return new SegmentedInputStream(client, info.key, size, segmentSize, parallelSegments, headers, executor, first);
+        } catch (IOException e) {
+            throw getReadException(absPath, e);
+        }
+    }
+
+    private XenonException getReadException(Path path, IOException e) {
+
+        if (e instanceof S3ResponseException && ((S3ResponseException) e).getStatusCode() == HttpStatus.SC_PRECONDITION_FAILED) {
+            return new XenonException(ADAPTOR_NAME, "File was modified while opening it: " + path, e);
+        }
+
+        return new XenonException(ADAPTOR_NAME, "Failed to access file: " + path, e);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The ETag of an object uploaded in a single request is the MD5 checksum of its content. The ETag of an object uploaded in parts is not a checksum of
+     * the content, so these objects have no native checksum.
+     */
+    @Override
+    protected String nativeChecksum(Path file, String algorithm) throws XenonException {
+
+        if (!ChecksumUtils.MD5.equals(algorithm)) {
+            return null;
+        }
+
+        ObjectInfo info = getObject(file);
+        return info == null ? null : getMD5(info.etag);
+    }
+
+    @Override
+    protected List<String> getNativeChecksumAlgorithms() {
+        return CHECKSUM_ALGORITHMS;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * MD5 checksums are taken from the ETags in a listing of the directory, so only the objects without a usable ETag are read.
+     */
+    @Override
+    protected Map<Path, String> checksumTree(Path dir, String algorithm, boolean recursive) throws XenonException {
+
+        if (!ChecksumUtils.MD5.equals(algorithm)) {
+            return super.checksumTree(dir, algorithm, recursive);
+        }
+
+        String prefix = getPrefix(dir);
+
+        Listing listing;
+
+        try {
+            listing = listAll(prefix, recursive ? null : "/");
+        } catch (IOException e) {
+            throw new XenonException(ADAPTOR_NAME, "Failed to list directory: " + dir, e);
+        }
+
+        Map<Path, String> result = new LinkedHashMap<>();
+
+        for (ObjectInfo info : listing.objects) {
+
+            String name = info.key.substring(prefix.length());
+
+            if (name.isEmpty() || name.startsWith("/") || name.endsWith("/") || name.contains("//")) {
+                continue;
+            }
+
+            Path file = dir.resolve(name);
+            String md5 = getMD5(info.etag);
+            result.put(file, md5 != null ? md5 : computeChecksum(file, algorithm));
+        }
+
+        return result;
+    }
+
+    /*
+     * Return the MD5 checksum contained in an ETag, or null if the ETag is not an MD5 checksum.
+     */
+    static String getMD5(String etag) {
+
+        if (etag == null) {
+            return null;
+        }
+
+        String value = etag.replace("\"", "");
+
+        if (!value.matches("[0-9a-fA-F]{32}")) {
+            return null;
+        }
+
+        return value.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * A file in the same bucket of the same server is copied by the server, without transferring the data. This is only supported for files up to 5 GB;
+     * larger files are streamed.
+     */
+    @Override
+    protected long nativeCopyFile(Path source, FileSystem destinationFS, Path destination, CopyMode mode) throws XenonException {
+
+        if (!(destinationFS instanceof S3FileSystem)) {
+            return -1;
+        }
+
+        S3FileSystem other = (S3FileSystem) destinationFS;
+
+        if (!client.getEndpoint().equals(other.client.getEndpoint()) || !client.getBucket().equals(other.client.getBucket())) {
+            return -1;
+        }
+
+        Path absSource = toAbsolutePath(source);
+        Path absDestination = other.toAbsolutePath(destination);
+
+        PathAttributes attributes = getAttributes(absSource);
+
+        if (!attributes.isRegular()) {
+            throw new InvalidPathException(ADAPTOR_NAME, "Source is not a regular file: " + absSource);
+        }
+
+        if (attributes.getSize() > MAX_COPY_SIZE) {
+            return -1;
+        }
+
+        other.assertParentDirectoryExists(absDestination);
+
+        if (other.exists(absDestination)) {
+            switch (mode) {
+            case CREATE:
+                throw new PathAlreadyExistsException(ADAPTOR_NAME, "Destination path already exists: " + absDestination);
+            case IGNORE:
+                return 0;
+            case REPLACE:
+                other.delete(absDestination, true);
+                break;
+            }
+        }
+
+        try {
+            client.copy(getKey(absSource), getKey(absDestination));
+        } catch (IOException e) {
+            throw new XenonException(ADAPTOR_NAME, "Failed to copy " + absSource + " to " + absDestination, e);
+        }
+
+        return attributes.getSize();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The data is collected in parts of <code>partSize</code> bytes. A file that fits in a single part is stored with a single request when the stream is
+     * closed. A larger file is stored using a multipart upload, in which up to <code>parallelParts</code> parts are uploaded concurrently while the next
+     * part is being written. A failed upload is reported as an exception when the stream is closed, and no file is created.
+     */
+    @Override
+    public OutputStream writeToFile(Path file, long size) throws XenonException {
+
+        assertIsOpen();
+
+        Path absFile = toAbsolutePath(file);
+        assertResourceNotExists(absFile);
+        assertParentIsDirectory(absFile);
+
+        return new S3OutputStream(client, getKey(absFile), size, getBufferSize(), partSize, parallelParts, executor);
+    }
+
+    @Override
+    public OutputStream appendToFile(Path file) throws XenonException {
+        throw new XenonException(ADAPTOR_NAME, "Appending to file not supported");
+    }
+
+    @Override
+    public OutputStream writeToFile(Path file) throws XenonException {
+        return writeToFile(file, -1);
+    }
+
+    @Override
+    public PathAttributes getAttributes(Path path) throws XenonException {
+
+        assertIsOpen();
+
+        return getExistingPath(toAbsolutePath(path));
+    }
+
+    @Override
+    public Path readSymbolicLink(Path link) throws XenonException {
+        throw new XenonException(ADAPTOR_NAME, "Operation not supported");
+    }
+
+    @Override
+    public void setPosixFilePermissions(Path path, Set<PosixFilePermission> permissions) throws XenonException {
+        throw new XenonException(ADAPTOR_NAME, "Operation not supported");
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.filesystems.s3;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * An output stream that stores the data written to it as an S3 object.
+ *
+ * The data is collected in a buffer of one part. If the stream is closed before the first part is full, the object is stored using a single PUT request.
+ * Otherwise a multipart upload is started, and each part is uploaded as soon as it is full, while the caller continues to fill the next part. At most
+ * <code>parallelParts</code> parts are uploaded concurrently, which also bounds the memory used by the stream. The upload is completed when the stream is
+ * closed, or aborted if any part failed, so a failed upload never leaves a partial object behind.
+ */
+class S3OutputStream extends OutputStream {
+
+    private final S3Client client;
+    private final String key;
+    private final int partSize;
+    private final ExecutorService executor;
+    private final Semaphore permits;
+
+    private final List<Future<String>> parts = new ArrayList<>();
+
+    private byte[] buffer;
+    private int count = 0;
+
+    private String uploadId;
+    private boolean closed = false;
+
+    /**
+     * @param client
+     *            the client used to upload the data.
+     * @param key
+     *            the key of the object to create.
+     * @param size
+     *            the expected size of the object, or -1 if unknown.
+     * @param initialBufferSize
+     *            the initial size of the buffer if the size of the object is unknown.
+     * @param partSize
+     *            the size of a part of a multipart upload.
+     * @param parallelParts
+     *            the maximum number of parts uploaded concurrently.
+     * @param executor
+     *            the executor performing the part uploads.
+     */
+    S3OutputStream(S3Client client, String key, long size, int initialBufferSize, int partSize, int parallelParts, ExecutorService executor) {
+        this.client = client;
+        this.key = key;
+        this.partSize = partSize;
+        this.executor = executor;
+        this.permits = new Semaphore(parallelParts);
+
+        if (size >= 0) {
+            buffer = new byte[(int) Math.min(size, partSize)];
+        } else {
+            buffer = new byte[Math.min(initialBufferSize, partSize)];
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    private void ensureCapacity() {
+        if (count == buffer.length && buffer.length < partSize) {
+            buffer = Arrays.copyOf(buffer, (int) Math.min(partSize, Math.max(1024L, 2L * buffer.length)));
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+
+        ensureOpen();
+
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        while (len > 0) {
+            if (count == partSize) {
+                uploadPart();
+            }
+
+            ensureCapacity();
+
+            int n = Math.min(len, buffer.length - count);
+            System.arraycopy(b, off, buffer, count, n);
+            count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /*
+     * Hand the buffer to the executor for uploading, and continue with a new buffer. Blocks while the maximum number of parts is being uploaded.
+     */
+    private void uploadPart() throws IOException {
+
+        if (uploadId == null) {
+            uploadId = client.createMultipartUpload(key);
+        }
+
+        checkFailures();
+
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for upload of part");
+        }
+
+        final byte[] data = buffer;
+        final int length = count;
+        final int partNumber = parts.size() + 1;
+
+        try {
+            parts.add(executor.submit(() -> {
+                try {
+                    return client.uploadPart(key, uploadId, partNumber, data, length);
+                } finally {
+                    permits.release();
+                }
+            }));
+        } catch (RuntimeException e) {
+            permits.release();
+            throw new IOException("Failed to schedule upload of part " + partNumber, e);
+        }
+
+        buffer = new byte[partSize];
+        count = 0;
+    }
+
+    private void checkFailures() throws IOException {
+        for (Future<String> f : parts) {
+            if (f.isDone()) {
+                getETag(f);
+            }
+        }
+    }
+
+    private static String getETag(Future<String> part) throws IOException {
+        try {
+            return part.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for upload of part");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Failed to upload part", e.getCause());
+        }
+    }
+
+    private void abort(IOException cause) {
+
+        // Wait for the running part uploads, so they cannot recreate parts after the abort.
+        for (Future<String> f : parts) {
+            try {
+                f.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                // Already reported through the cause, or irrelevant now.
+            }
+        }
+
+        try {
+            client.abortMultipartUpload(key, uploadId);
+        } catch (IOException e) {
+            cause.addSuppressed(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+
+        if (uploadId == null) {
+            client.put(key, buffer, 0, count);
+            buffer = null;
+            return;
+        }
+
+        try {
+            if (count > 0) {
+                uploadPart();
+            }
+
+            ArrayList<String> etags = new ArrayList<>(parts.size());
+
+            for (Future<String> f : parts) {
+                etags.add(getETag(f));
+            }
+
+            client.completeMultipartUpload(key, uploadId, etags);
+        } catch (IOException e) {
+            abort(e);
+            throw e;
+        } finally {
+            buffer = null;
+        }
+    }
+}
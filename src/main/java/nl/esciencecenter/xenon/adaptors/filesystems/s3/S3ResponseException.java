@@ -0,0 +1,43 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.filesystems.s3;
+
+import java.io.IOException;
+
+/**
+ * An error response of an S3 server.
+ */
+class S3ResponseException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int statusCode;
+    private final String errorCode;
+
+    S3ResponseException(int statusCode, String errorCode, String message) {
+        super("S3 request failed with status " + statusCode + (errorCode == null ? "" : " (" + errorCode + ")") + (message == null ? "" : ": " + message));
+        this.statusCode = statusCode;
+        this.errorCode = errorCode;
+    }
+
+    int getStatusCode() {
+        return statusCode;
+    }
+
+    String getErrorCode() {
+        return errorCode;
+    }
+}
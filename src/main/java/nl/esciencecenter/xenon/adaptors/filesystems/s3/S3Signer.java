@@ -0,0 +1,173 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.filesystems.s3;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.SortedMap;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Signs S3 requests using AWS Signature Version 4.
+ *
+ * See https://docs.aws.amazon.com/AmazonS3/latest/API/sig-v4-authenticating-requests.html for a description of the algorithm.
+ */
+class S3Signer {
+
+    /** The payload hash used when the body of a request is not signed */
+    static final String UNSIGNED_PAYLOAD = "UNSIGNED-PAYLOAD";
+
+    /** The hash of an empty payload */
+    static final String EMPTY_PAYLOAD = "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855";
+
+    static final DateTimeFormatter DATE_TIME = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'");
+
+    private static final String ALGORITHM = "AWS4-HMAC-SHA256";
+    private static final String SERVICE = "s3";
+
+    private final String accessKey;
+    private final byte[] secretKey;
+    private final String region;
+
+    S3Signer(String accessKey, char[] secretKey, String region) {
+        this.accessKey = accessKey;
+        this.secretKey = ("AWS4" + new String(secretKey)).getBytes(StandardCharsets.UTF_8);
+        this.region = region;
+    }
+
+    static String now() {
+        return ZonedDateTime.now(ZoneOffset.UTC).format(DATE_TIME);
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+
+        return sb.toString();
+    }
+
+    private static byte[] hmac(byte[] key, String data) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(key, "HmacSHA256"));
+        return mac.doFinal(data.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static String sha256(String data) throws GeneralSecurityException {
+        return hex(MessageDigest.getInstance("SHA-256").digest(data.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * URI encode a string as required by S3: all bytes except the unreserved characters are percent encoded, optionally leaving the path separators.
+     */
+    static String encode(String value, boolean keepSlash) {
+
+        StringBuilder sb = new StringBuilder();
+
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+
+            char c = (char) (b & 0xFF);
+
+            if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '-' || c == '_' || c == '.' || c == '~'
+                    || (c == '/' && keepSlash)) {
+                sb.append(c);
+            } else {
+                sb.append('%');
+                sb.append(Character.toUpperCase(Character.forDigit((c >> 4) & 0xF, 16)));
+                sb.append(Character.toUpperCase(Character.forDigit(c & 0xF, 16)));
+            }
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Compute the Authorization header of a request.
+     *
+     * @param method
+     *            the HTTP method.
+     * @param path
+     *            the encoded path of the request.
+     * @param query
+     *            the decoded query parameters, sorted by name.
+     * @param headers
+     *            the headers to sign, with lower case names, sorted by name. Must include the host, x-amz-date and x-amz-content-sha256 headers.
+     * @param payloadHash
+     *            the hash of the payload, or {@link #UNSIGNED_PAYLOAD}.
+     * @param dateTime
+     *            the time of the request, as in the x-amz-date header.
+     * @return the value of the Authorization header.
+     */
+    String authorization(String method, String path, SortedMap<String, String> query, SortedMap<String, String> headers, String payloadHash,
+            String dateTime) {
+
+        StringBuilder canonical = new StringBuilder();
+        canonical.append(method).append('\n');
+        canonical.append(path).append('\n');
+
+        boolean first = true;
+
+        for (Map.Entry<String, String> e : query.entrySet()) {
+            if (!first) {
+                canonical.append('&');
+            }
+            canonical.append(encode(e.getKey(), false)).append('=').append(encode(e.getValue(), false));
+            first = false;
+        }
+
+        canonical.append('\n');
+
+        for (Map.Entry<String, String> e : headers.entrySet()) {
+            canonical.append(e.getKey()).append(':').append(e.getValue().trim()).append('\n');
+        }
+
+        canonical.append('\n');
+
+        String signedHeaders = String.join(";", headers.keySet());
+
+        canonical.append(signedHeaders).append('\n');
+        canonical.append(payloadHash);
+
+        String date = dateTime.substring(0, 8);
+        String scope = date + "/" + region + "/" + SERVICE + "/aws4_request";
+
+        try {
+            String stringToSign = ALGORITHM + "\n" + dateTime + "\n" + scope + "\n" + sha256(canonical.toString());
+
+            byte[] key = hmac(secretKey, date);
+            key = hmac(key, region);
+            key = hmac(key, SERVICE);
+            key = hmac(key, "aws4_request");
+
+            String signature = hex(hmac(key, stringToSign));
+
+            return ALGORITHM + " Credential=" + accessKey + "/" + scope + ",SignedHeaders=" + signedHeaders + ",Signature=" + signature;
+        } catch (GeneralSecurityException e) {
+            // HmacSHA256 and SHA-256 are supported by every Java platform.
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.filesystems.sftp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+
+import org.apache.sshd.client.subsystem.sftp.SftpClient;
+
+/**
+ * A {@link SeekableByteChannel} on an open SFTP file handle. Every read and write explicitly carries the position in the file, so seeking is free.
+ */
+class SftpByteChannel implements SeekableByteChannel {
+
+    private final SftpClient client;
+    private final SftpClient.CloseableHandle handle;
+    private final boolean writable;
+    private final int bufferSize;
+
+    private long position = 0;
+    private boolean open = true;
+
+    SftpByteChannel(SftpClient client, SftpClient.CloseableHandle handle, boolean writable, int bufferSize) {
+        this.client = client;
+        this.handle = handle;
+        this.writable = writable;
+        this.bufferSize = bufferSize;
+    }
+
+    private void assertOpen() throws ClosedChannelException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    private void assertWritable() {
+        if (!writable) {
+            throw new NonWritableChannelException();
+        }
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer dst) throws IOException {
+
+        assertOpen();
+
+        if (!dst.hasRemaining()) {
+            return 0;
+        }
+
+        int n;
+
+        if (dst.hasArray()) {
+            n = client.read(handle, position, dst.array(), dst.arrayOffset() + dst.position(), Math.min(dst.remaining(), bufferSize));
+
+            if (n > 0) {
+                dst.position(dst.position() + n);
+            }
+        } else {
+            byte[] tmp = new byte[Math.min(dst.remaining(), bufferSize)];
+            n = client.read(handle, position, tmp, 0, tmp.length);
+
+            if (n > 0) {
+                dst.put(tmp, 0, n);
+            }
+        }
+
+        if (n < 0) {
+            return -1;
+        }
+
+        position += n;
+        return n;
+    }
+
+    @Override
+    public synchronized int write(ByteBuffer src) throws IOException {
+
+        assertOpen();
+        assertWritable();
+
+        int total = src.remaining();
+
+        byte[] tmp = src.hasArray() ? null : new byte[Math.min(total, bufferSize)];
+
+        while (src.hasRemaining()) {
+            int len = Math.min(src.remaining(), bufferSize);
+
+            if (tmp == null) {
+                client.write(handle, position, src.array(), src.arrayOffset() + src.position(), len);
+                src.position(src.position() + len);
+            } else {
+                src.get(tmp, 0, len);
+                client.write(handle, position, tmp, 0, len);
+            }
+
+            position += len;
+        }
+
+        return total;
+    }
+
+    @Override
+    public synchronized long position() throws IOException {
+        assertOpen();
+        return position;
+    }
+
+    @Override
+    public synchronized SeekableByteChannel position(long newPosition) throws IOException {
+
+        assertOpen();
+
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("Position may not be negative: " + newPosition);
+        }
+
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public synchronized long size() throws IOException {
+        assertOpen();
+        return client.stat(handle).getSize();
+    }
+
+    @Override
+    public synchronized SeekableByteChannel truncate(long size) throws IOException {
+
+        assertOpen();
+        assertWritable();
+
+        if (size < 0) {
+            throw new IllegalArgumentException("Size may not be negative: " + size);
+        }
+
+        if (size < size()) {
+            client.setStat(handle, new SftpClient.Attributes().size(size));
+        }
+
+        if (position > size) {
+            position = size;
+        }
+
+        return this;
+    }
+
+    @Override
+    public synchronized boolean isOpen() {
+        return open && handle.isOpen();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (open) {
+            open = false;
+            handle.close();
+        }
+    }
+}
@@ -20,7 +20,6 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.Map;
 
-import org.apache.sshd.client.SshClient;
 import org.apache.sshd.client.subsystem.sftp.SftpClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -34,6 +33,7 @@ import nl.esciencecenter.xenon.XenonPropertyDescription.Type;
 import nl.esciencecenter.xenon.adaptors.XenonProperties;
 import nl.esciencecenter.xenon.adaptors.filesystems.FileAdaptor;
 import nl.esciencecenter.xenon.adaptors.shared.ssh.SSHConnection;
+import nl.esciencecenter.xenon.adaptors.shared.ssh.SSHSettings;
 import nl.esciencecenter.xenon.adaptors.shared.ssh.SSHUtil;
 import nl.esciencecenter.xenon.credentials.CertificateCredential;
 import nl.esciencecenter.xenon.credentials.Credential;
@@ -61,19 +61,19 @@ public class SftpFileAdaptor extends FileAdaptor {
     public static final String PREFIX = FileAdaptor.ADAPTORS_PREFIX + ADAPTOR_NAME + ".";
 
     /** Enable strict host key checking. */
-    public static final String STRICT_HOST_KEY_CHECKING = PREFIX + "strictHostKeyChecking";
+    public static final String STRICT_HOST_KEY_CHECKING = PREFIX + SSHUtil.STRICT_HOST_KEY_CHECKING;
 
     /** Enable the use of an ssh-agent */
-    public static final String AGENT = PREFIX + "agent";
+    public static final String AGENT = PREFIX + SSHUtil.AGENT;
 
     /** Enable the use of ssh-agent-forwarding */
-    public static final String AGENT_FORWARDING = PREFIX + "agentForwarding";
+    public static final String AGENT_FORWARDING = PREFIX + SSHUtil.AGENT_FORWARDING;
 
     /** Load the known_hosts file by default. */
-    public static final String LOAD_STANDARD_KNOWN_HOSTS = PREFIX + "loadKnownHosts";
+    public static final String LOAD_STANDARD_KNOWN_HOSTS = PREFIX + SSHUtil.LOAD_STANDARD_KNOWN_HOSTS;
 
     /** Load the OpenSSH config file by default. */
-    public static final String LOAD_SSH_CONFIG = PREFIX + "loadSshConfig";
+    public static final String LOAD_SSH_CONFIG = PREFIX + SSHUtil.LOAD_SSH_CONFIG;
 
     /** OpenSSH config filename. */
     public static final String SSH_CONFIG_FILE = PREFIX + "sshConfigFile";
@@ -94,16 +94,10 @@ public class SftpFileAdaptor extends FileAdaptor {
     private static final String[] ADAPTOR_LOCATIONS = new String[] { "host[:port][/workdir]" };
 
     /** List of properties supported by this SSH adaptor */
-    private static final XenonPropertyDescription[] VALID_PROPERTIES = new XenonPropertyDescription[] {
-            new XenonPropertyDescription(STRICT_HOST_KEY_CHECKING, Type.BOOLEAN, "true", "Enable strict host key checking."),
-            new XenonPropertyDescription(LOAD_STANDARD_KNOWN_HOSTS, Type.BOOLEAN, "true", "Load the standard known_hosts file."),
-            new XenonPropertyDescription(LOAD_SSH_CONFIG, Type.BOOLEAN, "true", "Load the OpenSSH config file."),
-            /* new XenonPropertyDescription(SSH_CONFIG_FILE, Type.STRING, null, "OpenSSH config filename."), */
-            new XenonPropertyDescription(AGENT, Type.BOOLEAN, "false", "Use a (local) ssh-agent."),
-            new XenonPropertyDescription(AGENT_FORWARDING, Type.BOOLEAN, "false", "Use ssh-agent forwarding when setting up a connection."),
+    private static final XenonPropertyDescription[] VALID_PROPERTIES = SSHUtil.withSettingsProperties(PREFIX,
             new XenonPropertyDescription(CONNECTION_TIMEOUT, Type.NATURAL, "10000",
                     "The timeout for creating and authenticating connections (in milliseconds)."),
-            new XenonPropertyDescription(BUFFER_SIZE, Type.SIZE, "64K", "The buffer size to use when copying files (in bytes).") };
+            new XenonPropertyDescription(BUFFER_SIZE, Type.SIZE, "64K", "The buffer size to use when copying files (in bytes)."));
 
     public SftpFileAdaptor() {
         super(ADAPTOR_NAME, ADAPTOR_DESCRIPTION, ADAPTOR_LOCATIONS, VALID_PROPERTIES);
@@ -136,17 +130,11 @@ public class SftpFileAdaptor extends FileAdaptor {
                     "Invalid value for " + BUFFER_SIZE + ": " + bufferSize + " (must be between 1 and " + Integer.MAX_VALUE + ")");
         }
 
-        boolean loadKnownHosts = xp.getBooleanProperty(LOAD_STANDARD_KNOWN_HOSTS);
-        boolean loadSSHConfig = xp.getBooleanProperty(LOAD_SSH_CONFIG);
-        boolean strictHostCheck = xp.getBooleanProperty(STRICT_HOST_KEY_CHECKING);
-        boolean useSSHAgent = xp.getBooleanProperty(AGENT);
-        boolean useAgentForwarding = xp.getBooleanProperty(AGENT_FORWARDING);
-
-        SshClient client = SSHUtil.createSSHClient(loadKnownHosts, loadSSHConfig, strictHostCheck, useSSHAgent, useAgentForwarding);
+        SSHSettings settings = SSHUtil.createSettings(ADAPTOR_NAME, xp, PREFIX);
 
         long timeout = xp.getNaturalProperty(CONNECTION_TIMEOUT);
 
-        SSHConnection session = SSHUtil.connect(ADAPTOR_NAME, client, location, credential, (int) bufferSize, timeout);
+        SSHConnection session = SSHUtil.connect(ADAPTOR_NAME, location, credential, timeout, settings);
 
         SftpClient sftpClient = null;
 
@@ -154,7 +142,6 @@ public class SftpFileAdaptor extends FileAdaptor {
             sftpClient = session.createSftpClient();
         } catch (IOException e) {
             session.close();
-            client.close(true);
             throw new XenonException(ADAPTOR_NAME, "Failed to create SFTP session", e);
         }
 
@@ -164,7 +151,6 @@ public class SftpFileAdaptor extends FileAdaptor {
             cwd = getCurrentWorkingDirectory(sftpClient, location);
         } catch (Exception e) {
             session.close();
-            client.close(true);
             throw e;
         }
 
@@ -209,6 +195,11 @@ public class SftpFileAdaptor extends FileAdaptor {
         return true;
     }
 
+    @Override
+    public boolean canOpenWritableChannel() {
+        return true;
+    }
+
     @SuppressWarnings("rawtypes")
     @Override
     public Class[] getSupportedCredentials() {
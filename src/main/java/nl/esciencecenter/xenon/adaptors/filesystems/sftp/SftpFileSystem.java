@@ -17,16 +17,30 @@ package nl.esciencecenter.xenon.adaptors.filesystems.sftp;
 
 import static nl.esciencecenter.xenon.adaptors.filesystems.sftp.SftpFileAdaptor.ADAPTOR_NAME;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.attribute.FileTime;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
 
+import org.apache.sshd.client.channel.ChannelExec;
+import org.apache.sshd.client.channel.ClientChannelEvent;
 import org.apache.sshd.client.subsystem.sftp.SftpClient;
+import org.apache.sshd.client.subsystem.sftp.extensions.CheckFileNameExtension;
+import org.apache.sshd.client.subsystem.sftp.extensions.MD5FileExtension;
 import org.apache.sshd.common.subsystem.sftp.SftpConstants;
 import org.apache.sshd.common.subsystem.sftp.SftpException;
 import org.slf4j.Logger;
@@ -35,11 +49,13 @@ import org.slf4j.LoggerFactory;
 import nl.esciencecenter.xenon.XenonException;
 import nl.esciencecenter.xenon.adaptors.NotConnectedException;
 import nl.esciencecenter.xenon.adaptors.XenonProperties;
+import nl.esciencecenter.xenon.adaptors.filesystems.ChecksumUtils;
 import nl.esciencecenter.xenon.adaptors.filesystems.EndOfFileException;
 import nl.esciencecenter.xenon.adaptors.filesystems.NoSpaceException;
 import nl.esciencecenter.xenon.adaptors.filesystems.PathAttributesImplementation;
 import nl.esciencecenter.xenon.adaptors.filesystems.PermissionDeniedException;
 import nl.esciencecenter.xenon.adaptors.filesystems.PosixFileUtils;
+import nl.esciencecenter.xenon.adaptors.schedulers.ScriptingUtils;
 import nl.esciencecenter.xenon.adaptors.shared.ssh.SSHConnection;
 import nl.esciencecenter.xenon.credentials.Credential;
 import nl.esciencecenter.xenon.filesystems.DirectoryNotEmptyException;
@@ -55,9 +71,22 @@ public class SftpFileSystem extends FileSystem {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(SftpFileSystem.class);
 
+    /** Largest amount of data read or written by a channel in a single request */
+    private static final int CHANNEL_CHUNK_SIZE = 32 * 1024;
+
+    /** The checksum algorithms that may be computed remotely, in order of preference */
+    private static final List<String> CHECKSUM_ALGORITHMS = Collections
+            .unmodifiableList(Arrays.asList(ChecksumUtils.SHA256, ChecksumUtils.SHA512, ChecksumUtils.SHA1, ChecksumUtils.MD5));
+
+    /** Exit status of a shell if a command could not be found */
+    private static final int COMMAND_NOT_FOUND = 127;
+
     private final SftpClient client;
     private final SSHConnection connection;
 
+    /** Cleared when the remote machine turns out not to have the checksum commands, so they are not tried again */
+    private volatile boolean checksumCommands = true;
+
     protected SftpFileSystem(String uniqueID, String name, String location, Credential credential, Path entryPath, int bufferSize, SSHConnection connection,
             SftpClient client, XenonProperties properties) {
         super(uniqueID, name, location, credential, entryPath, bufferSize, properties);
@@ -294,6 +323,27 @@ public class SftpFileSystem extends FileSystem {
         }
     }
 
+    @Override
+    public SeekableByteChannel openChannel(Path path, boolean write) throws XenonException {
+
+        Path absPath = toAbsolutePath(path);
+        assertFileExists(absPath);
+
+        try {
+            SftpClient.CloseableHandle handle;
+
+            if (write) {
+                handle = client.open(absPath.toString(), SftpClient.OpenMode.Read, SftpClient.OpenMode.Write);
+            } else {
+                handle = client.open(absPath.toString(), SftpClient.OpenMode.Read);
+            }
+
+            return new SftpByteChannel(client, handle, write, CHANNEL_CHUNK_SIZE);
+        } catch (IOException e) {
+            throw sftpExceptionToXenonException(e, "Failed to open channel to " + absPath);
+        }
+    }
+
     @Override
     public PathAttributes getAttributes(Path path) throws XenonException {
         Path absPath = toAbsolutePath(path);
@@ -353,6 +403,200 @@ public class SftpFileSystem extends FileSystem {
         LOGGER.debug("setPosixFilePermissions OK");
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * The checksum is computed by the server using the <code>check-file</code> or <code>md5-hash</code> SFTP extensions if these are offered, or using
+     * commands like <code>sha256sum</code> if the server allows commands to be executed.
+     */
+    @Override
+    protected String nativeChecksum(Path file, String algorithm) throws XenonException {
+
+        String result = checkFile(file, algorithm);
+
+        if (result == null && ChecksumUtils.MD5.equals(algorithm)) {
+            result = md5Hash(file);
+        }
+
+        if (result == null) {
+            result = checksumCommand(file, algorithm);
+        }
+
+        return result;
+    }
+
+    @Override
+    protected List<String> getNativeChecksumAlgorithms() {
+        return CHECKSUM_ALGORITHMS;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * If the server allows commands to be executed, all checksums are computed by a single <code>find</code> command.
+     */
+    @Override
+    protected Map<Path, String> checksumTree(Path dir, String algorithm, boolean recursive) throws XenonException {
+
+        String command = getChecksumCommand(algorithm);
+
+        if (command != null) {
+            String depth = recursive ? "" : " -mindepth 1 -maxdepth 1";
+            String output = execute("find " + ScriptingUtils.protectAgainstShellMetas(dir.toString()) + depth + " -type f -exec " + command + " {} +");
+
+            if (output != null) {
+                Map<Path, String> result = parseChecksums(output);
+
+                if (result != null) {
+                    return result;
+                }
+            }
+        }
+
+        return super.checksumTree(dir, algorithm, recursive);
+    }
+
+    private String checkFile(Path file, String algorithm) {
+
+        // The check-file extension uses the algorithm names without dashes.
+        String name = algorithm.replace("-", "").toLowerCase(Locale.ROOT);
+
+        CheckFileNameExtension extension = client.getExtension(CheckFileNameExtension.class);
+
+        if (extension == null || !extension.isSupported()) {
+            return null;
+        }
+
+        try {
+            // A length and block size of 0 ask for a single hash of the entire file.
+            Map.Entry<String, Collection<byte[]>> result = extension.checkFileName(file.toString(), Collections.singletonList(name), 0, 0, 0);
+
+            if (name.equals(result.getKey()) && result.getValue().size() == 1) {
+                return ChecksumUtils.toHex(result.getValue().iterator().next());
+            }
+        } catch (IOException e) {
+            LOGGER.debug("check-file failed for {}", file, e);
+        }
+
+        return null;
+    }
+
+    private String md5Hash(Path file) {
+
+        MD5FileExtension extension = client.getExtension(MD5FileExtension.class);
+
+        if (extension == null || !extension.isSupported()) {
+            return null;
+        }
+
+        try {
+            // A length of 0 asks for a hash of the entire file, and an empty quick hash skips the quick check.
+            return ChecksumUtils.toHex(extension.getHash(file.toString(), 0, 0, new byte[0]));
+        } catch (IOException e) {
+            LOGGER.debug("md5-hash failed for {}", file, e);
+            return null;
+        }
+    }
+
+    private static String getChecksumCommand(String algorithm) {
+        switch (algorithm) {
+        case ChecksumUtils.MD5:
+            return "md5sum -b";
+        case ChecksumUtils.SHA1:
+            return "sha1sum -b";
+        case ChecksumUtils.SHA256:
+            return "sha256sum -b";
+        case ChecksumUtils.SHA512:
+            return "sha512sum -b";
+        default:
+            return null;
+        }
+    }
+
+    private String checksumCommand(Path file, String algorithm) {
+
+        String command = getChecksumCommand(algorithm);
+
+        if (command == null) {
+            return null;
+        }
+
+        String output = execute(command + " " + ScriptingUtils.protectAgainstShellMetas(file.toString()));
+
+        if (output == null) {
+            return null;
+        }
+
+        Map<Path, String> result = parseChecksums(output);
+
+        if (result == null || result.size() != 1) {
+            return null;
+        }
+
+        return result.values().iterator().next();
+    }
+
+    /*
+     * Parse the output of commands like sha256sum, which consists of a line "<checksum> *<file>" per file. Returns null if the output contains a file name
+     * with special characters, which are escaped in a way we do not bother to parse.
+     */
+    static Map<Path, String> parseChecksums(String output) {
+
+        Map<Path, String> result = new LinkedHashMap<>();
+
+        for (String line : output.split("\n")) {
+
+            if (line.isEmpty()) {
+                continue;
+            }
+
+            int index = line.indexOf(' ');
+
+            if (line.startsWith("\\") || index < 0 || line.length() < index + 3) {
+                return null;
+            }
+
+            result.put(new Path(line.substring(index + 2)), line.substring(0, index));
+        }
+
+        return result;
+    }
+
+    /*
+     * Execute a command on the server and return its output, or null if the command failed.
+     */
+    private String execute(String command) {
+
+        if (!checksumCommands) {
+            return null;
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        try (ChannelExec channel = connection.getSession().createExecChannel(command)) {
+            channel.setOut(out);
+            channel.setErr(new ByteArrayOutputStream());
+            channel.open().verify();
+            channel.waitFor(EnumSet.of(ClientChannelEvent.CLOSED), 0L);
+
+            Integer status = channel.getExitStatus();
+
+            if (status == null || status != 0) {
+                LOGGER.debug("Command {} failed with exit status {}", command, status);
+
+                if (status != null && status == COMMAND_NOT_FOUND) {
+                    checksumCommands = false;
+                }
+                return null;
+            }
+
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            LOGGER.debug("Command {} failed", command, e);
+            return null;
+        }
+    }
+
     private static long convertTime(FileTime time) {
         return time.toMillis();
     }
@@ -0,0 +1,307 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.filesystems.webdav;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.http.Header;
+import org.apache.http.entity.AbstractHttpEntity;
+
+/**
+ * An OutputStream that streams its data into the body of an HTTP PUT request performed by the sardine client.
+ *
+ * The request is executed by a helper thread, so it uses the same connection pool, authentication, proxy and redirect handling as all other requests. The
+ * thread is taken from the given executor, which should not queue the request, as the thread is held until the stream is closed. When the client starts
+ * sending the request body, it hands its output stream over to the thread writing to this stream. The data is therefore written into the connection
+ * directly, without an intermediate pipe. The response of the server is only read when the stream is closed, so a failed upload is reported by
+ * {@link #close()}.
+ *
+ * Neither thread waits for the other forever. The upload fails if the client does not start sending the body within the timeout (for example because no
+ * connection is available), or if no data is written to the stream for longer than the timeout. The helper thread is then released.
+ */
+class HttpPutOutputStream extends OutputStream {
+
+    /**
+     * A request body that lends the output stream of the connection to the {@link HttpPutOutputStream} until it is closed.
+     */
+    private class StreamingEntity extends AbstractHttpEntity {
+
+        @Override
+        public boolean isRepeatable() {
+            return false;
+        }
+
+        @Override
+        public long getContentLength() {
+            return size;
+        }
+
+        @Override
+        public InputStream getContent() {
+            throw new UnsupportedOperationException("Streaming entity has no content");
+        }
+
+        @Override
+        public void writeTo(OutputStream connection) throws IOException {
+
+            lastWrite = System.nanoTime();
+            body.complete(connection);
+
+            try {
+                while (true) {
+                    try {
+                        finished.get(timeout, TimeUnit.MILLISECONDS);
+                        return;
+                    } catch (TimeoutException e) {
+                        if (!writing && System.nanoTime() - lastWrite >= TimeUnit.MILLISECONDS.toNanos(timeout)) {
+                            finished.completeExceptionally(new IOException("No data written to " + url + " for " + timeout + " ms"));
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for upload of " + url);
+            } catch (ExecutionException e) {
+                throw new IOException("Upload of " + url + " was aborted", e.getCause());
+            }
+        }
+
+        @Override
+        public boolean isStreaming() {
+            return !finished.isDone();
+        }
+    }
+
+    private final String url;
+    private final long size;
+    private final int bufferSize;
+    private final long timeout;
+
+    /** Completed with the output stream of the connection when the client starts sending the body. */
+    private final CompletableFuture<OutputStream> body = new CompletableFuture<>();
+
+    /** Completed when all data has been written, or exceptionally if the upload is aborted. */
+    private final CompletableFuture<Void> finished = new CompletableFuture<>();
+
+    /** Completed when the server has responded. */
+    private final CompletableFuture<Void> request;
+
+    private OutputStream out;
+    private long written = 0;
+    private boolean closed = false;
+
+    /** Set while data is written to the connection, which may take longer than the timeout on a slow connection. */
+    private volatile boolean writing = false;
+
+    /** The time (in ns) at which data was last written to the connection. */
+    private volatile long lastWrite;
+
+    /**
+     * Start an upload.
+     *
+     * @param client
+     *            the client used to perform the request.
+     * @param url
+     *            the url to upload to.
+     * @param size
+     *            the size of the data that will be written, or -1 if unknown, in which case chunked transfer encoding is used.
+     * @param headers
+     *            the headers of the request.
+     * @param bufferSize
+     *            the size of the buffer used before data is written to the connection.
+     * @param timeout
+     *            the maximum time (in ms) to wait for the client to start sending the body, or for data to be written to the stream.
+     * @param executor
+     *            the executor that performs the request.
+     * @throws java.util.concurrent.RejectedExecutionException
+     *             if the executor does not accept the request.
+     */
+    HttpPutOutputStream(WebdavClient client, String url, long size, List<Header> headers, int bufferSize, long timeout, Executor executor) {
+        this.url = url;
+        this.size = size;
+        this.bufferSize = bufferSize;
+        this.timeout = timeout;
+
+        StreamingEntity entity = new StreamingEntity();
+        entity.setChunked(size < 0);
+
+        request = CompletableFuture.runAsync(() -> {
+            try {
+                client.put(url, entity, headers);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+
+        // If the server responds (or the request fails) before the body is sent, the writer must not wait for it forever.
+        request.whenComplete((ignored, e) -> body.completeExceptionally(e != null ? e : new IOException("Server did not accept data for " + url)));
+    }
+
+    private static IOException toIOException(String message, Throwable e) {
+
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+
+        return new IOException(message + ": " + cause.getMessage(), cause);
+    }
+
+    private OutputStream getOut() throws IOException {
+
+        if (out == null) {
+            try {
+                out = new BufferedOutputStream(body.get(timeout, TimeUnit.MILLISECONDS), bufferSize);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while starting upload of " + url);
+            } catch (ExecutionException e) {
+                throw toIOException("Failed to upload " + url, e.getCause());
+            } catch (TimeoutException e) {
+                throw new IOException("Upload of " + url + " did not start within " + timeout + " ms", e);
+            }
+        }
+
+        return out;
+    }
+
+    private void assertNotAborted() throws IOException {
+
+        if (finished.isCompletedExceptionally()) {
+            try {
+                finished.join();
+            } catch (CompletionException e) {
+                throw toIOException("Failed to upload " + url, e);
+            }
+        }
+    }
+
+    private void assertCanWrite(int len) throws IOException {
+
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+
+        assertNotAborted();
+
+        if (size >= 0 && written + len > size) {
+            abort();
+            throw new IOException("Cannot write more than " + size + " bytes to " + url);
+        }
+    }
+
+    private void abort() {
+        finished.completeExceptionally(new IOException("Upload aborted"));
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+
+        assertCanWrite(1);
+
+        writing = true;
+
+        try {
+            getOut().write(b);
+        } catch (IOException e) {
+            abort();
+            throw e;
+        } finally {
+            lastWrite = System.nanoTime();
+            writing = false;
+        }
+
+        written++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+
+        assertCanWrite(len);
+
+        writing = true;
+
+        try {
+            getOut().write(b, off, len);
+        } catch (IOException e) {
+            abort();
+            throw e;
+        } finally {
+            lastWrite = System.nanoTime();
+            writing = false;
+        }
+
+        written += len;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (out != null) {
+            writing = true;
+
+            try {
+                out.flush();
+            } finally {
+                lastWrite = System.nanoTime();
+                writing = false;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+
+        try {
+            assertNotAborted();
+
+            if (size >= 0 && written != size) {
+                throw new IOException("Only " + written + " of " + size + " bytes written to " + url);
+            }
+
+            // Completes the request body. The client itself closes the stream of the connection.
+            getOut();
+            flush();
+        } catch (IOException e) {
+            abort();
+            throw e;
+        }
+
+        finished.complete(null);
+
+        try {
+            request.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for upload of " + url);
+        } catch (ExecutionException e) {
+            throw toIOException("Failed to upload " + url, e.getCause());
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.filesystems.webdav;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.HttpClientBuilder;
+
+import com.github.sardine.impl.SardineException;
+import com.github.sardine.impl.SardineImpl;
+import com.github.sardine.impl.handler.VoidResponseHandler;
+import com.github.sardine.impl.methods.HttpMove;
+
+import nl.esciencecenter.xenon.adaptors.filesystems.SegmentedInputStream;
+
+/**
+ * A sardine client that adds support for HTTP range requests and conditional moves.
+ */
+class WebdavClient extends SardineImpl implements SegmentedInputStream.RangeReader {
+
+    WebdavClient(HttpClientBuilder builder) {
+        super(builder);
+    }
+
+    WebdavClient(HttpClientBuilder builder, String username, String password) {
+        super(builder, username, password);
+    }
+
+    /**
+     * Retrieve a range of bytes of a resource.
+     *
+     * @param url
+     *            the URL of the resource.
+     * @param start
+     *            the offset of the first byte to retrieve.
+     * @param end
+     *            the offset of the last byte to retrieve (inclusive), or -1 to retrieve all bytes starting at <code>start</code>.
+     * @param headers
+     *            additional request headers, such as preconditions.
+     * @return an {@link InputStream} containing the requested range, or <code>null</code> if the server does not support range requests.
+     * @throws IOException
+     *             if the request failed.
+     */
+    @Override
+    public InputStream getRange(String url, long start, long end, Map<String, String> headers) throws IOException {
+
+        HttpGet get = new HttpGet(url);
+
+        for (Map.Entry<String, String> e : headers.entrySet()) {
+            get.setHeader(e.getKey(), e.getValue());
+        }
+
+        get.setHeader("Range", "bytes=" + start + "-" + (end >= 0 ? Long.toString(end) : ""));
+
+        HttpResponse response = execute(get);
+
+        int status = response.getStatusLine().getStatusCode();
+
+        if (status == HttpStatus.SC_PARTIAL_CONTENT && response.getEntity() != null) {
+            return response.getEntity().getContent();
+        }
+
+        // Drop the connection instead of consuming a (possibly very large) response we are not interested in.
+        get.abort();
+
+        if (status == HttpStatus.SC_OK) {
+            return null;
+        }
+
+        throw new SardineException("Unexpected response for range request", status, response.getStatusLine().getReasonPhrase());
+    }
+
+    /**
+     * Move a resource, provided the given preconditions hold.
+     *
+     * @param sourceUrl
+     *            the URL of the resource to move.
+     * @param destinationUrl
+     *            the URL to move the resource to.
+     * @param overwrite
+     *            if an existing resource at <code>destinationUrl</code> may be overwritten.
+     * @param headers
+     *            additional request headers, such as preconditions.
+     * @throws IOException
+     *             if the request failed.
+     */
+    void move(String sourceUrl, String destinationUrl, boolean overwrite, Map<String, String> headers) throws IOException {
+
+        HttpMove move = new HttpMove(sourceUrl, destinationUrl, overwrite);
+
+        for (Map.Entry<String, String> e : headers.entrySet()) {
+            move.setHeader(e.getKey(), e.getValue());
+        }
+
+        execute(move, new VoidResponseHandler());
+    }
+}
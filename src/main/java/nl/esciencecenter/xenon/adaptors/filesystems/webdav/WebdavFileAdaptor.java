@@ -16,15 +16,23 @@
 package nl.esciencecenter.xenon.adaptors.filesystems.webdav;
 
 import java.net.MalformedURLException;
+import java.net.ProxySelector;
 import java.net.URI;
 import java.net.URL;
 import java.util.Map;
 
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.NoConnectionReuseStrategy;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.conn.SystemDefaultRoutePlanner;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.github.sardine.Sardine;
-import com.github.sardine.SardineFactory;
+import com.github.sardine.Version;
+import com.github.sardine.impl.SardineRedirectStrategy;
 
 import nl.esciencecenter.xenon.InvalidCredentialException;
 import nl.esciencecenter.xenon.InvalidLocationException;
@@ -56,12 +64,41 @@ public class WebdavFileAdaptor extends FileAdaptor {
     /** The buffer size to use when copying data. */
     public static final String BUFFER_SIZE = PREFIX + "bufferSize";
 
+    /** The maximum number of HTTP connections kept open to the server. */
+    public static final String MAX_CONNECTIONS = PREFIX + "maxConnections";
+
+    /** The maximum number of HTTP connections kept open per route. */
+    public static final String MAX_CONNECTIONS_PER_ROUTE = PREFIX + "maxConnectionsPerRoute";
+
+    /** The maximum time an idle HTTP connection is kept alive for reuse. */
+    public static final String KEEP_ALIVE = PREFIX + "keepAlive";
+
+    /** The size of the segments in which large files are downloaded in parallel. */
+    public static final String SEGMENT_SIZE = PREFIX + "segmentSize";
+
+    /** The number of segments of a large file that are downloaded in parallel. */
+    public static final String PARALLEL_SEGMENTS = PREFIX + "parallelSegments";
+
+    /** The time an upload waits for a connection or for data before it fails (in ms). */
+    public static final String UPLOAD_TIMEOUT = PREFIX + "uploadTimeout";
+
     /** The locations supported by this adaptor */
     private static final String[] ADAPTOR_LOCATIONS = new String[] { "http://host[:port][/workdir]", "https://host[:port][/workdir]" };
 
     /** List of properties supported by this FTP adaptor */
     private static final XenonPropertyDescription[] VALID_PROPERTIES = new XenonPropertyDescription[] {
-            new XenonPropertyDescription(BUFFER_SIZE, Type.SIZE, "64K", "The buffer size to use when copying files (in bytes).") };
+            new XenonPropertyDescription(BUFFER_SIZE, Type.SIZE, "64K", "The buffer size to use when copying or uploading files (in bytes)."),
+            new XenonPropertyDescription(MAX_CONNECTIONS, Type.INTEGER, "20", "The maximum number of HTTP connections kept open to the server."),
+            new XenonPropertyDescription(MAX_CONNECTIONS_PER_ROUTE, Type.INTEGER, "8",
+                    "The maximum number of HTTP connections kept open per route. This also limits the number of concurrent requests of a recursive list."),
+            new XenonPropertyDescription(KEEP_ALIVE, Type.NATURAL, "60000",
+                    "The maximum time an idle HTTP connection is kept alive for reuse (in ms). Use 0 to close connections after each request."),
+            new XenonPropertyDescription(SEGMENT_SIZE, Type.SIZE, "4M",
+                    "The size of the segments in which large files are downloaded when copying (in bytes)."),
+            new XenonPropertyDescription(PARALLEL_SEGMENTS, Type.INTEGER, "4",
+                    "The number of segments of a large file that are downloaded in parallel when copying. Use 1 to disable parallel downloads."),
+            new XenonPropertyDescription(UPLOAD_TIMEOUT, Type.LONG, "60000",
+                    "The maximum time an upload waits for a connection, or for data to be written to its stream, before it fails (in ms).") };
 
     public static final int OK_CODE = 200;
 
@@ -120,6 +157,40 @@ public class WebdavFileAdaptor extends FileAdaptor {
                     "Invalid value for " + BUFFER_SIZE + ": " + bufferSize + " (must be between 1 and " + Integer.MAX_VALUE + ")");
         }
 
+        int maxConnections = xp.getIntegerProperty(MAX_CONNECTIONS);
+
+        if (maxConnections <= 0) {
+            throw new InvalidPropertyException(ADAPTOR_NAME, "Invalid value for " + MAX_CONNECTIONS + ": " + maxConnections + " (must be larger than 0)");
+        }
+
+        int maxConnectionsPerRoute = xp.getIntegerProperty(MAX_CONNECTIONS_PER_ROUTE);
+
+        if (maxConnectionsPerRoute <= 0 || maxConnectionsPerRoute > maxConnections) {
+            throw new InvalidPropertyException(ADAPTOR_NAME, "Invalid value for " + MAX_CONNECTIONS_PER_ROUTE + ": " + maxConnectionsPerRoute
+                    + " (must be between 1 and " + maxConnections + ")");
+        }
+
+        long keepAlive = xp.getNaturalProperty(KEEP_ALIVE);
+
+        long segmentSize = xp.getSizeProperty(SEGMENT_SIZE);
+
+        if (segmentSize <= 0 || segmentSize >= Integer.MAX_VALUE) {
+            throw new InvalidPropertyException(ADAPTOR_NAME,
+                    "Invalid value for " + SEGMENT_SIZE + ": " + segmentSize + " (must be between 1 and " + Integer.MAX_VALUE + ")");
+        }
+
+        int parallelSegments = xp.getIntegerProperty(PARALLEL_SEGMENTS);
+
+        if (parallelSegments <= 0) {
+            throw new InvalidPropertyException(ADAPTOR_NAME, "Invalid value for " + PARALLEL_SEGMENTS + ": " + parallelSegments + " (must be larger than 0)");
+        }
+
+        long uploadTimeout = xp.getLongProperty(UPLOAD_TIMEOUT);
+
+        if (uploadTimeout <= 0) {
+            throw new InvalidPropertyException(ADAPTOR_NAME, "Invalid value for " + UPLOAD_TIMEOUT + ": " + uploadTimeout + " (must be larger than 0)");
+        }
+
         URI uri;
 
         try {
@@ -128,13 +199,15 @@ public class WebdavFileAdaptor extends FileAdaptor {
             throw new InvalidLocationException(ADAPTOR_NAME, "Failed to parse location: " + location, e);
         }
 
-        Sardine sardine = null;
+        HttpClientBuilder builder = createClientBuilder(maxConnections, maxConnectionsPerRoute, keepAlive);
+
+        WebdavClient sardine = null;
 
         if (credential instanceof DefaultCredential) {
-            sardine = SardineFactory.begin();
+            sardine = new WebdavClient(builder);
         } else if (credential instanceof PasswordCredential) {
             PasswordCredential tmp = (PasswordCredential) credential;
-            sardine = SardineFactory.begin(tmp.getUsername(), new String(tmp.getPassword()));
+            sardine = new WebdavClient(builder, tmp.getUsername(), new String(tmp.getPassword()));
 
             try {
                 sardine.enablePreemptiveAuthentication(new URL(location));
@@ -152,6 +225,66 @@ public class WebdavFileAdaptor extends FileAdaptor {
         }
 
         String cwd = uri.getPath();
-        return new WebdavFileSystem(getNewUniqueID(), ADAPTOR_NAME, location, credential, server, new Path(cwd), (int) bufferSize, sardine, xp);
+        return new WebdavFileSystem(getNewUniqueID(), ADAPTOR_NAME, location, credential, server, new Path(cwd), (int) bufferSize, maxConnectionsPerRoute,
+                (int) segmentSize, parallelSegments, uploadTimeout, sardine, xp);
+    }
+
+    /**
+     * Create the HTTP client configuration used by sardine.
+     *
+     * This is identical to the default sardine configuration, except that connections are pooled according to the given limits, and idle connections are only
+     * reused for at most <code>keepAlive</code> milliseconds. Expired connections are discarded when the pool hands out a connection, so no
+     * eviction thread is needed. If <code>keepAlive</code> is 0, connections are not reused at all. Sardine executes each request in its own context, so the
+     * resulting client may be used by multiple threads concurrently.
+     *
+     * @param maxConnections
+     *            the maximum number of connections in the pool.
+     * @param maxConnectionsPerRoute
+     *            the maximum number of connections per route.
+     * @param keepAlive
+     *            the maximum time an idle connection is kept alive (in ms), or 0 to not reuse connections.
+     * @return the configured client builder.
+     */
+    static HttpClientBuilder createClientBuilder(int maxConnections, int maxConnectionsPerRoute, long keepAlive) {
+
+        PoolingHttpClientConnectionManager manager = new PoolingHttpClientConnectionManager();
+        manager.setMaxTotal(maxConnections);
+        manager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+
+        String version = Version.getSpecification();
+
+        if (version == null) {
+            version = "UNAVAILABLE";
+        }
+
+        HttpClientBuilder builder = HttpClients.custom().setUserAgent("Sardine/" + version).setRedirectStrategy(new SardineRedirectStrategy())
+                .setDefaultRequestConfig(RequestConfig.custom().setExpectContinueEnabled(false).build())
+                .setRoutePlanner(new SystemDefaultRoutePlanner(ProxySelector.getDefault())).setConnectionManager(manager)
+                .setKeepAliveStrategy((response, context) -> getKeepAliveDuration(
+                        DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context), keepAlive));
+
+        if (keepAlive == 0) {
+            builder.setConnectionReuseStrategy(NoConnectionReuseStrategy.INSTANCE);
+        }
+
+        return builder;
+    }
+
+    /**
+     * Return how long a connection may be kept alive, given the duration requested by the server and the configured maximum.
+     *
+     * The pool keeps a connection with a duration of 0 or less forever. To prevent this, the duration is at least 1 ms, so a server that asks not to keep the
+     * connection alive gets a connection that expires immediately.
+     *
+     * @param serverDuration
+     *            the duration requested by the server (in ms), or a negative value if the server did not request a duration.
+     * @param keepAlive
+     *            the maximum time an idle connection is kept alive (in ms).
+     * @return the time the connection is kept alive (in ms).
+     */
+    static long getKeepAliveDuration(long serverDuration, long keepAlive) {
+        // Never keep a connection longer than allowed, even if the server would.
+        long duration = serverDuration < 0 ? keepAlive : Math.min(serverDuration, keepAlive);
+        return Math.max(1, duration);
     }
 }
@@ -17,67 +17,101 @@ package nl.esciencecenter.xenon.adaptors.filesystems.webdav;
 
 import static nl.esciencecenter.xenon.adaptors.filesystems.webdav.WebdavFileAdaptor.ADAPTOR_NAME;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
-
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.namespace.QName;
+
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
 import org.apache.http.HttpStatus;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.protocol.HTTP;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.github.sardine.DavResource;
-import com.github.sardine.Sardine;
 import com.github.sardine.impl.SardineException;
 
 import nl.esciencecenter.xenon.UnsupportedOperationException;
 import nl.esciencecenter.xenon.XenonException;
 import nl.esciencecenter.xenon.adaptors.XenonProperties;
+import nl.esciencecenter.xenon.adaptors.filesystems.ChecksumUtils;
 import nl.esciencecenter.xenon.adaptors.filesystems.PathAttributesImplementation;
+import nl.esciencecenter.xenon.adaptors.filesystems.SegmentedInputStream;
 import nl.esciencecenter.xenon.credentials.Credential;
 import nl.esciencecenter.xenon.filesystems.FileSystem;
+import nl.esciencecenter.xenon.filesystems.InvalidPathException;
+import nl.esciencecenter.xenon.filesystems.NoSuchPathException;
 import nl.esciencecenter.xenon.filesystems.Path;
+import nl.esciencecenter.xenon.filesystems.PathAlreadyExistsException;
 import nl.esciencecenter.xenon.filesystems.PathAttributes;
 import nl.esciencecenter.xenon.filesystems.PosixFilePermission;
+import nl.esciencecenter.xenon.utils.DaemonThreadFactory;
 
 public class WebdavFileSystem extends FileSystem {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(WebdavFileAdaptor.class);
 
-    class StreamToFileWriter extends Thread {
+    /** The property containing the checksums of a file on ownCloud and Nextcloud servers */
+    private static final QName CHECKSUMS = new QName("http://owncloud.org/ns", "checksums", "oc");
 
-        private final String url;
-        private final InputStream in;
+    /** The checksum algorithms that may be offered by the server, in order of preference */
+    private static final List<String> CHECKSUM_ALGORITHMS = Collections.unmodifiableList(Arrays.asList(ChecksumUtils.SHA1, ChecksumUtils.MD5));
 
-        StreamToFileWriter(String url, InputStream in) {
-            this.url = url;
-            this.in = in;
-            setName("WebdavStreamToFileWriter");
-            setDaemon(true);
-        }
+    private final WebdavClient client;
+    private final String server;
 
-        @Override
-        public void run() {
-            try {
-                client.put(url, in);
-            } catch (Exception e) {
+    /** Thread pool used to perform the requests of a recursive listing or a segmented download concurrently. */
+    private final ThreadPoolExecutor executor;
 
-            }
-        }
-    }
+    /**
+     * Threads that perform the requests of uploads, while the data is written by the caller. An upload holds its thread and a connection for as long as its
+     * stream is open. Uploads are never queued behind open streams, so there are at most as many uploads as connections per route.
+     */
+    private final ThreadPoolExecutor uploader;
 
-    private final Sardine client;
-    private final String server;
+    private final long uploadTimeout;
+
+    private final int segmentSize;
+    private final int parallelSegments;
+
+    private boolean closed = false;
 
     protected WebdavFileSystem(String uniqueID, String name, String location, Credential credential, String server, Path entryPath, int bufferSize,
-            Sardine client, XenonProperties properties) {
+            int maxConcurrentRequests, int segmentSize, int parallelSegments, long uploadTimeout, WebdavClient client, XenonProperties properties) {
         super(uniqueID, name, location, credential, entryPath, bufferSize, properties);
         this.client = client;
         this.server = server;
+
+        this.segmentSize = segmentSize;
+        this.parallelSegments = parallelSegments;
+        this.uploadTimeout = uploadTimeout;
+
+        executor = new ThreadPoolExecutor(maxConcurrentRequests, maxConcurrentRequests, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                new DaemonThreadFactory("WebdavRequestThread." + uniqueID));
+        executor.allowCoreThreadTimeOut(true);
+
+        uploader = new ThreadPoolExecutor(0, maxConcurrentRequests, 60, TimeUnit.SECONDS, new SynchronousQueue<>(),
+                new DaemonThreadFactory("WebdavUploadThread." + uniqueID));
     }
 
     private String getFilePath(Path path) {
@@ -117,9 +151,115 @@ public class WebdavFileSystem extends FileSystem {
         return attributes;
     }
 
+    /**
+     * Retrieve the properties of a single resource using a depth 0 PROPFIND.
+     *
+     * This single request provides the existence, type and attributes of the resource, including the ETag and modification time needed to revalidate it
+     * later on.
+     *
+     * @param path
+     *            the absolute path of the resource.
+     * @return the resource, or <code>null</code> if it does not exist.
+     * @throws XenonException
+     *             if the properties could not be retrieved.
+     */
+    private DavResource getResource(Path path) throws XenonException {
+
+        try {
+            List<DavResource> result = client.list(getFilePath(path), 0);
+
+            if (result.isEmpty()) {
+                return null;
+            }
+
+            return result.get(0);
+        } catch (SardineException e) {
+            if (e.getStatusCode() == HttpStatus.SC_NOT_FOUND) {
+                return null;
+            }
+            throw new XenonException(ADAPTOR_NAME, "Failed to get attributes for path: " + path, e);
+        } catch (Exception e) {
+            throw new XenonException(ADAPTOR_NAME, "Failed to get attributes for path: " + path, e);
+        }
+    }
+
+    private DavResource getExistingResource(Path path) throws XenonException {
+
+        DavResource resource = getResource(path);
+
+        if (resource == null) {
+            throw new NoSuchPathException(ADAPTOR_NAME, "Path does not exist: " + path);
+        }
+
+        return resource;
+    }
+
+    private DavResource getExistingFile(Path path) throws XenonException {
+
+        DavResource resource = getExistingResource(path);
+
+        if (resource.isDirectory()) {
+            throw new InvalidPathException(ADAPTOR_NAME, "Path is not a file: " + path);
+        }
+
+        return resource;
+    }
+
+    private void assertResourceNotExists(Path path) throws XenonException {
+        if (getResource(path) != null) {
+            throw new PathAlreadyExistsException(ADAPTOR_NAME, "Path already exists: " + path);
+        }
+    }
+
+    private void assertParentIsDirectory(Path path) throws XenonException {
+
+        Path parent = path.getParent();
+
+        if (parent != null && !getExistingResource(parent).isDirectory()) {
+            throw new InvalidPathException(ADAPTOR_NAME, "Path is not a directory: " + parent);
+        }
+    }
+
+    /**
+     * Create the conditional headers that ensure a request only succeeds if the resource has not changed since its properties were retrieved.
+     *
+     * A strong ETag is preferred. Weak ETags cannot be used with If-Match, so we fall back to the modification time.
+     *
+     * @param resource
+     *            the resource to revalidate.
+     * @return the conditional headers (may be empty).
+     */
+    private static Map<String, String> getRevalidationHeaders(DavResource resource) {
+
+        Map<String, String> headers = new HashMap<>();
+
+        String etag = getStrongETag(resource);
+
+        if (etag != null) {
+            headers.put("If-Match", etag);
+        } else if (resource.getModified() != null) {
+            headers.put("If-Unmodified-Since", DateUtils.formatDate(resource.getModified()));
+        }
+
+        return headers;
+    }
+
+    private static String getStrongETag(DavResource resource) {
+
+        String etag = resource.getEtag();
+
+        if (etag == null || etag.isEmpty() || etag.startsWith("W/")) {
+            return null;
+        }
+
+        return etag;
+    }
+
     @Override
     protected List<PathAttributes> listDirectory(Path path) throws XenonException {
 
+        assertIsOpen();
+
         List<DavResource> list = null;
 
         try {
@@ -144,9 +284,129 @@ public class WebdavFileSystem extends FileSystem {
         return result;
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * A recursive listing is performed one directory level at a time. The PROPFIND requests for all directories on a level are issued concurrently over the
+     * connection pool, bounded by the maximum number of connections per route. The result is identical (including the order) to a sequential listing.
+     */
+    @Override
+    protected void list(Path dir, ArrayList<PathAttributes> list, boolean recursive) throws XenonException {
+
+        if (!recursive) {
+            super.list(dir, list, false);
+            return;
+        }
+
+        Map<Path, List<PathAttributes>> listings = new HashMap<>();
+
+        List<Path> level = new ArrayList<>();
+        level.add(dir);
+
+        while (!level.isEmpty()) {
+            List<List<PathAttributes>> results = listLevel(level);
+
+            List<Path> next = new ArrayList<>();
+
+            for (int i = 0; i < level.size(); i++) {
+                List<PathAttributes> tmp = results.get(i);
+                listings.put(level.get(i), tmp);
+
+                for (PathAttributes p : tmp) {
+                    if (p.isDirectory()) {
+                        next.add(p.getPath());
+                    }
+                }
+            }
+
+            level = next;
+        }
+
+        addListing(dir, listings, list);
+    }
+
+    private List<List<PathAttributes>> listLevel(List<Path> level) throws XenonException {
+
+        ArrayList<List<PathAttributes>> result = new ArrayList<>(level.size());
+
+        if (level.size() == 1) {
+            // No need to hand a single request to another thread.
+            result.add(listDirectory(level.get(0)));
+            return result;
+        }
+
+        ArrayList<Future<List<PathAttributes>>> futures = new ArrayList<>(level.size());
+
+        try {
+            for (Path p : level) {
+                futures.add(executor.submit(() -> listDirectory(p)));
+            }
+
+            for (Future<List<PathAttributes>> f : futures) {
+                result.add(f.get());
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof XenonException) {
+                throw (XenonException) e.getCause();
+            }
+            throw new XenonException(ADAPTOR_NAME, "Failed to list directory", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new XenonException(ADAPTOR_NAME, "Interrupted while listing directory", e);
+        } catch (Exception e) {
+            throw new XenonException(ADAPTOR_NAME, "Failed to list directory", e);
+        } finally {
+            for (Future<List<PathAttributes>> f : futures) {
+                f.cancel(true);
+            }
+        }
+
+        return result;
+    }
+
+    private void addListing(Path dir, Map<Path, List<PathAttributes>> listings, ArrayList<PathAttributes> list) {
+
+        List<PathAttributes> tmp = listings.get(dir);
+
+        list.addAll(tmp);
+
+        for (PathAttributes p : tmp) {
+            if (p.isDirectory()) {
+                addListing(p.getPath(), listings, list);
+            }
+        }
+    }
+
     @Override
-    public boolean isOpen() throws XenonException {
-        return true;
+    public synchronized boolean isOpen() throws XenonException {
+        return !closed;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Closing a webdav file system shuts down its connection pool. As webdav is connectionless, closing a file system more than once is allowed.
+     */
+    @Override
+    public void close() throws XenonException {
+
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+
+        executor.shutdownNow();
+        uploader.shutdownNow();
+
+        try {
+            client.shutdown();
+        } catch (IOException e) {
+            throw new XenonException(ADAPTOR_NAME, "Failed to shut down connection pool", e);
+        } finally {
+            super.close();
+        }
     }
 
     @Override
@@ -154,30 +414,38 @@ public class WebdavFileSystem extends FileSystem {
 
         LOGGER.debug("move source = {} to target = {}", source, target);
 
+        assertIsOpen();
+
         Path absSource = toAbsolutePath(source);
         Path absTarget = toAbsolutePath(target);
 
-        assertPathExists(absSource);
+        DavResource resource = getExistingResource(absSource);
 
         if (areSamePaths(absSource, absTarget)) {
             return;
         }
 
-        assertParentDirectoryExists(absTarget);
-        assertPathNotExists(absTarget);
-
-        PathAttributes a = getAttributes(absSource);
+        assertParentIsDirectory(absTarget);
 
+        // The target is not checked separately. Since we do not allow the server to overwrite the target, an existing target results in a failed
+        // precondition instead. A file is only moved if it has not changed since we looked it up. The ETag and modification time of a directory change
+        // with its content, so a directory is moved as is.
         try {
-            if (a.isDirectory()) {
+            if (resource.isDirectory()) {
                 client.move(getDirectoryPath(absSource), getDirectoryPath(absTarget), false);
             } else {
-                client.move(getFilePath(absSource), getFilePath(absTarget), false);
+                client.move(getFilePath(absSource), getFilePath(absTarget), false, getRevalidationHeaders(resource));
             }
         } catch (SardineException e) {
             if (e.getStatusCode() == HttpStatus.SC_MOVED_PERMANENTLY) {
                 return;
             }
+            if (e.getStatusCode() == HttpStatus.SC_PRECONDITION_FAILED) {
+                if (resource.isDirectory() || getResource(absTarget) != null) {
+                    throw new PathAlreadyExistsException(ADAPTOR_NAME, "Path already exists: " + absTarget);
+                }
+                throw new XenonException(ADAPTOR_NAME, "File was modified while moving it: " + absSource, e);
+            }
             throw new XenonException(ADAPTOR_NAME, "Failed to move from " + absSource + " to " + absTarget, e);
         } catch (Exception e1) {
             throw new XenonException(ADAPTOR_NAME, "Failed to move from " + absSource + " to " + absTarget, e1);
@@ -188,9 +456,11 @@ public class WebdavFileSystem extends FileSystem {
     public void createDirectory(Path dir) throws XenonException {
         LOGGER.debug("createDirectory dir = {}", dir);
 
+        assertIsOpen();
+
         Path absDir = toAbsolutePath(dir);
-        assertPathNotExists(absDir);
-        assertParentDirectoryExists(absDir);
+        assertResourceNotExists(absDir);
+        assertParentIsDirectory(absDir);
 
         try {
             client.createDirectory(getDirectoryPath(absDir));
@@ -203,9 +473,11 @@ public class WebdavFileSystem extends FileSystem {
     public void createFile(Path file) throws XenonException {
         LOGGER.debug("createFile path = {}", file);
 
+        assertIsOpen();
+
         Path absFile = toAbsolutePath(file);
-        assertPathNotExists(absFile);
-        assertParentDirectoryExists(absFile);
+        assertResourceNotExists(absFile);
+        assertParentIsDirectory(absFile);
 
         try {
             client.put(getFilePath(absFile), new byte[0]);
@@ -240,45 +512,158 @@ public class WebdavFileSystem extends FileSystem {
     @Override
     public boolean exists(Path path) throws XenonException {
 
+        assertIsOpen();
+
+        return getResource(toAbsolutePath(path)) != null;
+    }
+
+    @Override
+    public InputStream readFromFile(Path path) throws XenonException {
+
+        assertIsOpen();
+
         Path absPath = toAbsolutePath(path);
 
+        DavResource resource = getExistingFile(absPath);
+
         try {
-            return client.exists(getDirectoryPath(absPath)) || client.exists(getFilePath(absPath));
+            return client.get(getFilePath(absPath), getRevalidationHeaders(resource));
         } catch (IOException e) {
-            throw new XenonException(ADAPTOR_NAME, "Failed to check existence of directory: " + absPath, e);
+            throw getReadException(absPath, e);
         }
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * The data is retrieved using an HTTP range request. If the server does not support range requests, the data before <code>offset</code> is skipped
+     * instead.
+     */
     @Override
-    public InputStream readFromFile(Path path) throws XenonException {
+    public InputStream readFromFile(Path path, long offset) throws XenonException {
+
+        assertValidOffset(offset);
+        assertIsOpen();
+
+        if (offset == 0) {
+            return readFromFile(path);
+        }
 
         Path absPath = toAbsolutePath(path);
-        assertFileExists(absPath);
+
+        DavResource resource = getExistingFile(absPath);
+
+        long size = resource.getContentLength();
+
+        if (size >= 0 && offset >= size) {
+            // Nothing left to read, and a range request would be refused by the server.
+            return new ByteArrayInputStream(new byte[0]);
+        }
+
+        try {
+            InputStream in = client.getRange(getFilePath(absPath), offset, -1, getRevalidationHeaders(resource));
+
+            if (in == null) {
+                return super.readFromFile(absPath, offset);
+            }
+
+            return in;
+        } catch (SardineException e) {
+            if (e.getStatusCode() == HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE) {
+                return new ByteArrayInputStream(new byte[0]);
+            }
+            throw getReadException(absPath, e);
+        } catch (IOException e) {
+            throw getReadException(absPath, e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * A file larger than the segment size is downloaded as a sequence of range requests, of which up to <code>parallelSegments</code> are performed
+     * concurrently using the connection pool. Each request carries an If-Match header with the ETag of the file, so all segments are guaranteed to come from
+     * the same version of the file. If the server does not provide a strong ETag, or does not support range requests, the file is downloaded using a single
+     * request.
+     */
+    @Override
+    protected InputStream readFromFileForCopy(Path source, PathAttributes attributes) throws XenonException {
+
+        long size = attributes.getSize();
+
+        if (parallelSegments < 2 || size <= segmentSize) {
+            return readFromFile(source);
+        }
+
+        Path absPath = toAbsolutePath(source);
+
+        DavResource resource = getExistingFile(absPath);
+
+        String etag = getStrongETag(resource);
+
+        if (etag == null || resource.getContentLength() != size) {
+            return readFromFile(absPath);
+        }
+
+        String url = getFilePath(absPath);
+        Map<String, String> headers = Collections.singletonMap("If-Match", etag);
 
         try {
-            return client.get(getFilePath(absPath));
+            // The first segment is requested by the calling thread, which also tells us if the server supports range requests at all.
+            InputStream first = client.getRange(url, 0, segmentSize - 1, headers);
+
+            if (first == null) {
+                return client.get(url, headers);
+            }
+
+            return new SegmentedInputStream(client, url, size, segmentSize, parallelSegments, headers, executor, first);
         } catch (IOException e) {
-            throw new XenonException(ADAPTOR_NAME, "Failed to access file: " + absPath, e);
+            throw getReadException(absPath, e);
+        }
+    }
+
+    private XenonException getReadException(Path path, IOException e) {
+
+        if (e instanceof SardineException && ((SardineException) e).getStatusCode() == HttpStatus.SC_PRECONDITION_FAILED) {
+            return new XenonException(ADAPTOR_NAME, "File was modified while opening it: " + path, e);
         }
+
+        return new XenonException(ADAPTOR_NAME, "Failed to access file: " + path, e);
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * The data is streamed into the body of an HTTP PUT request, which is performed by the sardine client on a helper thread. If <code>size</code> is
+     * known it is sent as the Content-Length of the request, otherwise chunked transfer encoding is used. Since the server only responds once all data has
+     * been sent, a failed upload is reported as an exception when the stream is closed. This includes the case where <code>file</code> was created by someone
+     * else in the meantime.
+     *
+     * The number of helper threads is limited to the maximum number of connections per route, and opening more uploads at the same time fails. An upload
+     * also fails if it does not get a connection, or if no data is written to its stream, within the upload timeout.
+     */
     @Override
     public OutputStream writeToFile(Path file, long size) throws XenonException {
 
+        assertIsOpen();
+
         Path absFile = toAbsolutePath(file);
-        assertPathNotExists(absFile);
-        assertParentDirectoryExists(absFile);
+        assertResourceNotExists(absFile);
+        assertParentIsDirectory(absFile);
 
-        try {
-            PipedInputStream in = new PipedInputStream(4096);
-            PipedOutputStream out = new PipedOutputStream(in);
+        List<Header> headers = new ArrayList<>();
+        headers.add(new BasicHeader(HttpHeaders.CONTENT_TYPE, "application/octet-stream"));
 
-            // Create a separate thread here to handle the writing
-            new StreamToFileWriter(getFilePath(absFile), in).start();
+        // Let the server refuse the upload if the file was created after our check.
+        headers.add(new BasicHeader(HttpHeaders.IF_NONE_MATCH, "*"));
 
-            return out;
-        } catch (Exception e) {
-            throw new XenonException(ADAPTOR_NAME, "Failed to open stream for writing", e);
+        // Lets the server reject the request (for example to ask for authentication) before the data is sent, as the data cannot be sent twice.
+        headers.add(new BasicHeader(HTTP.EXPECT_DIRECTIVE, HTTP.EXPECT_CONTINUE));
+
+        try {
+            return new HttpPutOutputStream(client, getFilePath(absFile), size, headers, getBufferSize(), uploadTimeout, uploader);
+        } catch (RejectedExecutionException e) {
+            throw new XenonException(ADAPTOR_NAME, "Too many uploads open at the same time (at most " + uploader.getMaximumPoolSize() + ")", e);
         }
     }
 
@@ -295,15 +680,10 @@ public class WebdavFileSystem extends FileSystem {
     @Override
     public PathAttributes getAttributes(Path path) throws XenonException {
 
-        Path absPath = toAbsolutePath(path);
-        assertPathExists(absPath);
+        assertIsOpen();
 
-        try {
-            List<DavResource> result = client.list(getFilePath(absPath), 0);
-            return getAttributes(absPath, result.get(0));
-        } catch (Exception e) {
-            throw new XenonException(ADAPTOR_NAME, "Failed to get attributes for file: " + absPath, e);
-        }
+        Path absPath = toAbsolutePath(path);
+        return getAttributes(absPath, getExistingResource(absPath));
     }
 
     @Override
@@ -315,4 +695,50 @@ public class WebdavFileSystem extends FileSystem {
     public void setPosixFilePermissions(Path path, Set<PosixFilePermission> permissions) throws XenonException {
         throw new XenonException(ADAPTOR_NAME, "Operation not supported");
     }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The checksum is retrieved from the <code>checksums</code> property offered by ownCloud and Nextcloud servers. Other servers do not offer checksums.
+     */
+    @Override
+    protected String nativeChecksum(Path file, String algorithm) throws XenonException {
+
+        try {
+            List<DavResource> result = client.propfind(getFilePath(file), 0, Collections.singleton(CHECKSUMS));
+
+            if (!result.isEmpty()) {
+                return parseChecksum(result.get(0).getCustomPropsNS().get(CHECKSUMS), algorithm);
+            }
+        } catch (IOException e) {
+            LOGGER.debug("Failed to retrieve checksums of {}", file, e);
+        }
+
+        return null;
+    }
+
+    @Override
+    protected List<String> getNativeChecksumAlgorithms() {
+        return CHECKSUM_ALGORITHMS;
+    }
+
+    /*
+     * Find the checksum for an algorithm in the value of a checksums property, which contains a list like "SHA1:<checksum> MD5:<checksum>".
+     */
+    static String parseChecksum(String value, String algorithm) {
+
+        if (value == null) {
+            return null;
+        }
+
+        String prefix = algorithm.replace("-", "") + ":";
+
+        for (String token : value.trim().split("\\s+")) {
+            if (token.regionMatches(true, 0, prefix, 0, prefix.length())) {
+                return token.substring(prefix.length()).toLowerCase(Locale.ROOT);
+            }
+        }
+
+        return null;
+    }
 }
@@ -15,6 +15,8 @@
  */
 package nl.esciencecenter.xenon.adaptors.schedulers;
 
+import java.util.concurrent.CompletableFuture;
+
 import nl.esciencecenter.xenon.XenonException;
 import nl.esciencecenter.xenon.schedulers.JobDescription;
 
@@ -24,6 +26,29 @@ import nl.esciencecenter.xenon.schedulers.JobDescription;
 public interface InteractiveProcessFactory {
     InteractiveProcess createInteractiveProcess(JobDescription description, String workdir, String jobIdentifier, long timeoutInMillis) throws XenonException;
 
+    /**
+     * Start a short command, and return a future that completes with its result once it has finished. Unlike
+     * {@link #createInteractiveProcess(JobDescription, String, String, long)}, no threads are needed to feed the input or collect the output of the command.
+     *
+     * Factories that do not support this return <code>null</code>, in which case the caller should fall back to an interactive process.
+     *
+     * @param description
+     *            the description of the command to run.
+     * @param workdir
+     *            the working directory of the command.
+     * @param stdin
+     *            the input to give to the command, or <code>null</code> for no input.
+     * @param timeoutInMillis
+     *            the maximum time to wait for the command to start.
+     * @return a future that completes with the result of the command, or <code>null</code> if not supported.
+     * @throws XenonException
+     *             if the command could not be started.
+     */
+    default CompletableFuture<RemoteCommandRunner> runCommand(JobDescription description, String workdir, String stdin, long timeoutInMillis)
+            throws XenonException {
+        return null;
+    }
+
     void close() throws XenonException;
 
     boolean isOpen() throws XenonException;
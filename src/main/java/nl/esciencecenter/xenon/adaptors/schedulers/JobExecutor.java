@@ -296,7 +296,7 @@ public class JobExecutor implements Runnable {
         }
     }
 
-    private Path processPath(Path root, String path) {
+    static Path processPath(Path root, String path) {
         Path result;
 
         if (path == null) {
@@ -19,6 +19,7 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicLong;
@@ -363,6 +364,27 @@ public class JobQueueScheduler extends Scheduler {
         return executor;
     }
 
+    /**
+     * Start a short command without submitting it as a job, if the underlying {@link InteractiveProcessFactory} supports this. The command does not appear
+     * in any queue, and no threads are used to feed its input or collect its output.
+     *
+     * @param description
+     *            the description of the command to run.
+     * @param stdin
+     *            the input to give to the command, or <code>null</code> for no input.
+     * @return a future that completes with the result of the command, or <code>null</code> if not supported.
+     * @throws XenonException
+     *             if the description is invalid or the command could not be started.
+     */
+    public CompletableFuture<RemoteCommandRunner> runCommandAsync(JobDescription description, String stdin) throws XenonException {
+
+        verifyJobDescription(description, true);
+
+        Path workdir = JobExecutor.processPath(workingDirectory, description.getWorkingDirectory());
+
+        return factory.runCommand(description, workdir.toString(), stdin, startupTimeout);
+    }
+
     public String submitBatchJob(JobDescription description) throws XenonException {
         return submit(description, false).getJobIdentifier();
     }
@@ -467,6 +489,11 @@ public class JobQueueScheduler extends Scheduler {
         multiExecutor.shutdownNow();
         unlimitedExecutor.shutdownNow();
         factory.close();
+
+        // The file system was created for this scheduler, so it is closed with it.
+        if (filesystem.isOpen()) {
+            filesystem.close();
+        }
     }
 
     @Override
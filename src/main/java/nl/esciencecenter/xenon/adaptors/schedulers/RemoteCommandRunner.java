@@ -15,6 +15,9 @@
  */
 package nl.esciencecenter.xenon.adaptors.schedulers;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -29,6 +32,8 @@ import nl.esciencecenter.xenon.utils.OutputReader;
 /**
  * Runs a command. Constructor waits for command to finish.
  *
+ * Commands can also be run asynchronously using {@link #runAsync(Scheduler, String, String, String...)}. If the scheduler supports it, no threads are used
+ * per command in that case.
  */
 public class RemoteCommandRunner {
 
@@ -57,10 +62,7 @@ public class RemoteCommandRunner {
     public RemoteCommandRunner(Scheduler scheduler, String stdin, String executable, String... arguments) throws XenonException {
         long start = System.currentTimeMillis();
 
-        JobDescription description = new JobDescription();
-        description.setExecutable(executable);
-        description.setArguments(arguments);
-        description.setQueueName("unlimited");
+        JobDescription description = createDescription(executable, arguments);
 
         Streams streams = scheduler.submitInteractiveJob(description);
 
@@ -94,6 +96,94 @@ public class RemoteCommandRunner {
                 exitCode, output, error);
     }
 
+    /**
+     * Run a command remotely without waiting for it to finish.
+     *
+     * If the scheduler is a {@link JobQueueScheduler} that can run commands without threads (such as the ssh scheduler), the command is started directly.
+     * Otherwise the command is run as an interactive job by the calling thread, and an already completed future is returned.
+     *
+     * @param scheduler
+     *            the scheduler to run the command with
+     * @param stdin
+     *            input to feed to the command
+     * @param executable
+     *            command to run
+     * @param arguments
+     *            arguments for the command
+     * @return a future that completes with the result of the command.
+     * @throws XenonException
+     *             if the command could not be started.
+     */
+    public static CompletableFuture<RemoteCommandRunner> runAsync(Scheduler scheduler, String stdin, String executable, String... arguments)
+            throws XenonException {
+
+        if (scheduler instanceof JobQueueScheduler) {
+            CompletableFuture<RemoteCommandRunner> result = ((JobQueueScheduler) scheduler).runCommandAsync(createDescription(executable, arguments), stdin);
+
+            if (result != null) {
+                return result;
+            }
+        }
+
+        return CompletableFuture.completedFuture(new RemoteCommandRunner(scheduler, stdin, executable, arguments));
+    }
+
+    /**
+     * Run a command remotely using {@link #runAsync(Scheduler, String, String, String...)}, and wait for it to finish.
+     *
+     * @param scheduler
+     *            the scheduler to run the command with
+     * @param stdin
+     *            input to feed to the command
+     * @param executable
+     *            command to run
+     * @param arguments
+     *            arguments for the command
+     * @return the result of the command.
+     * @throws XenonException
+     *             if the command could not be run successfully.
+     */
+    public static RemoteCommandRunner run(Scheduler scheduler, String stdin, String executable, String... arguments) throws XenonException {
+
+        CompletableFuture<RemoteCommandRunner> result = runAsync(scheduler, stdin, executable, arguments);
+
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new XenonException(scheduler.getAdaptorName(), "Interrupted while running command remotely", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof XenonException) {
+                throw (XenonException) e.getCause();
+            }
+            throw new XenonException(scheduler.getAdaptorName(), "Could not run command remotely", e.getCause());
+        }
+    }
+
+    private static JobDescription createDescription(String executable, String... arguments) {
+        JobDescription description = new JobDescription();
+        description.setExecutable(executable);
+        description.setArguments(arguments);
+        description.setQueueName("unlimited");
+        return description;
+    }
+
+    /**
+     * Create a runner for a command that was already run, for example by a {@link RemoteShell}.
+     *
+     * @param exitCode
+     *            the exit code of the command
+     * @param output
+     *            the text produced by the command on stdout
+     * @param error
+     *            the text produced by the command on stderr
+     */
+    public RemoteCommandRunner(int exitCode, String output, String error) {
+        this.exitCode = exitCode;
+        this.output = output;
+        this.error = error;
+    }
+
     public String getStdout() {
         return output;
     }
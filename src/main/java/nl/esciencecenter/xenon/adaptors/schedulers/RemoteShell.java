@@ -0,0 +1,289 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.schedulers;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import nl.esciencecenter.xenon.XenonException;
+import nl.esciencecenter.xenon.schedulers.JobDescription;
+import nl.esciencecenter.xenon.schedulers.Scheduler;
+import nl.esciencecenter.xenon.schedulers.Streams;
+
+/**
+ * A long running shell, started as an interactive job, that runs commands one after the other.
+ *
+ * Each command is followed by a unique delimiter, so the output of the command can be separated from that of the next one. The delimiter carries the
+ * exit code of the command. The error output of a command is stored in a temporary file, and written to the output stream after the delimiter, followed
+ * by the delimiter again. As a result, only the output stream of the shell needs to be read, so no threads are needed to prevent the shell from
+ * blocking on a full error stream.
+ */
+class RemoteShell {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RemoteShell.class);
+
+    /** The shell to start. */
+    private static final String SHELL = "/bin/sh";
+
+    /** Discards the errors of the shell itself, and creates the file for the error output of commands, which is removed when the shell exits. */
+    private static final String SETUP = "exec 2>/dev/null; XENON_STDERR=$(mktemp) || exit 1; trap 'rm -f \"$XENON_STDERR\"' EXIT\n";
+
+    /** How long to wait for the shell to exit when it is closed (in milliseconds). */
+    private static final long EXIT_TIMEOUT = 1000;
+
+    private final Scheduler scheduler;
+    private final Streams streams;
+    private final OutputStream stdin;
+    private final InputStream stdout;
+
+    private boolean broken = false;
+
+    private RemoteShell(Scheduler scheduler, Streams streams) {
+        this.scheduler = scheduler;
+        this.streams = streams;
+        this.stdin = streams.getStdin();
+        this.stdout = new BufferedInputStream(streams.getStdout());
+    }
+
+    /**
+     * Start a shell on a scheduler, and check if it runs commands as expected.
+     *
+     * @param scheduler
+     *            the scheduler to start the shell on.
+     * @return the shell.
+     * @throws XenonException
+     *             if the shell could not be started.
+     */
+    static RemoteShell start(Scheduler scheduler) throws XenonException {
+
+        JobDescription description = new JobDescription();
+        description.setExecutable(SHELL);
+        description.setQueueName("unlimited");
+
+        RemoteShell shell = new RemoteShell(scheduler, scheduler.submitInteractiveJob(description));
+
+        try {
+            shell.write(SETUP);
+            String delimiter = shell.send(null, "true");
+
+            if (shell.receive(delimiter, "true").getExitCode() != 0) {
+                throw new IOException("Unexpected exit code");
+            }
+        } catch (IOException e) {
+            shell.close();
+            throw new XenonException(scheduler.getAdaptorName(), "Failed to start shell", e);
+        }
+
+        LOGGER.debug("Started shell {}", shell.getJobIdentifier());
+        return shell;
+    }
+
+    String getJobIdentifier() {
+        return streams.getJobIdentifier();
+    }
+
+    /**
+     * Check if the shell can still be used.
+     *
+     * @return if the shell is running and did not fail.
+     */
+    boolean isAlive() {
+        if (broken) {
+            return false;
+        }
+
+        try {
+            return !scheduler.getJobStatus(getJobIdentifier()).isDone();
+        } catch (XenonException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Send a command to the shell. The executable and arguments are passed to the shell like the ssh adaptor does for an interactive job: the executable
+     * is used as is, while the arguments are quoted.
+     *
+     * @param stdin
+     *            the text to write to the input of the command, or null to give it no input.
+     * @param executable
+     *            the command to run.
+     * @param arguments
+     *            the arguments of the command.
+     * @return the delimiter that marks the end of the output of the command, to pass to {@link #receive(String, String)}.
+     * @throws IOException
+     *             if the command could not be sent, in which case the shell did not run it.
+     */
+    String send(String stdin, String executable, String... arguments) throws IOException {
+
+        String delimiter = "XENON-" + UUID.randomUUID();
+
+        StringBuilder command = new StringBuilder(200);
+
+        if (stdin != null) {
+            command.append("printf '%s' ").append(ScriptingUtils.protectAgainstShellMetas(stdin)).append(" | ");
+        }
+
+        command.append(executable);
+
+        for (String argument : arguments) {
+            command.append(' ').append(ScriptingUtils.protectAgainstShellMetas(argument));
+        }
+
+        if (stdin == null) {
+            // Do not let the command read the commands meant for the shell.
+            command.append(" </dev/null");
+        }
+
+        command.append(" 2>\"$XENON_STDERR\"; printf '%s %d\\n' ").append(delimiter).append(" $?; cat \"$XENON_STDERR\"; printf '%s\\n' ")
+                .append(delimiter).append('\n');
+
+        write(command.toString());
+        return delimiter;
+    }
+
+    /**
+     * Wait for a command sent with {@link #send(String, String, String...)} to finish, and return its result.
+     *
+     * @param delimiter
+     *            the delimiter returned by send.
+     * @param executable
+     *            the command, used for logging only.
+     * @return the exit code and output of the command.
+     * @throws IOException
+     *             if the output of the command could not be read. The shell can no longer be used.
+     */
+    RemoteCommandRunner receive(String delimiter, String executable) throws IOException {
+
+        long start = System.currentTimeMillis();
+
+        try {
+            byte[] token = delimiter.getBytes(StandardCharsets.UTF_8);
+
+            String output = readUntil(token);
+            String code = readUntil(new byte[] { '\n' }).trim();
+            String error = readUntil(token);
+
+            if (stdout.read() != '\n') {
+                throw new IOException("Missing end of output");
+            }
+
+            int exitCode;
+
+            try {
+                exitCode = Integer.parseInt(code);
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid exit code: " + code, e);
+            }
+
+            LOGGER.debug("Shell {} ran {} in {} ms, exitcode = {}", getJobIdentifier(), executable, System.currentTimeMillis() - start, exitCode);
+
+            return new RemoteCommandRunner(exitCode, output, error);
+        } catch (IOException e) {
+            broken = true;
+            throw e;
+        }
+    }
+
+    private void write(String text) throws IOException {
+        try {
+            stdin.write(text.getBytes(StandardCharsets.UTF_8));
+            stdin.flush();
+        } catch (IOException e) {
+            broken = true;
+            throw e;
+        }
+    }
+
+    /*
+     * Read up to and including the token, and return the text before it.
+     */
+    private String readUntil(byte[] token) throws IOException {
+
+        OutputBuffer buffer = new OutputBuffer();
+        byte last = token[token.length - 1];
+
+        while (true) {
+            int b = stdout.read();
+
+            if (b == -1) {
+                throw new EOFException("Shell exited");
+            }
+
+            buffer.write(b);
+
+            if ((byte) b == last && buffer.endsWith(token)) {
+                return buffer.prefix(buffer.size() - token.length);
+            }
+        }
+    }
+
+    /*
+     * A ByteArrayOutputStream that can check its end without copying its content.
+     */
+    private static class OutputBuffer extends ByteArrayOutputStream {
+
+        boolean endsWith(byte[] token) {
+
+            if (count < token.length) {
+                return false;
+            }
+
+            for (int i = 0; i < token.length; i++) {
+                if (buf[count - token.length + i] != token[i]) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        String prefix(int length) {
+            return new String(buf, 0, length, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Ask the shell to exit, and kill it if it does not exit in time.
+     */
+    void close() {
+
+        broken = true;
+
+        try {
+            stdin.write("exit\n".getBytes(StandardCharsets.UTF_8));
+            stdin.close();
+        } catch (IOException e) {
+            LOGGER.debug("Failed to ask shell {} to exit", getJobIdentifier(), e);
+        }
+
+        try {
+            if (!scheduler.waitUntilDone(getJobIdentifier(), EXIT_TIMEOUT).isDone()) {
+                scheduler.cancelJob(getJobIdentifier());
+            }
+        } catch (XenonException e) {
+            LOGGER.debug("Failed to stop shell {}", getJobIdentifier(), e);
+        }
+    }
+}
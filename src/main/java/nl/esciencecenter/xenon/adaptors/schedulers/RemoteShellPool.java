@@ -0,0 +1,244 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.schedulers;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import nl.esciencecenter.xenon.XenonException;
+import nl.esciencecenter.xenon.schedulers.Scheduler;
+
+/**
+ * A pool of {@link RemoteShell}s used by a {@link ScriptingScheduler} to run its commands, so a command does not need a job (and on ssh, a channel) of
+ * its own.
+ *
+ * Shells are started when needed, up to a maximum, so that many commands can run concurrently. A shell that fails or exits is replaced by a new one the
+ * next time a shell is needed. A command is retried on a new shell if it could not be sent to the shell, but not once it was sent, as the command may
+ * already have been run. If no shell can be started on the scheduler at all, the pool falls back to running each command as a separate job. If a shell
+ * fails to start after an earlier shell did start, only the command that needed it is run as a separate job, and a shell is started again for the next one.
+ */
+class RemoteShellPool {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RemoteShellPool.class);
+
+    private final Scheduler scheduler;
+
+    private final int maxShells;
+
+    private final ArrayDeque<RemoteShell> idle = new ArrayDeque<>();
+
+    /** The number of shells, both idle and in use. */
+    private int shells = 0;
+
+    private boolean closed = false;
+
+    /** Set once a shell has been started, after which a failure to start another shell is treated as temporary. */
+    private boolean started = false;
+
+    /** Set if shells cannot be started on the scheduler, in which case commands are run as separate jobs. */
+    private boolean disabled = false;
+
+    RemoteShellPool(Scheduler scheduler, int maxShells) {
+        if (maxShells <= 0) {
+            throw new IllegalArgumentException("Invalid number of shells: " + maxShells);
+        }
+        this.scheduler = scheduler;
+        this.maxShells = maxShells;
+    }
+
+    /**
+     * Run a command in one of the shells, and wait for it to finish.
+     *
+     * @param stdin
+     *            the text to write to the input of the executable, or null.
+     * @param executable
+     *            the executable to run.
+     * @param arguments
+     *            the arguments to the executable.
+     * @return the result of the command.
+     * @throws XenonException
+     *             if the command could not be run, or the shell failed while running it.
+     */
+    RemoteCommandRunner run(String stdin, String executable, String... arguments) throws XenonException {
+
+        boolean retried = false;
+
+        while (true) {
+            RemoteShell shell = acquire();
+
+            if (shell == null) {
+                return RemoteCommandRunner.run(scheduler, stdin, executable, arguments);
+            }
+
+            String delimiter;
+
+            try {
+                delimiter = shell.send(stdin, executable, arguments);
+            } catch (IOException e) {
+                release(shell);
+
+                if (retried) {
+                    throw new XenonException(scheduler.getAdaptorName(), "Failed to send command to shell", e);
+                }
+
+                LOGGER.debug("Failed to send command to shell {}, retrying on a new shell", shell.getJobIdentifier(), e);
+                retried = true;
+                continue;
+            }
+
+            try {
+                return shell.receive(delimiter, executable);
+            } catch (IOException e) {
+                throw new XenonException(scheduler.getAdaptorName(), "Shell failed while running " + executable, e);
+            } finally {
+                release(shell);
+            }
+        }
+    }
+
+    /*
+     * Get an idle shell, or start a new one if the maximum is not reached yet. Returns null if shells cannot be started.
+     */
+    private RemoteShell acquire() throws XenonException {
+
+        while (true) {
+            RemoteShell shell = null;
+
+            synchronized (this) {
+                while (shell == null) {
+                    if (closed) {
+                        throw new SchedulerClosedException(scheduler.getAdaptorName(), "Scheduler is closed");
+                    }
+
+                    if (disabled) {
+                        return null;
+                    }
+
+                    shell = idle.poll();
+
+                    if (shell == null) {
+                        if (shells < maxShells) {
+                            shells++;
+                            break;
+                        }
+
+                        try {
+                            wait();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new XenonException(scheduler.getAdaptorName(), "Interrupted while waiting for a shell", e);
+                        }
+                    }
+                }
+            }
+
+            // Start or check the shell without holding the lock, so other commands can use the other shells in the meantime.
+            if (shell == null) {
+                return start();
+            }
+
+            if (shell.isAlive()) {
+                return shell;
+            }
+
+            LOGGER.debug("Replacing shell {}", shell.getJobIdentifier());
+            discard(shell);
+        }
+    }
+
+    /*
+     * Start a new shell for which a slot was already reserved. Returns null if the shell could not be started, in which case the caller runs its command as a
+     * separate job. The pool is only disabled if no shell was ever started, as a later failure may well be temporary.
+     */
+    private RemoteShell start() {
+
+        RemoteShell shell;
+
+        try {
+            shell = RemoteShell.start(scheduler);
+        } catch (XenonException e) {
+            synchronized (this) {
+                shells--;
+
+                if (started) {
+                    LOGGER.warn("Failed to start shell, running this command as a separate job", e);
+                } else {
+                    LOGGER.warn("Failed to start shell, running each command as a separate job", e);
+                    disabled = true;
+                }
+                notifyAll();
+            }
+            return null;
+        }
+
+        synchronized (this) {
+            started = true;
+        }
+        return shell;
+    }
+
+    private void release(RemoteShell shell) {
+
+        if (shell.isAlive()) {
+            synchronized (this) {
+                if (!closed) {
+                    idle.push(shell);
+                    notifyAll();
+                    return;
+                }
+            }
+        }
+
+        discard(shell);
+    }
+
+    private void discard(RemoteShell shell) {
+
+        synchronized (this) {
+            shells--;
+            notifyAll();
+        }
+
+        shell.close();
+    }
+
+    synchronized int size() {
+        return shells;
+    }
+
+    /**
+     * Close all shells. Shells that are in use are closed when the command running in them finishes.
+     */
+    void close() {
+
+        RemoteShell[] shellsToClose;
+
+        synchronized (this) {
+            closed = true;
+            shellsToClose = idle.toArray(new RemoteShell[idle.size()]);
+            shells -= idle.size();
+            idle.clear();
+            notifyAll();
+        }
+
+        for (RemoteShell shell : shellsToClose) {
+            shell.close();
+        }
+    }
+}
@@ -39,6 +39,8 @@ import nl.esciencecenter.xenon.schedulers.Streams;
 /**
  * Connection to a (remote) scheduler, implemented by calling command line commands over a local or ssh connection.
  *
+ * Commands are either run as separate (interactive) jobs on the local or ssh scheduler, or sent to a small pool of long running shells started on that
+ * scheduler, which saves starting a process (and on ssh, opening a channel) for every command.
  */
 public abstract class ScriptingScheduler extends Scheduler {
 
@@ -49,13 +51,30 @@ public abstract class ScriptingScheduler extends Scheduler {
 
     protected final long pollDelay;
 
+    /** The shells used to run commands, or null if each command is run as a separate job. */
+    private final RemoteShellPool shells;
+
     protected ScriptingScheduler(String uniqueID, String adaptor, String location, Credential credential, Map<String, String> prop,
             XenonPropertyDescription[] validProperties, String pollDelayProperty) throws XenonException {
+        this(uniqueID, adaptor, location, credential, prop, validProperties, pollDelayProperty, null);
+    }
+
+    /**
+     * Create a scripting scheduler that runs its commands in a pool of long running shells.
+     *
+     * @param commandShellsProperty
+     *            the property that holds the maximum number of shells used to run commands (0 to run each command as a separate job), or null to run each
+     *            command as a separate job.
+     */
+    protected ScriptingScheduler(String uniqueID, String adaptor, String location, Credential credential, Map<String, String> prop,
+            XenonPropertyDescription[] validProperties, String pollDelayProperty, String commandShellsProperty) throws XenonException {
 
         super(uniqueID, adaptor, location, credential, ScriptingUtils.getProperties(validProperties, location, prop));
 
         this.pollDelay = properties.getLongProperty(pollDelayProperty);
 
+        long commandShells = commandShellsProperty == null ? 0 : properties.getNaturalProperty(commandShellsProperty);
+
         String subSchedulerAdaptor;
         // String subFileSystemAdaptor;
         String subLocation;
@@ -92,6 +111,12 @@ public abstract class ScriptingScheduler extends Scheduler {
         subFileSystem = subScheduler.getFileSystem();
 
         // FileSystem.create(subFileSystemAdaptor, subLocation, credential, null);
+
+        if (commandShells > 0) {
+            shells = new RemoteShellPool(subScheduler, (int) Math.min(Integer.MAX_VALUE, commandShells));
+        } else {
+            shells = null;
+        }
     }
 
     protected Path getWorkingDirectory() {
@@ -136,7 +161,10 @@ public abstract class ScriptingScheduler extends Scheduler {
      *             if an error occurs
      */
     public RemoteCommandRunner runCommand(String stdin, String executable, String... arguments) throws XenonException {
-        return new RemoteCommandRunner(subScheduler, stdin, executable, arguments);
+        if (shells == null) {
+            return RemoteCommandRunner.run(subScheduler, stdin, executable, arguments);
+        }
+        return shells.run(stdin, executable, arguments);
     }
 
     // Subclasses can override this method to produce more specified exceptions
@@ -161,7 +189,7 @@ public abstract class ScriptingScheduler extends Scheduler {
      *             if an error occurred
      */
     public String runCheckedCommand(String stdin, String executable, String... arguments) throws XenonException {
-        RemoteCommandRunner runner = new RemoteCommandRunner(subScheduler, stdin, executable, arguments);
+        RemoteCommandRunner runner = runCommand(stdin, executable, arguments);
 
         if (!runner.success()) {
             translateError(runner, stdin, executable, arguments);
@@ -360,6 +388,9 @@ public abstract class ScriptingScheduler extends Scheduler {
 
     @Override
     public void close() throws XenonException {
+        if (shells != null) {
+            shells.close();
+        }
         subScheduler.close();
         subFileSystem.close();
     }
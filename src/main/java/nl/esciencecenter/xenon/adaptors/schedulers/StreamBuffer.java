@@ -0,0 +1,325 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.schedulers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+
+/**
+ * A buffer between the producer of an output stream of an interactive job and its consumer.
+ *
+ * The producer (such as the I/O thread of an SSH session) writes to the {@link #getSink() sink}, which never blocks. Data is kept in memory up to a limit,
+ * and is spilled to a temporary file when the consumer lags further behind. The consumer reads the {@link #getSource() source} at its own pace, and can
+ * register a listener to be notified when new data or the end of the stream arrives, so it never has to block on a read.
+ *
+ * Data is always read in the order in which it was written: once data has been spilled, new data is appended to the file until the file has been drained.
+ */
+public class StreamBuffer {
+
+    private final long memoryLimit;
+
+    // Data in memory, which always precedes the data in the file.
+    private final ArrayDeque<byte[]> chunks = new ArrayDeque<>();
+    private int chunkOffset = 0;
+    private long memoryBytes = 0;
+
+    // Spilled data, stored in the file between readPosition and writePosition.
+    private FileChannel file;
+    private long readPosition = 0;
+    private long writePosition = 0;
+
+    private boolean eof = false;
+    private boolean closed = false;
+
+    private Runnable listener;
+
+    private final InputStream source = new Source();
+    private final OutputStream sink = new Sink();
+
+    /**
+     * Create a new buffer.
+     *
+     * @param memoryLimit
+     *            the number of bytes to keep in memory before spilling to disk.
+     */
+    public StreamBuffer(long memoryLimit) {
+        if (memoryLimit < 0) {
+            throw new IllegalArgumentException("Memory limit may not be negative");
+        }
+        this.memoryLimit = memoryLimit;
+    }
+
+    /**
+     * Get the stream to which the producer writes. Writes never block, and closing the sink marks the end of the stream.
+     *
+     * @return the sink of this buffer.
+     */
+    public OutputStream getSink() {
+        return sink;
+    }
+
+    /**
+     * Get the stream from which the consumer reads. Reads block until data or the end of the stream is available. Closing the source discards any remaining
+     * data.
+     *
+     * @return the source of this buffer.
+     */
+    public InputStream getSource() {
+        return source;
+    }
+
+    /**
+     * Set the listener to notify when data has been added to the buffer, or the end of the stream has been reached. The listener is called by the producer,
+     * and must not block. If data is already available when the listener is set, it is called immediately.
+     *
+     * @param listener
+     *            the listener, or <code>null</code> to remove the current listener.
+     */
+    public void setListener(Runnable listener) {
+        boolean ready;
+
+        synchronized (this) {
+            this.listener = listener;
+            ready = eof || available() > 0;
+        }
+
+        if (listener != null && ready) {
+            listener.run();
+        }
+    }
+
+    /**
+     * Returns if part of the buffered data is currently stored on disk.
+     *
+     * @return if data has been spilled to disk.
+     */
+    public synchronized boolean isSpilled() {
+        return writePosition > readPosition;
+    }
+
+    private synchronized long available() {
+        return memoryBytes + writePosition - readPosition;
+    }
+
+    private void write(byte[] b, int off, int len) throws IOException {
+
+        Runnable l;
+
+        synchronized (this) {
+            if (eof) {
+                throw new IOException("Stream closed");
+            }
+
+            if (closed || len == 0) {
+                // Nobody is reading anymore, so the data is dropped.
+                return;
+            }
+
+            if (writePosition == readPosition && memoryBytes + len <= memoryLimit) {
+                byte[] chunk = new byte[len];
+                System.arraycopy(b, off, chunk, 0, len);
+                chunks.add(chunk);
+                memoryBytes += len;
+            } else {
+                spill(ByteBuffer.wrap(b, off, len));
+            }
+
+            notifyAll();
+            l = listener;
+        }
+
+        if (l != null) {
+            l.run();
+        }
+    }
+
+    private void spill(ByteBuffer data) throws IOException {
+        if (file == null) {
+            file = FileChannel.open(Files.createTempFile("xenon-", ".buffer"), StandardOpenOption.READ, StandardOpenOption.WRITE,
+                    StandardOpenOption.DELETE_ON_CLOSE);
+        }
+
+        while (data.hasRemaining()) {
+            writePosition += file.write(data, writePosition);
+        }
+    }
+
+    private void end() {
+
+        Runnable l;
+
+        synchronized (this) {
+            if (eof) {
+                return;
+            }
+
+            eof = true;
+            notifyAll();
+            l = listener;
+        }
+
+        if (l != null) {
+            l.run();
+        }
+    }
+
+    private synchronized int read(byte[] b, int off, int len) throws IOException {
+
+        while (!closed && !eof && available() == 0) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for data");
+            }
+        }
+
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+
+        if (len == 0) {
+            return 0;
+        }
+
+        if (memoryBytes > 0) {
+            return readMemory(b, off, len);
+        }
+
+        if (writePosition > readPosition) {
+            return readFile(b, off, len);
+        }
+
+        return -1;
+    }
+
+    private int readMemory(byte[] b, int off, int len) {
+
+        int count = 0;
+
+        while (count < len && !chunks.isEmpty()) {
+            byte[] chunk = chunks.peek();
+            int n = Math.min(len - count, chunk.length - chunkOffset);
+            System.arraycopy(chunk, chunkOffset, b, off + count, n);
+            count += n;
+            chunkOffset += n;
+
+            if (chunkOffset == chunk.length) {
+                chunks.poll();
+                chunkOffset = 0;
+            }
+        }
+
+        memoryBytes -= count;
+        return count;
+    }
+
+    private int readFile(byte[] b, int off, int len) throws IOException {
+
+        int n = file.read(ByteBuffer.wrap(b, off, (int) Math.min(len, writePosition - readPosition)), readPosition);
+
+        if (n < 0) {
+            throw new IOException("Buffer file truncated unexpectedly");
+        }
+
+        readPosition += n;
+
+        if (readPosition == writePosition) {
+            // The file has been drained, so new data can go to memory again.
+            file.truncate(0);
+            readPosition = 0;
+            writePosition = 0;
+        }
+
+        return n;
+    }
+
+    private void close() throws IOException {
+
+        FileChannel tmp;
+
+        synchronized (this) {
+            closed = true;
+            chunks.clear();
+            memoryBytes = 0;
+            readPosition = 0;
+            writePosition = 0;
+            tmp = file;
+            file = null;
+            notifyAll();
+        }
+
+        if (tmp != null) {
+            tmp.close();
+        }
+    }
+
+    private class Source extends InputStream {
+
+        @Override
+        public int read() throws IOException {
+            byte[] tmp = new byte[1];
+            int n = StreamBuffer.this.read(tmp, 0, 1);
+            return n < 0 ? -1 : tmp[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (off < 0 || len < 0 || len > b.length - off) {
+                throw new IndexOutOfBoundsException();
+            }
+            return StreamBuffer.this.read(b, off, len);
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, StreamBuffer.this.available());
+        }
+
+        @Override
+        public void close() throws IOException {
+            StreamBuffer.this.close();
+        }
+    }
+
+    private class Sink extends OutputStream {
+
+        @Override
+        public void write(int b) throws IOException {
+            StreamBuffer.this.write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (off < 0 || len < 0 || len > b.length - off) {
+                throw new IndexOutOfBoundsException();
+            }
+            StreamBuffer.this.write(b, off, len);
+        }
+
+        @Override
+        public void close() {
+            end();
+        }
+    }
+}
@@ -32,6 +32,8 @@ public class StreamsImplementation implements Streams {
     private final InputStream stdout;
     private final InputStream stderr;
     private final OutputStream stdin;
+    private final StreamBuffer stdoutBuffer;
+    private final StreamBuffer stderrBuffer;
 
     /**
      * Create a Streams containing the job and its standard streams.
@@ -50,6 +52,30 @@ public class StreamsImplementation implements Streams {
         this.stdout = stdout;
         this.stdin = stdin;
         this.stderr = stderr;
+        this.stdoutBuffer = null;
+        this.stderrBuffer = null;
+    }
+
+    /**
+     * Create a Streams containing the job and its standard streams, where the output streams are read from buffers. These streams support output
+     * notifications.
+     *
+     * @param jobIdentifier
+     *            the identifier of the job.
+     * @param stdout
+     *            the buffer containing the standard output.
+     * @param stdin
+     *            the standard input stream.
+     * @param stderr
+     *            the buffer containing the standard error.
+     */
+    public StreamsImplementation(String jobIdentifier, StreamBuffer stdout, OutputStream stdin, StreamBuffer stderr) {
+        this.jobIdentifier = jobIdentifier;
+        this.stdout = stdout.getSource();
+        this.stdin = stdin;
+        this.stderr = stderr.getSource();
+        this.stdoutBuffer = stdout;
+        this.stderrBuffer = stderr;
     }
 
     /**
@@ -88,6 +114,17 @@ public class StreamsImplementation implements Streams {
         return stdin;
     }
 
+    @Override
+    public boolean setOutputListener(Runnable listener) {
+        if (stdoutBuffer == null) {
+            return false;
+        }
+
+        stdoutBuffer.setListener(listener);
+        stderrBuffer.setListener(listener);
+        return true;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
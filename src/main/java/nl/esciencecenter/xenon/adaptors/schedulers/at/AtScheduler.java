@@ -16,6 +16,7 @@
 package nl.esciencecenter.xenon.adaptors.schedulers.at;
 
 import static nl.esciencecenter.xenon.adaptors.schedulers.at.AtSchedulerAdaptor.ADAPTOR_NAME;
+import static nl.esciencecenter.xenon.adaptors.schedulers.at.AtSchedulerAdaptor.COMMAND_SHELLS_PROPERTY;
 import static nl.esciencecenter.xenon.adaptors.schedulers.at.AtSchedulerAdaptor.POLL_DELAY_PROPERTY;
 
 import java.util.Arrays;
@@ -97,7 +98,7 @@ public class AtScheduler extends ScriptingScheduler {
     public AtScheduler(String uniqueID, String location, Credential credential, XenonPropertyDescription[] validProperties, Map<String, String> prop)
             throws XenonException {
 
-        super(uniqueID, ADAPTOR_NAME, location, credential, prop, validProperties, POLL_DELAY_PROPERTY);
+        super(uniqueID, ADAPTOR_NAME, location, credential, prop, validProperties, POLL_DELAY_PROPERTY, COMMAND_SHELLS_PROPERTY);
         // TODO Auto-generated constructor stub
 
         jobSeenMap = new JobSeenMap(0);
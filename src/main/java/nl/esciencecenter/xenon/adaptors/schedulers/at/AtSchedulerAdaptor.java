@@ -36,6 +36,9 @@ public class AtSchedulerAdaptor extends ScriptingSchedulerAdaptor {
     /** Polling delay for jobs started by this adaptor. */
     public static final String POLL_DELAY_PROPERTY = PREFIX + "poll.delay";
 
+    /** The maximum number of shells used to run scheduler commands. */
+    public static final String COMMAND_SHELLS_PROPERTY = PREFIX + "command.shells";
+
     /** Human readable description of this adaptor */
     public static final String ADAPTOR_DESCRIPTION = "The At Adaptor submits jobs to an at scheduler. "
             + " This adaptor uses either the local or the ssh scheduler adaptor to run commands on the machine running at, "
@@ -46,7 +49,9 @@ public class AtSchedulerAdaptor extends ScriptingSchedulerAdaptor {
 
     /** List of all properties supported by this adaptor */
     private static final XenonPropertyDescription[] VALID_PROPERTIES = new XenonPropertyDescription[] {
-            new XenonPropertyDescription(POLL_DELAY_PROPERTY, Type.LONG, "1000", "Number of milliseconds between polling the status of a job.") };
+            new XenonPropertyDescription(POLL_DELAY_PROPERTY, Type.LONG, "1000", "Number of milliseconds between polling the status of a job."),
+            new XenonPropertyDescription(COMMAND_SHELLS_PROPERTY, Type.NATURAL, "2",
+                    "The maximum number of long running shells used to run scheduler commands (0 to run each command as a separate job).") };
 
     public AtSchedulerAdaptor() throws XenonException {
         super(ADAPTOR_NAME, ADAPTOR_DESCRIPTION, ADAPTOR_LOCATIONS, VALID_PROPERTIES);
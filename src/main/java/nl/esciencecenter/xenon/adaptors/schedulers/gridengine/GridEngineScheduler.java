@@ -18,6 +18,7 @@ package nl.esciencecenter.xenon.adaptors.schedulers.gridengine;
 import static nl.esciencecenter.xenon.adaptors.schedulers.gridengine.GridEngineSchedulerAdaptor.ACCOUNTING_GRACE_TIME_PROPERTY;
 import static nl.esciencecenter.xenon.adaptors.schedulers.gridengine.GridEngineSchedulerAdaptor.ADAPTOR_NAME;
 import static nl.esciencecenter.xenon.adaptors.schedulers.gridengine.GridEngineSchedulerAdaptor.IGNORE_VERSION_PROPERTY;
+import static nl.esciencecenter.xenon.adaptors.schedulers.gridengine.GridEngineSchedulerAdaptor.COMMAND_SHELLS_PROPERTY;
 import static nl.esciencecenter.xenon.adaptors.schedulers.gridengine.GridEngineSchedulerAdaptor.POLL_DELAY_PROPERTY;
 import static nl.esciencecenter.xenon.adaptors.schedulers.gridengine.GridEngineUtils.QACCT_HEADER;
 import static nl.esciencecenter.xenon.adaptors.schedulers.gridengine.GridEngineUtils.generate;
@@ -70,7 +71,7 @@ public class GridEngineScheduler extends ScriptingScheduler {
     protected GridEngineScheduler(String uniqueID, String location, Credential credential, XenonPropertyDescription[] valid, Map<String, String> prop)
             throws XenonException {
 
-        super(uniqueID, ADAPTOR_NAME, location, credential, prop, valid, POLL_DELAY_PROPERTY);
+        super(uniqueID, ADAPTOR_NAME, location, credential, prop, valid, POLL_DELAY_PROPERTY, COMMAND_SHELLS_PROPERTY);
 
         boolean ignoreVersion = properties.getBooleanProperty(IGNORE_VERSION_PROPERTY);
         long accountingGraceTime = properties.getLongProperty(ACCOUNTING_GRACE_TIME_PROPERTY);
@@ -17,18 +17,26 @@ package nl.esciencecenter.xenon.adaptors.schedulers.local;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import nl.esciencecenter.xenon.XenonException;
-import nl.esciencecenter.xenon.utils.InputWriter;
-import nl.esciencecenter.xenon.utils.OutputReader;
+import nl.esciencecenter.xenon.utils.CommandExecutor;
 
 /**
  * Runs a command. Constructor waits for command to finish.
  *
+ * Commands can also be run asynchronously using {@link #runAsync(String, File, String...)}. No threads are used per command: the input and output of the
+ * command are redirected to temporary files, and the output is collected on a small shared executor when the process exits. The constructors use the same
+ * mechanism, and simply wait for the result.
  */
 public class CommandRunner {
 
@@ -36,9 +44,9 @@ public class CommandRunner {
 
     private final int exitCode;
 
-    private final OutputReader out;
+    private final String out;
 
-    private final OutputReader err;
+    private final String err;
 
     // determine location of exe file using path, will return given location if
     // not found in path
@@ -70,6 +78,68 @@ public class CommandRunner {
     }
 
     public CommandRunner(String stdin, File workingDir, String... command) throws CommandNotFoundException {
+        this(waitFor(runAsync(stdin, workingDir, command)));
+    }
+
+    private CommandRunner(CommandRunner other) {
+        this(other.exitCode, other.out, other.err);
+    }
+
+    private CommandRunner(int exitCode, String out, String err) {
+        this.exitCode = exitCode;
+        this.out = out;
+        this.err = err;
+    }
+
+    private static CommandRunner waitFor(CompletableFuture<CommandRunner> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            LOGGER.warn("CommandRunner was interrupted before termination!");
+            Thread.currentThread().interrupt();
+            return new CommandRunner(-1, "", "");
+        } catch (ExecutionException e) {
+            // Only happens if the output could not be read, which is reported as an empty output.
+            LOGGER.warn("CommandRunner failed to retrieve output", e.getCause());
+            return new CommandRunner(-1, "", "");
+        }
+    }
+
+    /**
+     * Start a command and return immediately. The returned future completes when the command has finished and its output has been collected.
+     *
+     * @param stdin
+     *            the input to give to the command, or <code>null</code> for no input.
+     * @param workingDir
+     *            the working directory of the command, or <code>null</code> to use the current working directory.
+     * @param command
+     *            the command to run, followed by its arguments.
+     * @return a future that completes with the result of the command.
+     * @throws CommandNotFoundException
+     *             if the command could not be started.
+     */
+    public static CompletableFuture<CommandRunner> runAsync(String stdin, File workingDir, String... command) throws CommandNotFoundException {
+        return runAsync(stdin, workingDir, null, command);
+    }
+
+    /**
+     * Start a command with additional environment variables and return immediately. The returned future completes when the command has finished and its
+     * output has been collected.
+     *
+     * @param stdin
+     *            the input to give to the command, or <code>null</code> for no input.
+     * @param workingDir
+     *            the working directory of the command, or <code>null</code> to use the current working directory.
+     * @param environment
+     *            the environment variables to add to the environment of the command, or <code>null</code> for none.
+     * @param command
+     *            the command to run, followed by its arguments.
+     * @return a future that completes with the result of the command.
+     * @throws CommandNotFoundException
+     *             if the command could not be started.
+     */
+    public static CompletableFuture<CommandRunner> runAsync(String stdin, File workingDir, Map<String, String> environment, String... command)
+            throws CommandNotFoundException {
 
         if (command.length == 0) {
             throw new IllegalArgumentException("runCommand: command array has length 0");
@@ -84,45 +154,77 @@ public class CommandRunner {
         if (workingDir != null) {
             builder.directory(workingDir);
         }
+
+        if (environment != null) {
+            builder.environment().putAll(environment);
+        }
+
+        File in = null;
+        File stdout = null;
+        File stderr = null;
         java.lang.Process p;
+
         try {
+            // Redirecting to files instead of pipes means nobody has to pump the streams while the command runs.
+            stdout = Files.createTempFile("xenon-", ".out").toFile();
+            stderr = Files.createTempFile("xenon-", ".err").toFile();
+            builder.redirectOutput(stdout);
+            builder.redirectError(stderr);
+
+            if (stdin != null && !stdin.isEmpty()) {
+                in = Files.createTempFile("xenon-", ".in").toFile();
+                Files.write(in.toPath(), stdin.getBytes(StandardCharsets.UTF_8));
+                builder.redirectInput(in);
+            }
+
             p = builder.start();
         } catch (IOException e) {
-            throw new CommandNotFoundException(getClass().getName(), "CommandRunner cannot run command " + Arrays.toString(command), e);
+            delete(in, stdout, stderr);
+            throw new CommandNotFoundException(CommandRunner.class.getName(), "CommandRunner cannot run command " + Arrays.toString(command), e);
         }
 
-        // write given content to stdin of process
-        new InputWriter((stdin == null ? "" : stdin), p.getOutputStream());
-
-        // we must always read the output and error streams to avoid deadlocks
-        out = new OutputReader(p.getInputStream());
-        err = new OutputReader(p.getErrorStream());
+        if (in == null) {
+            try {
+                p.getOutputStream().close();
+            } catch (IOException e) {
+                // Ignored, the command simply gets no input
+            }
+        }
 
-        int exit = 0;
+        final File inFile = in;
+        final File outFile = stdout;
+        final File errFile = stderr;
 
-        try {
-            exit = p.waitFor();
+        return p.onExit().thenApplyAsync(process -> {
+            try {
+                String o = new String(Files.readAllBytes(outFile.toPath()), StandardCharsets.UTF_8);
+                String e = new String(Files.readAllBytes(errFile.toPath()), StandardCharsets.UTF_8);
 
-            out.waitUntilFinished();
-            err.waitUntilFinished();
+                LOGGER.debug("CommandRunner out: {}\nCommandRunner err: {}\n", o, e);
 
-            LOGGER.debug("CommandRunner out: {}\nCommandRunner err: {}\n", out.getResultAsString(), err.getResultAsString());
+                return new CommandRunner(process.exitValue(), o, e);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            } finally {
+                delete(inFile, outFile, errFile);
+            }
+        }, CommandExecutor.getExecutor());
+    }
 
-        } catch (InterruptedException e) {
-            LOGGER.warn("CommandRunner was interrupted before termination!");
-            Thread.currentThread().interrupt();
-            exit = -1;
+    private static void delete(File... files) {
+        for (File f : files) {
+            if (f != null && !f.delete()) {
+                LOGGER.debug("CommandRunner failed to delete {}", f);
+            }
         }
-
-        exitCode = exit;
     }
 
     public String getStdout() {
-        return out.getResultAsString();
+        return out;
     }
 
     public String getStderr() {
-        return err.getResultAsString();
+        return err;
     }
 
     public int getExitCode() {
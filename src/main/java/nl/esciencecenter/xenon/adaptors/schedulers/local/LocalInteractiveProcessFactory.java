@@ -17,9 +17,14 @@ package nl.esciencecenter.xenon.adaptors.schedulers.local;
 
 import static nl.esciencecenter.xenon.adaptors.schedulers.local.LocalSchedulerAdaptor.ADAPTOR_NAME;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+
 import nl.esciencecenter.xenon.XenonException;
 import nl.esciencecenter.xenon.adaptors.schedulers.InteractiveProcess;
 import nl.esciencecenter.xenon.adaptors.schedulers.InteractiveProcessFactory;
+import nl.esciencecenter.xenon.adaptors.schedulers.RemoteCommandRunner;
 import nl.esciencecenter.xenon.adaptors.schedulers.SchedulerClosedException;
 import nl.esciencecenter.xenon.schedulers.JobDescription;
 
@@ -36,6 +41,26 @@ public class LocalInteractiveProcessFactory implements InteractiveProcessFactory
         return new LocalInteractiveProcess(description, workdir, jobIdentifier);
     }
 
+    @Override
+    public CompletableFuture<RemoteCommandRunner> runCommand(JobDescription description, String workdir, String stdin, long timeoutInMillis)
+            throws XenonException {
+
+        synchronized (this) {
+            if (!open) {
+                throw new SchedulerClosedException(ADAPTOR_NAME, "Scheduler is closed");
+            }
+        }
+
+        ArrayList<String> command = new ArrayList<>();
+        command.add(description.getExecutable());
+        command.addAll(description.getArguments());
+
+        File dir = new File(workdir == null ? System.getProperty("user.dir") : workdir);
+
+        return CommandRunner.runAsync(stdin, dir, description.getEnvironment(), command.toArray(new String[0]))
+                .thenApply(r -> new RemoteCommandRunner(r.getExitCode(), r.getStdout(), r.getStderr()));
+    }
+
     @Override
     public synchronized void close() throws XenonException {
         if (!open) {
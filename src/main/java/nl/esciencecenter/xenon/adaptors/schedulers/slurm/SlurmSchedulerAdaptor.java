@@ -42,6 +42,9 @@ public class SlurmSchedulerAdaptor extends ScriptingSchedulerAdaptor {
     /** Polling delay for jobs started by this adaptor. */
     public static final String POLL_DELAY_PROPERTY = PREFIX + "poll.delay";
 
+    /** The maximum number of shells used to run scheduler commands. */
+    public static final String COMMAND_SHELLS_PROPERTY = PREFIX + "command.shells";
+
     /** Human readable description of this adaptor */
     public static final String ADAPTOR_DESCRIPTION = "The Slurm Adaptor submits jobs to a Slurm scheduler. "
             + " This adaptor uses either the local or the ssh scheduler adaptor to run commands on the machine running Slurm, "
@@ -58,7 +61,9 @@ public class SlurmSchedulerAdaptor extends ScriptingSchedulerAdaptor {
     private static final XenonPropertyDescription[] VALID_PROPERTIES = new XenonPropertyDescription[] {
             new XenonPropertyDescription(DISABLE_ACCOUNTING_USAGE, Type.BOOLEAN, "false",
                     "Do not use accounting info of slurm, even when available. Mostly for testing purposes"),
-            new XenonPropertyDescription(POLL_DELAY_PROPERTY, Type.LONG, "1000", "Number of milliseconds between polling the status of a job.") };
+            new XenonPropertyDescription(POLL_DELAY_PROPERTY, Type.LONG, "1000", "Number of milliseconds between polling the status of a job."),
+            new XenonPropertyDescription(COMMAND_SHELLS_PROPERTY, Type.NATURAL, "2",
+                    "The maximum number of long running shells used to run scheduler commands (0 to run each command as a separate job).") };
 
     protected static final String[] SUPPORTED_VERSIONS = { "2.3.", "2.5.", "2.6.", "14.", "15.", "16.", "17." };
 
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.schedulers.ssh;
+
+import static nl.esciencecenter.xenon.adaptors.schedulers.ssh.SshSchedulerAdaptor.ADAPTOR_NAME;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.sshd.client.channel.ChannelExec;
+import org.apache.sshd.client.session.ClientSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import nl.esciencecenter.xenon.XenonException;
+import nl.esciencecenter.xenon.adaptors.schedulers.RemoteCommandRunner;
+import nl.esciencecenter.xenon.schedulers.JobDescription;
+import nl.esciencecenter.xenon.utils.CommandExecutor;
+
+/**
+ * Runs a short command over SSH without using any threads of its own.
+ *
+ * The stdout and stderr of the command are written into memory directly by the I/O threads of the SSH library. The input is written, and the result is
+ * collected, on the shared {@link CommandExecutor}.
+ */
+final class SshCommand {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SshCommand.class);
+
+    private SshCommand() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    /**
+     * Start a command and return immediately.
+     *
+     * @param session
+     *            the session to run the command in.
+     * @param description
+     *            the description of the command.
+     * @param stdin
+     *            the input to give to the command, or <code>null</code> for no input.
+     * @param timeoutInMillis
+     *            the maximum time to wait for the channel to open, or 0 to wait forever.
+     * @return a future that completes with the result of the command.
+     * @throws XenonException
+     *             if the channel could not be created.
+     */
+    static CompletableFuture<RemoteCommandRunner> run(ClientSession session, JobDescription description, String stdin, long timeoutInMillis)
+            throws XenonException {
+
+        ChannelExec channel;
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+        try {
+            channel = session.createExecChannel(SshInteractiveProcess.buildCommand(description));
+
+            for (Entry<String, String> entry : description.getEnvironment().entrySet()) {
+                channel.setEnv(entry.getKey(), entry.getValue());
+            }
+
+            channel.setOut(out);
+            channel.setErr(err);
+        } catch (IOException e) {
+            throw new XenonException(ADAPTOR_NAME, "Failed to start command", e);
+        }
+
+        Executor executor = CommandExecutor.getExecutor();
+        CompletableFuture<RemoteCommandRunner> result = new CompletableFuture<>();
+        CompletableFuture<Void> opened = new CompletableFuture<>();
+
+        if (timeoutInMillis > 0) {
+            opened.orTimeout(timeoutInMillis, TimeUnit.MILLISECONDS);
+        }
+
+        opened.whenCompleteAsync((ignored, e) -> {
+            if (e != null) {
+                result.completeExceptionally(new XenonException(ADAPTOR_NAME, "Failed to start command", e));
+                channel.close(true);
+            } else {
+                writeInput(channel.getInvertedIn(), stdin);
+            }
+        }, executor);
+
+        channel.addCloseFutureListener(future -> {
+            // A channel that did not open is reported as a failure to start the command, never as a result.
+            opened.completeExceptionally(new IOException("Channel closed before it was opened"));
+
+            opened.thenRunAsync(() -> {
+                Integer status = channel.getExitStatus();
+
+                String o = new String(out.toByteArray(), StandardCharsets.UTF_8);
+                String e = new String(err.toByteArray(), StandardCharsets.UTF_8);
+
+                LOGGER.debug("SshCommand exitcode = {}, stdout:\n{}\nstderr:\n{}", status, o, e);
+
+                result.complete(new RemoteCommandRunner(status == null ? -1 : status, o, e));
+            }, executor);
+        });
+
+        try {
+            channel.open().addListener(future -> {
+                if (future.isOpened()) {
+                    opened.complete(null);
+                } else {
+                    opened.completeExceptionally(future.getException());
+                }
+            });
+        } catch (IOException e) {
+            channel.close(true);
+            throw new XenonException(ADAPTOR_NAME, "Failed to start command", e);
+        }
+
+        return result;
+    }
+
+    private static void writeInput(OutputStream in, String stdin) {
+        try {
+            if (stdin != null) {
+                in.write(stdin.getBytes(StandardCharsets.UTF_8));
+            }
+            // Closing the stream sends an EOF to the command.
+            in.close();
+        } catch (IOException e) {
+            // The command may exit without reading its input.
+            LOGGER.debug("SshCommand failed to write input", e);
+        }
+    }
+}
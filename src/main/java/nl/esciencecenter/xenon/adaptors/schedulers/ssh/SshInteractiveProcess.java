@@ -23,12 +23,15 @@ import java.util.Map.Entry;
 
 import org.apache.sshd.client.channel.ChannelExec;
 import org.apache.sshd.client.session.ClientSession;
+import org.apache.sshd.common.FactoryManager;
+import org.apache.sshd.common.channel.Window;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import nl.esciencecenter.xenon.XenonException;
 import nl.esciencecenter.xenon.adaptors.schedulers.InteractiveProcess;
 import nl.esciencecenter.xenon.adaptors.schedulers.ScriptingUtils;
+import nl.esciencecenter.xenon.adaptors.schedulers.StreamBuffer;
 import nl.esciencecenter.xenon.adaptors.schedulers.StreamsImplementation;
 import nl.esciencecenter.xenon.schedulers.JobDescription;
 import nl.esciencecenter.xenon.schedulers.Streams;
@@ -40,12 +43,38 @@ class SshInteractiveProcess implements InteractiveProcess {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(SshInteractiveProcess.class);
 
+    /** The default amount of output per stream kept in memory. */
+    static final long DEFAULT_BUFFER_SIZE = 1024L * 1024L;
+
     private final ClientSession session;
     private final ChannelExec channel;
     private final Streams streams;
     private boolean done = false;
 
     SshInteractiveProcess(ClientSession session, JobDescription description, String jobIdentifier, long timeoutInMillis) throws XenonException {
+        this(session, description, jobIdentifier, timeoutInMillis, FactoryManager.DEFAULT_WINDOW_SIZE, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Start an interactive process whose output is buffered, so a slow consumer does not hold back the channel.
+     *
+     * @param session
+     *            the session to start the process in.
+     * @param description
+     *            the description of the process.
+     * @param jobIdentifier
+     *            the identifier of the job.
+     * @param timeoutInMillis
+     *            the maximum time to wait for the channel to open.
+     * @param windowSize
+     *            the SSH window size of the channel (in bytes).
+     * @param bufferSize
+     *            the amount of output per stream kept in memory before it is spilled to disk (in bytes).
+     * @throws XenonException
+     *             if the process could not be started.
+     */
+    SshInteractiveProcess(ClientSession session, JobDescription description, String jobIdentifier, long timeoutInMillis, long windowSize, long bufferSize)
+            throws XenonException {
 
         if (session == null) {
             throw new IllegalArgumentException("Session is null");
@@ -64,6 +93,13 @@ class SshInteractiveProcess implements InteractiveProcess {
         try {
             this.channel = session.createExecChannel(buildCommand(description));
 
+            // The local window is only announced when the channel is opened, so its size can still be changed here.
+            Window window = channel.getLocalWindow();
+
+            if (window.getPacketSize() > 0 && window.getMaxSize() != windowSize) {
+                window.init(windowSize, Math.min(windowSize, window.getPacketSize()), channel);
+            }
+
             Map<String, String> environment = description.getEnvironment();
 
             for (Entry<String, String> entry : environment.entrySet()) {
@@ -73,17 +109,22 @@ class SshInteractiveProcess implements InteractiveProcess {
             // TODO: Add agent FW
             // channel.setAgentForwarding(session.useAgentForwarding());
 
+            // The output is written into buffers that never block, so the channel window is released as soon as the data arrives.
+            StreamBuffer stdout = new StreamBuffer(bufferSize);
+            StreamBuffer stderr = new StreamBuffer(bufferSize);
+            channel.setOut(stdout.getSink());
+            channel.setErr(stderr.getSink());
+
             channel.open().verify(timeoutInMillis);
 
-            // set the streams first, then connect the channel.
-            streams = new StreamsImplementation(jobIdentifier, channel.getInvertedOut(), channel.getInvertedIn(), channel.getInvertedErr());
+            streams = new StreamsImplementation(jobIdentifier, stdout, channel.getInvertedIn(), stderr);
 
         } catch (Exception e) {
             throw new XenonException(ADAPTOR_NAME, "Failed to start command", e);
         }
     }
 
-    private static String buildCommand(JobDescription description) {
+    static String buildCommand(JobDescription description) {
         StringBuilder command = new StringBuilder(200);
 
         String workdir = description.getWorkingDirectory();
@@ -17,9 +17,14 @@ package nl.esciencecenter.xenon.adaptors.schedulers.ssh;
 
 import static nl.esciencecenter.xenon.adaptors.schedulers.ssh.SshSchedulerAdaptor.ADAPTOR_NAME;
 
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.sshd.common.FactoryManager;
+
 import nl.esciencecenter.xenon.XenonException;
 import nl.esciencecenter.xenon.adaptors.schedulers.InteractiveProcess;
 import nl.esciencecenter.xenon.adaptors.schedulers.InteractiveProcessFactory;
+import nl.esciencecenter.xenon.adaptors.schedulers.RemoteCommandRunner;
 import nl.esciencecenter.xenon.adaptors.schedulers.SchedulerClosedException;
 import nl.esciencecenter.xenon.adaptors.shared.ssh.SSHConnection;
 import nl.esciencecenter.xenon.schedulers.JobDescription;
@@ -27,14 +32,22 @@ import nl.esciencecenter.xenon.schedulers.JobDescription;
 public class SshInteractiveProcessFactory implements InteractiveProcessFactory {
 
     private final SSHConnection connection;
+    private final long windowSize;
+    private final long bufferSize;
 
     protected SshInteractiveProcessFactory(SSHConnection session) {
+        this(session, FactoryManager.DEFAULT_WINDOW_SIZE, SshInteractiveProcess.DEFAULT_BUFFER_SIZE);
+    }
+
+    protected SshInteractiveProcessFactory(SSHConnection session, long windowSize, long bufferSize) {
 
         if (session == null) {
             throw new IllegalArgumentException("Session may not be null");
         }
 
         this.connection = session;
+        this.windowSize = windowSize;
+        this.bufferSize = bufferSize;
     }
 
     @Override
@@ -45,7 +58,18 @@ public class SshInteractiveProcessFactory implements InteractiveProcessFactory {
             throw new SchedulerClosedException(ADAPTOR_NAME, "Scheduler is closed");
         }
 
-        return new SshInteractiveProcess(connection.getSession(), description, jobIdentifier, timeoutInMillis);
+        return new SshInteractiveProcess(connection.getSession(), description, jobIdentifier, timeoutInMillis, windowSize, bufferSize);
+    }
+
+    @Override
+    public CompletableFuture<RemoteCommandRunner> runCommand(JobDescription description, String workdir, String stdin, long timeoutInMillis)
+            throws XenonException {
+
+        if (connection.isClosed()) {
+            throw new SchedulerClosedException(ADAPTOR_NAME, "Scheduler is closed");
+        }
+
+        return SshCommand.run(connection.getSession(), description, stdin, timeoutInMillis);
     }
 
     @Override
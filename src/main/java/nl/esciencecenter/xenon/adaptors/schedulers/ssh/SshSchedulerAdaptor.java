@@ -17,10 +17,10 @@ package nl.esciencecenter.xenon.adaptors.schedulers.ssh;
 
 import java.util.Map;
 
-import org.apache.sshd.client.SshClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import nl.esciencecenter.xenon.InvalidPropertyException;
 import nl.esciencecenter.xenon.XenonException;
 import nl.esciencecenter.xenon.XenonPropertyDescription;
 import nl.esciencecenter.xenon.XenonPropertyDescription.Type;
@@ -29,6 +29,7 @@ import nl.esciencecenter.xenon.adaptors.filesystems.sftp.SftpFileAdaptor;
 import nl.esciencecenter.xenon.adaptors.schedulers.JobQueueScheduler;
 import nl.esciencecenter.xenon.adaptors.schedulers.SchedulerAdaptor;
 import nl.esciencecenter.xenon.adaptors.shared.ssh.SSHConnection;
+import nl.esciencecenter.xenon.adaptors.shared.ssh.SSHSettings;
 import nl.esciencecenter.xenon.adaptors.shared.ssh.SSHUtil;
 import nl.esciencecenter.xenon.credentials.CertificateCredential;
 import nl.esciencecenter.xenon.credentials.Credential;
@@ -55,19 +56,19 @@ public class SshSchedulerAdaptor extends SchedulerAdaptor {
     public static final String PREFIX = SchedulerAdaptor.ADAPTORS_PREFIX + "ssh.";
 
     /** Enable strict host key checking. */
-    public static final String STRICT_HOST_KEY_CHECKING = PREFIX + "strictHostKeyChecking";
+    public static final String STRICT_HOST_KEY_CHECKING = PREFIX + SSHUtil.STRICT_HOST_KEY_CHECKING;
 
     /** Enable the use of an ssh-agent */
-    public static final String AGENT = PREFIX + "agent";
+    public static final String AGENT = PREFIX + SSHUtil.AGENT;
 
     /** Enable the use of ssh-agent-forwarding */
-    public static final String AGENT_FORWARDING = PREFIX + "agentForwarding";
+    public static final String AGENT_FORWARDING = PREFIX + SSHUtil.AGENT_FORWARDING;
 
     /** Load the known_hosts file by default. */
-    public static final String LOAD_STANDARD_KNOWN_HOSTS = PREFIX + "loadKnownHosts";
+    public static final String LOAD_STANDARD_KNOWN_HOSTS = PREFIX + SSHUtil.LOAD_STANDARD_KNOWN_HOSTS;
 
     /** Load the OpenSSH config file by default. */
-    public static final String LOAD_SSH_CONFIG = PREFIX + "loadSshConfig";
+    public static final String LOAD_SSH_CONFIG = PREFIX + SSHUtil.LOAD_SSH_CONFIG;
 
     /** OpenSSH config filename. */
     public static final String SSH_CONFIG_FILE = PREFIX + "sshConfigFile";
@@ -78,6 +79,15 @@ public class SshSchedulerAdaptor extends SchedulerAdaptor {
     /** Add gateway to access machine. */
     public static final String GATEWAY = PREFIX + "gateway";
 
+    /** The SSH window size of the channels of interactive jobs. */
+    public static final String INTERACTIVE_WINDOW_SIZE = PREFIX + "interactive.windowSize";
+
+    /** The amount of output of interactive jobs kept in memory. */
+    public static final String INTERACTIVE_BUFFER_SIZE = PREFIX + "interactive.bufferSize";
+
+    /** The largest window size allowed by the SSH protocol. */
+    private static final long MAX_WINDOW_SIZE = 0xFFFFFFFFL;
+
     /** Add gateway to access machine. */
     public static final String TIMEOUT = PREFIX + "timeout";
 
@@ -111,16 +121,13 @@ public class SshSchedulerAdaptor extends SchedulerAdaptor {
     private static final String[] ADAPTOR_LOCATIONS = new String[] { "host[:port][/workdir][ via:otherhost[:port]]*" };
 
     /** List of properties supported by this SSH adaptor */
-    private static final XenonPropertyDescription[] VALID_PROPERTIES = new XenonPropertyDescription[] {
-            new XenonPropertyDescription(STRICT_HOST_KEY_CHECKING, Type.BOOLEAN, "true", "Enable strict host key checking."),
-            new XenonPropertyDescription(LOAD_STANDARD_KNOWN_HOSTS, Type.BOOLEAN, "true", "Load the standard known_hosts file."),
-            new XenonPropertyDescription(LOAD_SSH_CONFIG, Type.BOOLEAN, "true", "Load the OpenSSH config file."),
-            /* new XenonPropertyDescription(SSH_CONFIG_FILE, Type.STRING, null, "OpenSSH config filename."), */
-            new XenonPropertyDescription(AGENT, Type.BOOLEAN, "false", "Use a (local) ssh-agent."),
-            new XenonPropertyDescription(AGENT_FORWARDING, Type.BOOLEAN, "false", "Use ssh-agent forwarding"),
+    private static final XenonPropertyDescription[] VALID_PROPERTIES = SSHUtil.withSettingsProperties(PREFIX,
+            new XenonPropertyDescription(INTERACTIVE_WINDOW_SIZE, Type.SIZE, "2M", "The SSH window size of the channel of each interactive job (in bytes)."),
+            new XenonPropertyDescription(INTERACTIVE_BUFFER_SIZE, Type.SIZE, "1M",
+                    "The amount of output per stream of an interactive job kept in memory before it is spilled to disk (in bytes)."),
             new XenonPropertyDescription(TIMEOUT, Type.LONG, "10000", "The timeout for the connection setup and authetication (in milliseconds)."),
             new XenonPropertyDescription(POLLING_DELAY, Type.LONG, "1000", "The polling delay for monitoring running jobs (in milliseconds)."),
-            new XenonPropertyDescription(MULTIQ_MAX_CONCURRENT, Type.INTEGER, "4", "The maximum number of concurrent jobs in the multiq..") };
+            new XenonPropertyDescription(MULTIQ_MAX_CONCURRENT, Type.INTEGER, "4", "The maximum number of concurrent jobs in the multiq.."));
 
     public SshSchedulerAdaptor() {
         super(ADAPTOR_NAME, ADAPTOR_DESCRIPTION, ADAPTOR_LOCATIONS, VALID_PROPERTIES);
@@ -152,17 +159,24 @@ public class SshSchedulerAdaptor extends SchedulerAdaptor {
 
         XenonProperties xp = new XenonProperties(VALID_PROPERTIES, properties);
 
-        boolean loadKnownHosts = xp.getBooleanProperty(LOAD_STANDARD_KNOWN_HOSTS);
-        boolean loadSSHConfig = xp.getBooleanProperty(LOAD_SSH_CONFIG);
-        boolean strictHostCheck = xp.getBooleanProperty(STRICT_HOST_KEY_CHECKING);
-        boolean useSSHAgent = xp.getBooleanProperty(AGENT);
-        boolean useAgentForwarding = xp.getBooleanProperty(AGENT_FORWARDING);
+        SSHSettings settings = SSHUtil.createSettings(ADAPTOR_NAME, xp, PREFIX);
+
+        long windowSize = xp.getSizeProperty(INTERACTIVE_WINDOW_SIZE);
 
-        SshClient client = SSHUtil.createSSHClient(loadKnownHosts, loadSSHConfig, strictHostCheck, useSSHAgent, useAgentForwarding);
+        if (windowSize <= 0 || windowSize > MAX_WINDOW_SIZE) {
+            throw new InvalidPropertyException(ADAPTOR_NAME, "Invalid window size: " + windowSize);
+        }
+
+        long bufferSize = xp.getSizeProperty(INTERACTIVE_BUFFER_SIZE);
+
+        if (bufferSize < 0) {
+            throw new InvalidPropertyException(ADAPTOR_NAME, "Invalid buffer size: " + bufferSize);
+        }
 
         long timeout = xp.getLongProperty(TIMEOUT);
 
-        SSHConnection connection = SSHUtil.connect(ADAPTOR_NAME, client, location, credential, 0, timeout);
+        // The connection is shared with the sftp file system created below, and with any other scheduler or file system using the same server.
+        SSHConnection connection = SSHUtil.connect(ADAPTOR_NAME, location, credential, timeout, settings);
 
         // We must convert the relevant SSH properties to SFTP here.
         Map<String, String> sftpProperties = SSHUtil.translateProperties(properties, SshSchedulerAdaptor.PREFIX,
@@ -170,12 +184,21 @@ public class SshSchedulerAdaptor extends SchedulerAdaptor {
 
         // Create a file system that point to the same location as the
         // scheduler.
-        FileSystem fs = FileSystem.create("sftp", location, credential, sftpProperties);
+        FileSystem fs;
+
+        try {
+            fs = FileSystem.create("sftp", location, credential, sftpProperties);
+        } catch (XenonException e) {
+            connection.close();
+            throw e;
+        }
 
         long pollingDelay = xp.getLongProperty(POLLING_DELAY);
         int multiQThreads = xp.getIntegerProperty(MULTIQ_MAX_CONCURRENT);
 
-        return new JobQueueScheduler(getNewUniqueID(), ADAPTOR_NAME, location, credential, new SshInteractiveProcessFactory(connection), fs,
-                fs.getWorkingDirectory(), multiQThreads, pollingDelay, timeout, xp);
+        SshInteractiveProcessFactory factory = new SshInteractiveProcessFactory(connection, windowSize, bufferSize);
+
+        return new JobQueueScheduler(getNewUniqueID(), ADAPTOR_NAME, location, credential, factory, fs, fs.getWorkingDirectory(), multiQThreads, pollingDelay,
+                timeout, xp);
     }
 }
@@ -17,6 +17,7 @@ package nl.esciencecenter.xenon.adaptors.schedulers.torque;
 
 import static nl.esciencecenter.xenon.adaptors.schedulers.torque.TorqueSchedulerAdaptor.ACCOUNTING_GRACE_TIME_PROPERTY;
 import static nl.esciencecenter.xenon.adaptors.schedulers.torque.TorqueSchedulerAdaptor.ADAPTOR_NAME;
+import static nl.esciencecenter.xenon.adaptors.schedulers.torque.TorqueSchedulerAdaptor.COMMAND_SHELLS_PROPERTY;
 import static nl.esciencecenter.xenon.adaptors.schedulers.torque.TorqueSchedulerAdaptor.POLL_DELAY_PROPERTY;
 import static nl.esciencecenter.xenon.adaptors.schedulers.torque.TorqueUtils.QUEUE_INFO_NAME;
 import static nl.esciencecenter.xenon.adaptors.schedulers.torque.TorqueUtils.getJobStatusFromQstatInfo;
@@ -68,7 +69,7 @@ public class TorqueScheduler extends ScriptingScheduler {
 
     TorqueScheduler(String uniqueID, String location, Credential credential, XenonPropertyDescription[] valid, Map<String, String> prop) throws XenonException {
 
-        super(uniqueID, ADAPTOR_NAME, location, credential, prop, valid, POLL_DELAY_PROPERTY);
+        super(uniqueID, ADAPTOR_NAME, location, credential, prop, valid, POLL_DELAY_PROPERTY, COMMAND_SHELLS_PROPERTY);
 
         long accountingGraceTime = properties.getLongProperty(ACCOUNTING_GRACE_TIME_PROPERTY);
 
@@ -48,6 +48,9 @@ public class TorqueSchedulerAdaptor extends ScriptingSchedulerAdaptor {
     /** Polling delay for jobs started by this adaptor. */
     public static final String POLL_DELAY_PROPERTY = PREFIX + "poll.delay";
 
+    /** The maximum number of shells used to run scheduler commands. */
+    public static final String COMMAND_SHELLS_PROPERTY = PREFIX + "command.shells";
+
     /** Human readable description of this adaptor */
     public static final String ADAPTOR_DESCRIPTION = "The Torque Adaptor submits jobs to a TORQUE batch system."
             + " This adaptor uses either the local or the ssh scheduler adaptor to run commands on the machine running TORQUE, "
@@ -63,7 +66,9 @@ public class TorqueSchedulerAdaptor extends ScriptingSchedulerAdaptor {
                             + "WARNING: it is not recommended to use this setting in production environments!"),
             new XenonPropertyDescription(ACCOUNTING_GRACE_TIME_PROPERTY, Type.LONG, "60000",
                     "Number of milliseconds a job is allowed to take going from the queue to the accinfo output."),
-            new XenonPropertyDescription(POLL_DELAY_PROPERTY, Type.LONG, "1000", "Number of milliseconds between polling the status of a job.") };
+            new XenonPropertyDescription(POLL_DELAY_PROPERTY, Type.LONG, "1000", "Number of milliseconds between polling the status of a job."),
+            new XenonPropertyDescription(COMMAND_SHELLS_PROPERTY, Type.NATURAL, "2",
+                    "The maximum number of long running shells used to run scheduler commands (0 to run each command as a separate job).") };
 
     public TorqueSchedulerAdaptor() throws XenonException {
         super(ADAPTOR_NAME, ADAPTOR_DESCRIPTION, ADAPTOR_LOCATIONS, VALID_PROPERTIES);
@@ -0,0 +1,363 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.shared.ssh;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.sshd.client.SshClient;
+import org.apache.sshd.client.channel.ChannelDirectTcpip;
+import org.apache.sshd.client.channel.ClientChannel.Streaming;
+import org.apache.sshd.client.session.ClientSession;
+import org.apache.sshd.client.session.ClientSessionImpl;
+import org.apache.sshd.common.AttributeRepository;
+import org.apache.sshd.common.future.CloseFuture;
+import org.apache.sshd.common.io.AbstractIoWriteFuture;
+import org.apache.sshd.common.io.IoService;
+import org.apache.sshd.common.io.IoSession;
+import org.apache.sshd.common.io.IoWriteFuture;
+import org.apache.sshd.common.session.ConnectionService;
+import org.apache.sshd.common.session.helpers.AbstractSession;
+import org.apache.sshd.common.util.buffer.Buffer;
+import org.apache.sshd.common.util.buffer.ByteArrayBuffer;
+import org.apache.sshd.common.util.closeable.AbstractCloseable;
+import org.apache.sshd.common.util.net.SshdSocketAddress;
+
+/**
+ * An {@link IoSession} that runs an SSH session over a direct-tcpip channel of another SSH session.
+ *
+ * This is used to connect to a server via one or more gateways, in the same way as the ProxyJump option of OpenSSH. The data of the inner session is
+ * written to and read from the channel directly, so no sockets or threads are needed for a hop. Incoming data is handled on the I/O thread of the
+ * gateway session, and outgoing packets are written asynchronously, one at a time, as the window of the channel allows.
+ */
+class ChannelIoSession extends AbstractCloseable implements IoSession {
+
+    private static final AtomicLong NEXT_ID = new AtomicLong(0);
+
+    /**
+     * A direct-tcpip channel that hands all data it receives to the session layered on top of it.
+     */
+    private static class GatewayChannel extends ChannelDirectTcpip {
+
+        private ChannelIoSession ioSession;
+
+        GatewayChannel(SshdSocketAddress remote) {
+            super(null, remote);
+            setStreaming(Streaming.Async);
+        }
+
+        @Override
+        protected void doWriteData(byte[] data, int off, long len) throws IOException {
+            ioSession.received(data, off, (int) len);
+            getLocalWindow().consumeAndCheck(len);
+        }
+
+        void shutdownOutput() throws IOException {
+            sendEof();
+        }
+
+        @Override
+        public void handleEof() throws IOException {
+            super.handleEof();
+            // The other side will not send any more data, so the session is dead.
+            ioSession.close(true);
+        }
+    }
+
+    private static class PendingWrite extends AbstractIoWriteFuture {
+
+        private final Buffer buffer;
+
+        PendingWrite(Object id, Buffer buffer) {
+            super(id, null);
+            this.buffer = buffer;
+        }
+    }
+
+    private final long id = NEXT_ID.incrementAndGet();
+
+    private final GatewayChannel channel;
+    private final SshdSocketAddress remoteAddress;
+
+    private final ConcurrentHashMap<Object, Object> attributes = new ConcurrentHashMap<>();
+
+    private final ArrayDeque<PendingWrite> writes = new ArrayDeque<>();
+    private boolean writing = false;
+
+    // Guards the delivery of received data to the session.
+    private final Object receiveLock = new Object();
+
+    // Data received before the session was attached.
+    private Buffer pending = new ByteArrayBuffer();
+    private volatile AbstractSession session;
+
+    private ChannelIoSession(GatewayChannel channel, SshdSocketAddress remoteAddress) {
+        this.channel = channel;
+        this.remoteAddress = remoteAddress;
+        channel.ioSession = this;
+        channel.addCloseFutureListener(future -> close(true));
+    }
+
+    /**
+     * Create a new session to <code>target</code>, tunneled through the <code>gateway</code> session. The session returned is connected, but not
+     * authenticated yet.
+     *
+     * @param client
+     *            the client to create the session for
+     * @param gateway
+     *            the (authenticated) session to tunnel through
+     * @param target
+     *            the server to connect to
+     * @param username
+     *            the user name to use on the target
+     * @param context
+     *            the connection context of the new session (may be null)
+     * @param timeout
+     *            the timeout for opening the tunnel (in milliseconds)
+     * @return the new session
+     * @throws IOException
+     *             if the tunnel could not be opened or the session could not be created
+     */
+    static ClientSession connect(SshClient client, ClientSession gateway, SshdSocketAddress target, String username, AttributeRepository context,
+            long timeout) throws IOException {
+
+        GatewayChannel channel = new GatewayChannel(target);
+        gateway.getService(ConnectionService.class).registerChannel(channel);
+
+        ChannelIoSession ioSession = new ChannelIoSession(channel, target);
+
+        if (context != null) {
+            ioSession.setAttribute(AttributeRepository.class, context);
+        }
+
+        try {
+            channel.open().verify(timeout);
+
+            ClientSessionImpl session = new ClientSessionImpl(client, ioSession);
+            session.setUsername(username);
+            session.setConnectAddress(target);
+
+            ioSession.attach(session);
+            return session;
+
+        } catch (Exception e) {
+            ioSession.close(true);
+
+            if (e instanceof IOException) {
+                throw (IOException) e;
+            }
+
+            throw new IOException("Failed to create session to " + target + " via " + gateway.getConnectAddress(), e);
+        }
+    }
+
+    /*
+     * Start delivering data to the session. The session has already attached itself to this IoSession in its constructor.
+     */
+    private void attach(AbstractSession session) throws Exception {
+
+        synchronized (receiveLock) {
+            this.session = session;
+
+            if (pending.available() > 0) {
+                session.messageReceived(pending);
+            }
+
+            pending = null;
+        }
+    }
+
+    private void received(byte[] data, int off, int len) {
+
+        synchronized (receiveLock) {
+            if (session == null) {
+                pending.putRawBytes(data, off, len);
+                return;
+            }
+
+            try {
+                session.messageReceived(new ByteArrayBuffer(data, off, len));
+            } catch (Throwable e) {
+                session.exceptionCaught(e);
+            }
+        }
+    }
+
+    @Override
+    public IoWriteFuture writePacket(Buffer buffer) throws IOException {
+
+        PendingWrite write = new PendingWrite(this, buffer);
+
+        synchronized (writes) {
+            if (isClosing() || isClosed()) {
+                write.setValue(new EOFException("Session is closed"));
+                return write;
+            }
+
+            writes.add(write);
+
+            if (writing) {
+                return write;
+            }
+
+            writing = true;
+        }
+
+        writeNext();
+        return write;
+    }
+
+    /*
+     * Write the queued packets one at a time. This is never called with the queue lock held, as the channel may complete a write (and call us back) while
+     * holding its own lock.
+     */
+    private void writeNext() {
+
+        while (true) {
+            PendingWrite write;
+
+            synchronized (writes) {
+                write = writes.poll();
+
+                if (write == null) {
+                    writing = false;
+                    return;
+                }
+            }
+
+            IoWriteFuture future;
+
+            try {
+                future = channel.getAsyncIn().writePacket(write.buffer);
+            } catch (IOException e) {
+                write.setValue(e);
+                close(true);
+                return;
+            }
+
+            if (!future.isDone()) {
+                future.addListener(done -> {
+                    if (completed(write, done)) {
+                        writeNext();
+                    }
+                });
+                return;
+            }
+
+            if (!completed(write, future)) {
+                return;
+            }
+        }
+    }
+
+    private boolean completed(PendingWrite write, IoWriteFuture future) {
+
+        if (future.isWritten()) {
+            write.setValue(Boolean.TRUE);
+            return true;
+        }
+
+        Throwable cause = future.getException();
+        write.setValue(cause == null ? new EOFException("Write failed") : cause);
+        close(true);
+        return false;
+    }
+
+    @Override
+    protected CloseFuture doCloseGracefully() {
+        return channel.close(false);
+    }
+
+    @Override
+    protected void doCloseImmediately() {
+
+        channel.close(true);
+
+        synchronized (writes) {
+            for (PendingWrite write : writes) {
+                write.setValue(new EOFException("Session closed"));
+            }
+            writes.clear();
+        }
+
+        AbstractSession s = session;
+
+        if (s != null) {
+            s.close(true);
+        }
+
+        super.doCloseImmediately();
+    }
+
+    @Override
+    public long getId() {
+        return id;
+    }
+
+    @Override
+    public SocketAddress getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    @Override
+    public SocketAddress getLocalAddress() {
+        return channel.getLocalSocketAddress();
+    }
+
+    @Override
+    public SocketAddress getAcceptanceAddress() {
+        return null;
+    }
+
+    @Override
+    public Object getAttribute(Object key) {
+        return attributes.get(key);
+    }
+
+    @Override
+    public Object setAttribute(Object key, Object value) {
+        return attributes.put(key, value);
+    }
+
+    @Override
+    public Object setAttributeIfAbsent(Object key, Object value) {
+        return attributes.putIfAbsent(key, value);
+    }
+
+    @Override
+    public Object removeAttribute(Object key) {
+        return attributes.remove(key);
+    }
+
+    @Override
+    public IoService getService() {
+        return null;
+    }
+
+    @Override
+    public void shudownOutputStream() throws IOException {
+        channel.shutdownOutput();
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[" + remoteAddress + "]";
+    }
+}
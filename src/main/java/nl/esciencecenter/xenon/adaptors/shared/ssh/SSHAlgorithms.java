@@ -0,0 +1,335 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.shared.ssh;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.sshd.client.SshClient;
+import org.apache.sshd.client.session.ClientSession;
+import org.apache.sshd.common.BaseBuilder;
+import org.apache.sshd.common.BuiltinFactory;
+import org.apache.sshd.common.NamedFactory;
+import org.apache.sshd.common.NamedResource;
+import org.apache.sshd.common.OptionalFeature;
+import org.apache.sshd.common.cipher.BuiltinCiphers;
+import org.apache.sshd.common.cipher.Cipher;
+import org.apache.sshd.common.compression.BuiltinCompressions;
+import org.apache.sshd.common.compression.Compression;
+import org.apache.sshd.common.config.NamedFactoriesListParseResult;
+import org.apache.sshd.common.mac.BuiltinMacs;
+import org.apache.sshd.common.mac.Mac;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The ciphers, MACs and compression offered when setting up an SSH connection.
+ *
+ * Bulk transfers over SSH are usually limited by the speed of the cipher and MAC. Unless the user specifies them explicitly, the ciphers and MACs that are
+ * both secure and fast are offered first, ordered by a short benchmark that is run once, the first time they are needed. This way the fastest of these on
+ * the local machine is used (for example, AES on processors with AES instructions, which the JVM uses automatically), provided the server supports it. The
+ * other algorithms supported by default are offered after these, so servers that support none of the preferred algorithms can still be used.
+ *
+ * Compression only pays off on slow links, as it costs more than it saves on fast ones. When compression is set to
+ * {@link SSHSettings.Compression#AUTO}, it is enabled only if the round trip time to the server is at least {@link #SLOW_LINK_LATENCY} milliseconds, by
+ * exchanging keys again after authentication.
+ */
+final class SSHAlgorithms {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SSHAlgorithms.class);
+
+    /** The round trip time (in milliseconds) from which a link is considered slow. */
+    static final long SLOW_LINK_LATENCY = 50;
+
+    /** The ciphers that are ordered by the benchmark. */
+    static final List<BuiltinCiphers> CIPHER_CANDIDATES = Collections
+            .unmodifiableList(Arrays.asList(BuiltinCiphers.aes128ctr, BuiltinCiphers.aes192ctr, BuiltinCiphers.aes256ctr));
+
+    /** The MACs that are ordered by the benchmark. */
+    static final List<BuiltinMacs> MAC_CANDIDATES = Collections.unmodifiableList(Arrays.asList(BuiltinMacs.hmacsha256etm, BuiltinMacs.hmacsha512etm));
+
+    /** The size of the data used in the benchmark, which is the maximum size of an SSH packet. */
+    private static final int BENCHMARK_DATA_SIZE = 32 * 1024;
+
+    /** How long each algorithm is run before it is measured, and during each round of the measurement. */
+    private static final long BENCHMARK_WARMUP_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+    private static final long BENCHMARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    /** The number of measurements of each algorithm, of which the fastest is used. */
+    private static final int BENCHMARK_ROUNDS = 2;
+
+    /** How much faster a candidate must be to be preferred over a candidate listed before it. */
+    private static final double BENCHMARK_MARGIN = 1.1;
+
+    private static List<NamedFactory<Cipher>> defaultCiphers;
+    private static List<NamedFactory<Mac>> defaultMacs;
+
+    @FunctionalInterface
+    private interface Benchmark<T> {
+        Operation prepare(T algorithm, byte[] data) throws Exception;
+    }
+
+    @FunctionalInterface
+    private interface Operation {
+        void run() throws Exception;
+    }
+
+    private SSHAlgorithms() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    /**
+     * Configure the ciphers, MACs and compression offered by a client.
+     *
+     * @param client
+     *            the client to configure
+     * @param settings
+     *            the settings that specify the algorithms
+     * @throws IllegalArgumentException
+     *             if the settings contain an unsupported cipher or MAC
+     */
+    static void configure(SshClient client, SSHSettings settings) {
+        client.setCipherFactories(getCiphers(settings.getCiphers()));
+        client.setMacFactories(getMacs(settings.getMacs()));
+        client.setCompressionFactories(getCompressions(settings.getCompression()));
+    }
+
+    /**
+     * Get the ciphers to offer.
+     *
+     * @param names
+     *            a comma separated list of cipher names, or an empty string to use the default preference
+     * @return the ciphers in order of preference
+     * @throws IllegalArgumentException
+     *             if a cipher is unknown or not supported
+     */
+    static List<NamedFactory<Cipher>> getCiphers(String names) {
+        if (names.isEmpty()) {
+            return getDefaultCiphers();
+        }
+        return new ArrayList<>(parse("cipher", BuiltinCiphers.parseCiphersList(names)));
+    }
+
+    /**
+     * Get the MACs to offer.
+     *
+     * @param names
+     *            a comma separated list of MAC names, or an empty string to use the default preference
+     * @return the MACs in order of preference
+     * @throws IllegalArgumentException
+     *             if a MAC is unknown or not supported
+     */
+    static List<NamedFactory<Mac>> getMacs(String names) {
+        if (names.isEmpty()) {
+            return getDefaultMacs();
+        }
+        return new ArrayList<>(parse("MAC", BuiltinMacs.parseMacsList(names)));
+    }
+
+    static List<NamedFactory<Compression>> getCompressions(SSHSettings.Compression compression) {
+        switch (compression) {
+        case ZLIB:
+            return Arrays.asList(BuiltinCompressions.delayedZlib, BuiltinCompressions.zlib, BuiltinCompressions.none);
+        case AUTO:
+            // Start without compression, but allow the key exchange that enables it on slow links.
+            return Arrays.asList(BuiltinCompressions.none, BuiltinCompressions.delayedZlib, BuiltinCompressions.zlib);
+        default:
+            return Collections.singletonList(BuiltinCompressions.none);
+        }
+    }
+
+    /**
+     * Enable compression on a slow link if the compression setting is {@link SSHSettings.Compression#AUTO}. Must be called after authentication, before the
+     * session is used.
+     *
+     * @param session
+     *            the authenticated session
+     * @param compression
+     *            the compression setting
+     * @param timeout
+     *            the timeout of the measurement and of the key exchange (in milliseconds)
+     * @return if compression was enabled
+     * @throws IOException
+     *             if the round trip time could not be measured, or the key exchange failed
+     */
+    static boolean adaptCompression(ClientSession session, SSHSettings.Compression compression, long timeout) throws IOException {
+
+        if (compression != SSHSettings.Compression.AUTO) {
+            return false;
+        }
+
+        long latency = SSHSessionChain.probe(session, timeout);
+
+        if (latency < SLOW_LINK_LATENCY) {
+            LOGGER.debug("Round trip time to {} is {} ms, not enabling compression", session.getIoSession().getRemoteAddress(), latency);
+            return false;
+        }
+
+        LOGGER.debug("Round trip time to {} is {} ms, enabling compression", session.getIoSession().getRemoteAddress(), latency);
+
+        session.setCompressionFactories(getCompressions(SSHSettings.Compression.ZLIB));
+        session.reExchangeKeys().verify(timeout);
+        return true;
+    }
+
+    static synchronized List<NamedFactory<Cipher>> getDefaultCiphers() {
+        if (defaultCiphers == null) {
+            List<BuiltinCiphers> preferred = rank(CIPHER_CANDIDATES, (cipher, data) -> {
+                Cipher c = cipher.create();
+                c.init(Cipher.Mode.Encrypt, new byte[c.getKdfSize()], new byte[c.getIVSize()]);
+                return () -> c.update(data, 0, data.length);
+            });
+            defaultCiphers = withDefaults(preferred, BaseBuilder.DEFAULT_CIPHERS_PREFERENCE);
+            LOGGER.debug("Cipher preference: {}", NamedResource.getNames(defaultCiphers));
+        }
+        return defaultCiphers;
+    }
+
+    static synchronized List<NamedFactory<Mac>> getDefaultMacs() {
+        if (defaultMacs == null) {
+            List<BuiltinMacs> preferred = rank(MAC_CANDIDATES, (mac, data) -> {
+                Mac m = mac.create();
+                m.init(new byte[m.getDefaultBlockSize()]);
+                byte[] result = new byte[m.getBlockSize()];
+                return () -> {
+                    m.update(data, 0, data.length);
+                    m.doFinal(result, 0);
+                };
+            });
+            defaultMacs = withDefaults(preferred, BaseBuilder.DEFAULT_MAC_PREFERENCE);
+            LOGGER.debug("MAC preference: {}", NamedResource.getNames(defaultMacs));
+        }
+        return defaultMacs;
+    }
+
+    private static <F extends OptionalFeature & NamedResource> List<F> parse(String kind, NamedFactoriesListParseResult<?, F> result) {
+
+        List<String> unsupported = new ArrayList<>(result.getUnsupportedFactories());
+
+        for (F factory : result.getParsedFactories()) {
+            if (!factory.isSupported()) {
+                unsupported.add(factory.getName());
+            }
+        }
+
+        if (!unsupported.isEmpty()) {
+            throw new IllegalArgumentException("Unsupported " + kind + "(s): " + String.join(",", unsupported));
+        }
+
+        if (result.getParsedFactories().isEmpty()) {
+            throw new IllegalArgumentException("No " + kind + " specified");
+        }
+
+        return result.getParsedFactories();
+    }
+
+    /*
+     * Return the supported candidates, fastest first, keeping the order of the candidates that run at about the same speed. Candidates that fail to run
+     * are left out. All candidates are warmed up before any is measured, and
+     * the measurements are interleaved, so the JIT compiler and other activity on the machine do not favor any of them.
+     */
+    private static <T extends BuiltinFactory<?>> List<T> rank(List<T> candidates, Benchmark<T> benchmark) {
+
+        byte[] data = new byte[BENCHMARK_DATA_SIZE];
+        Map<T, Operation> operations = new LinkedHashMap<>();
+
+        for (T candidate : candidates) {
+            if (candidate.isSupported()) {
+                try {
+                    Operation operation = benchmark.prepare(candidate, data);
+                    measure(operation, data.length, BENCHMARK_WARMUP_NANOS);
+                    operations.put(candidate, operation);
+                } catch (Exception e) {
+                    LOGGER.debug("Benchmark of {} failed", candidate.getName(), e);
+                }
+            }
+        }
+
+        Map<T, Double> speeds = new LinkedHashMap<>();
+
+        for (int round = 0; round < BENCHMARK_ROUNDS; round++) {
+            for (Map.Entry<T, Operation> entry : operations.entrySet()) {
+                try {
+                    double speed = measure(entry.getValue(), data.length, BENCHMARK_NANOS);
+                    speeds.merge(entry.getKey(), speed, Math::max);
+                } catch (Exception e) {
+                    LOGGER.debug("Benchmark of {} failed", entry.getKey().getName(), e);
+                }
+            }
+        }
+
+        for (Map.Entry<T, Double> entry : speeds.entrySet()) {
+            LOGGER.debug("Benchmark of {}: {} MB/s", entry.getKey().getName(), entry.getValue().longValue());
+        }
+
+        // Insert each candidate before the first one it is clearly faster than, so noise in the measurements does not change the default order.
+        List<T> result = new ArrayList<>();
+
+        for (Map.Entry<T, Double> entry : speeds.entrySet()) {
+            int i = 0;
+
+            while (i < result.size() && entry.getValue() <= speeds.get(result.get(i)) * BENCHMARK_MARGIN) {
+                i++;
+            }
+
+            result.add(i, entry.getKey());
+        }
+
+        return result;
+    }
+
+    /*
+     * Run an operation for the given time, and return its speed in MB/s.
+     */
+    private static double measure(Operation operation, int size, long nanos) throws Exception {
+
+        long bytes = 0;
+        long elapsed;
+        long start = System.nanoTime();
+
+        do {
+            operation.run();
+            bytes += size;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < nanos);
+
+        return bytes * 1000.0 / elapsed;
+    }
+
+    /*
+     * Return the preferred algorithms, followed by the supported defaults that are not preferred.
+     */
+    private static <T> List<NamedFactory<T>> withDefaults(List<? extends BuiltinFactory<T>> preferred, List<? extends BuiltinFactory<T>> defaults) {
+
+        Set<NamedFactory<T>> result = new LinkedHashSet<>(preferred);
+
+        for (BuiltinFactory<T> factory : defaults) {
+            if (factory.isSupported()) {
+                result.add(factory);
+            }
+        }
+
+        return Collections.unmodifiableList(new ArrayList<>(result));
+    }
+}
@@ -17,91 +17,155 @@ package nl.esciencecenter.xenon.adaptors.shared.ssh;
 
 import java.io.IOException;
 
-import org.apache.sshd.client.SshClient;
 import org.apache.sshd.client.session.ClientSession;
 import org.apache.sshd.client.subsystem.sftp.SftpClient;
 import org.apache.sshd.client.subsystem.sftp.SftpClientFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import nl.esciencecenter.xenon.adaptors.shared.ssh.SSHUtil.Tunnel;
+import nl.esciencecenter.xenon.XenonException;
 
+/**
+ * A reference to a (possibly shared) connection to an SSH server.
+ *
+ * Connections created by the shared variant of <code>SSHUtil.connect</code> share the underlying session with all other users of the same server,
+ * credential and gateways, and the sessions to any gateways with all other connections through the same gateways. Closing an <code>SSHConnection</code>
+ * only releases this reference; the session is closed when the last reference is closed.
+ *
+ * A shared connection of which the session has failed (it was closed, or did not pass its last health check) switches to a new session to the same
+ * server the next time {@link #getSession()} is called. Objects created from the old session, such as an {@link SftpClient}, do not switch along.
+ */
 public class SSHConnection implements AutoCloseable {
 
-    private final SshClient client;
-    private final ClientSession[] sessions;
-    private final Tunnel[] tunnels;
-    private final int hops;
+    private static final Logger LOGGER = LoggerFactory.getLogger(SSHConnection.class);
+
+    private SSHSessionChain chain;
+
+    /** Gets a new reference to a healthy connection to the same server, or null if this connection is not shared. */
+    private final SSHConnectionRegistry.Connector reconnector;
+
     private boolean closed = false;
 
-    private ClientSession session;
+    protected SSHConnection() {
+        this(new SSHSessionChain(), null);
+    }
 
-    protected SSHConnection(SshClient client, int hops) {
-        this.client = client;
-        this.hops = hops;
-        sessions = new ClientSession[hops];
-        tunnels = new Tunnel[hops];
+    SSHConnection(SSHSessionChain chain) {
+        this(chain, null);
     }
 
-    protected void addHop(int hop, ClientSession session, Tunnel tunnel) {
-        sessions[hop] = session;
-        tunnels[hop] = tunnel;
+    SSHConnection(SSHSessionChain chain, SSHConnectionRegistry.Connector reconnector) {
+        this.chain = chain;
+        this.reconnector = reconnector;
     }
 
-    protected void setSession(ClientSession session) {
-        this.session = session;
+    protected synchronized void setSession(ClientSession session) {
+        chain.setSession(session);
     }
 
     public SftpClient createSftpClient() throws IOException {
-        return SftpClientFactory.instance().createSftpClient(session);
+        return SftpClientFactory.instance().createSftpClient(getChain().getSession());
     }
 
+    /**
+     * Get the session of this connection. If the session of a shared connection has failed, this switches to a healthy session to the same server first,
+     * which is either set up in the background already, or set up now. If that fails, the failed session is returned.
+     *
+     * @return the session
+     */
     public ClientSession getSession() {
-        return session;
+        return getChain().getSession();
     }
 
-    public boolean isClosed() {
+    private SSHSessionChain getChain() {
+
+        SSHSessionChain current;
+
+        synchronized (this) {
+            current = chain;
+
+            if (closed || reconnector == null || current.isHealthy()) {
+                return current;
+            }
+        }
+
+        SSHSessionChain replacement;
+
+        try {
+            replacement = reconnector.connect();
+        } catch (XenonException e) {
+            LOGGER.debug("Failed to replace failed SSH connection", e);
+            return current;
+        }
+
+        synchronized (this) {
+            if (!closed && chain == current) {
+                chain = replacement;
+                replacement = current;
+            }
+        }
+
+        // Release whichever one we do not use; either the old chain, or the replacement if someone else switched (or closed) in the meantime.
+        SSHConnectionRegistry.release(replacement);
+
+        synchronized (this) {
+            return chain;
+        }
+    }
+
+    /**
+     * Check if the session of this connection is open, and did not fail its last health check.
+     *
+     * @return if the connection is healthy
+     */
+    public synchronized boolean isHealthy() {
+        return !closed && chain.isHealthy();
+    }
+
+    /**
+     * Get the round trip time of the last health check of this connection.
+     *
+     * @return the round trip time (in milliseconds), or -1 if the connection has not been checked yet.
+     */
+    public synchronized long getLatency() {
+        return chain.getLatency();
+    }
+
+    /**
+     * Check if the server still responds, and measure the round trip time.
+     *
+     * @param timeout
+     *            the maximum time to wait for the server to respond (in milliseconds).
+     * @return the round trip time (in milliseconds).
+     * @throws IOException
+     *             if the session is closed, or the server did not respond in time.
+     */
+    public long checkHealth(long timeout) throws IOException {
+        return getChain().probe(timeout);
+    }
+
+    public synchronized boolean isClosed() {
         return closed;
     }
 
-    public boolean isOpen() {
+    public synchronized boolean isOpen() {
         return !closed;
     }
 
     @Override
     public void close() {
 
-        if (closed) {
-            return;
-        }
-
-        closed = true;
+        SSHSessionChain current;
 
-        try {
-            if (session != null) {
-                try {
-                    session.close();
-                } catch (Exception e) {
-                    // ignored?
-                }
+        synchronized (this) {
+            if (closed) {
+                return;
             }
 
-            for (int i = hops - 1; i >= 0; i--) {
-                if (tunnels[i] != null) {
-                    try {
-                        tunnels[i].close();
-                    } catch (Exception e) {
-                        // ignored?
-                    }
-                }
-                if (sessions[i] != null) {
-                    try {
-                        sessions[i].close();
-                    } catch (Exception e) {
-                        // ignored?
-                    }
-                }
-            }
-        } finally {
-            client.stop();
+            closed = true;
+            current = chain;
         }
+
+        SSHConnectionRegistry.release(current);
     }
 }
@@ -0,0 +1,432 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.shared.ssh;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.sshd.common.util.net.SshdSocketAddress;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import nl.esciencecenter.xenon.XenonException;
+import nl.esciencecenter.xenon.credentials.UserCredential;
+import nl.esciencecenter.xenon.utils.DaemonThreadFactory;
+
+/**
+ * A process wide registry of SSH connections, shared by all SSH based adaptors.
+ *
+ * Connections are registered under the hosts, ports and credentials of the destination and all gateways, and the {@link SSHSettings} used to create
+ * them. Only the settings that change the session itself take part in the key (see {@link SSHSettings#equals(Object)}). The lifecycle settings of the
+ * users of a shared connection are merged instead: the longest idle timeout and the shortest health check interval are used. Each reference handed out
+ * by {@link #acquire(Key, long, Connector)} must be released when it is no longer used. The shared connection is closed when the last of these
+ * references is released, or after its idle timeout if it has one. A connection to a gateway is registered in the same way as any other connection
+ * (under the part of the location up to the gateway), and is referenced by all connections tunneled through it.
+ *
+ * A shared connection of which the session has been closed (for example by the server) is no longer handed out. If its settings specify a health
+ * check interval, the registry also checks each shared connection periodically. A connection that fails its health check is closed. If it is still in
+ * use, a replacement is set up in the background, which its users switch to on their next use (see {@link SSHConnection#getSession()}).
+ */
+final class SSHConnectionRegistry {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SSHConnectionRegistry.class);
+
+    private static final HashMap<Key, SSHSessionChain> CONNECTIONS = new HashMap<>();
+
+    /** The connections currently being set up. */
+    private static final HashMap<Key, CompletableFuture<SSHSessionChain>> PENDING = new HashMap<>();
+
+    /** The maximum time to wait for the reply to a health check (in milliseconds). */
+    static final long HEALTH_CHECK_TIMEOUT = 5000;
+
+    /** Schedules the eviction of idle connections and the health checks. Created when first needed. */
+    private static ScheduledThreadPoolExecutor timer;
+
+    /** Performs the health checks and sets up connections in the background. Created when first needed. */
+    private static ExecutorService workers;
+
+    /**
+     * Sets up a new connection if no usable connection is registered.
+     */
+    interface Connector {
+        SSHSessionChain connect() throws XenonException;
+    }
+
+    /**
+     * Identifies a shared connection.
+     */
+    static final class Key {
+
+        private final List<SshdSocketAddress> locations;
+        private final List<UserCredential> credentials;
+        private final SSHSettings settings;
+
+        Key(SshdSocketAddress[] locations, UserCredential[] credentials, SSHSettings settings) {
+            this.locations = Arrays.asList(locations.clone());
+            this.credentials = Arrays.asList(credentials.clone());
+            this.settings = new SSHSettings(settings);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Key other = (Key) o;
+            return locations.equals(other.locations) && credentials.equals(other.credentials) && settings.equals(other.settings);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(locations, credentials, settings);
+        }
+
+        SSHSettings getSettings() {
+            return settings;
+        }
+
+        @Override
+        public String toString() {
+            return locations.toString();
+        }
+    }
+
+    private SSHConnectionRegistry() {
+        // utility class
+    }
+
+    /**
+     * Get a connection for the given key, using a registered connection if a usable one exists, or setting up a new one with <code>connector</code>
+     * otherwise.
+     *
+     * The connection setup is performed without holding the registry lock, so setting up a connection does not block the use of other connections, and
+     * connections with different keys can be set up in parallel. If a connection for the same key is already being set up by another thread, we wait for
+     * that connection instead of setting up our own. This way, many connections through the same gateway started at once only set up one session to the
+     * gateway. If the other thread fails to set up the connection, we fail with the same exception.
+     *
+     * @param key
+     *            the key of the connection.
+     * @param idleTimeout
+     *            how long the connection is kept open once it is no longer used (in milliseconds). If several users specify an idle timeout, the
+     *            longest one is used.
+     * @param connector
+     *            used to set up a new connection if needed.
+     * @return the shared connection, with a new reference to it.
+     * @throws XenonException
+     *             if a new connection could not be set up.
+     */
+    static SSHSessionChain acquire(Key key, long idleTimeout, Connector connector) throws XenonException {
+
+        while (true) {
+            CompletableFuture<SSHSessionChain> pending;
+
+            synchronized (SSHConnectionRegistry.class) {
+                SSHSessionChain chain = lookup(key, idleTimeout);
+
+                if (chain != null) {
+                    LOGGER.debug("Reusing SSH connection to {}", key);
+                    return chain;
+                }
+
+                pending = PENDING.get(key);
+
+                if (pending == null) {
+                    PENDING.put(key, new CompletableFuture<>());
+                }
+            }
+
+            if (pending == null) {
+                return connect(key, idleTimeout, connector);
+            }
+
+            LOGGER.debug("Waiting for SSH connection to {} being set up by another thread", key);
+
+            // The connection setup has a timeout, so waiting for it uninterruptibly is bounded. Once it is registered, the next lookup picks it up.
+            try {
+                pending.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof XenonException) {
+                    throw (XenonException) e.getCause();
+                }
+                throw e;
+            }
+        }
+    }
+
+    /*
+     * Set up and register a new connection for key, and wake up the threads waiting for it. The caller must have added a pending future for key.
+     */
+    private static SSHSessionChain connect(Key key, long idleTimeout, Connector connector) throws XenonException {
+
+        SSHSessionChain created;
+
+        try {
+            created = connector.connect();
+        } catch (XenonException | RuntimeException | Error e) {
+            CompletableFuture<SSHSessionChain> pending;
+
+            synchronized (SSHConnectionRegistry.class) {
+                pending = PENDING.remove(key);
+            }
+
+            pending.completeExceptionally(e);
+            throw e;
+        }
+
+        CompletableFuture<SSHSessionChain> pending;
+
+        synchronized (SSHConnectionRegistry.class) {
+            register(key, idleTimeout, connector, created);
+            pending = PENDING.remove(key);
+        }
+
+        pending.complete(created);
+        return created;
+    }
+
+    private static synchronized void register(Key key, long idleTimeout, Connector connector, SSHSessionChain chain) {
+
+        chain.key = key;
+        chain.idleTimeout = idleTimeout;
+        chain.connector = connector;
+        CONNECTIONS.put(key, chain);
+
+        scheduleHealthCheck(chain, key.getSettings().getHealthCheckInterval());
+    }
+
+    /*
+     * Check the health of a connection at least every interval milliseconds. If several users specify a health check interval, the shortest one is used.
+     * The caller must hold the registry lock.
+     */
+    private static void scheduleHealthCheck(SSHSessionChain chain, long interval) {
+
+        if (interval <= 0 || (chain.healthCheck != null && chain.healthCheckInterval <= interval)) {
+            return;
+        }
+
+        if (chain.healthCheck != null) {
+            chain.healthCheck.cancel(false);
+        }
+
+        chain.healthCheckInterval = interval;
+        chain.healthCheck = getTimer().scheduleWithFixedDelay(() -> getWorkers().execute(() -> checkHealth(chain)), interval, interval,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /*
+     * Remove a connection from the registry (if it is still registered), and stop its health checks. The caller must hold the registry lock.
+     */
+    private static void unregister(SSHSessionChain chain) {
+
+        if (chain.key != null && CONNECTIONS.get(chain.key) == chain) {
+            CONNECTIONS.remove(chain.key);
+        }
+
+        if (chain.healthCheck != null) {
+            chain.healthCheck.cancel(false);
+            chain.healthCheck = null;
+            chain.healthCheckInterval = 0;
+        }
+    }
+
+    /*
+     * Return the usable connection registered for key with its reference count incremented, or null if there is none. A registered connection that is no
+     * longer usable is removed from the registry, but remains open until its last user releases it (or its idle timeout expires).
+     */
+    private static synchronized SSHSessionChain lookup(Key key, long idleTimeout) {
+
+        SSHSessionChain chain = CONNECTIONS.get(key);
+
+        if (chain == null) {
+            return null;
+        }
+
+        if (!chain.isHealthy()) {
+            unregister(chain);
+            return null;
+        }
+
+        if (chain.eviction != null) {
+            chain.eviction.cancel(false);
+            chain.eviction = null;
+        }
+
+        chain.idleTimeout = Math.max(chain.idleTimeout, idleTimeout);
+        scheduleHealthCheck(chain, key.getSettings().getHealthCheckInterval());
+        chain.references++;
+        return chain;
+    }
+
+    /**
+     * Release a reference to a connection. The connection is closed when its last reference is released, or after its idle timeout if it has one and is
+     * still registered.
+     *
+     * @param chain
+     *            the connection to release
+     */
+    static void release(SSHSessionChain chain) {
+
+        synchronized (SSHConnectionRegistry.class) {
+            chain.references--;
+
+            if (chain.references > 0) {
+                return;
+            }
+
+            boolean registered = chain.key != null && CONNECTIONS.get(chain.key) == chain;
+
+            if (registered && chain.idleTimeout > 0 && chain.isHealthy()) {
+                LOGGER.debug("Keeping idle SSH connection to {} for {} ms", chain.key, chain.idleTimeout);
+                chain.eviction = getTimer().schedule(() -> evict(chain), chain.idleTimeout, TimeUnit.MILLISECONDS);
+                return;
+            }
+
+            unregister(chain);
+        }
+
+        chain.close();
+    }
+
+    /*
+     * Close a connection of which the idle timeout has expired, unless it has been reused in the meantime. If it has been reused and released again, a
+     * later eviction is pending, which we leave alone.
+     */
+    private static void evict(SSHSessionChain chain) {
+
+        synchronized (SSHConnectionRegistry.class) {
+            if (chain.references > 0 || chain.eviction == null || chain.eviction.getDelay(TimeUnit.MILLISECONDS) > 0) {
+                return;
+            }
+
+            chain.eviction = null;
+            unregister(chain);
+        }
+
+        LOGGER.debug("Closing idle SSH connection to {}", chain.key);
+        chain.close();
+    }
+
+    /**
+     * Set up a connection in the background, and register it as idle, so a later {@link #acquire(Key, long, Connector)} for the same key can use it
+     * right away. Nothing happens if a usable connection is registered already. Failures are logged only.
+     *
+     * @param key
+     *            the key of the connection.
+     * @param idleTimeout
+     *            how long the connection is kept open if nobody uses it (in milliseconds).
+     * @param connector
+     *            used to set up the connection.
+     */
+    static void prewarm(Key key, long idleTimeout, Connector connector) {
+        getWorkers().execute(() -> {
+            try {
+                release(acquire(key, idleTimeout, connector));
+            } catch (XenonException e) {
+                LOGGER.debug("Failed to set up SSH connection to {} in the background", key, e);
+            }
+        });
+    }
+
+    /*
+     * Check if the server of the connection still responds. If not, the connection is closed. If it is still in use, a replacement is set up in the
+     * background, which the users switch to on their next use.
+     */
+    private static void checkHealth(SSHSessionChain chain) {
+
+        if (!chain.startCheck()) {
+            // The previous check is still waiting for a reply.
+            return;
+        }
+
+        try {
+            long latency = chain.probe(HEALTH_CHECK_TIMEOUT);
+            LOGGER.debug("SSH connection to {} is alive (latency {} ms)", chain.key, latency);
+            return;
+        } catch (IOException e) {
+            LOGGER.warn("SSH connection to {} failed its health check: {}", chain.key, e.getMessage());
+        } finally {
+            chain.endCheck();
+        }
+
+        boolean inUse;
+
+        synchronized (SSHConnectionRegistry.class) {
+            unregister(chain);
+
+            inUse = chain.references > 0;
+
+            if (chain.eviction != null) {
+                chain.eviction.cancel(false);
+                chain.eviction = null;
+            }
+        }
+
+        if (!inUse) {
+            chain.close();
+            return;
+        }
+
+        // The users keep their reference until they switch, so only close the session. This makes any operation on it fail right away, instead of
+        // waiting for a reply that will never come.
+        chain.closeSession();
+
+        // Set up the replacement, and let the failed chain hold a reference to it until the last user has switched.
+        try {
+            SSHSessionChain replacement = acquire(chain.key, chain.idleTimeout, chain.connector);
+
+            if (!chain.setReplacement(replacement)) {
+                release(replacement);
+            }
+        } catch (XenonException e) {
+            LOGGER.warn("Failed to replace SSH connection to {}: {}", chain.key, e.getMessage());
+        }
+    }
+
+    private static synchronized ScheduledThreadPoolExecutor getTimer() {
+
+        if (timer == null) {
+            timer = new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory("SSHConnectionTimer"));
+            timer.setRemoveOnCancelPolicy(true);
+        }
+
+        return timer;
+    }
+
+    private static synchronized ExecutorService getWorkers() {
+
+        if (workers == null) {
+            workers = Executors.newCachedThreadPool(new DaemonThreadFactory("SSHConnectionWorker"));
+        }
+
+        return workers;
+    }
+
+    static synchronized int size() {
+        return CONNECTIONS.size();
+    }
+}
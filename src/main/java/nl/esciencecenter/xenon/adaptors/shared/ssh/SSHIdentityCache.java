@@ -0,0 +1,128 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.shared.ssh;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.sshd.common.config.keys.FilePasswordProvider;
+import org.apache.sshd.common.session.SessionContext;
+import org.apache.sshd.common.util.io.resource.PathResource;
+import org.apache.sshd.common.util.security.SecurityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A process wide cache of the key pairs loaded from private key files.
+ *
+ * Decoding a private key, and decrypting it with its passphrase, takes noticeable CPU time. Each key file is therefore loaded only once, and the key pair is
+ * reused by all sessions and gateway hops that authenticate with it. A key file is loaded again if it has changed, or if a different passphrase is used.
+ * Loading a key file blocks other users of the same file only, so different keys can be loaded in parallel.
+ */
+final class SSHIdentityCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SSHIdentityCache.class);
+
+    private static final ConcurrentHashMap<Path, Entry> ENTRIES = new ConcurrentHashMap<>();
+
+    private static final class Entry {
+        private FileTime modified;
+        private long size;
+        private char[] password;
+        private KeyPair pair;
+
+        private boolean matches(BasicFileAttributes attributes, char[] password) {
+            return pair != null && attributes.lastModifiedTime().equals(modified) && attributes.size() == size && Arrays.equals(password, this.password);
+        }
+    }
+
+    private SSHIdentityCache() {
+        // utility class
+    }
+
+    /**
+     * Get the key pair stored in a private key file, loading it if it is not cached yet.
+     *
+     * @param session
+     *            the session the key is loaded for.
+     * @param path
+     *            the absolute and normalized path of the key file.
+     * @param password
+     *            the passphrase of the key file, or an empty array if it has none.
+     * @return the key pair stored in the file.
+     * @throws IOException
+     *             if the file could not be read or decoded.
+     * @throws GeneralSecurityException
+     *             if the key could not be decrypted.
+     */
+    static KeyPair getKeyPair(SessionContext session, Path path, char[] password) throws IOException, GeneralSecurityException {
+
+        Entry entry = ENTRIES.computeIfAbsent(path, p -> new Entry());
+
+        synchronized (entry) {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+
+            if (entry.matches(attributes, password)) {
+                return entry.pair;
+            }
+
+            LOGGER.debug("Loading private key {}", path);
+
+            entry.pair = load(session, path, password);
+            entry.modified = attributes.lastModifiedTime();
+            entry.size = attributes.size();
+            entry.password = password.clone();
+            return entry.pair;
+        }
+    }
+
+    private static KeyPair load(SessionContext session, Path path, char[] password) throws IOException, GeneralSecurityException {
+
+        FilePasswordProvider provider = password.length == 0 ? null : new SSHUtil.PasswordProvider(password);
+
+        try (InputStream inputStream = Files.newInputStream(path, StandardOpenOption.READ)) {
+            Iterable<KeyPair> pairs = SecurityUtils.loadKeyPairIdentities(session, new PathResource(path), inputStream, provider);
+            Iterator<KeyPair> it = pairs == null ? null : pairs.iterator();
+
+            if (it == null || !it.hasNext()) {
+                throw new IOException("No key found in " + path);
+            }
+
+            return it.next();
+        }
+    }
+
+    /**
+     * Remove all cached key pairs.
+     */
+    static void clear() {
+        ENTRIES.clear();
+    }
+
+    static int size() {
+        return ENTRIES.size();
+    }
+}
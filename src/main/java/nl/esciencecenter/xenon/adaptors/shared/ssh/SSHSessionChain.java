@@ -0,0 +1,237 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.shared.ssh;
+
+import java.io.IOException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.sshd.client.SshClient;
+import org.apache.sshd.client.session.ClientSession;
+import org.apache.sshd.common.SshConstants;
+import org.apache.sshd.common.util.buffer.Buffer;
+
+/**
+ * A session to an SSH server, together with the chain of gateways it is tunneled through (if any).
+ *
+ * A chain may be shared by several {@link SSHConnection}s, and the gateway of a chain may be shared by several other chains, so a single session to a
+ * gateway can carry the connections to many servers behind it. A chain keeps track of the number of users (connections or other chains) it has, and is
+ * closed when the last of these is closed, or some time after that if it has an idle timeout. The reference count is maintained by the
+ * {@link SSHConnectionRegistry}. Closing a chain releases its reference to its gateway.
+ */
+class SSHSessionChain {
+
+    /** The global request used to check if the server is alive. */
+    private static final String PROBE_REQUEST = "keepalive@openssh.com";
+
+    private ClientSession session;
+
+    /** The chain used to reach the server of this chain, or null if the server is reached directly. */
+    private final SSHSessionChain gateway;
+
+    /** The shared client used by this chain, or null if the client is owned by the user. */
+    private final SshClient sharedClient;
+
+    private boolean closed = false;
+
+    /** The key under which this chain is registered, or null if the chain is not shared. Guarded by the registry. */
+    SSHConnectionRegistry.Key key;
+
+    /** The number of connections and chains using this chain. Guarded by the registry. */
+    int references = 1;
+
+    /** How long this chain is kept open once it is no longer used (in milliseconds). Guarded by the registry. */
+    long idleTimeout = 0;
+
+    /** The pending close of this chain while it is idle, or null if it is in use. Guarded by the registry. */
+    ScheduledFuture<?> eviction;
+
+    /** Sets up a replacement for this chain if it fails a health check, or null if it is not shared. Guarded by the registry. */
+    SSHConnectionRegistry.Connector connector;
+
+    /** The periodic health check of this chain, or null if it has none. Guarded by the registry. */
+    ScheduledFuture<?> healthCheck;
+
+    /** The interval of the periodic health check (in milliseconds), or 0 if it has none. Guarded by the registry. */
+    long healthCheckInterval = 0;
+
+    private volatile boolean healthy = true;
+
+    private final AtomicBoolean checking = new AtomicBoolean(false);
+
+    /** The chain replacing this one after it failed, which this chain holds a reference to until it is closed. */
+    private SSHSessionChain replacement;
+
+    /** The round trip time of the last health check (in milliseconds), or -1 if no check has been done yet. */
+    private volatile long latency = -1;
+
+    SSHSessionChain() {
+        this(null, null, null);
+    }
+
+    SSHSessionChain(ClientSession session, SSHSessionChain gateway, SshClient sharedClient) {
+        this.session = session;
+        this.gateway = gateway;
+        this.sharedClient = sharedClient;
+    }
+
+    void setSession(ClientSession session) {
+        this.session = session;
+    }
+
+    ClientSession getSession() {
+        return session;
+    }
+
+    SSHSessionChain getGateway() {
+        return gateway;
+    }
+
+    /**
+     * Check if this chain can be handed out to a new user, that is, it has not been closed and its session to the destination is still open.
+     */
+    synchronized boolean isUsable() {
+        return !closed && session != null && session.isOpen();
+    }
+
+    synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Check if this chain is usable and has not failed a health check.
+     */
+    boolean isHealthy() {
+        return healthy && isUsable();
+    }
+
+    long getLatency() {
+        return latency;
+    }
+
+    boolean startCheck() {
+        return checking.compareAndSet(false, true);
+    }
+
+    void endCheck() {
+        checking.set(false);
+    }
+
+    /**
+     * Check if the server still responds by sending it a global request, and wait for the reply. Any reply will do, so servers that do not know the
+     * request (and reply with a failure) pass the check too. This is the same check as the ServerAliveInterval option of OpenSSH uses.
+     *
+     * @param timeout
+     *            the maximum time to wait for the reply (in milliseconds).
+     * @return the round trip time (in milliseconds).
+     * @throws IOException
+     *             if the session is closed, or no reply was received in time.
+     */
+    long probe(long timeout) throws IOException {
+
+        if (!isUsable()) {
+            healthy = false;
+            throw new IOException("Session is closed");
+        }
+
+        try {
+            latency = probe(session, timeout);
+        } catch (IOException e) {
+            healthy = false;
+            throw e;
+        }
+
+        healthy = true;
+        return latency;
+    }
+
+    /**
+     * Measure the round trip time to the server of a session, by sending a global request the server must reply to.
+     *
+     * @param session
+     *            the session to probe.
+     * @param timeout
+     *            the maximum time to wait for the reply (in milliseconds).
+     * @return the round trip time (in milliseconds).
+     * @throws IOException
+     *             if the session is closed, or no reply was received in time.
+     */
+    static long probe(ClientSession session, long timeout) throws IOException {
+
+        Buffer buffer = session.createBuffer(SshConstants.SSH_MSG_GLOBAL_REQUEST);
+        buffer.putString(PROBE_REQUEST);
+        buffer.putBoolean(true);
+
+        long start = System.nanoTime();
+        session.request(PROBE_REQUEST, buffer, timeout, TimeUnit.MILLISECONDS);
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    /**
+     * Close the session of this chain right away, without releasing its gateway and client. This is used when the session has failed while it is still
+     * in use, so its users notice this on their next operation. The chain itself is closed as usual when its last user releases it.
+     */
+    void closeSession() {
+        if (session != null) {
+            session.close(true);
+        }
+    }
+
+    /**
+     * Hold a reference to the chain replacing this failed chain, so it stays open until the users of this chain have switched to it.
+     *
+     * @return false if this chain has been closed already, in which case the caller must release the replacement itself.
+     */
+    synchronized boolean setReplacement(SSHSessionChain replacement) {
+        if (closed) {
+            return false;
+        }
+        this.replacement = replacement;
+        return true;
+    }
+
+    void close() {
+
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+
+            closed = true;
+        }
+
+        try {
+            if (session != null) {
+                session.close();
+            }
+        } catch (Exception e) {
+            // ignored?
+        } finally {
+            if (replacement != null) {
+                SSHConnectionRegistry.release(replacement);
+            }
+
+            if (gateway != null) {
+                SSHConnectionRegistry.release(gateway);
+            }
+
+            if (sharedClient != null) {
+                SSHUtil.releaseSharedClient(sharedClient);
+            }
+        }
+    }
+}
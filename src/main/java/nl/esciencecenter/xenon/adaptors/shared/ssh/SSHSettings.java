@@ -0,0 +1,330 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.shared.ssh;
+
+import java.util.Objects;
+
+/**
+ * The settings used to set up an SSH connection.
+ *
+ * Connections are only shared between users with equal settings. Equality only covers the settings that change the session itself: the host key
+ * policy, the use of the SSH config file and the ssh-agent, and the algorithms and compression offered. The lifecycle settings (timeouts, intervals, the
+ * connect parallelism and the number of I/O threads) do not prevent sharing. Instead, a shared connection uses the longest idle timeout and the shortest
+ * health check interval of its users, while the keep-alive interval, connect parallelism and number of I/O threads are those of the user that set it up.
+ *
+ * The settings that apply to the client as a whole (use of an ssh-agent, the number of I/O threads and the algorithms offered) also determine which of
+ * the shared clients is used.
+ */
+public class SSHSettings {
+
+    /**
+     * The use of compression on a connection.
+     */
+    public enum Compression {
+        /** Never compress. */
+        NONE,
+        /** Compress if the server supports it. */
+        ZLIB,
+        /** Compress if the server supports it and the link to the server is slow. */
+        AUTO;
+
+        /**
+         * Get the compression setting with the given name, ignoring case.
+         *
+         * @param name
+         *            the name of the setting ("none", "zlib" or "auto").
+         * @return the compression setting.
+         * @throws IllegalArgumentException
+         *             if the name is unknown.
+         */
+        public static Compression fromName(String name) {
+            for (Compression c : values()) {
+                if (c.name().equalsIgnoreCase(name.trim())) {
+                    return c;
+                }
+            }
+            throw new IllegalArgumentException("Unknown compression: " + name + " (must be none, zlib or auto)");
+        }
+    }
+
+    private boolean loadKnownHosts = true;
+    private boolean loadSSHConfig = true;
+    private boolean strictHostKeyChecking = true;
+    private boolean useAgent = false;
+    private boolean useAgentForwarding = false;
+    private int ioThreads = 0;
+    private long keepAliveInterval = 10000;
+    private long gatewayIdleTimeout = 10000;
+    private long idleTimeout = 0;
+    private long healthCheckInterval = 30000;
+    private int connectParallelism = 16;
+    private String ciphers = "";
+    private String macs = "";
+    private Compression compression = Compression.NONE;
+
+    public SSHSettings() {
+        // default settings
+    }
+
+    public SSHSettings(SSHSettings other) {
+        loadKnownHosts = other.loadKnownHosts;
+        loadSSHConfig = other.loadSSHConfig;
+        strictHostKeyChecking = other.strictHostKeyChecking;
+        useAgent = other.useAgent;
+        useAgentForwarding = other.useAgentForwarding;
+        ioThreads = other.ioThreads;
+        keepAliveInterval = other.keepAliveInterval;
+        gatewayIdleTimeout = other.gatewayIdleTimeout;
+        idleTimeout = other.idleTimeout;
+        healthCheckInterval = other.healthCheckInterval;
+        connectParallelism = other.connectParallelism;
+        ciphers = other.ciphers;
+        macs = other.macs;
+        compression = other.compression;
+    }
+
+    public boolean getLoadKnownHosts() {
+        return loadKnownHosts;
+    }
+
+    /**
+     * @param loadKnownHosts
+     *            Load the SSH known_hosts file from the default location (for OpenSSH this is typically found in $HOME/.ssh/known_hosts).
+     */
+    public void setLoadKnownHosts(boolean loadKnownHosts) {
+        this.loadKnownHosts = loadKnownHosts;
+    }
+
+    public boolean getLoadSSHConfig() {
+        return loadSSHConfig;
+    }
+
+    /**
+     * @param loadSSHConfig
+     *            Load the SSH config file from the default location (for OpenSSH this is typically found in $HOME/.ssh/config).
+     */
+    public void setLoadSSHConfig(boolean loadSSHConfig) {
+        this.loadSSHConfig = loadSSHConfig;
+    }
+
+    public boolean getStrictHostKeyChecking() {
+        return strictHostKeyChecking;
+    }
+
+    /**
+     * @param strictHostKeyChecking
+     *            Reject servers whose key does not match the known_hosts file. Only used when the known_hosts file is loaded.
+     */
+    public void setStrictHostKeyChecking(boolean strictHostKeyChecking) {
+        this.strictHostKeyChecking = strictHostKeyChecking;
+    }
+
+    public boolean getUseAgent() {
+        return useAgent;
+    }
+
+    /**
+     * @param useAgent
+     *            Handoff authentication to a separate SSH agent process.
+     */
+    public void setUseAgent(boolean useAgent) {
+        this.useAgent = useAgent;
+    }
+
+    public boolean getUseAgentForwarding() {
+        return useAgentForwarding;
+    }
+
+    /**
+     * @param useAgentForwarding
+     *            Allow remote SSH servers to use the local SSH agent process to authenticate connections to other servers.
+     */
+    public void setUseAgentForwarding(boolean useAgentForwarding) {
+        this.useAgentForwarding = useAgentForwarding;
+    }
+
+    public int getIOThreads() {
+        return ioThreads;
+    }
+
+    /**
+     * @param ioThreads
+     *            The number of I/O threads of the client, or 0 to use the default (the number of available processors plus one).
+     */
+    public void setIOThreads(int ioThreads) {
+        if (ioThreads < 0) {
+            throw new IllegalArgumentException("Invalid number of I/O threads: " + ioThreads);
+        }
+        this.ioThreads = ioThreads;
+    }
+
+    public long getKeepAliveInterval() {
+        return keepAliveInterval;
+    }
+
+    /**
+     * @param keepAliveInterval
+     *            The interval between the keep-alive messages sent on a session (in milliseconds), or 0 to disable keep-alive messages.
+     */
+    public void setKeepAliveInterval(long keepAliveInterval) {
+        if (keepAliveInterval < 0) {
+            throw new IllegalArgumentException("Invalid keep-alive interval: " + keepAliveInterval);
+        }
+        this.keepAliveInterval = keepAliveInterval;
+    }
+
+    public long getGatewayIdleTimeout() {
+        return gatewayIdleTimeout;
+    }
+
+    /**
+     * @param gatewayIdleTimeout
+     *            How long a session to a gateway is kept open once it is no longer used (in milliseconds), so it can be reused for connections to other
+     *            servers behind the same gateway. Use 0 to close it immediately.
+     */
+    public void setGatewayIdleTimeout(long gatewayIdleTimeout) {
+        if (gatewayIdleTimeout < 0) {
+            throw new IllegalArgumentException("Invalid gateway idle timeout: " + gatewayIdleTimeout);
+        }
+        this.gatewayIdleTimeout = gatewayIdleTimeout;
+    }
+
+    public long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    /**
+     * @param idleTimeout
+     *            How long a session to a server is kept open once it is no longer used (in milliseconds), so it can be reused by a later connection. Use 0
+     *            to close it immediately. Sessions to gateways use the gateway idle timeout instead.
+     */
+    public void setIdleTimeout(long idleTimeout) {
+        if (idleTimeout < 0) {
+            throw new IllegalArgumentException("Invalid idle timeout: " + idleTimeout);
+        }
+        this.idleTimeout = idleTimeout;
+    }
+
+    public long getHealthCheckInterval() {
+        return healthCheckInterval;
+    }
+
+    /**
+     * @param healthCheckInterval
+     *            The interval between health checks of a shared session (in milliseconds), or 0 to disable health checks. A session that fails a health
+     *            check is closed, and replaced by a new session in the background if it is still in use.
+     */
+    public void setHealthCheckInterval(long healthCheckInterval) {
+        if (healthCheckInterval < 0) {
+            throw new IllegalArgumentException("Invalid health check interval: " + healthCheckInterval);
+        }
+        this.healthCheckInterval = healthCheckInterval;
+    }
+
+    public int getConnectParallelism() {
+        return connectParallelism;
+    }
+
+    /**
+     * @param connectParallelism
+     *            The maximum number of sessions that are set up at the same time by all connections using this setting, or 0 for no limit. Each hop to a
+     *            gateway counts as a separate session.
+     */
+    public void setConnectParallelism(int connectParallelism) {
+        if (connectParallelism < 0) {
+            throw new IllegalArgumentException("Invalid connect parallelism: " + connectParallelism);
+        }
+        this.connectParallelism = connectParallelism;
+    }
+
+    public String getCiphers() {
+        return ciphers;
+    }
+
+    /**
+     * @param ciphers
+     *            A comma separated list of the ciphers to offer, in order of preference (for example "aes256-ctr,aes128-ctr"), or an empty string to offer
+     *            the fastest secure ciphers on this machine first.
+     * @throws IllegalArgumentException
+     *             if a cipher is unknown or not supported.
+     */
+    public void setCiphers(String ciphers) {
+        String tmp = ciphers.trim();
+        if (!tmp.isEmpty()) {
+            SSHAlgorithms.getCiphers(tmp);
+        }
+        this.ciphers = tmp;
+    }
+
+    public String getMacs() {
+        return macs;
+    }
+
+    /**
+     * @param macs
+     *            A comma separated list of the MACs to offer, in order of preference (for example "hmac-sha2-256-etm@openssh.com"), or an empty string to
+     *            offer the fastest secure MACs on this machine first.
+     * @throws IllegalArgumentException
+     *             if a MAC is unknown or not supported.
+     */
+    public void setMacs(String macs) {
+        String tmp = macs.trim();
+        if (!tmp.isEmpty()) {
+            SSHAlgorithms.getMacs(tmp);
+        }
+        this.macs = tmp;
+    }
+
+    public Compression getCompression() {
+        return compression;
+    }
+
+    /**
+     * @param compression
+     *            The use of compression. {@link Compression#AUTO} only compresses if the round trip time to the server is at least 50 ms.
+     */
+    public void setCompression(Compression compression) {
+        this.compression = Objects.requireNonNull(compression);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        SSHSettings other = (SSHSettings) o;
+        return loadKnownHosts == other.loadKnownHosts && loadSSHConfig == other.loadSSHConfig && strictHostKeyChecking == other.strictHostKeyChecking
+                && useAgent == other.useAgent && useAgentForwarding == other.useAgentForwarding && ciphers.equals(other.ciphers) && macs.equals(other.macs)
+                && compression == other.compression;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(loadKnownHosts, loadSSHConfig, strictHostKeyChecking, useAgent, useAgentForwarding, ciphers, macs, compression);
+    }
+
+    @Override
+    public String toString() {
+        return "SSHSettings [loadKnownHosts=" + loadKnownHosts + ", loadSSHConfig=" + loadSSHConfig + ", strictHostKeyChecking=" + strictHostKeyChecking
+                + ", useAgent=" + useAgent + ", useAgentForwarding=" + useAgentForwarding + ", ioThreads=" + ioThreads + ", keepAliveInterval="
+                + keepAliveInterval + ", gatewayIdleTimeout=" + gatewayIdleTimeout + ", idleTimeout=" + idleTimeout + ", healthCheckInterval="
+                + healthCheckInterval + ", connectParallelism=" + connectParallelism + ", ciphers=" + ciphers + ", macs=" + macs + ", compression="
+                + compression + "]";
+    }
+}
@@ -16,40 +16,43 @@
 package nl.esciencecenter.xenon.adaptors.shared.ssh;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.ServerSocket;
-import java.net.Socket;
 import java.net.SocketAddress;
 import java.net.URI;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
 import java.security.KeyPair;
 import java.security.PublicKey;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.sshd.agent.local.ProxyAgentFactory;
 import org.apache.sshd.client.ClientFactoryManager;
 import org.apache.sshd.client.SshClient;
-import org.apache.sshd.client.channel.ChannelDirectTcpip;
 import org.apache.sshd.client.config.hosts.DefaultConfigFileHostEntryResolver;
+import org.apache.sshd.client.config.hosts.HostConfigEntry;
+import org.apache.sshd.client.config.hosts.HostConfigEntryResolver;
 import org.apache.sshd.client.config.hosts.KnownHostEntry;
 import org.apache.sshd.client.keyverifier.AcceptAllServerKeyVerifier;
 import org.apache.sshd.client.keyverifier.DefaultKnownHostsServerKeyVerifier;
 import org.apache.sshd.client.keyverifier.RejectAllServerKeyVerifier;
+import org.apache.sshd.client.keyverifier.ServerKeyVerifier;
 import org.apache.sshd.client.session.ClientSession;
+import org.apache.sshd.common.AttributeRepository;
+import org.apache.sshd.common.AttributeRepository.AttributeKey;
+import org.apache.sshd.common.FactoryManager;
 import org.apache.sshd.common.NamedResource;
+import org.apache.sshd.common.PropertyResolverUtils;
 import org.apache.sshd.common.config.keys.FilePasswordProvider;
 import org.apache.sshd.common.session.SessionContext;
-import org.apache.sshd.common.util.io.resource.PathResource;
 import org.apache.sshd.common.util.net.SshdSocketAddress;
-import org.apache.sshd.common.util.security.SecurityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -57,15 +60,17 @@ import com.google.common.net.HostAndPort;
 
 import nl.esciencecenter.xenon.InvalidCredentialException;
 import nl.esciencecenter.xenon.InvalidLocationException;
+import nl.esciencecenter.xenon.InvalidPropertyException;
 import nl.esciencecenter.xenon.XenonException;
 import nl.esciencecenter.xenon.XenonPropertyDescription;
+import nl.esciencecenter.xenon.XenonPropertyDescription.Type;
+import nl.esciencecenter.xenon.adaptors.XenonProperties;
 import nl.esciencecenter.xenon.credentials.CertificateCredential;
 import nl.esciencecenter.xenon.credentials.Credential;
 import nl.esciencecenter.xenon.credentials.CredentialMap;
 import nl.esciencecenter.xenon.credentials.DefaultCredential;
 import nl.esciencecenter.xenon.credentials.PasswordCredential;
 import nl.esciencecenter.xenon.credentials.UserCredential;
-import nl.esciencecenter.xenon.utils.StreamForwarder;
 
 public class SSHUtil {
 
@@ -75,76 +80,112 @@ public class SSHUtil {
 
     public static final int DEFAULT_SSH_PORT = 22;
 
-    static class PasswordProvider implements FilePasswordProvider {
+    /** The key of the {@link SSHSettings} in the connection context of a session. */
+    static final AttributeKey<SSHSettings> SETTINGS = new AttributeKey<>();
 
-        private final char[] password;
+    private static final SSHSettings DEFAULT_SETTINGS = new SSHSettings();
 
-        public PasswordProvider(char[] password) {
-            this.password = password.clone();
-        }
+    private static final HashMap<List<Object>, SshClient> SHARED_CLIENTS = new HashMap<>();
 
-        @Override
-        public String getPassword(SessionContext session, NamedResource resourceKey, int retryIndex) throws IOException {
-            return new String(password);
-        }
-    }
+    private static final IdentityHashMap<SshClient, Integer> SHARED_CLIENT_USERS = new IdentityHashMap<>();
 
-    static class Tunnel extends Thread {
+    private static final HashMap<Integer, Semaphore> CONNECT_PERMITS = new HashMap<>();
 
-        private final ServerSocket server;
-        private final ChannelDirectTcpip channel;
+    /** Enable strict host key checking. */
+    public static final String STRICT_HOST_KEY_CHECKING = "strictHostKeyChecking";
 
-        private final int bufferSize;
+    /** Enable the use of an ssh-agent */
+    public static final String AGENT = "agent";
 
-        private Socket socket;
-        private Exception ex;
+    /** Enable the use of ssh-agent-forwarding */
+    public static final String AGENT_FORWARDING = "agentForwarding";
 
-        Tunnel(ServerSocket ss, ChannelDirectTcpip tmp, int bufferSize) {
-            this.server = ss;
-            this.channel = tmp;
-            this.bufferSize = bufferSize;
-        }
+    /** Load the known_hosts file by default. */
+    public static final String LOAD_STANDARD_KNOWN_HOSTS = "loadKnownHosts";
 
-        public synchronized Exception getException() {
-            return ex;
-        }
+    /** Load the OpenSSH config file by default. */
+    public static final String LOAD_SSH_CONFIG = "loadSshConfig";
 
-        public synchronized void close() {
-            try {
-                socket.close();
-            } catch (Exception e) {
-                // ignore
+    /** The number of I/O threads of the shared SSH client. */
+    public static final String IO_THREADS = "ioThreads";
+
+    /** The interval between keep-alive messages. */
+    public static final String KEEP_ALIVE_INTERVAL = "keepAliveInterval";
+
+    /** How long unused gateway sessions are kept open. */
+    public static final String GATEWAY_IDLE_TIMEOUT = "gatewayIdleTimeout";
+
+    /** How long unused sessions are kept open. */
+    public static final String IDLE_TIMEOUT = "idleTimeout";
+
+    /** The interval between health checks of shared sessions. */
+    public static final String HEALTH_CHECK_INTERVAL = "healthCheckInterval";
+
+    /** The maximum number of sessions set up at the same time. */
+    public static final String CONNECT_PARALLELISM = "connectParallelism";
+
+    /** The ciphers to offer. */
+    public static final String CIPHERS = "ciphers";
+
+    /** The MACs to offer. */
+    public static final String MACS = "macs";
+
+    /** The use of compression. */
+    public static final String COMPRESSION = "compression";
+
+    /**
+     * Verifies server keys according to the {@link SSHSettings} of the session.
+     */
+    static class SettingsServerKeyVerifier implements ServerKeyVerifier {
+
+        private final ServerKeyVerifier strict = createKnownHostsVerifier(true);
+        private final ServerKeyVerifier lenient = createKnownHostsVerifier(false);
+
+        @Override
+        public boolean verifyServerKey(ClientSession session, SocketAddress remoteAddress, PublicKey serverKey) {
+
+            SSHSettings settings = getSettings(session.getConnectionContext());
+
+            if (!settings.getLoadKnownHosts()) {
+                return AcceptAllServerKeyVerifier.INSTANCE.verifyServerKey(session, remoteAddress, serverKey);
             }
-        }
 
-        private void closeServer() {
-            try {
-                server.close();
-            } catch (Exception e) {
-                // ignored
+            if (settings.getStrictHostKeyChecking()) {
+                return strict.verifyServerKey(session, remoteAddress, serverKey);
             }
+
+            return lenient.verifyServerKey(session, remoteAddress, serverKey);
         }
+    }
+
+    /**
+     * Only uses the SSH config file if the {@link SSHSettings} of the connection ask for it.
+     */
+    static class SettingsHostConfigEntryResolver implements HostConfigEntryResolver {
 
         @Override
-        public void run() {
-            try {
-                Socket s = server.accept();
-                s.setTcpNoDelay(true);
+        public HostConfigEntry resolveEffectiveHost(String host, int port, SocketAddress localAddress, String username, AttributeRepository context)
+                throws IOException {
 
-                closeServer();
+            if (getSettings(context).getLoadSSHConfig()) {
+                return DefaultConfigFileHostEntryResolver.INSTANCE.resolveEffectiveHost(host, port, localAddress, username, context);
+            }
 
-                synchronized (this) {
-                    socket = s;
-                }
+            return HostConfigEntryResolver.EMPTY.resolveEffectiveHost(host, port, localAddress, username, context);
+        }
+    }
 
-                new StreamForwarder("LOCAL TO REMOTE", s.getInputStream(), channel.getInvertedIn(), bufferSize);
-                new StreamForwarder("REMOTE TO LOCAL", channel.getInvertedOut(), s.getOutputStream(), bufferSize);
+    static class PasswordProvider implements FilePasswordProvider {
 
-            } catch (IOException e) {
-                synchronized (this) {
-                    ex = e;
-                }
-            }
+        private final char[] password;
+
+        public PasswordProvider(char[] password) {
+            this.password = password.clone();
+        }
+
+        @Override
+        public String getPassword(SessionContext session, NamedResource resourceKey, int retryIndex) throws IOException {
+            return new String(password);
         }
     }
 
@@ -189,28 +230,10 @@ public class SSHUtil {
     public static SshClient createSSHClient(boolean useKnownHosts, boolean loadSSHConfig, boolean stricHostCheck, boolean useSSHAgent,
             boolean useAgentForwarding) {
 
-        SshClient client = SshClient.setUpDefaultClient();
-
-        // This sets the idle time after which the connection is closed automatically. The default is set to 10 minutes.
-        // client.getProperties().putIfAbsent(FactoryManager.IDLE_TIMEOUT, TimeUnit.SECONDS.toMillis(120L));
-
-        // We set the heartbeat of SSH to once every 10 seconds, and expect a reply within 5 seconds.
-        // This prevents an SSH operation to hang for 10 minutes if the network connection is lost.
-        client.getProperties().putIfAbsent(ClientFactoryManager.HEARTBEAT_INTERVAL, TimeUnit.SECONDS.toMillis(10L));
-        client.getProperties().putIfAbsent(ClientFactoryManager.HEARTBEAT_REPLY_WAIT, TimeUnit.SECONDS.toMillis(5L));
+        SshClient client = createClient(new SSHSettings());
 
         if (useKnownHosts) {
-            DefaultKnownHostsServerKeyVerifier tmp;
-
-            if (stricHostCheck) {
-                tmp = new DefaultKnownHostsServerKeyVerifier(RejectAllServerKeyVerifier.INSTANCE, true);
-            } else {
-                tmp = new DefaultKnownHostsServerKeyVerifier(AcceptAllServerKeyVerifier.INSTANCE, true);
-                tmp.setModifiedServerKeyAcceptor(
-                        (ClientSession clientSession, SocketAddress remoteAddress, KnownHostEntry entry, PublicKey expected, PublicKey actual) -> true);
-            }
-
-            client.setServerKeyVerifier(tmp);
+            client.setServerKeyVerifier(createKnownHostsVerifier(stricHostCheck));
         } else {
             client.setServerKeyVerifier(AcceptAllServerKeyVerifier.INSTANCE);
         }
@@ -233,6 +256,132 @@ public class SSHUtil {
         return client;
     }
 
+    private static SshClient createClient(SSHSettings settings) {
+
+        SshClient client = SshClient.setUpDefaultClient();
+
+        // The algorithms must be set on the client, as a session sends its proposal as soon as it is created.
+        SSHAlgorithms.configure(client, settings);
+
+        // This sets the idle time after which the connection is closed automatically. The default is set to 10 minutes.
+        // client.getProperties().putIfAbsent(FactoryManager.IDLE_TIMEOUT, TimeUnit.SECONDS.toMillis(120L));
+
+        // We set the heartbeat of SSH to once every 10 seconds, and expect a reply within 5 seconds.
+        // This prevents an SSH operation to hang for 10 minutes if the network connection is lost.
+        client.getProperties().putIfAbsent(ClientFactoryManager.HEARTBEAT_INTERVAL, TimeUnit.SECONDS.toMillis(10L));
+        client.getProperties().putIfAbsent(ClientFactoryManager.HEARTBEAT_REPLY_WAIT, TimeUnit.SECONDS.toMillis(5L));
+
+        return client;
+    }
+
+    private static ServerKeyVerifier createKnownHostsVerifier(boolean strictHostCheck) {
+
+        DefaultKnownHostsServerKeyVerifier tmp;
+
+        if (strictHostCheck) {
+            tmp = new DefaultKnownHostsServerKeyVerifier(RejectAllServerKeyVerifier.INSTANCE, true);
+        } else {
+            tmp = new DefaultKnownHostsServerKeyVerifier(AcceptAllServerKeyVerifier.INSTANCE, true);
+            tmp.setModifiedServerKeyAcceptor(
+                    (ClientSession clientSession, SocketAddress remoteAddress, KnownHostEntry entry, PublicKey expected, PublicKey actual) -> true);
+        }
+
+        return tmp;
+    }
+
+    /**
+     * Get a started {@link SshClient} that is shared by all connections using the same ssh-agent setting, number of I/O threads and algorithms.
+     * <p>
+     * The host key policy and the use of the SSH config file are taken from the {@link SSHSettings} attached to each session as connection context (see
+     * {@link #createContext(SSHSettings)}), so sessions with different settings can use the same client. Each client returned must be released using
+     * {@link #releaseSharedClient(SshClient)}. A shared client is stopped when it is no longer used.
+     * </p>
+     *
+     * @param settings
+     *            the settings to get a client for.
+     * @return the shared client
+     */
+    static synchronized SshClient acquireSharedClient(SSHSettings settings) {
+
+        List<Object> key = Arrays.asList(settings.getUseAgent(), settings.getIOThreads(), settings.getCiphers(), settings.getMacs(),
+                settings.getCompression());
+
+        SshClient client = SHARED_CLIENTS.get(key);
+
+        if (client == null) {
+            LOGGER.debug("Creating shared SSH client for {}", settings);
+
+            client = createClient(settings);
+
+            if (settings.getIOThreads() > 0) {
+                client.getProperties().put(FactoryManager.NIO_WORKERS, settings.getIOThreads());
+            }
+
+            client.setServerKeyVerifier(new SettingsServerKeyVerifier());
+            client.setHostConfigEntryResolver(new SettingsHostConfigEntryResolver());
+
+            if (settings.getUseAgent()) {
+                client.setAgentFactory(new ProxyAgentFactory());
+            }
+
+            client.start();
+
+            SHARED_CLIENTS.put(key, client);
+            SHARED_CLIENT_USERS.put(client, 0);
+        }
+
+        SHARED_CLIENT_USERS.put(client, SHARED_CLIENT_USERS.get(client) + 1);
+        return client;
+    }
+
+    /**
+     * Release a client returned by {@link #acquireSharedClient(SSHSettings)}. The client is stopped when it is no longer used.
+     *
+     * @param client
+     *            the client to release.
+     */
+    static synchronized void releaseSharedClient(SshClient client) {
+
+        int users = SHARED_CLIENT_USERS.get(client) - 1;
+
+        if (users > 0) {
+            SHARED_CLIENT_USERS.put(client, users);
+            return;
+        }
+
+        LOGGER.debug("Stopping shared SSH client");
+
+        SHARED_CLIENT_USERS.remove(client);
+        SHARED_CLIENTS.values().remove(client);
+        client.stop();
+    }
+
+    static synchronized int getSharedClientCount() {
+        return SHARED_CLIENTS.size();
+    }
+
+    /**
+     * Create the connection context used to pass the settings of a connection to a shared client.
+     *
+     * @param settings
+     *            the settings of the connection
+     * @return the connection context
+     */
+    public static AttributeRepository createContext(SSHSettings settings) {
+        return AttributeRepository.ofKeyValuePair(SETTINGS, new SSHSettings(settings));
+    }
+
+    private static SSHSettings getSettings(AttributeRepository context) {
+
+        SSHSettings settings = null;
+
+        if (context != null) {
+            settings = context.getAttribute(SETTINGS);
+        }
+
+        return settings == null ? DEFAULT_SETTINGS : settings;
+    }
+
     /**
      * Weak validation of a host string containing either a hostame of IP adres.
      *
@@ -378,10 +527,13 @@ public class SSHUtil {
         return new SshdSocketAddress(host, port);
     }
 
-    private static ClientSession connectAndAuthenticate(String adaptorName, SshClient client, String host, int port, UserCredential credential, long timeout)
-            throws XenonException {
+    /*
+     * Connect to the target, either directly (if gateway is null) or tunneled through the gateway session, and authenticate.
+     */
+    private static ClientSession connectAndAuthenticate(String adaptorName, SshClient client, ClientSession gateway, SshdSocketAddress target,
+            UserCredential credential, AttributeRepository context, long timeout) throws XenonException {
 
-        if (host == null) {
+        if (target.getHostName() == null) {
             throw new IllegalArgumentException("Target host may not be null");
         }
 
@@ -394,11 +546,42 @@ public class SSHUtil {
         ClientSession session = null;
 
         try { // Connect to remote machine and retrieve a session. Will throw exception on timeout
-            session = client.connect(username, host, port).verify(timeout).getSession();
+            if (gateway == null) {
+                session = client.connect(username, target.getHostName(), target.getPort(), context, null).verify(timeout).getSession();
+            } else {
+                session = ChannelIoSession.connect(client, gateway, target, username, context, timeout);
+            }
         } catch (IOException e) {
-            throw new XenonException(adaptorName, "Connection setup to " + host + ":" + port + " failed!", e);
+            throw new XenonException(adaptorName, "Connection setup to " + target + " failed!", e);
+        }
+
+        if (context != null) {
+            // Must be set before authentication, as the connection service reads it when it starts.
+            long keepAlive = getSettings(context).getKeepAliveInterval();
+            PropertyResolverUtils.updateProperty(session, ClientFactoryManager.HEARTBEAT_INTERVAL, keepAlive);
+        }
+
+        try {
+            authenticate(adaptorName, session, credential, timeout);
+        } catch (XenonException e) {
+            closeQuietly(session);
+            throw e;
+        }
+
+        if (context != null) {
+            try {
+                SSHAlgorithms.adaptCompression(session, getSettings(context).getCompression(), timeout);
+            } catch (IOException e) {
+                closeQuietly(session);
+                throw new XenonException(adaptorName, "Failed to set up compression to " + target, e);
+            }
         }
 
+        return session;
+    }
+
+    private static void authenticate(String adaptorName, ClientSession session, UserCredential credential, long timeout) throws XenonException {
+
         // Figure out which type of credential we are using
         if (credential instanceof DefaultCredential) {
             // do nothing
@@ -417,16 +600,9 @@ public class SSHUtil {
 
             KeyPair pair = null;
 
-            try (InputStream inputStream = Files.newInputStream(path, StandardOpenOption.READ)) {
-
-                char[] password = c.getPassword();
-
-                if (password.length == 0) {
-                    pair = SecurityUtils.loadKeyPairIdentities(session, new PathResource(path), inputStream, null).iterator().next();
-                } else {
-                    pair = SecurityUtils.loadKeyPairIdentities(session, new PathResource(path), inputStream, new PasswordProvider(password)).iterator().next();
-                }
-
+            try {
+                // Decoding the key is expensive, so the key pair is shared by all sessions using the same key file.
+                pair = SSHIdentityCache.getKeyPair(session, path, c.getPassword());
             } catch (Exception e) {
                 throw new XenonException(adaptorName, "Failed to load certificate: " + path, e);
             }
@@ -448,13 +624,13 @@ public class SSHUtil {
         } catch (IOException e) {
             throw new XenonException(adaptorName, "Connection authentication failed", e);
         }
-
-        return session;
     }
 
     /**
      * Connect an existing {@link SshClient} to the server at <code>location</code> and authenticate using the given <code>credential</code>.
      *
+     * The connection returned is not shared with other users. Closing it does not stop the <code>client</code>.
+     *
      * @param adaptorName
      *            the adaptor where this method was called from.
      * @param client
@@ -463,17 +639,196 @@ public class SSHUtil {
      *            the server to connect to
      * @param credential
      *            the credential to authenticate with.
-     * @param bufferSize
-     *            the buffer size used for the (optional) SSH tunnels.
      * @param timeout
      *            the timeout to use in connection setup (in milliseconds).
      * @return the connected {@link ClientSession}
      * @throws XenonException
      *             if the connection setup or authentication failed.
      */
-    public static SSHConnection connect(String adaptorName, SshClient client, String location, Credential credential, int bufferSize, long timeout)
+    public static SSHConnection connect(String adaptorName, SshClient client, String location, Credential credential, long timeout)
+            throws XenonException {
+
+        checkConnectArguments(credential, location, timeout);
+
+        SshdSocketAddress[] locations = extractLocations(adaptorName, location);
+        UserCredential[] creds = extractCredentials(adaptorName, locations, credential);
+
+        return new SSHConnection(connect(adaptorName, client, locations, creds, null, timeout));
+    }
+
+    /**
+     * Get a connection to the server at <code>location</code>, authenticated using the given <code>credential</code>.
+     *
+     * Connections are shared between all SSH based adaptors. If a connection to the same location (including any gateways), using the same credentials and
+     * settings, is already open, a new reference to that connection is returned. Otherwise, a new connection is set up using an {@link SshClient} shared
+     * by all connections with the same ssh-agent setting and number of I/O threads. The connection is closed when the last reference to it is closed, or
+     * after the idle timeout of the settings if it is set.
+     *
+     * The sessions to gateways are shared in the same way, so connections to several servers behind the same gateway use a single session to that
+     * gateway, each over its own channel. A session to a gateway is kept open for the gateway idle timeout of the settings once it is no longer used.
+     *
+     * @param adaptorName
+     *            the adaptor where this method was called from.
+     * @param location
+     *            the server to connect to
+     * @param credential
+     *            the credential to authenticate with.
+     * @param timeout
+     *            the timeout to use in connection setup (in milliseconds). Only used if a new connection is set up.
+     * @param settings
+     *            the settings of the connection.
+     * @return a reference to the (possibly shared) connection
+     * @throws XenonException
+     *             if the connection setup or authentication failed.
+     */
+    public static SSHConnection connect(String adaptorName, String location, Credential credential, long timeout, SSHSettings settings)
             throws XenonException {
 
+        checkConnectArguments(credential, location, timeout);
+
+        if (settings == null) {
+            throw new IllegalArgumentException("Settings may not be null");
+        }
+
+        SshdSocketAddress[] locations = extractLocations(adaptorName, location);
+        UserCredential[] creds = extractCredentials(adaptorName, locations, credential);
+
+        SSHConnectionRegistry.Connector reconnector = () -> acquire(adaptorName, locations, creds, locations.length, timeout, settings);
+
+        return new SSHConnection(reconnector.connect(), reconnector);
+    }
+
+    /**
+     * Set up a shared connection to the server at <code>location</code> in the background, so a later call to
+     * {@link #connect(String, String, Credential, long, SSHSettings)} with the same arguments does not have to wait for it. This can be used to prepare
+     * the connections to servers an application is configured to use.
+     *
+     * The connection is kept open for the idle timeout of the settings (or until it is used), so pre-warming has no lasting effect if this timeout is 0.
+     * Any failures while setting up the connection are logged only; they will be reported by the call to <code>connect</code>.
+     *
+     * @param adaptorName
+     *            the adaptor where this method was called from.
+     * @param location
+     *            the server to connect to
+     * @param credential
+     *            the credential to authenticate with.
+     * @param timeout
+     *            the timeout to use in connection setup (in milliseconds).
+     * @param settings
+     *            the settings of the connection.
+     * @throws XenonException
+     *             if the location or credential are invalid.
+     */
+    public static void prewarm(String adaptorName, String location, Credential credential, long timeout, SSHSettings settings) throws XenonException {
+
+        checkConnectArguments(credential, location, timeout);
+
+        if (settings == null) {
+            throw new IllegalArgumentException("Settings may not be null");
+        }
+
+        SshdSocketAddress[] locations = extractLocations(adaptorName, location);
+        UserCredential[] creds = extractCredentials(adaptorName, locations, credential);
+
+        SSHConnectionRegistry.prewarm(createKey(locations, creds, locations.length, settings), settings.getIdleTimeout(),
+                createConnector(adaptorName, locations, creds, locations.length, timeout, settings));
+    }
+
+    /*
+     * Get the shared connection to the location at index length - 1, tunneled via the locations before it. The connection to the previous location is
+     * acquired in the same way, so the session to a gateway is shared by all connections through it.
+     */
+    private static SSHSessionChain acquire(String adaptorName, SshdSocketAddress[] locations, UserCredential[] creds, int length, long timeout,
+            SSHSettings settings) throws XenonException {
+
+        // Sessions to gateways are likely to be reused for another server, so they may have their own idle timeout.
+        long idleTimeout = length < locations.length ? settings.getGatewayIdleTimeout() : settings.getIdleTimeout();
+
+        return SSHConnectionRegistry.acquire(createKey(locations, creds, length, settings), idleTimeout,
+                createConnector(adaptorName, locations, creds, length, timeout, settings));
+    }
+
+    private static SSHConnectionRegistry.Key createKey(SshdSocketAddress[] locations, UserCredential[] creds, int length, SSHSettings settings) {
+        return new SSHConnectionRegistry.Key(Arrays.copyOf(locations, length), Arrays.copyOf(creds, length), settings);
+    }
+
+    /*
+     * Create a connector that sets up a new session to the location at index length - 1, using the shared connection to the location before it as
+     * gateway.
+     */
+    private static SSHConnectionRegistry.Connector createConnector(String adaptorName, SshdSocketAddress[] locations, UserCredential[] creds, int length,
+            long timeout, SSHSettings settings) {
+
+        return () -> {
+            SSHSessionChain gateway = length > 1 ? acquire(adaptorName, locations, creds, length - 1, timeout, settings) : null;
+            SshClient client = null;
+            boolean connected = false;
+
+            // The references to the gateway and shared client are released on any failure, including runtime exceptions.
+            try {
+                client = acquireSharedClient(settings);
+
+                // The permit is only taken once the gateway is available, so a hop never holds a permit while waiting for the hop before it.
+                Semaphore permits = getConnectPermits(settings.getConnectParallelism());
+
+                acquirePermit(adaptorName, permits, locations[length - 1], timeout);
+
+                try {
+                    ClientSession session = connectAndAuthenticate(adaptorName, client, gateway == null ? null : gateway.getSession(), locations[length - 1],
+                            creds[length - 1], createContext(settings), timeout);
+                    SSHSessionChain chain = new SSHSessionChain(session, gateway, client);
+                    connected = true;
+                    return chain;
+                } finally {
+                    if (permits != null) {
+                        permits.release();
+                    }
+                }
+            } finally {
+                if (!connected) {
+                    if (client != null) {
+                        releaseSharedClient(client);
+                    }
+
+                    if (gateway != null) {
+                        SSHConnectionRegistry.release(gateway);
+                    }
+                }
+            }
+        };
+    }
+
+    /*
+     * Get the semaphore that limits the number of sessions set up at the same time to parallelism, or null if parallelism is 0. All connections with the
+     * same setting share the semaphore.
+     */
+    static synchronized Semaphore getConnectPermits(int parallelism) {
+
+        if (parallelism == 0) {
+            return null;
+        }
+
+        return CONNECT_PERMITS.computeIfAbsent(parallelism, Semaphore::new);
+    }
+
+    private static void acquirePermit(String adaptorName, Semaphore permits, SshdSocketAddress target, long timeout) throws XenonException {
+
+        if (permits == null) {
+            return;
+        }
+
+        try {
+            if (!permits.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+                throw new XenonException(adaptorName, "Timeout while waiting to set up connection to " + target);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new XenonException(adaptorName, "Interrupted while waiting to set up connection to " + target, e);
+        }
+    }
+
+    private static void checkConnectArguments(Credential credential, String location, long timeout) {
+
         if (credential == null) {
             throw new IllegalArgumentException("Credential may not be null");
         }
@@ -485,52 +840,130 @@ public class SSHUtil {
         if (location == null) {
             throw new IllegalArgumentException("Location may not be null");
         }
+    }
 
-        SshdSocketAddress[] locations = extractLocations(adaptorName, location);
-        UserCredential[] creds = extractCredentials(adaptorName, locations, credential);
-
-        SSHConnection connection = new SSHConnection(client, locations.length - 1);
+    /*
+     * Connect the client to the last of the locations, tunneling via all others. Each hop runs the next session over a direct-tcpip channel of the
+     * previous one, so no local sockets or forwarding threads are used.
+     */
+    private static SSHSessionChain connect(String adaptorName, SshClient client, SshdSocketAddress[] locations, UserCredential[] creds,
+            AttributeRepository context, long timeout) throws XenonException {
 
-        // Connect to the last location. This is either the destination (without tunneling) or the first hop.
-        ClientSession session = connectAndAuthenticate(adaptorName, client, locations[0].getHostName(), locations[0].getPort(), creds[0], timeout);
+        SSHSessionChain chain = null;
 
         try {
-            // If we have more that one location we need to tunnel via another location.
-            for (int i = 1; i < locations.length; i++) {
-                ChannelDirectTcpip channel = session.createDirectTcpipChannel(null, locations[i]);
-                channel.open().await(timeout);
-
-                ServerSocket server = new ServerSocket(0);
-                int port = server.getLocalPort();
-
-                Tunnel tunnel = new Tunnel(server, channel, bufferSize);
-                tunnel.start();
+            for (int i = 0; i < locations.length; i++) {
+                ClientSession session = connectAndAuthenticate(adaptorName, client, chain == null ? null : chain.getSession(), locations[i], creds[i],
+                        context, timeout);
 
-                connection.addHop(i - 1, session, tunnel);
-
-                session = connectAndAuthenticate(adaptorName, client, "localhost", port, creds[i], timeout);
+                // The previous chain is now owned by the new one, and closed with it.
+                chain = new SSHSessionChain(session, chain, null);
             }
 
-        } catch (IOException e) {
+            return chain;
+
+        } catch (XenonException xe) {
             // Attempt to cleanup the mess
-            connection.close();
+            if (chain != null) {
+                chain.close();
+            }
+            throw xe;
+        }
+    }
 
+    private static void closeQuietly(ClientSession session) {
+        if (session != null) {
             try {
                 session.close();
-            } catch (IOException e1) {
+            } catch (IOException e) {
                 // ignored
             }
+        }
+    }
 
-            throw new XenonException(adaptorName, "Failed to set up SSH forwarding", e);
+    /**
+     * Get the descriptions of the properties that configure an SSH connection (see {@link #createSettings(String, XenonProperties, String)}), followed by
+     * the given properties of the adaptor.
+     *
+     * @param prefix
+     *            the prefix of the properties of the adaptor.
+     * @param properties
+     *            the other properties supported by the adaptor.
+     * @return the descriptions of all properties supported by the adaptor.
+     */
+    public static XenonPropertyDescription[] withSettingsProperties(String prefix, XenonPropertyDescription... properties) {
+
+        XenonPropertyDescription[] settings = new XenonPropertyDescription[] {
+                new XenonPropertyDescription(prefix + STRICT_HOST_KEY_CHECKING, Type.BOOLEAN, "true", "Enable strict host key checking."),
+                new XenonPropertyDescription(prefix + LOAD_STANDARD_KNOWN_HOSTS, Type.BOOLEAN, "true", "Load the standard known_hosts file."),
+                new XenonPropertyDescription(prefix + LOAD_SSH_CONFIG, Type.BOOLEAN, "true", "Load the OpenSSH config file."),
+                new XenonPropertyDescription(prefix + AGENT, Type.BOOLEAN, "false", "Use a (local) ssh-agent."),
+                new XenonPropertyDescription(prefix + AGENT_FORWARDING, Type.BOOLEAN, "false", "Use ssh-agent forwarding when setting up a connection."),
+                new XenonPropertyDescription(prefix + IO_THREADS, Type.NATURAL, "0",
+                        "The number of I/O threads of the SSH client shared by all connections with these settings (0 for the number of processors plus one)."),
+                new XenonPropertyDescription(prefix + KEEP_ALIVE_INTERVAL, Type.NATURAL, "10000",
+                        "The interval between keep-alive messages on a connection (in milliseconds, 0 to disable)."),
+                new XenonPropertyDescription(prefix + GATEWAY_IDLE_TIMEOUT, Type.NATURAL, "10000",
+                        "How long a connection to a gateway is kept open for reuse once it is no longer used (in milliseconds)."),
+                new XenonPropertyDescription(prefix + IDLE_TIMEOUT, Type.NATURAL, "0",
+                        "How long a connection is kept open for reuse once it is no longer used (in milliseconds)."),
+                new XenonPropertyDescription(prefix + HEALTH_CHECK_INTERVAL, Type.NATURAL, "30000",
+                        "The interval between health checks of open connections (in milliseconds, 0 to disable). "
+                                + "Failed connections are replaced in the background."),
+                new XenonPropertyDescription(prefix + CONNECT_PARALLELISM, Type.NATURAL, "16",
+                        "The maximum number of SSH sessions (including gateway hops) that are set up at the same time (0 for no limit)."),
+                new XenonPropertyDescription(prefix + CIPHERS, Type.STRING, "",
+                        "Comma separated list of ciphers to offer, in order of preference (empty for the fastest secure ciphers on this machine first)."),
+                new XenonPropertyDescription(prefix + MACS, Type.STRING, "",
+                        "Comma separated list of MACs to offer, in order of preference (empty for the fastest secure MACs on this machine first)."),
+                new XenonPropertyDescription(prefix + COMPRESSION, Type.STRING, "none",
+                        "The use of compression: none, zlib, or auto (only compress if the round trip time to the server is at least 50 ms).") };
+
+        XenonPropertyDescription[] result = Arrays.copyOf(settings, settings.length + properties.length);
+        System.arraycopy(properties, 0, result, settings.length, properties.length);
+        return result;
+    }
 
-        } catch (XenonException xe) {
-            // Attempt to cleanup the mess
-            connection.close();
-            throw xe;
+    /**
+     * Create the settings of an SSH connection from the properties of an adaptor. The properties must have been described using
+     * {@link #withSettingsProperties(String, XenonPropertyDescription...)}.
+     *
+     * @param adaptorName
+     *            the name of the adaptor.
+     * @param properties
+     *            the properties of the adaptor.
+     * @param prefix
+     *            the prefix of the properties of the adaptor.
+     * @return the settings.
+     * @throws InvalidPropertyException
+     *             if the algorithms or compression are invalid.
+     * @throws XenonException
+     *             if a property is unknown or has a value of the wrong type.
+     */
+    public static SSHSettings createSettings(String adaptorName, XenonProperties properties, String prefix) throws XenonException {
+
+        SSHSettings settings = new SSHSettings();
+        settings.setLoadKnownHosts(properties.getBooleanProperty(prefix + LOAD_STANDARD_KNOWN_HOSTS));
+        settings.setLoadSSHConfig(properties.getBooleanProperty(prefix + LOAD_SSH_CONFIG));
+        settings.setStrictHostKeyChecking(properties.getBooleanProperty(prefix + STRICT_HOST_KEY_CHECKING));
+        settings.setUseAgent(properties.getBooleanProperty(prefix + AGENT));
+        settings.setUseAgentForwarding(properties.getBooleanProperty(prefix + AGENT_FORWARDING));
+        settings.setIOThreads((int) Math.min(Integer.MAX_VALUE, properties.getNaturalProperty(prefix + IO_THREADS)));
+        settings.setKeepAliveInterval(properties.getNaturalProperty(prefix + KEEP_ALIVE_INTERVAL));
+        settings.setGatewayIdleTimeout(properties.getNaturalProperty(prefix + GATEWAY_IDLE_TIMEOUT));
+        settings.setIdleTimeout(properties.getNaturalProperty(prefix + IDLE_TIMEOUT));
+        settings.setHealthCheckInterval(properties.getNaturalProperty(prefix + HEALTH_CHECK_INTERVAL));
+        settings.setConnectParallelism((int) Math.min(Integer.MAX_VALUE, properties.getNaturalProperty(prefix + CONNECT_PARALLELISM)));
+
+        try {
+            settings.setCiphers(properties.getStringProperty(prefix + CIPHERS));
+            settings.setMacs(properties.getStringProperty(prefix + MACS));
+            settings.setCompression(SSHSettings.Compression.fromName(properties.getStringProperty(prefix + COMPRESSION)));
+        } catch (IllegalArgumentException e) {
+            throw new InvalidPropertyException(adaptorName, e.getMessage(), e);
         }
 
-        connection.setSession(session);
-        return connection;
+        return settings;
     }
 
     public static Map<String, String> translateProperties(Map<String, String> providedProperties, String orginalPrefix,
@@ -18,7 +18,7 @@ package nl.esciencecenter.xenon.filesystems;
 /**
  * CopyOption is an enumeration containing all possible options for copying a file.
  *
- * Note that the <code>CREATE</code>, <code>REPLACE</code> and <code>IGNORE</code> options are mutually exclusive.
+ * Note that the <code>CREATE</code>, <code>REPLACE</code>, <code>IGNORE</code> and <code>SYNC</code> options are mutually exclusive.
  */
 public enum CopyMode {
 
@@ -40,5 +40,14 @@ public enum CopyMode {
     /**
      * Skip the copy if the destination file if it already exists.
      */
-    IGNORE
+    IGNORE,
+
+    /**
+     * Like <code>REPLACE</code>, but skip the copy of a file if the destination already has the same content.
+     *
+     * The content is compared using checksums computed by the file systems themselves where both support the same algorithm, so no data needs to be read.
+     * Otherwise a destination file with the same size that was modified no earlier than the source is considered up to date. When the destination file
+     * system supports checksums, each copied file is verified against a checksum computed while the data is copied.
+     */
+    SYNC
 }
@@ -18,8 +18,14 @@ package nl.esciencecenter.xenon.filesystems;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -29,6 +35,7 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
@@ -42,7 +49,10 @@ import nl.esciencecenter.xenon.XenonException;
 import nl.esciencecenter.xenon.adaptors.AdaptorLoader;
 import nl.esciencecenter.xenon.adaptors.NotConnectedException;
 import nl.esciencecenter.xenon.adaptors.XenonProperties;
+import nl.esciencecenter.xenon.adaptors.filesystems.ChecksumUtils;
 import nl.esciencecenter.xenon.adaptors.filesystems.FileAdaptor;
+import nl.esciencecenter.xenon.adaptors.filesystems.StreamBackedByteChannel;
+import nl.esciencecenter.xenon.adaptors.filesystems.Watcher;
 import nl.esciencecenter.xenon.credentials.Credential;
 import nl.esciencecenter.xenon.credentials.DefaultCredential;
 import nl.esciencecenter.xenon.utils.DaemonThreadFactory;
@@ -378,6 +388,9 @@ public abstract class FileSystem implements AutoCloseable {
         }
     }
 
+    /** The default interval in milliseconds at which adaptors without change notification poll a watched directory */
+    public static final long DEFAULT_WATCH_INTERVAL = 5000;
+
     private final String uniqueID;
     private final String adaptor;
     private final String location;
@@ -393,6 +406,13 @@ public abstract class FileSystem implements AutoCloseable {
 
     private final HashMap<String, PendingCopy> pendingCopies = new HashMap<>();
 
+    private long nextWatchID = 0;
+
+    private final HashMap<String, Watcher> watchers = new HashMap<>();
+
+    /** Thread used by all polling watchers of this file system, created when the first watch is started */
+    private ScheduledExecutorService watchPool;
+
     protected FileSystem(String uniqueID, String adaptor, String location, Credential credential, Path workDirectory, int bufferSize,
             XenonProperties properties) {
 
@@ -534,6 +554,19 @@ public abstract class FileSystem implements AutoCloseable {
      *             If the FileSystem failed to close or if an I/O error occurred.
      */
     public void close() throws XenonException {
+
+        synchronized (this) {
+            for (Watcher watcher : watchers.values()) {
+                watcher.stop();
+            }
+
+            watchers.clear();
+
+            if (watchPool != null) {
+                watchPool.shutdownNow();
+            }
+        }
+
         try {
             pool.shutdownNow();
         } catch (Exception e) {
@@ -895,6 +928,272 @@ public abstract class FileSystem implements AutoCloseable {
      */
     public abstract OutputStream appendToFile(Path file) throws XenonException;
 
+    /**
+     * Open an existing file and return an {@link InputStream} to read from this file, starting at <code>offset</code>.
+     * <p>
+     * This allows an interrupted transfer to be resumed, or a large file to be read in several segments in parallel.
+     *
+     * If <code>offset</code> is equal to or larger than the size of the file, the returned stream is immediately at its end.
+     *
+     * This default implementation opens the file using {@link #readFromFile(Path)} and skips the first <code>offset</code> bytes. Adaptors that can start a
+     * transfer at an offset re-implement this operation to avoid transferring the skipped data.
+     * </p>
+     *
+     * @param file
+     *            the file to read.
+     * @param offset
+     *            the position in the file at which to start reading.
+     *
+     * @return the {@link InputStream} to read from the file.
+     *
+     * @throws NoSuchPathException
+     *             If the file does not exists.
+     * @throws InvalidPathException
+     *             If the file is not regular file.
+     * @throws NotConnectedException
+     *             If file system is closed.
+     * @throws XenonException
+     *             if an I/O error occurred.
+     * @throws IllegalArgumentException
+     *             If path is null or offset is negative.
+     */
+    public InputStream readFromFile(Path file, long offset) throws XenonException {
+
+        assertValidOffset(offset);
+
+        InputStream in = readFromFile(file);
+
+        try {
+            long skipped = 0;
+
+            while (skipped < offset) {
+                long n = in.skip(offset - skipped);
+
+                if (n <= 0) {
+                    // skip may return 0 without being at the end of the stream, so check by reading a single byte.
+                    if (in.read() < 0) {
+                        break;
+                    }
+                    n = 1;
+                }
+
+                skipped += n;
+            }
+        } catch (IOException e) {
+            try {
+                in.close();
+            } catch (IOException ex) {
+                // ignored
+            }
+            throw new XenonException(getAdaptorName(), "Failed to skip to offset " + offset + " in file: " + file, e);
+        }
+
+        return in;
+    }
+
+    /**
+     * Open an existing file and return an {@link OutputStream} that writes to this file starting at <code>offset</code> (optional operation).
+     * <p>
+     * The data in the file before <code>offset</code> is left untouched, and data written to the stream overwrites the existing data starting at
+     * <code>offset</code>. This allows an interrupted upload to be resumed, or part of an existing file to be replaced. Whether existing data beyond the
+     * written range is preserved depends on the adaptor, so not all adaptors can be used to write a file in several segments. The <code>offset</code> may not
+     * be larger than the current size of the file, so no gap is left in the file. An <code>offset</code> equal to the size appends to the file.
+     *
+     * This operation may not be supported by all implementations. Use {@link FileSystemAdaptorDescription#canWriteAtOffset()} to check.
+     * </p>
+     *
+     * @param file
+     *            the target file for the OutputStream.
+     * @param offset
+     *            the position in the file at which to start writing.
+     *
+     * @return the {@link OutputStream} to write to the file.
+     *
+     * @throws NoSuchPathException
+     *             if the file does not exist.
+     * @throws InvalidPathException
+     *             if not a regular file
+     * @throws NotConnectedException
+     *             If file system is closed.
+     * @throws XenonException
+     *             if an I/O error occurred.
+     * @throws IllegalArgumentException
+     *             If path is null, or offset is negative or larger than the size of the file.
+     * @throws UnsupportedOperationException
+     *             if the adaptor does not support writing at an offset
+     */
+    public OutputStream writeToFileAt(Path file, long offset) throws XenonException {
+        throw new UnsupportedOperationException(getAdaptorName(), "Writing at an offset is not supported");
+    }
+
+    /**
+     * Open an existing file and return a {@link SeekableByteChannel} for random access to this file.
+     * <p>
+     * The position of the returned channel can be changed freely, allowing the file to be read (and optionally written) at arbitrary positions without
+     * transferring the data in between.
+     *
+     * A read-only channel is supported by all adaptors. Adaptors that cannot access a file at an offset natively open a new stream and skip to the position
+     * where needed, which may be slow. Opening a channel for writing may not be supported by all implementations. Use
+     * {@link FileSystemAdaptorDescription#canOpenWritableChannel()} to check. To write to a new file, create it first using {@link #createFile(Path)}.
+     * </p>
+     *
+     * @param file
+     *            the file to open.
+     * @param write
+     *            if the channel should also support writing.
+     *
+     * @return the {@link SeekableByteChannel} to access the file.
+     *
+     * @throws NoSuchPathException
+     *             if the file does not exist.
+     * @throws InvalidPathException
+     *             if not a regular file
+     * @throws NotConnectedException
+     *             If file system is closed.
+     * @throws XenonException
+     *             if an I/O error occurred.
+     * @throws IllegalArgumentException
+     *             If path is null.
+     * @throws UnsupportedOperationException
+     *             if <code>write</code> is <code>true</code> and the adaptor does not support writable channels
+     */
+    public SeekableByteChannel openChannel(Path file, boolean write) throws XenonException {
+
+        if (write) {
+            throw new UnsupportedOperationException(getAdaptorName(), "Writable channels are not supported");
+        }
+
+        Path absFile = toAbsolutePath(file);
+
+        PathAttributes attributes = getAttributes(absFile);
+
+        if (!attributes.isRegular()) {
+            throw new InvalidPathException(getAdaptorName(), "Path is not a file: " + absFile);
+        }
+
+        return new StreamBackedByteChannel(this, absFile, attributes.getSize(), bufferSize);
+    }
+
+    /**
+     * Read (part of) an existing file into a {@link ByteBuffer}.
+     * <p>
+     * At most <code>length</code> bytes are read, starting at <code>offset</code>. Fewer bytes are returned if the end of the file is reached first. The
+     * returned buffer is positioned at 0 and its limit is set to the number of bytes read. The buffer may be read-only, and it may be a direct or memory
+     * mapped buffer, which allows large files to be processed without copying them onto the heap.
+     *
+     * This default implementation reads the data from {@link #readFromFile(Path, long)} into a heap buffer. Adaptors that can fill a buffer more efficiently
+     * re-implement this operation.
+     * </p>
+     *
+     * @param file
+     *            the file to read.
+     * @param offset
+     *            the position in the file at which to start reading.
+     * @param length
+     *            the maximum number of bytes to read.
+     *
+     * @return a {@link ByteBuffer} containing the data read.
+     *
+     * @throws NoSuchPathException
+     *             If the file does not exists.
+     * @throws InvalidPathException
+     *             If the file is not regular file.
+     * @throws NotConnectedException
+     *             If file system is closed.
+     * @throws XenonException
+     *             if an I/O error occurred.
+     * @throws IllegalArgumentException
+     *             If path is null, or offset or length is negative.
+     */
+    public ByteBuffer readToBuffer(Path file, long offset, int length) throws XenonException {
+
+        assertValidOffset(offset);
+        assertValidLength(length);
+
+        Path absFile = toAbsolutePath(file);
+
+        PathAttributes attributes = getAttributes(absFile);
+
+        if (!attributes.isRegular()) {
+            throw new InvalidPathException(getAdaptorName(), "Path is not a file: " + absFile);
+        }
+
+        long len = Math.max(0, Math.min(length, attributes.getSize() - offset));
+
+        byte[] data = new byte[(int) len];
+        int off = 0;
+
+        if (len > 0) {
+            try (InputStream in = readFromFile(absFile, offset)) {
+                while (off < data.length) {
+                    int n = in.read(data, off, data.length - off);
+
+                    if (n < 0) {
+                        break;
+                    }
+
+                    off += n;
+                }
+            } catch (IOException e) {
+                throw new XenonException(getAdaptorName(), "Failed to read from file: " + absFile, e);
+            }
+        }
+
+        return ByteBuffer.wrap(data, 0, off).slice();
+    }
+
+    /**
+     * Create a new file and write the remaining content of a {@link ByteBuffer} to it.
+     * <p>
+     * The file must not exist yet. All data between the position and limit of <code>data</code> is written, after which the position of <code>data</code>
+     * is equal to its limit. Direct buffers are supported, which allows data to be written without first copying it onto the heap.
+     *
+     * This default implementation writes the data to {@link #writeToFile(Path, long)}. Adaptors that can write a buffer more efficiently re-implement this
+     * operation.
+     * </p>
+     *
+     * @param file
+     *            the file to create.
+     * @param data
+     *            the data to write.
+     *
+     * @throws PathAlreadyExistsException
+     *             If the file already exists.
+     * @throws NoSuchPathException
+     *             If a parent directory does not exist.
+     * @throws NotConnectedException
+     *             If file system is closed.
+     * @throws XenonException
+     *             if an I/O error occurred.
+     * @throws IllegalArgumentException
+     *             If path or data is null.
+     */
+    public void writeFromBuffer(Path file, ByteBuffer data) throws XenonException {
+
+        if (data == null) {
+            throw new IllegalArgumentException("Data is null");
+        }
+
+        Path absFile = toAbsolutePath(file);
+
+        try (OutputStream out = writeToFile(absFile, data.remaining())) {
+            if (data.hasArray()) {
+                out.write(data.array(), data.arrayOffset() + data.position(), data.remaining());
+                data.position(data.limit());
+            } else {
+                byte[] buffer = new byte[Math.min(data.remaining(), bufferSize)];
+
+                while (data.hasRemaining()) {
+                    int n = Math.min(data.remaining(), buffer.length);
+                    data.get(buffer, 0, n);
+                    out.write(buffer, 0, n);
+                }
+            }
+        } catch (IOException e) {
+            throw new XenonException(getAdaptorName(), "Failed to write to file: " + absFile, e);
+        }
+    }
+
     /**
      * Get the {@link PathAttributes} of an existing path.
      *
@@ -958,6 +1257,179 @@ public abstract class FileSystem implements AutoCloseable {
      */
     public abstract void setPosixFilePermissions(Path path, Set<PosixFilePermission> permissions) throws XenonException;
 
+    /**
+     * Compute the checksum of a file.
+     *
+     * The algorithms <code>MD5</code>, <code>SHA-1</code>, <code>SHA-256</code> and <code>SHA-512</code> are always supported. Where possible the checksum
+     * is computed remotely, so the content of the file does not need to be transferred. Otherwise the file is read and the checksum is computed locally.
+     *
+     * @param file
+     *            the file to compute the checksum of.
+     * @param algorithm
+     *            the name of the checksum algorithm.
+     * @return the checksum as a lower case hexadecimal string.
+     *
+     * @throws NoSuchPathException
+     *             If the file does not exists.
+     * @throws InvalidPathException
+     *             If the path is not a regular file.
+     * @throws NotConnectedException
+     *             If file system is closed.
+     * @throws XenonException
+     *             if an I/O error occurred.
+     * @throws IllegalArgumentException
+     *             If file or algorithm is null, or the algorithm is not supported.
+     */
+    public String checksum(Path file, String algorithm) throws XenonException {
+        String name = ChecksumUtils.getCanonicalName(algorithm);
+        Path absFile = toAbsolutePath(file);
+        assertPathIsFile(absFile);
+        return computeChecksum(absFile, name);
+    }
+
+    /**
+     * Compute the checksums of all regular files in a directory.
+     *
+     * See {@link #checksum(Path, String)} for the supported algorithms. Adaptors may compute the checksums of all files at once remotely.
+     *
+     * @param dir
+     *            the directory containing the files.
+     * @param algorithm
+     *            the name of the checksum algorithm.
+     * @param recursive
+     *            should the checksums of files in subdirectories be included ?
+     * @return a map from absolute file path to checksum, as a lower case hexadecimal string.
+     *
+     * @throws NoSuchPathException
+     *             If the directory does not exists.
+     * @throws InvalidPathException
+     *             If the path is not a directory.
+     * @throws NotConnectedException
+     *             If file system is closed.
+     * @throws XenonException
+     *             if an I/O error occurred.
+     * @throws IllegalArgumentException
+     *             If dir or algorithm is null, or the algorithm is not supported.
+     */
+    public Map<Path, String> checksums(Path dir, String algorithm, boolean recursive) throws XenonException {
+        String name = ChecksumUtils.getCanonicalName(algorithm);
+        Path absDir = toAbsolutePath(dir);
+        assertDirectoryExists(absDir);
+        return checksumTree(absDir, name, recursive);
+    }
+
+    /**
+     * Watch a directory for changes.
+     *
+     * This is a shorthand for {@link #watch(Path, boolean, long, WatchListener)} with an interval of {@link #DEFAULT_WATCH_INTERVAL} milliseconds.
+     *
+     * @param dir
+     *            the directory to watch.
+     * @param recursive
+     *            should changes in subdirectories be included ?
+     * @param listener
+     *            the {@link WatchListener} that receives the changes.
+     * @return the identifier of the watch, to be passed to {@link #cancelWatch(String)}.
+     *
+     * @throws NoSuchPathException
+     *             If the directory does not exists.
+     * @throws InvalidPathException
+     *             If the path is not a directory.
+     * @throws NotConnectedException
+     *             If file system is closed.
+     * @throws XenonException
+     *             if an I/O error occurred.
+     * @throws IllegalArgumentException
+     *             If dir or listener is null.
+     */
+    public String watch(Path dir, boolean recursive, WatchListener listener) throws XenonException {
+        return watch(dir, recursive, DEFAULT_WATCH_INTERVAL, listener);
+    }
+
+    /**
+     * Watch a directory for changes.
+     *
+     * The listener receives a {@link WatchEvent} for every path in the directory that is created, modified or deleted, until the watch is cancelled using
+     * {@link #cancelWatch(String)} or the FileSystem is closed. Changes are reported relative to the state of the directory when this method returns.
+     *
+     * Adaptors that receive change notifications from the underlying file system (such as the local adaptor) deliver changes as they happen. Other adaptors
+     * list the directory every <code>interval</code> milliseconds and report the differences with the previous listing. A file is then considered modified
+     * if its size or modification time changed, and changes that are undone within a single interval are not reported.
+     *
+     * @param dir
+     *            the directory to watch.
+     * @param recursive
+     *            should changes in subdirectories be included ?
+     * @param interval
+     *            the time between two listings of the directory in milliseconds, if the adaptor needs to poll for changes.
+     * @param listener
+     *            the {@link WatchListener} that receives the changes.
+     * @return the identifier of the watch, to be passed to {@link #cancelWatch(String)}.
+     *
+     * @throws NoSuchPathException
+     *             If the directory does not exists.
+     * @throws InvalidPathException
+     *             If the path is not a directory.
+     * @throws NotConnectedException
+     *             If file system is closed.
+     * @throws XenonException
+     *             if an I/O error occurred.
+     * @throws IllegalArgumentException
+     *             If dir or listener is null, or interval is not positive.
+     */
+    public String watch(Path dir, boolean recursive, long interval, WatchListener listener) throws XenonException {
+
+        if (listener == null) {
+            throw new IllegalArgumentException("Listener may not be null");
+        }
+
+        if (interval <= 0) {
+            throw new IllegalArgumentException("Interval must be positive: " + interval);
+        }
+
+        Path absDir = toAbsolutePath(dir);
+        assertIsOpen();
+        assertDirectoryExists(absDir);
+
+        Watcher watcher = startWatch(absDir, recursive, interval, listener);
+
+        synchronized (this) {
+            String watchID = "WATCH-" + getAdaptorName() + "-" + nextWatchID++;
+            watchers.put(watchID, watcher);
+            return watchID;
+        }
+    }
+
+    /**
+     * Cancel a watch. No events are delivered after this method returns, except for an event that is being delivered at that moment.
+     *
+     * @param watchIdentifier
+     *            the identifier of the watch to cancel.
+     *
+     * @throws NoSuchWatchException
+     *             If the watch is not known.
+     * @throws IllegalArgumentException
+     *             If the watchIdentifier is null.
+     */
+    public void cancelWatch(String watchIdentifier) throws NoSuchWatchException {
+
+        if (watchIdentifier == null) {
+            throw new IllegalArgumentException("Watch identifier may not be null");
+        }
+
+        Watcher watcher;
+
+        synchronized (this) {
+            watcher = watchers.remove(watchIdentifier);
+        }
+
+        if (watcher == null) {
+            throw new NoSuchWatchException(getAdaptorName(), "Watch not found: " + watchIdentifier);
+        }
+
+        watcher.stop();
+    }
+
     /**
      * Convert the provided path to an absolute path by (if necessary) resolving a relative path against the working directory of this FileSystem. The resulting
      * path is also normalized.
@@ -1069,6 +1541,7 @@ public abstract class FileSystem implements AutoCloseable {
             case IGNORE:
                 return;
             case REPLACE:
+            case SYNC:
                 // continue
                 break;
             }
@@ -1107,6 +1580,30 @@ public abstract class FileSystem implements AutoCloseable {
      */
     protected void copyFile(Path source, FileSystem destinationFS, Path destination, CopyMode mode, CopyCallback callback) throws XenonException {
 
+        String verify = null;
+
+        if (mode == CopyMode.SYNC) {
+            if (destinationFS.exists(destination) && isSameContent(source, destinationFS, destination)) {
+                return;
+            }
+
+            // The destination is missing or out of date, so it is replaced. When the destination can compute a checksum itself, we use this to verify
+            // the copy against a digest computed while streaming the data, so the data is only read once.
+            mode = CopyMode.REPLACE;
+            verify = getFirst(destinationFS.getNativeChecksumAlgorithms());
+        }
+
+        if (callback.isCancelled()) {
+            throw new CopyCancelledException(getAdaptorName(), "Copy cancelled by user");
+        }
+
+        long copied = nativeCopyFile(source, destinationFS, destination, mode);
+
+        if (copied >= 0) {
+            callback.addBytesCopied(copied);
+            return;
+        }
+
         PathAttributes attributes = getAttributes(source);
 
         if (!attributes.isRegular()) {
@@ -1132,12 +1629,239 @@ public abstract class FileSystem implements AutoCloseable {
             throw new CopyCancelledException(getAdaptorName(), "Copy cancelled by user");
         }
 
-        try (InputStream in = readFromFile(source); OutputStream out = destinationFS.writeToFile(destination, attributes.getSize())) {
-            streamCopy(in, out, bufferSize, callback);
+        MessageDigest digest = verify == null ? null : ChecksumUtils.createDigest(verify);
+
+        try (InputStream in = readFromFileForCopy(source, attributes); OutputStream out = destinationFS.writeToFile(destination, attributes.getSize())) {
+            streamCopy(digest == null ? in : new DigestInputStream(in, digest), out, bufferSize, callback);
         } catch (Exception e) {
             throw new XenonException(getAdaptorName(), "Stream copy failed", e);
         }
 
+        if (digest != null) {
+            String expected = ChecksumUtils.toHex(digest.digest());
+            String actual = destinationFS.nativeChecksum(destination, verify);
+
+            if (actual != null && !actual.equals(expected)) {
+                throw new XenonException(getAdaptorName(), "Checksum of copy does not match source: " + destination);
+            }
+        }
+    }
+
+    private static String getFirst(List<String> list) {
+        return list.isEmpty() ? null : list.get(0);
+    }
+
+    /**
+     * Check if an existing destination file has the same content as a source file, without reading the content of either file.
+     *
+     * The sizes of the files are compared first. If both file systems can compute a checksum with the same algorithm natively, these checksums are compared.
+     * Otherwise the files are considered the same if the destination was modified no earlier than the source, like the quick check performed by
+     * <code>rsync</code>.
+     *
+     * @param source
+     *            the source file.
+     * @param destinationFS
+     *            the destination {@link FileSystem}.
+     * @param destination
+     *            the existing destination file.
+     * @return if the destination is a regular file that has the same content as the source.
+     * @throws XenonException
+     *             if the attributes or checksums could not be retrieved.
+     */
+    protected boolean isSameContent(Path source, FileSystem destinationFS, Path destination) throws XenonException {
+
+        PathAttributes src = getAttributes(source);
+        PathAttributes dst = destinationFS.getAttributes(destination);
+
+        if (!dst.isRegular() || src.getSize() != dst.getSize()) {
+            return false;
+        }
+
+        List<String> algorithms = destinationFS.getNativeChecksumAlgorithms();
+
+        for (String algorithm : getNativeChecksumAlgorithms()) {
+            if (algorithms.contains(algorithm)) {
+                String sourceChecksum = nativeChecksum(source, algorithm);
+
+                if (sourceChecksum != null) {
+                    String destinationChecksum = destinationFS.nativeChecksum(destination, algorithm);
+
+                    if (destinationChecksum != null) {
+                        return sourceChecksum.equals(destinationChecksum);
+                    }
+                }
+            }
+        }
+
+        return dst.getLastModifiedTime() >= src.getLastModifiedTime();
+    }
+
+    /**
+     * Copy a single file to another file system without streaming the data through Xenon (optional operation).
+     *
+     * This operation may be re-implemented by adaptors that can copy a file directly, for example because the source and destination are on the same
+     * (local) file system. The implementation must perform the same checks as {@link #copyFile(Path, FileSystem, Path, CopyMode, CopyCallback)}. This default
+     * implementation does not support native copies for any destination.
+     *
+     * A native copy cannot be cancelled once it has started, and its progress is only reported when it has finished.
+     *
+     * @param source
+     *            the file to copy.
+     * @param destinationFS
+     *            the destination {@link FileSystem} to copy to.
+     * @param destination
+     *            the destination file on the destination file system.
+     * @param mode
+     *            selects what should happen if the destination file already exists
+     * @return the number of bytes copied, or -1 if a native copy to <code>destinationFS</code> is not supported.
+     * @throws InvalidPathException
+     *             if the provide source is not a regular file.
+     * @throws NoSuchPathException
+     *             if the source file does not exist or the destination parent directory does not exist.
+     * @throws PathAlreadyExistsException
+     *             if the destination file already exists.
+     * @throws XenonException
+     *             If the file could not be copied.
+     */
+    protected long nativeCopyFile(Path source, FileSystem destinationFS, Path destination, CopyMode mode) throws XenonException {
+        return -1;
+    }
+
+    /**
+     * Compute the checksum of a file without transferring its content (optional operation).
+     *
+     * This operation may be re-implemented by adaptors that can let the server compute a checksum, or can compute it more efficiently than by reading the
+     * file through {@link #readFromFile(Path)}. This default implementation does not support any algorithm.
+     *
+     * @param file
+     *            the absolute path of an existing regular file.
+     * @param algorithm
+     *            the name of the algorithm, as returned by {@link ChecksumUtils#getCanonicalName(String)}.
+     * @return the checksum as a lower case hexadecimal string, or <code>null</code> if it cannot be computed natively.
+     * @throws XenonException
+     *             if an I/O error occurred.
+     */
+    protected String nativeChecksum(Path file, String algorithm) throws XenonException {
+        return null;
+    }
+
+    /**
+     * Get the algorithms for which {@link #nativeChecksum(Path, String)} may return a checksum, in order of preference. This default implementation returns
+     * an empty list.
+     *
+     * @return the algorithms supported by {@link #nativeChecksum(Path, String)}.
+     */
+    protected List<String> getNativeChecksumAlgorithms() {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Compute the checksums of all regular files in a directory.
+     *
+     * This operation may be re-implemented by adaptors that can compute the checksums of many files at once, for example with a single remote command.
+     * This default implementation lists the directory and computes the checksum of each file in turn.
+     *
+     * @param dir
+     *            the absolute path of an existing directory.
+     * @param algorithm
+     *            the name of the algorithm, as returned by {@link ChecksumUtils#getCanonicalName(String)}.
+     * @param recursive
+     *            should the checksums of files in subdirectories be included ?
+     * @return a map from absolute file path to checksum.
+     * @throws XenonException
+     *             if an I/O error occurred.
+     */
+    protected Map<Path, String> checksumTree(Path dir, String algorithm, boolean recursive) throws XenonException {
+
+        ArrayList<PathAttributes> listing = new ArrayList<>();
+        list(dir, listing, recursive);
+
+        Map<Path, String> result = new LinkedHashMap<>();
+
+        for (PathAttributes p : listing) {
+            if (p.isRegular()) {
+                result.put(p.getPath(), computeChecksum(p.getPath(), algorithm));
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Compute the checksum of a file, natively if possible and by reading the file otherwise.
+     *
+     * @param file
+     *            the absolute path of an existing regular file.
+     * @param algorithm
+     *            the name of the algorithm, as returned by {@link ChecksumUtils#getCanonicalName(String)}.
+     * @return the checksum as a lower case hexadecimal string.
+     * @throws XenonException
+     *             if an I/O error occurred.
+     */
+    protected String computeChecksum(Path file, String algorithm) throws XenonException {
+
+        String result = nativeChecksum(file, algorithm);
+
+        if (result != null) {
+            return result;
+        }
+
+        try (InputStream in = readFromFile(file)) {
+            return ChecksumUtils.checksum(in, algorithm, bufferSize);
+        } catch (IOException e) {
+            throw new XenonException(getAdaptorName(), "Failed to compute checksum of " + file, e);
+        }
+    }
+
+    /**
+     * Start delivering the changes to a directory to a listener.
+     *
+     * This operation may be re-implemented by adaptors that receive change notifications from the underlying file system. This default implementation
+     * returns a {@link Watcher} that polls the directory using {@link #list(Path, ArrayList, boolean)}, on a thread shared by all watches of this
+     * FileSystem.
+     *
+     * @param dir
+     *            the absolute path of an existing directory.
+     * @param recursive
+     *            should changes in subdirectories be included ?
+     * @param interval
+     *            the time between two listings of the directory in milliseconds.
+     * @param listener
+     *            the {@link WatchListener} that receives the changes.
+     * @return a {@link Watcher} that delivers the changes until it is stopped.
+     * @throws XenonException
+     *             if the watch could not be started.
+     */
+    protected Watcher startWatch(Path dir, boolean recursive, long interval, WatchListener listener) throws XenonException {
+        return new PollingWatcher(this, dir, recursive, listener, getWatchPool(), interval);
+    }
+
+    private synchronized ScheduledExecutorService getWatchPool() {
+
+        if (watchPool == null) {
+            watchPool = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("WatchThread." + uniqueID));
+        }
+
+        return watchPool;
+    }
+
+    /**
+     * Open an existing file for reading its entire content as part of a copy.
+     *
+     * This operation may be re-implemented by adaptors that can retrieve a complete file more efficiently than through
+     * {@link #readFromFile(Path)}, for example by fetching several parts of the file in parallel. This default implementation simply returns
+     * <code>readFromFile(source)</code>.
+     *
+     * @param source
+     *            the file to read.
+     * @param attributes
+     *            the attributes of <code>source</code>, as retrieved at the start of the copy.
+     * @return an {@link InputStream} to read the content of the file.
+     * @throws XenonException
+     *             if the file could not be opened.
+     */
+    protected InputStream readFromFileForCopy(Path source, PathAttributes attributes) throws XenonException {
+        return readFromFile(source);
     }
 
     /**
@@ -1195,6 +1919,7 @@ public abstract class FileSystem implements AutoCloseable {
             case IGNORE:
                 return;
             case REPLACE:
+            case SYNC:
                 // continue
                 break;
             }
@@ -1235,6 +1960,7 @@ public abstract class FileSystem implements AutoCloseable {
                         case CREATE:
                             throw new PathAlreadyExistsException(getAdaptorName(), "Directory already exists: " + dst);
                         case REPLACE:
+                        case SYNC:
                             break; // leave directory
                         case IGNORE:
                             return; // ignore subdir
@@ -1603,6 +2329,18 @@ public abstract class FileSystem implements AutoCloseable {
         }
     }
 
+    protected void assertValidOffset(long offset) {
+        if (offset < 0) {
+            throw new IllegalArgumentException("Offset may not be negative: " + offset);
+        }
+    }
+
+    protected void assertValidLength(long length) {
+        if (length < 0) {
+            throw new IllegalArgumentException("Length may not be negative: " + length);
+        }
+    }
+
     protected void assertPathExists(Path path) throws XenonException {
 
         assertNotNull(path);
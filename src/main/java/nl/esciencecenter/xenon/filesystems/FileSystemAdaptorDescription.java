@@ -62,4 +62,20 @@ public interface FileSystemAdaptorDescription extends AdaptorDescription {
     boolean canAppend();
 
     boolean needsSizeBeforehand();
+
+    /**
+     * Can this adaptor write to an existing file starting at an offset ?
+     *
+     * @return
+     *          if this adaptor supports {@link FileSystem#writeToFileAt(Path, long)}.
+     */
+    boolean canWriteAtOffset();
+
+    /**
+     * Can this adaptor open a channel that supports random access writes ?
+     *
+     * @return
+     *          if this adaptor supports {@link FileSystem#openChannel(Path, boolean)} with <code>write</code> set to <code>true</code>.
+     */
+    boolean canOpenWritableChannel();
 }
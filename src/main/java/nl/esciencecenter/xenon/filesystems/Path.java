@@ -17,16 +17,15 @@ package nl.esciencecenter.xenon.filesystems;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
-import java.util.StringTokenizer;
 
 /**
  * Path contains a sequence of path elements separated by a separator.
  *
- * It is designed to be immutable.
+ * It is designed to be immutable. Each Path refers to the Path containing all but its last element, so paths derived from each other (using
+ * {@link #getParent()} or {@link #resolve(Path)}) share their common prefix instead of copying it.
  *
  * @version 1.0
  * @since 1.0
@@ -36,24 +35,37 @@ public class Path implements Iterable<Path> {
     /** The default separator to use. */
     public static final char DEFAULT_SEPARATOR = '/';
 
-    /** The path elements in this path */
-    private final List<String> elements;
+    /** The path containing all elements of this path except the last one, or <code>null</code> if this path has less than two elements */
+    private final Path prefix;
+
+    /** The last element of this path, or <code>null</code> if this path is empty */
+    private final String name;
+
+    /** The number of elements in this path */
+    private final int count;
 
     /** The separator used in this path */
     private final char separator;
 
     /** Does path start with / ? **/
-    private boolean isAbsolute;
+    private final boolean isAbsolute;
+
+    /** Is this path free of redundant "." and ".." elements, so normalizing it has no effect ? */
+    private final boolean isNormal;
 
-    /** Estimate of path element String length. */
-    private static final int PATH_ELEMENT_LENGTH = 25;
+    /** The hash code of the path elements, as computed by {@link List#hashCode()} */
+    private final int elementsHash;
+
+    /** The String representation of this path, created when first needed */
+    private String string;
 
     private class PathIterator implements Iterator<Path> {
-        private int index = 1;
+        private final Path[] paths = getPrefixes();
+        private int index = 0;
 
         @Override
         public boolean hasNext() {
-            return index <= elements.size();
+            return index < paths.length;
         }
 
         @Override
@@ -62,7 +74,7 @@ public class Path implements Iterable<Path> {
                 throw new NoSuchElementException("No more elements available!");
             }
 
-            return subpath(0, index++);
+            return paths[index++];
         }
 
         @Override
@@ -75,7 +87,7 @@ public class Path implements Iterable<Path> {
      * Create a new empty Path using the default separator.
      */
     public Path() {
-        this(DEFAULT_SEPARATOR, false, new ArrayList<String>(0));
+        this(DEFAULT_SEPARATOR, false, null, null);
     }
 
     /**
@@ -103,22 +115,7 @@ public class Path implements Iterable<Path> {
      *            the path to parse
      */
     public Path(char separator, String path) {
-
-        this.separator = separator;
-
-        if (path == null || path.isEmpty()) {
-            this.isAbsolute = false;
-            this.elements = new ArrayList<>(0);
-        } else {
-            this.isAbsolute = (path.indexOf(separator) == 0);
-            StringTokenizer tok = new StringTokenizer(path, "" + separator);
-
-            this.elements = new ArrayList<>(tok.countTokens());
-
-            while (tok.hasMoreTokens()) {
-                this.elements.add(tok.nextToken());
-            }
-        }
+        this(split(separator, path), separator, path != null && !path.isEmpty() && path.charAt(0) == separator);
     }
 
     /**
@@ -133,7 +130,7 @@ public class Path implements Iterable<Path> {
      *            the path elements to use.
      */
     public Path(boolean isAbsolute, String... elements) {
-        this(isAbsolute, elements == null ? new ArrayList<String>(0) : Arrays.asList(elements));
+        this(DEFAULT_SEPARATOR, isAbsolute, elements);
     }
 
     /**
@@ -150,7 +147,7 @@ public class Path implements Iterable<Path> {
      *            the path elements to use.
      */
     public Path(char separator, boolean isAbsolute, String... elements) {
-        this(separator, isAbsolute, elements == null ? new ArrayList<String>(0) : Arrays.asList(elements));
+        this(checkElements(separator, elements == null ? null : Arrays.asList(elements)), separator, isAbsolute);
     }
 
     /**
@@ -182,33 +179,199 @@ public class Path implements Iterable<Path> {
      *            the path elements to use.
      */
     public Path(char separator, boolean isAbsolute, List<String> elements) {
+        this(checkElements(separator, elements), separator, isAbsolute);
+    }
+
+    /*
+     * Create a Path from an array of valid elements. The elements are linked into a chain of prefixes, the last of which becomes this path.
+     */
+    private Path(String[] elements, char separator, boolean isAbsolute) {
+        this(separator, isAbsolute, chain(separator, isAbsolute, elements, elements.length - 1), elements.length == 0 ? null : elements[elements.length - 1]);
+    }
+
+    /*
+     * Create a Path consisting of prefix followed by name. The prefix must be null or a non-empty path with the same separator and absoluteness. The name
+     * must be a valid element, or null to create an empty path.
+     */
+    private Path(char separator, boolean isAbsolute, Path prefix, String name) {
         this.separator = separator;
         this.isAbsolute = isAbsolute;
-        this.elements = checkForNullAndSeparator(separator, elements);
+        this.prefix = prefix;
+        this.name = name;
+
+        if (name == null) {
+            count = 0;
+            isNormal = true;
+            elementsHash = 1;
+        } else if (prefix == null) {
+            count = 1;
+            isNormal = !".".equals(name);
+            elementsHash = 31 + name.hashCode();
+        } else {
+            count = prefix.count + 1;
+            // A ".." is only kept by normalize when it follows another "..".
+            isNormal = prefix.isNormal && !".".equals(name) && (!"..".equals(name) || "..".equals(prefix.name));
+            elementsHash = 31 * prefix.elementsHash + name.hashCode();
+        }
     }
 
-    protected static List<String> checkForNullAndSeparator(char separator, List<String> elements) {
+    private static Path chain(char separator, boolean isAbsolute, String[] elements, int length) {
 
-        ArrayList<String> result = new ArrayList<String>(0);
+        Path result = null;
 
-        if (elements == null || elements.isEmpty()) {
-            return result;
+        for (int i = 0; i < length; i++) {
+            result = new Path(separator, isAbsolute, result, elements[i]);
         }
 
-        for (String s : elements) {
-            if (s == null) {
-                throw new IllegalArgumentException("Path elements list contains null");
+        return result;
+    }
+
+    private static String[] split(char separator, String path) {
+
+        if (path == null || path.isEmpty()) {
+            return new String[0];
+        }
+
+        ArrayList<String> result = new ArrayList<>();
+
+        int start = 0;
+
+        while (start < path.length()) {
+            int end = path.indexOf(separator, start);
+
+            if (end < 0) {
+                end = path.length();
             }
 
-            if (s.isEmpty()) {
-                throw new IllegalArgumentException("Path elements list contains an empty element");
+            if (end > start) {
+                result.add(path.substring(start, end));
             }
 
-            if (s.indexOf(separator) != -1) {
-                throw new IllegalArgumentException("Path element " + s + " contains separator '" + separator + "'");
+            start = end + 1;
+        }
+
+        return result.toArray(new String[result.size()]);
+    }
+
+    private static void checkElement(char separator, String s) {
+
+        if (s == null) {
+            throw new IllegalArgumentException("Path elements list contains null");
+        }
+
+        if (s.isEmpty()) {
+            throw new IllegalArgumentException("Path elements list contains an empty element");
+        }
+
+        if (s.indexOf(separator) != -1) {
+            throw new IllegalArgumentException("Path element " + s + " contains separator '" + separator + "'");
+        }
+    }
+
+    private static String[] checkElements(char separator, List<String> elements) {
+
+        if (elements == null || elements.isEmpty()) {
+            return new String[0];
+        }
+
+        String[] result = elements.toArray(new String[elements.size()]);
+
+        for (String s : result) {
+            checkElement(separator, s);
+        }
+
+        return result;
+    }
+
+    protected static List<String> checkForNullAndSeparator(char separator, List<String> elements) {
+        return new ArrayList<>(Arrays.asList(checkElements(separator, elements)));
+    }
+
+    /**
+     * Return the elements of this path as an array.
+     */
+    private String[] getElements() {
+
+        String[] result = new String[count];
+
+        for (Path p = count == 0 ? null : this; p != null; p = p.prefix) {
+            result[p.count - 1] = p.name;
+        }
+
+        return result;
+    }
+
+    /**
+     * Return the non-empty prefixes of this path (including this path itself), in order of increasing length.
+     */
+    private Path[] getPrefixes() {
+
+        Path[] result = new Path[count];
+
+        for (Path p = count == 0 ? null : this; p != null; p = p.prefix) {
+            result[p.count - 1] = p;
+        }
+
+        return result;
+    }
+
+    /**
+     * Return the prefix of this path containing the first <code>length</code> elements. The length must be at least 1 and at most the number of elements.
+     */
+    private Path getPrefix(int length) {
+
+        Path result = this;
+
+        while (result.count > length) {
+            result = result.prefix;
+        }
+
+        return result;
+    }
+
+    /**
+     * Check if a and b contain the same elements. Both must contain the same number of elements.
+     */
+    private static boolean sameElements(Path a, Path b) {
+
+        if (a.count == 0) {
+            return true;
+        }
+
+        // Stop as soon as both paths share the remaining prefix.
+        while (a != b) {
+            if (!a.name.equals(b.name)) {
+                return false;
             }
 
-            result.add(s);
+            a = a.prefix;
+            b = b.prefix;
+        }
+
+        return true;
+    }
+
+    /**
+     * Create a new Path by appending one (valid) element to this path.
+     */
+    private Path append(String element) {
+        return new Path(separator, isAbsolute, count == 0 ? null : this, element);
+    }
+
+    /**
+     * Create a new Path by appending elements <code>begin</code> (inclusive) to <code>end</code> (exclusive) to this path. The elements are checked against
+     * the separator of this path if they originate from a path with a different separator.
+     */
+    private Path append(String[] elements, int begin, int end, boolean check) {
+
+        Path result = this;
+
+        for (int i = begin; i < end; i++) {
+            if (check) {
+                checkElement(separator, elements[i]);
+            }
+
+            result = result.append(elements[i]);
         }
 
         return result;
@@ -226,7 +389,7 @@ public class Path implements Iterable<Path> {
             return null;
         }
 
-        return new Path(separator, getFileNameAsString());
+        return new Path(separator, false, null, name);
     }
 
     /**
@@ -237,11 +400,7 @@ public class Path implements Iterable<Path> {
      * @return the resulting file name or <code>null</code>.
      */
     public String getFileNameAsString() {
-        if (isEmpty()) {
-            return null;
-        }
-
-        return elements.get(elements.size() - 1);
+        return name;
     }
 
     /**
@@ -261,11 +420,7 @@ public class Path implements Iterable<Path> {
      * @return a Path representing this Paths parent.
      */
     public Path getParent() {
-        if (isEmpty() || elements.size() == 1) {
-            return null;
-        }
-
-        return new Path(separator, isAbsolute, elements.subList(0, elements.size() - 1));
+        return prefix;
     }
 
     /**
@@ -274,7 +429,7 @@ public class Path implements Iterable<Path> {
      * @return the number of elements in the Path, or 0 if this path is empty.
      */
     public int getNameCount() {
-        return elements.size();
+        return count;
     }
 
     /**
@@ -289,8 +444,15 @@ public class Path implements Iterable<Path> {
      *             If the index is negative or greater or equal to the number of elements in the path.
      */
     public Path getName(int index) {
-        boolean alsoAbsolute = (index == 0 && isAbsolute);
-        return new Path(separator, alsoAbsolute, Collections.singletonList(elements.get(index)));
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + count);
+        }
+
+        if (index == 0) {
+            return getPrefix(1);
+        }
+
+        return new Path(separator, false, null, getPrefix(index + 1).name);
     }
 
     /**
@@ -312,8 +474,20 @@ public class Path implements Iterable<Path> {
         if (beginIndex == endIndex) {
             throw new IllegalArgumentException("beginIndex " + beginIndex + " equal to endIndex " + endIndex);
         }
-        boolean alsoAbsolute = beginIndex == 0 && isAbsolute;
-        return new Path(separator, alsoAbsolute, elements.subList(beginIndex, endIndex));
+
+        if (beginIndex < 0 || endIndex > count) {
+            throw new ArrayIndexOutOfBoundsException("Range [" + beginIndex + ", " + endIndex + ") out of bounds for " + count + " elements");
+        }
+
+        if (beginIndex > endIndex) {
+            throw new IllegalArgumentException("beginIndex " + beginIndex + " larger than endIndex " + endIndex);
+        }
+
+        if (beginIndex == 0) {
+            return getPrefix(endIndex);
+        }
+
+        return new Path(separator, false, null, null).append(getElements(), beginIndex, endIndex, false);
     }
 
     /**
@@ -331,7 +505,7 @@ public class Path implements Iterable<Path> {
      * @return If this Path start with the name elements in the other Path and has the same absoluteness.
      */
     public boolean startsWith(Path other) {
-        return other.isAbsolute == isAbsolute && other.elements.size() <= elements.size() && elements.subList(0, other.elements.size()).equals(other.elements);
+        return other.isAbsolute == isAbsolute && other.count <= count && (other.count == 0 || sameElements(getPrefix(other.count), other));
     }
 
     /**
@@ -349,9 +523,21 @@ public class Path implements Iterable<Path> {
         if (other.isAbsolute) {
             return equals(other);
         }
-        int offset = elements.size() - other.elements.size();
 
-        return other.elements.size() <= elements.size() && this.elements.subList(offset, elements.size()).equals(other.elements);
+        if (other.count > count) {
+            return false;
+        }
+
+        Path a = this;
+
+        for (Path b = other.count == 0 ? null : other; b != null; b = b.prefix) {
+            if (!a.name.equals(b.name)) {
+                return false;
+            }
+            a = a.prefix;
+        }
+
+        return true;
     }
 
     /**
@@ -399,10 +585,16 @@ public class Path implements Iterable<Path> {
             return this;
         }
 
-        ArrayList<String> tmp = new ArrayList<>(elements.size() + other.elements.size());
-        tmp.addAll(elements);
-        tmp.addAll(other.elements);
-        return new Path(separator, isAbsolute, tmp);
+        boolean check = other.separator != separator;
+
+        if (other.count == 1) {
+            if (check) {
+                checkElement(separator, other.name);
+            }
+            return append(other.name);
+        }
+
+        return append(other.getElements(), 0, other.count, check);
     }
 
     /**
@@ -421,7 +613,26 @@ public class Path implements Iterable<Path> {
             return this;
         }
 
-        return resolve(new Path(separator, other));
+        // Append the elements directly instead of creating an intermediate Path.
+        Path result = this;
+
+        int start = 0;
+
+        while (start < other.length()) {
+            int end = other.indexOf(separator, start);
+
+            if (end < 0) {
+                end = other.length();
+            }
+
+            if (end > start) {
+                result = result.append(other.substring(start, end));
+            }
+
+            start = end + 1;
+        }
+
+        return result;
     }
 
     /**
@@ -430,7 +641,7 @@ public class Path implements Iterable<Path> {
      * @return If this Path is empty.
      */
     public boolean isEmpty() {
-        return elements.isEmpty();
+        return count == 0;
     }
 
     /**
@@ -459,7 +670,11 @@ public class Path implements Iterable<Path> {
             }
         }
 
-        return getParent().resolve(other);
+        if (prefix == null) {
+            return new Path(separator, isAbsolute, null, null).resolve(other);
+        }
+
+        return prefix.resolve(other);
     }
 
     /**
@@ -480,20 +695,21 @@ public class Path implements Iterable<Path> {
             return other;
         }
 
-        List<String> normalized = normalize().elements;
-        List<String> normalizedOther = other.normalize().elements;
+        Path normalized = normalize();
+        Path normalizedOther = other.normalize();
 
         // The source may not be longer that target
-        if (normalized.size() > normalizedOther.size()) {
+        if (normalized.count > normalizedOther.count) {
             throw new IllegalArgumentException("Cannot relativize " + other + " to " + this);
         }
 
         // Source and target must have the same start.
-        if (!normalizedOther.subList(0, normalized.size()).equals(normalized)) {
+        if (normalized.count > 0 && !sameElements(normalizedOther.getPrefix(normalized.count), normalized)) {
             throw new IllegalArgumentException("Cannot relativize " + other + " to " + this);
         }
 
-        return new Path(separator, false, normalizedOther.subList(normalized.size(), normalizedOther.size()));
+        return new Path(separator, false, null, null).append(normalizedOther.getElements(), normalized.count, normalizedOther.count,
+                normalizedOther.separator != separator);
     }
 
     /**
@@ -507,38 +723,6 @@ public class Path implements Iterable<Path> {
         return new PathIterator();
     }
 
-    /**
-     * Return a <code>String</code> representation of this Path interpreted as a relative path.
-     *
-     * A relative path does not start with a separator.
-     *
-     * @return a String representation of this Path interpreted as a relative path.
-     */
-    private String getRelativePath() {
-        StringBuilder tmp = new StringBuilder(elements.size() * PATH_ELEMENT_LENGTH);
-
-        String sep = "";
-
-        for (String element : elements) {
-            tmp.append(sep);
-            tmp.append(element);
-            sep = String.valueOf(separator);
-        }
-
-        return tmp.toString();
-    }
-
-    /**
-     * Return a <code>String</code> representation of this Path interpreted as an absolute path.
-     *
-     * An absolute path starts with a separator.
-     *
-     * @return a String representation of this path interpreted as an absolute path.
-     */
-    private String getAbsolutePath() {
-        return separator + getRelativePath();
-    }
-
     /**
      * Normalize this Path by removing as many redundant path elements as possible.
      *
@@ -549,11 +733,11 @@ public class Path implements Iterable<Path> {
      * @return the normalize path.
      */
     public Path normalize() {
-        if (isEmpty()) {
+        if (isNormal) {
             return this;
         }
 
-        ArrayList<String> stack = new ArrayList<>(elements);
+        ArrayList<String> stack = new ArrayList<>(Arrays.asList(getElements()));
 
         boolean change = true;
 
@@ -581,7 +765,7 @@ public class Path implements Iterable<Path> {
             }
         }
 
-        return new Path(separator, isAbsolute, stack);
+        return new Path(stack.toArray(new String[stack.size()]), separator, isAbsolute);
     }
 
     /* Generated */
@@ -589,7 +773,7 @@ public class Path implements Iterable<Path> {
     public int hashCode() {
         final int prime = 31;
         int result = 1;
-        result = prime * result + elements.hashCode();
+        result = prime * result + elementsHash;
         result = prime * result + separator;
         return result;
     }
@@ -605,17 +789,49 @@ public class Path implements Iterable<Path> {
         }
 
         Path other = (Path) obj;
-        return isAbsolute == other.isAbsolute && separator == other.separator && elements.equals(other.elements);
+        return isAbsolute == other.isAbsolute && separator == other.separator && count == other.count && elementsHash == other.elementsHash
+                && sameElements(this, other);
     }
 
     @Override
     public String toString() {
 
-        if (isAbsolute) {
-            return getAbsolutePath();
-        } else {
-            return getRelativePath();
+        String result = string;
+
+        if (result == null) {
+            result = createString();
+            string = result;
         }
+
+        return result;
+    }
+
+    private String createString() {
+
+        if (count == 0) {
+            return isAbsolute ? String.valueOf(separator) : "";
+        }
+
+        int length = isAbsolute ? count : count - 1;
+
+        for (Path p = this; p != null; p = p.prefix) {
+            length += p.name.length();
+        }
+
+        // Fill the characters from the end, as the elements are linked from the end.
+        char[] result = new char[length];
+        int pos = length;
+
+        for (Path p = this; p != null; p = p.prefix) {
+            pos -= p.name.length();
+            p.name.getChars(0, p.name.length(), result, pos);
+
+            if (pos > 0) {
+                result[--pos] = separator;
+            }
+        }
+
+        return new String(result);
     }
 
     public boolean isAbsolute() {
@@ -623,10 +839,16 @@ public class Path implements Iterable<Path> {
     }
 
     public Path toRelativePath() {
-        return new Path(separator, false, elements);
+        if (!isAbsolute) {
+            return this;
+        }
+        return new Path(getElements(), separator, false);
     }
 
     public Path toAbsolutePath() {
-        return new Path(separator, true, elements);
+        if (isAbsolute) {
+            return this;
+        }
+        return new Path(getElements(), separator, true);
     }
 }
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.filesystems;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import nl.esciencecenter.xenon.XenonException;
+import nl.esciencecenter.xenon.adaptors.NotConnectedException;
+import nl.esciencecenter.xenon.adaptors.filesystems.Watcher;
+
+/**
+ * A Watcher that detects changes by periodically listing a directory and comparing the listing to the previous one.
+ *
+ * Each poll performs a single listing through {@link FileSystem#list(Path, ArrayList, boolean)}, so adaptors that can list a tree in bulk do so for the
+ * watcher as well. Only the attributes in the listing are compared: a file is modified if its size or modification time changed. No file content is read.
+ */
+class PollingWatcher implements Watcher {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PollingWatcher.class);
+
+    private final FileSystem fileSystem;
+    private final Path dir;
+    private final boolean recursive;
+    private final WatchListener listener;
+
+    private final ScheduledFuture<?> future;
+
+    private volatile boolean stopped = false;
+
+    /** The attributes of all paths in the directory at the last successful poll. Only used by the polling thread after construction. */
+    private Map<Path, PathAttributes> snapshot;
+
+    PollingWatcher(FileSystem fileSystem, Path dir, boolean recursive, WatchListener listener, ScheduledExecutorService pool, long interval)
+            throws XenonException {
+        this.fileSystem = fileSystem;
+        this.dir = dir;
+        this.recursive = recursive;
+        this.listener = listener;
+
+        // Changes are reported relative to the state of the directory when the watch starts.
+        snapshot = snapshot();
+        future = pool.scheduleWithFixedDelay(this::poll, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    private Map<Path, PathAttributes> snapshot() throws XenonException {
+
+        ArrayList<PathAttributes> listing = new ArrayList<>();
+        fileSystem.list(dir, listing, recursive);
+
+        Map<Path, PathAttributes> result = new LinkedHashMap<>(listing.size() * 4 / 3 + 1);
+
+        for (PathAttributes p : listing) {
+            result.put(p.getPath(), p);
+        }
+
+        return result;
+    }
+
+    void poll() {
+
+        Map<Path, PathAttributes> current;
+
+        try {
+            current = snapshot();
+        } catch (NoSuchPathException e) {
+            // The directory itself was deleted, so everything in it is gone.
+            current = Collections.emptyMap();
+        } catch (NotConnectedException e) {
+            LOGGER.debug("Stopped watching {}, file system is closed", dir);
+            stop();
+            return;
+        } catch (XenonException e) {
+            LOGGER.warn("Failed to poll {} for changes", dir, e);
+            return;
+        }
+
+        for (WatchEvent event : diff(snapshot, current)) {
+            if (stopped) {
+                return;
+            }
+
+            try {
+                listener.onEvent(event);
+            } catch (RuntimeException e) {
+                LOGGER.warn("Watch listener failed on {}", event, e);
+            }
+        }
+
+        snapshot = current;
+    }
+
+    @Override
+    public void stop() {
+        stopped = true;
+        future.cancel(false);
+    }
+
+    private static boolean isSameType(PathAttributes a, PathAttributes b) {
+        return a.isDirectory() == b.isDirectory() && a.isRegular() == b.isRegular() && a.isSymbolicLink() == b.isSymbolicLink();
+    }
+
+    /**
+     * Compute the changes between two listings. Deletions are reported first, so a path that changed type is reported as deleted and then created.
+     *
+     * @param previous
+     *            the previous listing.
+     * @param current
+     *            the current listing.
+     * @return the changes.
+     */
+    static List<WatchEvent> diff(Map<Path, PathAttributes> previous, Map<Path, PathAttributes> current) {
+
+        List<WatchEvent> deleted = new ArrayList<>();
+        List<WatchEvent> changed = new ArrayList<>();
+
+        for (Map.Entry<Path, PathAttributes> e : previous.entrySet()) {
+
+            PathAttributes now = current.get(e.getKey());
+
+            if (now == null || !isSameType(e.getValue(), now)) {
+                deleted.add(new WatchEvent(WatchEvent.Kind.DELETED, e.getKey()));
+            }
+        }
+
+        for (Map.Entry<Path, PathAttributes> e : current.entrySet()) {
+
+            PathAttributes before = previous.get(e.getKey());
+            PathAttributes now = e.getValue();
+
+            if (before == null || !isSameType(before, now)) {
+                changed.add(new WatchEvent(WatchEvent.Kind.CREATED, e.getKey()));
+            } else if (!now.isDirectory() && (before.getSize() != now.getSize() || before.getLastModifiedTime() != now.getLastModifiedTime())) {
+                changed.add(new WatchEvent(WatchEvent.Kind.MODIFIED, e.getKey()));
+            }
+        }
+
+        deleted.addAll(changed);
+        return deleted;
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.filesystems;
+
+import java.util.Objects;
+
+/**
+ * WatchEvent describes a change to a path in a directory that is watched using {@link FileSystem#watch(Path, boolean, WatchListener)}.
+ */
+public class WatchEvent {
+
+    /**
+     * The kind of change.
+     */
+    public enum Kind {
+
+        /**
+         * The path was created.
+         */
+        CREATED,
+
+        /**
+         * The content of the file was modified. Changes to the content of a directory are reported as events for the paths in the directory instead.
+         */
+        MODIFIED,
+
+        /**
+         * The path was deleted.
+         */
+        DELETED,
+
+        /**
+         * Events may have been lost. The path of this event is the watched directory, which should be inspected again if it is important to know its
+         * current state.
+         */
+        OVERFLOW
+    }
+
+    private final Kind kind;
+    private final Path path;
+
+    public WatchEvent(Kind kind, Path path) {
+
+        if (kind == null) {
+            throw new IllegalArgumentException("Kind may not be null");
+        }
+
+        if (path == null) {
+            throw new IllegalArgumentException("Path may not be null");
+        }
+
+        this.kind = kind;
+        this.path = path;
+    }
+
+    /**
+     * Get the kind of change.
+     *
+     * @return the kind of change.
+     */
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * Get the absolute path that was changed.
+     *
+     * @return the path that was changed.
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        WatchEvent that = (WatchEvent) o;
+        return kind == that.kind && path.equals(that.path);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(kind, path);
+    }
+
+    @Override
+    public String toString() {
+        return "WatchEvent [kind=" + kind + ", path=" + path + "]";
+    }
+}
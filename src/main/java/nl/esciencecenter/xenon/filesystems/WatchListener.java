@@ -0,0 +1,33 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.filesystems;
+
+/**
+ * WatchListener receives the changes to a directory that is watched using {@link FileSystem#watch(Path, boolean, WatchListener)}.
+ *
+ * Events are delivered by a thread of the {@link FileSystem}, in the order in which the changes were detected. A listener should return quickly, as it
+ * delays the delivery of other events.
+ */
+public interface WatchListener {
+
+    /**
+     * Called for each change detected in the watched directory.
+     *
+     * @param event
+     *            the change.
+     */
+    void onEvent(WatchEvent event);
+}
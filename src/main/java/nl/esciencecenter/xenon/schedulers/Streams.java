@@ -55,4 +55,20 @@ public interface Streams {
      * @return the standard input stream of this job.
      */
     OutputStream getStdin();
+
+    /**
+     * Set a listener that is notified when new data arrives on the standard output or error stream of the job, or when either of these streams ends.
+     *
+     * This allows the output of a job to be consumed without blocking: when notified, {@link InputStream#available()} tells how much data can be read from
+     * each stream without blocking. The listener is called by the thread that delivers the data, and must not block itself.
+     *
+     * Notifications are not supported by all adaptors.
+     *
+     * @param listener
+     *            the listener to notify, or <code>null</code> to remove the current listener.
+     * @return if notifications are supported for this job.
+     */
+    default boolean setOutputListener(Runnable listener) {
+        return false;
+    }
 }
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.utils;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A small executor shared by all commands that are run asynchronously.
+ *
+ * Asynchronous commands do not have threads of their own. Instead, their output is delivered by the process or SSH library, and the few short tasks a
+ * command needs (writing its input, collecting its result) run on this executor. Tasks must therefore not block for long. The threads are daemon threads,
+ * and are stopped when the executor has been idle for a while.
+ */
+public final class CommandExecutor {
+
+    /** The number of threads of the executor. */
+    private static final int THREADS = 2;
+
+    /** How long an idle thread is kept (in seconds). */
+    private static final long KEEP_ALIVE = 60;
+
+    private static ExecutorService executor;
+
+    private CommandExecutor() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    /**
+     * Get the shared executor, creating it if needed.
+     *
+     * @return the shared executor.
+     */
+    public static synchronized Executor getExecutor() {
+        if (executor == null) {
+            ThreadPoolExecutor tmp = new ThreadPoolExecutor(THREADS, THREADS, KEEP_ALIVE, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                    new DaemonThreadFactory("CommandExecutor"));
+            tmp.allowCoreThreadTimeOut(true);
+            executor = tmp;
+        }
+        return executor;
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.filesystems;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class ChecksumUtilsTest {
+
+    @Test
+    public void test_getCanonicalName() {
+        assertEquals(ChecksumUtils.MD5, ChecksumUtils.getCanonicalName("md5"));
+        assertEquals(ChecksumUtils.SHA1, ChecksumUtils.getCanonicalName("sha1"));
+        assertEquals(ChecksumUtils.SHA256, ChecksumUtils.getCanonicalName("SHA256"));
+        assertEquals(ChecksumUtils.SHA512, ChecksumUtils.getCanonicalName("sha-512"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_getCanonicalName_null() {
+        ChecksumUtils.getCanonicalName(null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_getCanonicalName_unknown() {
+        ChecksumUtils.getCanonicalName("foo");
+    }
+
+    @Test
+    public void test_toHex() {
+        assertEquals("00017f80ff", ChecksumUtils.toHex(new byte[] { 0, 1, 127, -128, -1 }));
+    }
+
+    @Test
+    public void test_checksum() throws IOException {
+        ByteArrayInputStream in = new ByteArrayInputStream("Hello World!".getBytes());
+        assertEquals("ed076287532e86365e841e92bfc50d8c", ChecksumUtils.checksum(in, ChecksumUtils.MD5, 5));
+    }
+
+    @Test
+    public void test_checksum_empty() throws IOException {
+        ByteArrayInputStream in = new ByteArrayInputStream(new byte[0]);
+        assertEquals("e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855", ChecksumUtils.checksum(in, ChecksumUtils.SHA256, 5));
+    }
+}
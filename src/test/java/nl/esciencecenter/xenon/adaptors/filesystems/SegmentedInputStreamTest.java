@@ -0,0 +1,194 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.filesystems;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SegmentedInputStreamTest {
+
+    private static final Map<String, String> HEADERS = Collections.singletonMap("If-Match", "\"etag\"");
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private static byte[] data(int size) {
+        byte[] result = new byte[size];
+
+        for (int i = 0; i < size; i++) {
+            result[i] = (byte) (i * 31 + 7);
+        }
+
+        return result;
+    }
+
+    private static class FakeServer implements SegmentedInputStream.RangeReader {
+
+        final byte[] data;
+        final AtomicInteger requests = new AtomicInteger();
+
+        boolean truncate = false;
+        boolean supportsRanges = true;
+
+        FakeServer(byte[] data) {
+            this.data = data;
+        }
+
+        @Override
+        public InputStream getRange(String url, long start, long end, Map<String, String> headers) throws IOException {
+
+            assertEquals(HEADERS, headers);
+
+            requests.incrementAndGet();
+
+            if (!supportsRanges) {
+                return null;
+            }
+
+            int length = (int) (end - start + 1);
+
+            if (truncate) {
+                length--;
+            }
+
+            return new ByteArrayInputStream(data, (int) start, length);
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[7];
+        int n;
+
+        while ((n = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, n);
+        }
+
+        return out.toByteArray();
+    }
+
+    private InputStream open(FakeServer server, int segmentSize, int parallel) {
+        // The first segment is normally requested by the caller.
+        InputStream first = new ByteArrayInputStream(server.data, 0, Math.min(segmentSize, server.data.length));
+        return new SegmentedInputStream(server, "url", server.data.length, segmentSize, parallel, HEADERS, executor, first);
+    }
+
+    @Test
+    public void test_read_multipleOfSegmentSize() throws IOException {
+        FakeServer server = new FakeServer(data(1000));
+
+        try (InputStream in = open(server, 100, 4)) {
+            assertArrayEquals(server.data, readAll(in));
+        }
+
+        assertEquals(9, server.requests.get());
+    }
+
+    @Test
+    public void test_read_partialLastSegment() throws IOException {
+        FakeServer server = new FakeServer(data(1037));
+
+        try (InputStream in = open(server, 100, 3)) {
+            assertArrayEquals(server.data, readAll(in));
+        }
+
+        assertEquals(10, server.requests.get());
+    }
+
+    @Test
+    public void test_read_singleBytes() throws IOException {
+        FakeServer server = new FakeServer(data(250));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        try (InputStream in = open(server, 100, 2)) {
+            int b = in.read();
+
+            while (b >= 0) {
+                out.write(b);
+                b = in.read();
+            }
+        }
+
+        assertArrayEquals(server.data, out.toByteArray());
+    }
+
+    @Test(expected = IOException.class)
+    public void test_read_truncatedSegment_throwsException() throws IOException {
+        FakeServer server = new FakeServer(data(1000));
+        server.truncate = true;
+
+        try (InputStream in = open(server, 100, 4)) {
+            readAll(in);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void test_read_rangesNotSupported_throwsException() throws IOException {
+        FakeServer server = new FakeServer(data(1000));
+
+        server.supportsRanges = false;
+
+        try (InputStream in = open(server, 100, 4)) {
+            readAll(in);
+        }
+    }
+
+    @Test
+    public void test_close_early() throws IOException {
+        FakeServer server = new FakeServer(data(1000));
+
+        InputStream in = open(server, 100, 4);
+        assertEquals(server.data[0] & 0xff, in.read());
+        in.close();
+        in.close();
+
+        assertTrue(server.requests.get() <= 3);
+    }
+
+    @Test(expected = IOException.class)
+    public void test_read_afterClose_throwsException() throws IOException {
+        FakeServer server = new FakeServer(data(1000));
+
+        InputStream in = open(server, 100, 4);
+        in.close();
+        in.read();
+    }
+}
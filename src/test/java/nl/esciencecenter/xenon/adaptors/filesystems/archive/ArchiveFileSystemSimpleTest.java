@@ -0,0 +1,365 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.filesystems.archive;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.tar.TarConstants;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import nl.esciencecenter.xenon.InvalidLocationException;
+import nl.esciencecenter.xenon.InvalidPropertyException;
+import nl.esciencecenter.xenon.XenonException;
+import nl.esciencecenter.xenon.adaptors.filesystems.PosixFileUtils;
+import nl.esciencecenter.xenon.credentials.DefaultCredential;
+import nl.esciencecenter.xenon.filesystems.FileSystem;
+import nl.esciencecenter.xenon.filesystems.NoSuchPathException;
+import nl.esciencecenter.xenon.filesystems.Path;
+import nl.esciencecenter.xenon.filesystems.PathAttributes;
+import nl.esciencecenter.xenon.filesystems.PosixFilePermission;
+
+public class ArchiveFileSystemSimpleTest {
+
+    private FileSystem base;
+
+    @Before
+    public void createBase() throws XenonException {
+        base = FileSystem.create("memory");
+    }
+
+    @After
+    public void closeBase() throws XenonException {
+        base.close();
+    }
+
+    private static void write(FileSystem fs, Path file, byte[] data) throws Exception {
+        try (OutputStream out = fs.writeToFile(file, data.length)) {
+            out.write(data);
+        }
+    }
+
+    private static void writeUnknownSize(FileSystem fs, Path file, byte[] data) throws Exception {
+        try (OutputStream out = fs.writeToFile(file)) {
+            out.write(data);
+        }
+    }
+
+    private static byte[] read(FileSystem fs, Path file) throws Exception {
+        return fs.readToBuffer(file, 0, Integer.MAX_VALUE).array();
+    }
+
+    private FileSystem open(String archive) throws XenonException {
+        return ArchiveFileAdaptor.createFileSystem(base, new Path(archive), null);
+    }
+
+    private void roundTrip(String archive) throws Exception {
+
+        byte[] large = new byte[300 * 1024];
+
+        for (int i = 0; i < large.length; i++) {
+            large[i] = (byte) (i % 251);
+        }
+
+        try (FileSystem fs = open(archive)) {
+            fs.createDirectories(new Path("/a/b"));
+            write(fs, new Path("/a/b/file"), "Hello World\n".getBytes());
+            writeUnknownSize(fs, new Path("/a/large"), large);
+            fs.createFile(new Path("/empty"));
+            fs.createSymbolicLink(new Path("/a/link"), new Path("b/file"));
+            fs.setPosixFilePermissions(new Path("/a/large"), PosixFileUtils.bitsToPermissions(0700));
+        }
+
+        assertTrue(base.exists(new Path(archive)));
+
+        try (FileSystem fs = open(archive)) {
+            assertArrayEquals("Hello World\n".getBytes(), read(fs, new Path("/a/b/file")));
+            assertArrayEquals(large, read(fs, new Path("/a/large")));
+            assertEquals(0, fs.getAttributes(new Path("/empty")).getSize());
+            assertEquals(new Path("/a/b/file"), fs.readSymbolicLink(new Path("/a/link")));
+
+            try (InputStream in = fs.readFromFile(new Path("/a/link"))) {
+                assertEquals('H', in.read());
+            }
+
+            assertEquals(PosixFileUtils.bitsToPermissions(0700), fs.getAttributes(new Path("/a/large")).getPermissions());
+
+            // Changes the archive, so the existing entries must be copied when it is rewritten.
+            fs.delete(new Path("/empty"), false);
+            fs.rename(new Path("/a/large"), new Path("/large"));
+        }
+
+        try (FileSystem fs = open(archive)) {
+            assertFalse(fs.exists(new Path("/empty")));
+            assertArrayEquals(large, read(fs, new Path("/large")));
+            assertArrayEquals("Hello World\n".getBytes(), read(fs, new Path("/a/b/file")));
+        }
+
+        assertFalse(base.exists(new Path(archive + ".tmp")));
+        assertFalse(base.exists(new Path(archive + ".old")));
+    }
+
+    @Test
+    public void test_roundTrip_zip() throws Exception {
+        roundTrip("/test.zip");
+    }
+
+    @Test
+    public void test_roundTrip_tar() throws Exception {
+        roundTrip("/test.tar");
+    }
+
+    @Test
+    public void test_roundTrip_tgz() throws Exception {
+        roundTrip("/test.tgz");
+    }
+
+    @Test
+    public void test_tar_appendInPlace() throws Exception {
+
+        try (FileSystem fs = open("/test.tar")) {
+            write(fs, new Path("/file0"), "first".getBytes());
+        }
+
+        try (FileSystem fs = open("/test.tar")) {
+            write(fs, new Path("/file1"), "second".getBytes());
+
+            // The new file is already in the archive before the file system is closed.
+            try (FileSystem other = open("/test.tar")) {
+                assertArrayEquals("first".getBytes(), read(other, new Path("/file0")));
+                assertArrayEquals("second".getBytes(), read(other, new Path("/file1")));
+            }
+
+            assertArrayEquals("second".getBytes(), read(fs, new Path("/file1")));
+        }
+
+        try (FileSystem fs = open("/test.tar")) {
+            assertEquals(2, count(fs, new Path("/")));
+        }
+    }
+
+    @Test
+    public void test_tar_appendInPlace_shortWrite() throws Exception {
+
+        try (FileSystem fs = open("/test.tar")) {
+            write(fs, new Path("/file0"), "first".getBytes());
+        }
+
+        try (FileSystem fs = open("/test.tar")) {
+
+            OutputStream out = fs.writeToFile(new Path("/file1"), 100);
+            out.write("short".getBytes());
+
+            try {
+                out.close();
+                fail("Expected an exception for a short write");
+            } catch (IOException e) {
+                // expected
+            }
+
+            assertFalse(fs.exists(new Path("/file1")));
+
+            // The end of the archive has been restored, so the archive still contains its previous content.
+            try (FileSystem other = open("/test.tar")) {
+                assertEquals(1, count(other, new Path("/")));
+                assertArrayEquals("first".getBytes(), read(other, new Path("/file0")));
+            }
+
+            write(fs, new Path("/file2"), "third".getBytes());
+        }
+
+        try (FileSystem fs = open("/test.tar")) {
+            assertEquals(2, count(fs, new Path("/")));
+            assertArrayEquals("first".getBytes(), read(fs, new Path("/file0")));
+            assertArrayEquals("third".getBytes(), read(fs, new Path("/file2")));
+        }
+    }
+
+    @Test
+    public void test_appendToFile() throws Exception {
+
+        try (FileSystem fs = open("/test.zip")) {
+            write(fs, new Path("/file"), "Hello".getBytes());
+        }
+
+        try (FileSystem fs = open("/test.zip")) {
+            try (OutputStream out = fs.appendToFile(new Path("/file"))) {
+                out.write(" World".getBytes());
+            }
+        }
+
+        try (FileSystem fs = open("/test.zip")) {
+            assertArrayEquals("Hello World".getBytes(), read(fs, new Path("/file")));
+        }
+    }
+
+    @Test
+    public void test_stagedFile_replacedAndAppended() throws Exception {
+
+        try (FileSystem fs = open("/test.tgz")) {
+            write(fs, new Path("/file"), "first".getBytes());
+            assertArrayEquals("first".getBytes(), read(fs, new Path("/file")));
+
+            fs.delete(new Path("/file"), false);
+            writeUnknownSize(fs, new Path("/file"), "second".getBytes());
+
+            try (OutputStream out = fs.appendToFile(new Path("/file"))) {
+                out.write(" and third".getBytes());
+            }
+
+            assertArrayEquals("second and third".getBytes(), read(fs, new Path("/file")));
+            assertEquals(16, fs.getAttributes(new Path("/file")).getSize());
+        }
+
+        try (FileSystem fs = open("/test.tgz")) {
+            assertArrayEquals("second and third".getBytes(), read(fs, new Path("/file")));
+        }
+    }
+
+    @Test
+    public void test_zip_entriesOutsideArchiveIgnored() throws Exception {
+
+        try (ZipArchiveOutputStream out = new ZipArchiveOutputStream(base.writeToFile(new Path("/slip.zip")))) {
+            for (String name : new String[] { "../evil", "a/../../evil", "ok" }) {
+                out.putArchiveEntry(new ZipArchiveEntry(name));
+                out.write(name.getBytes());
+                out.closeArchiveEntry();
+            }
+        }
+
+        try (FileSystem fs = open("/slip.zip")) {
+            assertEquals(1, count(fs, new Path("/")));
+            assertArrayEquals("ok".getBytes(), read(fs, new Path("/ok")));
+            assertFalse(fs.exists(new Path("/a")));
+        }
+    }
+
+    private static int count(FileSystem fs, Path dir) throws XenonException {
+        int count = 0;
+
+        for (PathAttributes ignored : fs.list(dir, false)) {
+            count++;
+        }
+
+        return count;
+    }
+
+    @Test
+    public void test_tar_hardLink() throws Exception {
+
+        try (TarArchiveOutputStream out = new TarArchiveOutputStream(base.writeToFile(new Path("/links.tar")))) {
+            TarArchiveEntry file = new TarArchiveEntry("dir/file");
+            file.setSize(5);
+            out.putArchiveEntry(file);
+            out.write("Hello".getBytes());
+            out.closeArchiveEntry();
+
+            TarArchiveEntry link = new TarArchiveEntry("./copy", TarConstants.LF_LINK);
+            link.setLinkName("dir/file");
+            out.putArchiveEntry(link);
+            out.closeArchiveEntry();
+        }
+
+        try (FileSystem fs = open("/links.tar")) {
+            assertArrayEquals("Hello".getBytes(), read(fs, new Path("/copy")));
+            assertTrue(fs.getAttributes(new Path("/copy")).isRegular());
+        }
+    }
+
+    @Test
+    public void test_create_viaAdaptor() throws Exception {
+
+        base.close();
+
+        Map<String, String> properties = new HashMap<>();
+        properties.put(ArchiveFileAdaptor.ADAPTOR, "memory");
+        properties.put(ArchiveFileAdaptor.LOCATION, "archive-simple-test");
+
+        try (FileSystem store = FileSystem.create("memory", "archive-simple-test")) {
+
+            try (FileSystem fs = FileSystem.create("archive", "test.tar.gz", new DefaultCredential(), properties)) {
+                assertEquals("archive", fs.getAdaptorName());
+                write(fs, new Path("file"), "data".getBytes());
+            }
+
+            assertTrue(store.exists(new Path("/test.tar.gz")));
+        }
+
+        base = FileSystem.create("memory");
+    }
+
+    @Test(expected = InvalidLocationException.class)
+    public void test_format_unknown() throws Exception {
+        open("/test.rar");
+    }
+
+    @Test
+    public void test_format_explicit() throws Exception {
+
+        Map<String, String> properties = new HashMap<>();
+        properties.put(ArchiveFileAdaptor.FORMAT, "zip");
+
+        try (FileSystem fs = ArchiveFileAdaptor.createFileSystem(base, new Path("/test.bin"), properties)) {
+            write(fs, new Path("/file"), "data".getBytes());
+        }
+
+        try (FileSystem fs = ArchiveFileAdaptor.createFileSystem(base, new Path("/test.bin"), properties)) {
+            assertArrayEquals("data".getBytes(), read(fs, new Path("/file")));
+        }
+    }
+
+    @Test(expected = InvalidPropertyException.class)
+    public void test_format_invalid() throws Exception {
+        Map<String, String> properties = new HashMap<>();
+        properties.put(ArchiveFileAdaptor.FORMAT, "rar");
+        ArchiveFileAdaptor.createFileSystem(base, new Path("/test.zip"), properties);
+    }
+
+    @Test(expected = NoSuchPathException.class)
+    public void test_parent_missing() throws Exception {
+        open("/missing/test.zip");
+    }
+
+    @Test
+    public void test_empty_archiveCreated() throws Exception {
+
+        try (FileSystem fs = open("/empty.zip")) {
+            assertEquals(0, count(fs, new Path("/")));
+        }
+
+        try (FileSystem fs = open("/empty.zip")) {
+            assertEquals(0, count(fs, new Path("/")));
+            Set<PosixFilePermission> permissions = fs.getAttributes(new Path("/")).getPermissions();
+            assertTrue(permissions.contains(PosixFilePermission.OWNER_READ));
+        }
+    }
+}
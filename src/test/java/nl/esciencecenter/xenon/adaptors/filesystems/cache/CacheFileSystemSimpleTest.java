@@ -0,0 +1,434 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.filesystems.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import nl.esciencecenter.xenon.InvalidPropertyException;
+import nl.esciencecenter.xenon.XenonException;
+import nl.esciencecenter.xenon.credentials.DefaultCredential;
+import nl.esciencecenter.xenon.filesystems.FileSystem;
+import nl.esciencecenter.xenon.filesystems.InvalidPathException;
+import nl.esciencecenter.xenon.filesystems.NoSuchPathException;
+import nl.esciencecenter.xenon.filesystems.Path;
+import nl.esciencecenter.xenon.filesystems.PathAttributes;
+
+public class CacheFileSystemSimpleTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FileSystem remote;
+
+    @Before
+    public void createRemote() throws XenonException {
+        remote = FileSystem.create("memory");
+    }
+
+    @After
+    public void closeRemote() throws XenonException {
+        remote.close();
+    }
+
+    private static void write(FileSystem fs, Path file, byte[] data) throws Exception {
+        try (OutputStream out = fs.writeToFile(file, data.length)) {
+            out.write(data);
+        }
+    }
+
+    private static byte[] read(FileSystem fs, Path file) throws IOException, XenonException {
+        try (InputStream in = fs.readFromFile(file)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+
+            int n = in.read(buffer);
+
+            while (n >= 0) {
+                out.write(buffer, 0, n);
+                n = in.read(buffer);
+            }
+
+            return out.toByteArray();
+        }
+    }
+
+    private static int count(FileSystem fs, Path dir) throws XenonException {
+        int count = 0;
+
+        for (PathAttributes ignored : fs.list(dir, false)) {
+            count++;
+        }
+
+        return count;
+    }
+
+    private CacheFileSystem open(String... properties) throws XenonException {
+
+        Map<String, String> map = new HashMap<>();
+
+        for (int i = 0; i < properties.length; i += 2) {
+            map.put(properties[i], properties[i + 1]);
+        }
+
+        return CacheFileAdaptor.createFileSystem(remote, map);
+    }
+
+    @Test
+    public void test_read_hitAfterMiss() throws Exception {
+
+        write(remote, new Path("/data"), "Hello World".getBytes());
+
+        try (CacheFileSystem fs = open()) {
+            assertArrayEquals("Hello World".getBytes(), read(fs, new Path("/data")));
+            assertArrayEquals("Hello World".getBytes(), read(fs, new Path("/data")));
+
+            CacheStatistics stats = fs.getStatistics();
+            assertEquals(1, stats.getMisses());
+            assertEquals(1, stats.getHits());
+            assertEquals(11, stats.getBytesFromRemote());
+            assertEquals(11, stats.getBytesFromCache());
+            assertEquals(1, stats.getCachedFiles());
+            assertEquals(11, stats.getCachedBytes());
+        }
+    }
+
+    @Test
+    public void test_read_atOffset() throws Exception {
+
+        write(remote, new Path("/data"), "Hello World".getBytes());
+
+        try (CacheFileSystem fs = open()) {
+            read(fs, new Path("/data"));
+
+            try (InputStream in = fs.readFromFile(new Path("/data"), 6)) {
+                assertEquals('W', in.read());
+            }
+
+            assertEquals(1, fs.getStatistics().getHits());
+        }
+    }
+
+    @Test
+    public void test_read_changedRemoteIsRefetched() throws Exception {
+
+        write(remote, new Path("/data"), "Hello".getBytes());
+
+        try (CacheFileSystem fs = open()) {
+            read(fs, new Path("/data"));
+
+            remote.delete(new Path("/data"), false);
+            write(remote, new Path("/data"), "Hello World".getBytes());
+
+            assertArrayEquals("Hello World".getBytes(), read(fs, new Path("/data")));
+            assertEquals(2, fs.getStatistics().getMisses());
+        }
+    }
+
+    @Test
+    public void test_read_withoutValidationUsesCachedCopy() throws Exception {
+
+        write(remote, new Path("/data"), "Hello".getBytes());
+
+        try (CacheFileSystem fs = open(CacheFileAdaptor.VALIDATE, "false")) {
+            read(fs, new Path("/data"));
+
+            remote.delete(new Path("/data"), false);
+
+            assertArrayEquals("Hello".getBytes(), read(fs, new Path("/data")));
+            assertEquals(1, fs.getStatistics().getHits());
+        }
+    }
+
+    @Test
+    public void test_read_largerThanCacheNotCached() throws Exception {
+
+        write(remote, new Path("/data"), new byte[100]);
+
+        try (CacheFileSystem fs = open(CacheFileAdaptor.MAX_SIZE, "50")) {
+            assertEquals(100, read(fs, new Path("/data")).length);
+            assertEquals(100, read(fs, new Path("/data")).length);
+            assertEquals(0, fs.getStatistics().getCachedFiles());
+            assertEquals(2, fs.getStatistics().getMisses());
+        }
+    }
+
+    @Test
+    public void test_evict_lru() throws Exception {
+
+        for (String name : new String[] { "/a", "/b", "/c" }) {
+            write(remote, new Path(name), new byte[40]);
+        }
+
+        try (CacheFileSystem fs = open(CacheFileAdaptor.MAX_SIZE, "100")) {
+            read(fs, new Path("/a"));
+            Thread.sleep(2);
+            read(fs, new Path("/b"));
+            Thread.sleep(2);
+            read(fs, new Path("/a"));
+            Thread.sleep(2);
+            read(fs, new Path("/c"));
+
+            // b was used least recently
+            assertEquals(1, fs.getStatistics().getEvictions());
+            read(fs, new Path("/a"));
+            assertEquals(2, fs.getStatistics().getHits());
+        }
+    }
+
+    @Test
+    public void test_evict_lfu() throws Exception {
+
+        for (String name : new String[] { "/a", "/b", "/c" }) {
+            write(remote, new Path(name), new byte[40]);
+        }
+
+        try (CacheFileSystem fs = open(CacheFileAdaptor.MAX_SIZE, "100", CacheFileAdaptor.EVICTION, "lfu")) {
+            read(fs, new Path("/a"));
+            read(fs, new Path("/b"));
+            read(fs, new Path("/b"));
+            read(fs, new Path("/a"));
+            read(fs, new Path("/a"));
+            read(fs, new Path("/c"));
+
+            // b was used less often than a
+            assertEquals(1, fs.getStatistics().getEvictions());
+            read(fs, new Path("/a"));
+            assertEquals(4, fs.getStatistics().getHits());
+            read(fs, new Path("/b"));
+            assertEquals(4, fs.getStatistics().getHits());
+        }
+    }
+
+    @Test
+    public void test_pin_notEvicted() throws Exception {
+
+        for (String name : new String[] { "/a", "/b", "/c" }) {
+            write(remote, new Path(name), new byte[40]);
+        }
+
+        try (CacheFileSystem fs = open(CacheFileAdaptor.MAX_SIZE, "100")) {
+            fs.pin(new Path("/a"));
+            read(fs, new Path("/b"));
+            read(fs, new Path("/c"));
+
+            read(fs, new Path("/a"));
+            assertEquals(1, fs.getStatistics().getHits());
+
+            // Pinning is not a read, so only /b and /c are counted as misses.
+            assertEquals(2, fs.getStatistics().getMisses());
+
+            fs.unpin(new Path("/a"));
+        }
+    }
+
+    @Test(expected = InvalidPathException.class)
+    public void test_pin_tooLarge() throws Exception {
+
+        write(remote, new Path("/a"), new byte[200]);
+
+        try (CacheFileSystem fs = open(CacheFileAdaptor.MAX_SIZE, "100")) {
+            fs.pin(new Path("/a"));
+        }
+    }
+
+    @Test(expected = NoSuchPathException.class)
+    public void test_pin_missing() throws Exception {
+        try (CacheFileSystem fs = open(CacheFileAdaptor.MAX_SIZE, "100")) {
+            fs.pin(new Path("/a"));
+        }
+    }
+
+    @Test
+    public void test_listing_cachedAndInvalidated() throws Exception {
+
+        remote.createDirectory(new Path("/dir"));
+
+        try (CacheFileSystem fs = open()) {
+            assertEquals(0, count(fs, new Path("/dir")));
+            assertEquals(0, count(fs, new Path("/dir")));
+
+            assertEquals(1, fs.getStatistics().getListingMisses());
+            assertEquals(1, fs.getStatistics().getListingHits());
+
+            // Changed through the cache, so the listing is refreshed.
+            write(fs, new Path("/dir/file"), "data".getBytes());
+            assertEquals(1, count(fs, new Path("/dir")));
+            assertEquals(2, fs.getStatistics().getListingMisses());
+        }
+    }
+
+    @Test
+    public void test_listing_disabled() throws Exception {
+
+        try (CacheFileSystem fs = open(CacheFileAdaptor.LISTING_TIMEOUT, "0")) {
+            count(fs, new Path("/"));
+            count(fs, new Path("/"));
+            assertEquals(2, fs.getStatistics().getListingMisses());
+            assertEquals(0, fs.getStatistics().getListingHits());
+        }
+    }
+
+    @Test
+    public void test_writeThrough_cached() throws Exception {
+
+        try (CacheFileSystem fs = open()) {
+            write(fs, new Path("/data"), "Hello".getBytes());
+
+            assertArrayEquals("Hello".getBytes(), read(remote, new Path("/data")));
+            assertArrayEquals("Hello".getBytes(), read(fs, new Path("/data")));
+            assertEquals(1, fs.getStatistics().getHits());
+            assertEquals(0, fs.getStatistics().getMisses());
+        }
+    }
+
+    @Test
+    public void test_writeBack_uploadedOnFlush() throws Exception {
+
+        try (CacheFileSystem fs = open(CacheFileAdaptor.WRITE_MODE, "back")) {
+            write(fs, new Path("/data"), "Hello".getBytes());
+
+            assertArrayEquals("Hello".getBytes(), read(fs, new Path("/data")));
+
+            fs.flush();
+
+            assertArrayEquals("Hello".getBytes(), read(remote, new Path("/data")));
+            assertArrayEquals("Hello".getBytes(), read(fs, new Path("/data")));
+            assertEquals(2, fs.getStatistics().getHits());
+        }
+    }
+
+    @Test
+    public void test_writeBack_uploadedOnClose() throws Exception {
+
+        try (CacheFileSystem fs = open(CacheFileAdaptor.WRITE_MODE, "back")) {
+            write(fs, new Path("/data"), "Hello".getBytes());
+        }
+
+        assertArrayEquals("Hello".getBytes(), read(remote, new Path("/data")));
+    }
+
+    @Test
+    public void test_writeBack_failedUploadKeptAndRetried() throws Exception {
+
+        remote.createDirectory(new Path("/dir"));
+
+        try (CacheFileSystem fs = open(CacheFileAdaptor.WRITE_MODE, "back")) {
+
+            OutputStream out = fs.writeToFile(new Path("/dir/data"), 5);
+            out.write("Hello".getBytes());
+
+            // Makes the remote writeToFile fail when the file is uploaded.
+            remote.delete(new Path("/dir"), false);
+
+            out.close();
+
+            try {
+                fs.flush();
+                fail("Expected the upload to fail");
+            } catch (NoSuchPathException e) {
+                // expected
+            }
+
+            // The cached copy is the only copy of the data, so it is kept.
+            assertArrayEquals("Hello".getBytes(), read(fs, new Path("/dir/data")));
+
+            remote.createDirectory(new Path("/dir"));
+            fs.flush();
+
+            assertArrayEquals("Hello".getBytes(), read(remote, new Path("/dir/data")));
+        }
+    }
+
+    @Test
+    public void test_directory_reusedByNextFileSystem() throws Exception {
+
+        File dir = folder.newFolder();
+
+        write(remote, new Path("/data"), "Hello".getBytes());
+
+        try (CacheFileSystem fs = open(CacheFileAdaptor.DIRECTORY, dir.getPath())) {
+            read(fs, new Path("/data"));
+        }
+
+        try (CacheFileSystem fs = open(CacheFileAdaptor.DIRECTORY, dir.getPath())) {
+            assertEquals(1, fs.getStatistics().getCachedFiles());
+            assertArrayEquals("Hello".getBytes(), read(fs, new Path("/data")));
+            assertEquals(1, fs.getStatistics().getHits());
+            assertEquals(0, fs.getStatistics().getMisses());
+        }
+    }
+
+    @Test
+    public void test_temporaryDirectory_removedOnClose() throws Exception {
+
+        write(remote, new Path("/data"), "Hello".getBytes());
+
+        java.nio.file.Path dir;
+
+        try (CacheFileSystem fs = open()) {
+            read(fs, new Path("/data"));
+            dir = fs.getCacheDirectory();
+            assertTrue(java.nio.file.Files.isDirectory(dir));
+        }
+
+        assertFalse(java.nio.file.Files.exists(dir));
+    }
+
+    @Test
+    public void test_create_viaAdaptor() throws Exception {
+
+        Map<String, String> properties = new HashMap<>();
+        properties.put(CacheFileAdaptor.ADAPTOR, "memory");
+
+        try (FileSystem store = FileSystem.create("memory", "cache-simple-test")) {
+
+            write(store, new Path("/data"), "Hello".getBytes());
+
+            try (FileSystem fs = FileSystem.create("cache", "cache-simple-test", new DefaultCredential(), properties)) {
+                assertEquals("cache", fs.getAdaptorName());
+                assertArrayEquals("Hello".getBytes(), read(fs, new Path("/data")));
+            }
+        }
+    }
+
+    @Test(expected = InvalidPropertyException.class)
+    public void test_eviction_invalid() throws Exception {
+        open(CacheFileAdaptor.EVICTION, "fifo");
+    }
+
+    @Test(expected = InvalidPropertyException.class)
+    public void test_writeMode_invalid() throws Exception {
+        open(CacheFileAdaptor.WRITE_MODE, "around");
+    }
+}
@@ -15,13 +15,29 @@
  */
 package nl.esciencecenter.xenon.adaptors.filesystems.ftp;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPFile;
+import org.apache.commons.net.ftp.FTPReply;
 import org.junit.Test;
 
 import nl.esciencecenter.xenon.InvalidCredentialException;
 import nl.esciencecenter.xenon.InvalidLocationException;
+import nl.esciencecenter.xenon.InvalidPropertyException;
 import nl.esciencecenter.xenon.XenonException;
+import nl.esciencecenter.xenon.credentials.Credential;
 import nl.esciencecenter.xenon.credentials.CredentialMap;
 import nl.esciencecenter.xenon.credentials.PasswordCredential;
+import nl.esciencecenter.xenon.filesystems.Path;
 
 public class FtpFileSystemSimpleTests {
 
@@ -44,4 +60,148 @@ public class FtpFileSystemSimpleTests {
     public void test_location_empty() throws XenonException {
         new FtpFileAdaptor().createFileSystem("", new PasswordCredential("aap", "noot".toCharArray()), null);
     }
+
+    @Test(expected = InvalidPropertyException.class)
+    public void test_connectionPoolSize_negative() throws XenonException {
+        Map<String, String> properties = new HashMap<>();
+        properties.put(FtpFileAdaptor.CONNECTION_POOL_SIZE, "-1");
+        new FtpFileAdaptor().createFileSystem("localhost", new PasswordCredential("aap", "noot".toCharArray()), properties);
+    }
+
+    @Test
+    public void test_canWriteAtOffset() {
+        assertTrue(new FtpFileAdaptor().canWriteAtOffset());
+    }
+
+    /**
+     * A client that stands in for a server holding the single file "/file" in memory. Like a real server, a STOR without REST truncates the file.
+     */
+    private static class FileClient extends FTPClient {
+
+        private final AtomicReference<byte[]> content;
+
+        private long restart = -1;
+
+        FileClient(AtomicReference<byte[]> content) {
+            this.content = content;
+        }
+
+        @Override
+        public boolean isConnected() {
+            return true;
+        }
+
+        @Override
+        public void disconnect() {
+        }
+
+        @Override
+        public boolean sendNoOp() {
+            return true;
+        }
+
+        @Override
+        public String printWorkingDirectory() {
+            return "/";
+        }
+
+        @Override
+        public boolean changeWorkingDirectory(String pathname) {
+            return true;
+        }
+
+        @Override
+        public FTPFile[] listFiles() {
+            FTPFile file = new FTPFile();
+            file.setName("file");
+            file.setType(FTPFile.FILE_TYPE);
+            file.setSize(content.get().length);
+            return new FTPFile[] { file };
+        }
+
+        @Override
+        public boolean setFileType(int fileType) {
+            return true;
+        }
+
+        @Override
+        public int rest(String marker) {
+            restart = Long.parseLong(marker);
+            return FTPReply.FILE_ACTION_PENDING;
+        }
+
+        @Override
+        public OutputStream storeFileStream(String remote) {
+            long offset = getRestartOffset() > 0 ? getRestartOffset() : restart;
+            setRestartOffset(0);
+            restart = -1;
+            return store(offset);
+        }
+
+        @Override
+        public OutputStream appendFileStream(String remote) {
+            return store(content.get().length);
+        }
+
+        @Override
+        public boolean completePendingCommand() {
+            return true;
+        }
+
+        private OutputStream store(long offset) {
+            return new ByteArrayOutputStream() {
+                @Override
+                public void close() {
+                    byte[] old = offset < 0 ? new byte[0] : content.get();
+                    byte[] result = Arrays.copyOf(old, (int) Math.max(old.length, Math.max(offset, 0) + size()));
+                    System.arraycopy(toByteArray(), 0, result, (int) Math.max(offset, 0), size());
+                    content.set(result);
+                }
+            };
+        }
+    }
+
+    private FtpFileSystem createFileSystem(AtomicReference<byte[]> content) {
+
+        FtpFileAdaptor adaptor = new FtpFileAdaptor() {
+            @Override
+            protected FTPClient connect(String location, Credential credential) {
+                return new FileClient(content);
+            }
+        };
+
+        return new FtpFileSystem("0", "ftp", "localhost", new Path("/"), 4096, 1, new FileClient(content), new PasswordCredential("aap",
+                "noot".toCharArray()), adaptor, null);
+    }
+
+    private static void writeAt(FtpFileSystem fs, long offset, byte[] data) throws Exception {
+        try (OutputStream out = fs.writeToFileAt(new Path("/file"), offset)) {
+            out.write(data);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_writeToFileAt_beyondEnd_throwsException() throws XenonException {
+        createFileSystem(new AtomicReference<>(new byte[10])).writeToFileAt(new Path("/file"), 11);
+    }
+
+    @Test
+    public void test_writeToFileAt_segmentsOutOfOrder() throws Exception {
+        AtomicReference<byte[]> content = new AtomicReference<>(new byte[8]);
+        FtpFileSystem fs = createFileSystem(content);
+
+        writeAt(fs, 4, new byte[] { 5, 6, 7, 8 });
+        writeAt(fs, 0, new byte[] { 1, 2, 3, 4 });
+
+        assertArrayEquals(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 }, content.get());
+    }
+
+    @Test
+    public void test_writeToFileAt_end_appends() throws Exception {
+        AtomicReference<byte[]> content = new AtomicReference<>(new byte[] { 1, 2 });
+
+        writeAt(createFileSystem(content), 2, new byte[] { 3 });
+
+        assertArrayEquals(new byte[] { 1, 2, 3 }, content.get());
+    }
 }
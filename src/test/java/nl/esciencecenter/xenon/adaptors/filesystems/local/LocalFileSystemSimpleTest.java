@@ -16,15 +16,33 @@
 package nl.esciencecenter.xenon.adaptors.filesystems.local;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeFalse;
 
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Test;
 
 import nl.esciencecenter.xenon.XenonException;
+import nl.esciencecenter.xenon.adaptors.filesystems.ChecksumUtils;
 import nl.esciencecenter.xenon.credentials.DefaultCredential;
 import nl.esciencecenter.xenon.filesystems.Path;
+import nl.esciencecenter.xenon.filesystems.PathAttributes;
+import nl.esciencecenter.xenon.filesystems.WatchEvent;
+import nl.esciencecenter.xenon.utils.LocalFileSystemUtils;
 
 public class LocalFileSystemSimpleTest {
 
@@ -50,15 +68,125 @@ public class LocalFileSystemSimpleTest {
 
     @Test
     public void test_xenonPermissions_null() throws XenonException {
-        try (LocalFileSystem f = new LocalFileSystem("test", "/", new DefaultCredential(), "/", new Path("/"), 4096, null)) {
+        try (LocalFileSystem f = new LocalFileSystem("test", "/", new DefaultCredential(), "/", new Path("/"), 4096, 1, null)) {
             assertNull(f.xenonPermissions(null));
         }
     }
 
     @Test
     public void test_javaPermissions_null() throws XenonException {
-        try (LocalFileSystem f = new LocalFileSystem("test", "/", new DefaultCredential(), "/", new Path("/"), 4096, null)) {
+        try (LocalFileSystem f = new LocalFileSystem("test", "/", new DefaultCredential(), "/", new Path("/"), 4096, 1, null)) {
             assertEquals(new HashSet<java.nio.file.attribute.PosixFilePermission>(0), f.javaPermissions(null));
         }
     }
+
+    @Test
+    public void test_checksums() throws Exception {
+
+        java.nio.file.Path tmp = Files.createTempDirectory("xenon-checksum");
+
+        try (LocalFileSystem f = new LocalFileSystem("test", "/", new DefaultCredential(), "/", new Path("/"), 4096, 2, null)) {
+
+            // Large enough to be hashed in memory mapped chunks.
+            byte[] large = new byte[1024 * 1024];
+            Arrays.fill(large, (byte) 'a');
+
+            Files.write(tmp.resolve("small"), "Hello World!".getBytes(StandardCharsets.UTF_8));
+            Files.write(tmp.resolve("large"), large);
+            Files.createDirectory(tmp.resolve("dir"));
+            Files.write(tmp.resolve("dir").resolve("empty"), new byte[0]);
+
+            Path dir = new Path(tmp.toString());
+
+            assertEquals("ed076287532e86365e841e92bfc50d8c", f.checksum(dir.resolve("small"), "MD5"));
+            assertEquals(ChecksumUtils.checksum(new ByteArrayInputStream(large), ChecksumUtils.SHA256, 4096), f.checksum(dir.resolve("large"), "SHA-256"));
+
+            Map<Path, String> result = f.checksums(dir, "MD5", true);
+
+            assertEquals(3, result.size());
+            assertEquals("ed076287532e86365e841e92bfc50d8c", result.get(dir.resolve("small")));
+            assertEquals("d41d8cd98f00b204e9800998ecf8427e", result.get(dir.resolve("dir/empty")));
+
+            assertEquals(2, f.checksums(dir, "MD5", false).size());
+        } finally {
+            Files.delete(tmp.resolve("dir").resolve("empty"));
+            Files.delete(tmp.resolve("dir"));
+            Files.delete(tmp.resolve("small"));
+            Files.delete(tmp.resolve("large"));
+            Files.delete(tmp);
+        }
+    }
+
+    @Test
+    public void test_list_recursive_attributesFromWalk() throws Exception {
+        assumeFalse(LocalFileSystemUtils.isWindows());
+
+        java.nio.file.Path tmp = Files.createTempDirectory("xenon-list");
+
+        try (LocalFileSystem f = new LocalFileSystem("test", "/", new DefaultCredential(), "/", new Path("/"), 4096, 1, null)) {
+
+            Files.createFile(tmp.resolve(".hidden"), PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+            Files.createFile(tmp.resolve("readonly"), PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("r--r--r--")));
+
+            Path dir = new Path(tmp.toString());
+
+            Map<Path, PathAttributes> result = new HashMap<>();
+
+            for (PathAttributes a : f.list(dir, true)) {
+                result.put(a.getPath(), a);
+            }
+
+            PathAttributes hidden = result.get(dir.resolve(".hidden"));
+            assertTrue(hidden.isHidden());
+            assertTrue(hidden.isReadable());
+            assertTrue(hidden.isWritable());
+            assertTrue(hidden.isExecutable());
+
+            // The access flags follow the owner permissions, even when running as root.
+            PathAttributes readonly = result.get(dir.resolve("readonly"));
+            assertFalse(readonly.isHidden());
+            assertTrue(readonly.isReadable());
+            assertFalse(readonly.isWritable());
+            assertFalse(readonly.isExecutable());
+        } finally {
+            Files.delete(tmp.resolve(".hidden"));
+            Files.delete(tmp.resolve("readonly"));
+            Files.delete(tmp);
+        }
+    }
+
+    private static WatchEvent take(BlockingQueue<WatchEvent> events) throws InterruptedException {
+        WatchEvent event = events.poll(10, TimeUnit.SECONDS);
+        assertNotNull("no event received", event);
+        return event;
+    }
+
+    @Test
+    public void test_watch_recursive_newDirectory() throws Exception {
+
+        java.nio.file.Path tmp = Files.createTempDirectory("xenon-watch");
+
+        try (LocalFileSystem f = new LocalFileSystem("test", "/", new DefaultCredential(), "/", new Path("/"), 4096, 1, null)) {
+
+            BlockingQueue<WatchEvent> events = new LinkedBlockingQueue<>();
+            Path dir = new Path(tmp.toString());
+
+            String watch = f.watch(dir, true, events::add);
+
+            Files.createDirectory(tmp.resolve("sub"));
+            assertEquals(new WatchEvent(WatchEvent.Kind.CREATED, dir.resolve("sub")), take(events));
+
+            // The new directory is watched as well.
+            Files.write(tmp.resolve("sub").resolve("file"), new byte[0]);
+            assertEquals(new WatchEvent(WatchEvent.Kind.CREATED, dir.resolve("sub/file")), take(events));
+
+            Files.delete(tmp.resolve("sub").resolve("file"));
+            assertEquals(new WatchEvent(WatchEvent.Kind.DELETED, dir.resolve("sub/file")), take(events));
+
+            f.cancelWatch(watch);
+        } finally {
+            Files.deleteIfExists(tmp.resolve("sub"));
+            Files.delete(tmp);
+        }
+    }
 }
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.filesystems.memory;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class MemoryFileContentTest {
+
+    private static byte[] data(int size) {
+        byte[] result = new byte[size];
+
+        for (int i = 0; i < size; i++) {
+            result[i] = (byte) (i * 31 + 7);
+        }
+
+        return result;
+    }
+
+    private static byte[] readAll(MemoryFileContent content) {
+        byte[] result = new byte[(int) content.size()];
+        content.read(0, result, 0, result.length);
+        return result;
+    }
+
+    @Test
+    public void test_write_acrossBlocks() {
+        MemoryFileContent content = new MemoryFileContent(16, false);
+        byte[] data = data(100);
+
+        content.write(0, data, 0, data.length);
+
+        assertEquals(100, content.size());
+        assertArrayEquals(data, readAll(content));
+    }
+
+    @Test
+    public void test_write_direct_acrossBlocks() {
+        MemoryFileContent content = new MemoryFileContent(16, true);
+        byte[] data = data(100);
+
+        content.write(0, ByteBuffer.wrap(data));
+
+        ByteBuffer result = ByteBuffer.allocateDirect(100);
+        assertEquals(100, content.read(0, result));
+
+        result.flip();
+        byte[] tmp = new byte[100];
+        result.get(tmp);
+
+        assertArrayEquals(data, tmp);
+    }
+
+    @Test
+    public void test_read_atOffset() {
+        MemoryFileContent content = new MemoryFileContent(16, false);
+        byte[] data = data(100);
+        content.write(0, data, 0, data.length);
+
+        byte[] result = new byte[30];
+
+        assertEquals(30, content.read(15, result, 0, 30));
+        assertArrayEquals(Arrays.copyOfRange(data, 15, 45), result);
+    }
+
+    @Test
+    public void test_read_pastEnd() {
+        MemoryFileContent content = new MemoryFileContent(16, false);
+        content.write(0, data(10), 0, 10);
+
+        byte[] result = new byte[30];
+
+        assertEquals(5, content.read(5, result, 0, 30));
+        assertEquals(-1, content.read(10, result, 0, 30));
+    }
+
+    @Test
+    public void test_write_beyondEnd_leavesZeros() {
+        MemoryFileContent content = new MemoryFileContent(16, false);
+        content.write(40, new byte[] { 1 }, 0, 1);
+
+        byte[] expected = new byte[41];
+        expected[40] = 1;
+
+        assertArrayEquals(expected, readAll(content));
+    }
+
+    @Test
+    public void test_append() {
+        MemoryFileContent content = new MemoryFileContent(16, false);
+        byte[] data = data(50);
+
+        content.append(data, 0, 20);
+        content.append(data, 20, 30);
+
+        assertArrayEquals(data, readAll(content));
+    }
+
+    @Test
+    public void test_truncate_thenGrow_readsZeros() {
+        MemoryFileContent content = new MemoryFileContent(16, false);
+        byte[] data = data(100);
+        content.write(0, data, 0, data.length);
+
+        content.truncate(20);
+        assertEquals(20, content.size());
+
+        content.write(49, new byte[] { 1 }, 0, 1);
+
+        byte[] expected = new byte[50];
+        System.arraycopy(data, 0, expected, 0, 20);
+        expected[49] = 1;
+
+        assertArrayEquals(expected, readAll(content));
+    }
+}
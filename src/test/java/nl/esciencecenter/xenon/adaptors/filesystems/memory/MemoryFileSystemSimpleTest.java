@@ -0,0 +1,293 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.filesystems.memory;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import nl.esciencecenter.xenon.InvalidCredentialException;
+import nl.esciencecenter.xenon.InvalidPropertyException;
+import nl.esciencecenter.xenon.XenonException;
+import nl.esciencecenter.xenon.adaptors.NotConnectedException;
+import nl.esciencecenter.xenon.credentials.PasswordCredential;
+import nl.esciencecenter.xenon.filesystems.FileSystem;
+import nl.esciencecenter.xenon.filesystems.InvalidPathException;
+import nl.esciencecenter.xenon.filesystems.Path;
+import nl.esciencecenter.xenon.filesystems.PathAttributes;
+
+public class MemoryFileSystemSimpleTest {
+
+    private static void write(FileSystem fs, Path file, byte[] data) throws Exception {
+        try (OutputStream out = fs.writeToFile(file, data.length)) {
+            out.write(data);
+        }
+    }
+
+    private static byte[] read(FileSystem fs, Path file) throws Exception {
+        return fs.readToBuffer(file, 0, Integer.MAX_VALUE).array();
+    }
+
+    @Test(expected = InvalidCredentialException.class)
+    public void test_credential_wrong() throws XenonException {
+        FileSystem.create("memory", null, new PasswordCredential("aap", "noot".toCharArray()));
+    }
+
+    @Test(expected = InvalidPropertyException.class)
+    public void test_blockSize_invalid() throws XenonException {
+        Map<String, String> properties = new HashMap<>();
+        properties.put(MemoryFileAdaptor.BLOCK_SIZE, "0");
+        FileSystem.create("memory", null, null, properties);
+    }
+
+    @Test
+    public void test_workingDirectory_root() throws XenonException {
+        try (FileSystem fs = FileSystem.create("memory")) {
+            assertEquals(new Path("/"), fs.getWorkingDirectory());
+            assertTrue(fs.getAttributes(new Path("/")).isDirectory());
+        }
+    }
+
+    @Test
+    public void test_privateStores_notShared() throws XenonException {
+        try (FileSystem fs1 = FileSystem.create("memory"); FileSystem fs2 = FileSystem.create("memory")) {
+            fs1.createDirectory(new Path("/aap"));
+            assertFalse(fs2.exists(new Path("/aap")));
+        }
+    }
+
+    @Test
+    public void test_namedStore_sharedAndDiscarded() throws XenonException {
+        String name = "test_namedStore_sharedAndDiscarded";
+
+        FileSystem fs1 = FileSystem.create("memory", name);
+        fs1.createDirectory(new Path("/aap"));
+
+        FileSystem fs2 = FileSystem.create("memory", name);
+        assertTrue(fs2.exists(new Path("/aap")));
+
+        fs1.close();
+        assertTrue(fs2.exists(new Path("/aap")));
+
+        fs2.close();
+        assertFalse(MemoryStore.exists(name));
+
+        try (FileSystem fs3 = FileSystem.create("memory", name)) {
+            assertFalse(fs3.exists(new Path("/aap")));
+        }
+    }
+
+    @Test
+    public void test_close_twice_releasesOnce() throws XenonException {
+        String name = "test_close_twice_releasesOnce";
+
+        FileSystem fs1 = FileSystem.create("memory", name);
+        FileSystem fs2 = FileSystem.create("memory", name);
+        fs2.close();
+        fs2.close();
+
+        assertTrue(MemoryStore.exists(name));
+
+        fs1.close();
+        assertFalse(MemoryStore.exists(name));
+    }
+
+    @Test(expected = NotConnectedException.class)
+    public void test_closed_throwsException() throws XenonException {
+        FileSystem fs = FileSystem.create("memory");
+        fs.close();
+        fs.exists(new Path("/"));
+    }
+
+    @Test
+    public void test_direct_readWrite() throws Exception {
+        Map<String, String> properties = new HashMap<>();
+        properties.put(MemoryFileAdaptor.DIRECT, "true");
+        properties.put(MemoryFileAdaptor.BLOCK_SIZE, "1K");
+
+        try (FileSystem fs = FileSystem.create("memory", null, null, properties)) {
+            byte[] data = new byte[5000];
+
+            for (int i = 0; i < data.length; i++) {
+                data[i] = (byte) i;
+            }
+
+            write(fs, new Path("/file"), data);
+
+            java.nio.ByteBuffer buffer = fs.readToBuffer(new Path("/file"), 0, data.length);
+            assertTrue(buffer.isDirect());
+
+            byte[] result = new byte[buffer.remaining()];
+            buffer.get(result);
+            assertArrayEquals(data, result);
+        }
+    }
+
+    @Test
+    public void test_writeToFileAt_overwritesAndAppends() throws Exception {
+        try (FileSystem fs = FileSystem.create("memory")) {
+            Path file = new Path("/file");
+            write(fs, file, new byte[] { 1, 2, 3 });
+
+            try (OutputStream out = fs.writeToFileAt(file, 1)) {
+                out.write(new byte[] { 4 });
+            }
+
+            try (OutputStream out = fs.writeToFileAt(file, 3)) {
+                out.write(new byte[] { 5 });
+            }
+
+            assertArrayEquals(new byte[] { 1, 4, 3, 5 }, read(fs, file));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_writeToFileAt_beyondEnd_throwsException() throws Exception {
+        try (FileSystem fs = FileSystem.create("memory")) {
+            Path file = new Path("/file");
+            write(fs, file, new byte[] { 1, 2, 3 });
+            fs.writeToFileAt(file, 4);
+        }
+    }
+
+    @Test
+    public void test_intermediateLink_followed() throws Exception {
+        try (FileSystem fs = FileSystem.create("memory")) {
+            fs.createDirectories(new Path("/a/b"));
+            fs.createSymbolicLink(new Path("/link"), new Path("a"));
+            write(fs, new Path("/link/b/file"), "Hello".getBytes());
+
+            assertArrayEquals("Hello".getBytes(), read(fs, new Path("/a/b/file")));
+            assertTrue(fs.getAttributes(new Path("/link")).isSymbolicLink());
+        }
+    }
+
+    @Test
+    public void test_lastLink_followedForContent() throws Exception {
+        try (FileSystem fs = FileSystem.create("memory")) {
+            write(fs, new Path("/file"), "Hello".getBytes());
+            fs.createSymbolicLink(new Path("/link"), new Path("file"));
+
+            assertArrayEquals("Hello".getBytes(), read(fs, new Path("/link")));
+
+            try (java.io.OutputStream out = fs.appendToFile(new Path("/link"))) {
+                out.write(" World".getBytes());
+            }
+
+            assertArrayEquals("Hello World".getBytes(), read(fs, new Path("/file")));
+
+            assertTrue(fs.getAttributes(new Path("/link")).isSymbolicLink());
+
+            fs.delete(new Path("/link"), false);
+            assertTrue(fs.exists(new Path("/file")));
+        }
+    }
+
+    @Test(expected = InvalidPathException.class)
+    public void test_linkLoop_throwsException() throws Exception {
+        try (FileSystem fs = FileSystem.create("memory")) {
+            fs.createSymbolicLink(new Path("/a"), new Path("/b"));
+            fs.createSymbolicLink(new Path("/b"), new Path("/a"));
+            fs.exists(new Path("/a/file"));
+        }
+    }
+
+    @Test(expected = InvalidPathException.class)
+    public void test_rename_intoItself_throwsException() throws Exception {
+        try (FileSystem fs = FileSystem.create("memory")) {
+            fs.createDirectories(new Path("/a/b"));
+            fs.rename(new Path("/a"), new Path("/a/b/c"));
+        }
+    }
+
+    @Test
+    public void test_permissions_default() throws Exception {
+        try (FileSystem fs = FileSystem.create("memory")) {
+            fs.createFile(new Path("/file"));
+            fs.createDirectory(new Path("/dir"));
+
+            PathAttributes file = fs.getAttributes(new Path("/file"));
+            PathAttributes dir = fs.getAttributes(new Path("/dir"));
+
+            assertTrue(file.isReadable() && file.isWritable() && !file.isExecutable());
+            assertTrue(dir.isExecutable());
+        }
+    }
+
+    @Test
+    public void test_concurrentWriters() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+
+        try (FileSystem fs = FileSystem.create("memory")) {
+            fs.createFile(new Path("/shared"));
+
+            List<Future<Void>> results = new ArrayList<>();
+
+            for (int t = 0; t < 8; t++) {
+                final int thread = t;
+
+                results.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        Path dir = new Path("/dir" + thread);
+                        fs.createDirectory(dir);
+
+                        for (int i = 0; i < 50; i++) {
+                            write(fs, dir.resolve("file" + i), new byte[] { (byte) thread, (byte) i });
+
+                            try (OutputStream out = fs.appendToFile(new Path("/shared"))) {
+                                out.write(new byte[] { (byte) thread, (byte) i });
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+
+            for (Future<Void> f : results) {
+                f.get();
+            }
+
+            for (int t = 0; t < 8; t++) {
+                int count = 0;
+
+                for (PathAttributes a : fs.list(new Path("/dir" + t), false)) {
+                    assertEquals(2, a.getSize());
+                    count++;
+                }
+
+                assertEquals(50, count);
+            }
+
+            assertEquals(8 * 50 * 2, fs.getAttributes(new Path("/shared")).getSize());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -26,7 +26,7 @@ public class MockSSHConnection extends SSHConnection {
     MockSftpClient client;
 
     protected MockSSHConnection(MockSftpClient client) {
-        super(null, 0);
+        super();
         this.client = client;
     }
 
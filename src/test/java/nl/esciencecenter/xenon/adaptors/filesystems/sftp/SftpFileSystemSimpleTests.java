@@ -15,10 +15,13 @@
  */
 package nl.esciencecenter.xenon.adaptors.filesystems.sftp;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
 import java.util.HashSet;
+import java.util.Map;
 
 import org.apache.sshd.common.subsystem.sftp.SftpConstants;
 import org.apache.sshd.common.subsystem.sftp.SftpException;
@@ -330,4 +333,18 @@ public class SftpFileSystemSimpleTests {
         f.writeToFile(new Path("/home/xenon/file"));
     }
 
+    @Test
+    public void test_parseChecksums() {
+        Map<Path, String> result = SftpFileSystem.parseChecksums("ed076287532e86365e841e92bfc50d8c */home/xenon/file0\n"
+                + "d41d8cd98f00b204e9800998ecf8427e */home/xenon/dir/file 1\n");
+
+        assertEquals(2, result.size());
+        assertEquals("ed076287532e86365e841e92bfc50d8c", result.get(new Path("/home/xenon/file0")));
+        assertEquals("d41d8cd98f00b204e9800998ecf8427e", result.get(new Path("/home/xenon/dir/file 1")));
+    }
+
+    @Test
+    public void test_parseChecksums_escapedName() {
+        assertNull(SftpFileSystem.parseChecksums("\\d41d8cd98f00b204e9800998ecf8427e */home/xenon/file\\nname\n"));
+    }
 }
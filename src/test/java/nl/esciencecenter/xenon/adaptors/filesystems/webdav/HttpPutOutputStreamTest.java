@@ -0,0 +1,279 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.filesystems.webdav;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.http.Header;
+import org.apache.http.message.BasicHeader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.sardine.impl.SardineException;
+import com.sun.net.httpserver.HttpServer;
+
+public class HttpPutOutputStreamTest {
+
+    private HttpServer server;
+    private WebdavClient client;
+    private ExecutorService executor;
+
+    private int status;
+    private byte[] received;
+    private String transferEncoding;
+    private String contentLength;
+    private String authorization;
+    private String ifNoneMatch;
+
+    @Before
+    public void startServer() throws IOException {
+        status = 201;
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            transferEncoding = exchange.getRequestHeaders().getFirst("Transfer-Encoding");
+            contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+            authorization = exchange.getRequestHeaders().getFirst("Authorization");
+            ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+
+            ByteArrayOutputStream tmp = new ByteArrayOutputStream();
+
+            try (InputStream in = exchange.getRequestBody()) {
+                byte[] buffer = new byte[1024];
+                int n;
+                while ((n = in.read(buffer)) >= 0) {
+                    tmp.write(buffer, 0, n);
+                }
+            }
+
+            received = tmp.toByteArray();
+            exchange.sendResponseHeaders(status, -1);
+            exchange.close();
+        });
+        server.start();
+
+        client = new WebdavClient(WebdavFileAdaptor.createClientBuilder(4, 4, 1000), "user", "password");
+        client.enablePreemptiveAuthentication("localhost", server.getAddress().getPort(), -1);
+
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void stopServer() throws IOException {
+        client.shutdown();
+        executor.shutdownNow();
+        server.stop(0);
+    }
+
+    private HttpPutOutputStream open(long size) {
+        return open(client, size, 10000);
+    }
+
+    private HttpPutOutputStream open(WebdavClient client, long size, long timeout) {
+        String url = "http://localhost:" + server.getAddress().getPort() + "/file";
+        List<Header> headers = Collections.singletonList(new BasicHeader("If-None-Match", "*"));
+        return new HttpPutOutputStream(client, url, size, headers, 4096, timeout, executor);
+    }
+
+    private byte[] data(int size) {
+        byte[] data = new byte[size];
+
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) i;
+        }
+
+        return data;
+    }
+
+    @Test
+    public void test_upload_sizeUnknown_chunked() throws IOException {
+        byte[] data = data(100000);
+
+        try (OutputStream out = open(-1)) {
+            out.write(data);
+        }
+
+        assertEquals("chunked", transferEncoding);
+        assertArrayEquals(data, received);
+    }
+
+    @Test
+    public void test_upload_sizeKnown_contentLength() throws IOException {
+        byte[] data = data(100000);
+
+        try (OutputStream out = open(data.length)) {
+            out.write(data);
+        }
+
+        assertNull(transferEncoding);
+        assertEquals("100000", contentLength);
+        assertArrayEquals(data, received);
+    }
+
+    @Test
+    public void test_upload_singleBytes() throws IOException {
+        try (OutputStream out = open(3)) {
+            out.write(1);
+            out.write(2);
+            out.write(3);
+        }
+
+        assertArrayEquals(new byte[] { 1, 2, 3 }, received);
+    }
+
+    @Test
+    public void test_upload_singleThread_sequentialUploads() throws IOException {
+        executor.shutdownNow();
+        executor = Executors.newSingleThreadExecutor();
+
+        for (int i = 1; i <= 3; i++) {
+            byte[] data = data(i * 1000);
+
+            try (OutputStream out = open(data.length)) {
+                out.write(data);
+            }
+
+            assertArrayEquals(data, received);
+        }
+    }
+
+    @Test
+    public void test_upload_noConnection_timesOut() throws IOException {
+        WebdavClient single = new WebdavClient(WebdavFileAdaptor.createClientBuilder(1, 1, 1000), "user", "password");
+
+        try {
+            OutputStream first = open(single, -1, 10000);
+            first.write(data(10));
+
+            // The only connection is held by the first upload, so the second one cannot start.
+            OutputStream second = open(single, -1, 500);
+
+            try {
+                second.write(data(10));
+                fail("Expected IOException");
+            } catch (IOException e) {
+                assertTrue(e.getMessage().contains("did not start"));
+            }
+
+            first.close();
+            assertArrayEquals(data(10), received);
+        } finally {
+            single.shutdown();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void test_upload_idle_timesOut() throws Exception {
+        OutputStream out = open(client, -1, 300);
+        out.write(data(10));
+        Thread.sleep(1500);
+        out.close();
+    }
+
+    @Test
+    public void test_upload_slowWriter_noTimeout() throws Exception {
+        try (OutputStream out = open(client, -1, 300)) {
+            for (int i = 0; i < 15; i++) {
+                out.write(i);
+                out.flush();
+                Thread.sleep(100);
+            }
+        }
+
+        assertEquals(15, received.length);
+    }
+
+    @Test(expected = IOException.class)
+    public void test_upload_serverError_throwsOnClose() throws IOException {
+        status = 409;
+
+        OutputStream out = open(-1);
+        out.write(data(10));
+        out.close();
+    }
+
+    @Test
+    public void test_upload_usesClient() throws IOException {
+        try (OutputStream out = open(-1)) {
+            out.write(data(10));
+        }
+
+        assertEquals("Basic " + Base64.getEncoder().encodeToString("user:password".getBytes(StandardCharsets.UTF_8)), authorization);
+        assertEquals("*", ifNoneMatch);
+    }
+
+    @Test
+    public void test_upload_empty() throws IOException {
+        open(0).close();
+
+        assertEquals("0", contentLength);
+        assertEquals(0, received.length);
+    }
+
+    @Test
+    public void test_upload_preconditionFailed_throwsOnClose() throws IOException {
+        status = 412;
+
+        OutputStream out = open(10);
+        out.write(data(10));
+
+        try {
+            out.close();
+            fail("Expected IOException");
+        } catch (IOException e) {
+            assertTrue(e.getCause() instanceof SardineException);
+            assertEquals(412, ((SardineException) e.getCause()).getStatusCode());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void test_upload_tooMuchData_throwsException() throws IOException {
+        OutputStream out = open(5);
+        out.write(data(10));
+    }
+
+    @Test(expected = IOException.class)
+    public void test_upload_tooLittleData_throwsOnClose() throws IOException {
+        OutputStream out = open(100);
+        out.write(data(10));
+        out.close();
+    }
+
+    @Test
+    public void test_close_twice() throws IOException {
+        OutputStream out = open(-1);
+        out.write(data(10));
+        out.close();
+        out.close();
+    }
+}
@@ -0,0 +1,448 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.filesystems.webdav;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import nl.esciencecenter.xenon.XenonException;
+import nl.esciencecenter.xenon.credentials.DefaultCredential;
+import nl.esciencecenter.xenon.filesystems.FileSystem;
+import nl.esciencecenter.xenon.filesystems.InvalidPathException;
+import nl.esciencecenter.xenon.filesystems.Path;
+import nl.esciencecenter.xenon.filesystems.PathAlreadyExistsException;
+import nl.esciencecenter.xenon.filesystems.PathAttributes;
+
+/**
+ * Checks the requests issued by the webdav file system, and how their responses are mapped, using a minimal in-process webdav server.
+ */
+public class WebdavFileSystemRequestTest {
+
+    private static final String MODIFIED = "Wed, 01 Jan 2020 00:00:00 GMT";
+
+    private static class Resource {
+
+        final boolean directory;
+        final byte[] data;
+        volatile String etag;
+
+        Resource(boolean directory, byte[] data, String etag) {
+            this.directory = directory;
+            this.data = data;
+            this.etag = etag;
+        }
+    }
+
+    private static class Request {
+
+        final String method;
+        final String path;
+        final Headers headers;
+
+        Request(String method, String path, Headers headers) {
+            this.method = method;
+            this.path = path;
+            this.headers = headers;
+        }
+    }
+
+    private HttpServer server;
+    private FileSystem fs;
+
+    private final Map<String, Resource> resources = new ConcurrentHashMap<>();
+    private final List<Request> requests = Collections.synchronizedList(new ArrayList<>());
+
+    // Runs after each PROPFIND, to simulate a change made by someone else.
+    private volatile Runnable afterPropfind = () -> {
+    };
+
+    @Before
+    public void setup() throws Exception {
+        resources.put("/", new Resource(true, null, null));
+
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", this::handle);
+        server.start();
+
+        fs = new WebdavFileAdaptor().createFileSystem("http://localhost:" + server.getAddress().getPort() + "/", new DefaultCredential(), null);
+    }
+
+    @After
+    public void cleanup() throws XenonException {
+        fs.close();
+        server.stop(0);
+    }
+
+    private static String key(String path) {
+        return path.length() > 1 && path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+    }
+
+    private static byte[] readBody(HttpExchange exchange) throws IOException {
+
+        ByteArrayOutputStream tmp = new ByteArrayOutputStream();
+
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] buffer = new byte[1024];
+            int n;
+            while ((n = in.read(buffer)) >= 0) {
+                tmp.write(buffer, 0, n);
+            }
+        }
+
+        return tmp.toByteArray();
+    }
+
+    private static String propfindResponse(String path, Resource r) {
+
+        StringBuilder b = new StringBuilder();
+        b.append("<?xml version=\"1.0\" encoding=\"utf-8\"?>");
+        b.append("<d:multistatus xmlns:d=\"DAV:\"><d:response><d:href>").append(r.directory && !path.endsWith("/") ? path + "/" : path).append("</d:href>");
+        b.append("<d:propstat><d:prop>");
+        b.append("<d:creationdate>2020-01-01T00:00:00Z</d:creationdate>");
+        b.append("<d:getlastmodified>").append(MODIFIED).append("</d:getlastmodified>");
+
+        if (r.directory) {
+            b.append("<d:resourcetype><d:collection/></d:resourcetype>");
+        } else {
+            b.append("<d:resourcetype/>");
+            b.append("<d:getcontentlength>").append(r.data.length).append("</d:getcontentlength>");
+        }
+
+        if (r.etag != null) {
+            b.append("<d:getetag>").append(r.etag).append("</d:getetag>");
+        }
+
+        b.append("</d:prop><d:status>HTTP/1.1 200 OK</d:status></d:propstat></d:response></d:multistatus>");
+        return b.toString();
+    }
+
+    private static void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+
+        if (body == null) {
+            exchange.sendResponseHeaders(status, -1);
+        } else {
+            exchange.sendResponseHeaders(status, body.length);
+
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+
+        exchange.close();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+
+        String method = exchange.getRequestMethod();
+        String path = exchange.getRequestURI().getPath();
+        Headers headers = exchange.getRequestHeaders();
+        byte[] body = readBody(exchange);
+
+        requests.add(new Request(method, path, headers));
+
+        String key = key(path);
+        Resource r = resources.get(key);
+
+        switch (method) {
+        case "PROPFIND":
+            if (r == null) {
+                respond(exchange, 404, null);
+            } else {
+                respond(exchange, 207, propfindResponse(path, r).getBytes(StandardCharsets.UTF_8));
+            }
+            afterPropfind.run();
+            break;
+        case "GET":
+            if (r == null) {
+                respond(exchange, 404, null);
+            } else if (headers.containsKey("If-Match") && !headers.getFirst("If-Match").equals(r.etag)) {
+                respond(exchange, 412, null);
+            } else {
+                respond(exchange, 200, r.data);
+            }
+            break;
+        case "PUT":
+            if (r != null && "*".equals(headers.getFirst("If-None-Match"))) {
+                respond(exchange, 412, null);
+            } else {
+                resources.put(key, new Resource(false, body, "\"" + System.nanoTime() + "\""));
+                respond(exchange, 201, null);
+            }
+            break;
+        case "MOVE":
+            String target = key(URI.create(headers.getFirst("Destination")).getPath());
+
+            if (r == null) {
+                respond(exchange, 404, null);
+            } else if (headers.containsKey("If-Match") && !headers.getFirst("If-Match").equals(r.etag)) {
+                respond(exchange, 412, null);
+            } else if (resources.containsKey(target) && "F".equals(headers.getFirst("Overwrite"))) {
+                respond(exchange, 412, null);
+            } else {
+                resources.put(target, resources.remove(key));
+                respond(exchange, 201, null);
+            }
+            break;
+        case "MKCOL":
+            resources.put(key, new Resource(true, null, null));
+            respond(exchange, 201, null);
+            break;
+        default:
+            respond(exchange, 405, null);
+        }
+    }
+
+    private List<String> methods() {
+        List<String> result = new ArrayList<>();
+
+        synchronized (requests) {
+            for (Request r : requests) {
+                result.add(r.method + " " + r.path);
+            }
+        }
+
+        return result;
+    }
+
+    private Request last(String method) {
+        synchronized (requests) {
+            for (int i = requests.size() - 1; i >= 0; i--) {
+                if (requests.get(i).method.equals(method)) {
+                    return requests.get(i);
+                }
+            }
+        }
+
+        fail("No " + method + " request");
+        return null;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        try (InputStream tmp = in) {
+            byte[] buffer = new byte[1024];
+            int n;
+            while ((n = tmp.read(buffer)) >= 0) {
+                out.write(buffer, 0, n);
+            }
+        }
+
+        return out.toByteArray();
+    }
+
+    @Test
+    public void test_getAttributes_singlePropfind() throws Exception {
+        resources.put("/file", new Resource(false, "Hello".getBytes(), "\"v1\""));
+
+        PathAttributes a = fs.getAttributes(new Path("/file"));
+
+        assertTrue(a.isRegular());
+        assertEquals(5, a.getSize());
+        assertEquals(Collections.singletonList("PROPFIND /file"), methods());
+        assertEquals("0", last("PROPFIND").headers.getFirst("Depth"));
+    }
+
+    @Test
+    public void test_exists_missing_singlePropfind() throws Exception {
+        assertFalse(fs.exists(new Path("/missing")));
+        assertEquals(Collections.singletonList("PROPFIND /missing"), methods());
+    }
+
+    @Test(expected = InvalidPathException.class)
+    public void test_readFromFile_directory_throwsException() throws Exception {
+        resources.put("/dir", new Resource(true, null, null));
+        fs.readFromFile(new Path("/dir"));
+    }
+
+    @Test
+    public void test_readFromFile_strongETag_ifMatch() throws Exception {
+        resources.put("/file", new Resource(false, "Hello".getBytes(), "\"v1\""));
+
+        assertArrayEquals("Hello".getBytes(), readAll(fs.readFromFile(new Path("/file"))));
+
+        assertEquals(Arrays.asList("PROPFIND /file", "GET /file"), methods());
+
+        Headers headers = last("GET").headers;
+        assertEquals("\"v1\"", headers.getFirst("If-Match"));
+        assertNull(headers.getFirst("If-Unmodified-Since"));
+    }
+
+    @Test
+    public void test_readFromFile_weakETag_ifUnmodifiedSince() throws Exception {
+        resources.put("/file", new Resource(false, "Hello".getBytes(), "W/\"v1\""));
+
+        assertArrayEquals("Hello".getBytes(), readAll(fs.readFromFile(new Path("/file"))));
+
+        Headers headers = last("GET").headers;
+        assertNull(headers.getFirst("If-Match"));
+        assertEquals(MODIFIED, headers.getFirst("If-Unmodified-Since"));
+    }
+
+    @Test
+    public void test_readFromFile_modifiedAfterPropfind_throwsException() throws Exception {
+        Resource r = new Resource(false, "Hello".getBytes(), "\"v1\"");
+        resources.put("/file", r);
+
+        afterPropfind = () -> r.etag = "\"v2\"";
+
+        try {
+            fs.readFromFile(new Path("/file"));
+            fail("Expected XenonException");
+        } catch (XenonException e) {
+            assertTrue(e.getMessage().contains("modified"));
+        }
+    }
+
+    @Test
+    public void test_createDirectory_parentIsFile_noMkcol() throws Exception {
+        resources.put("/file", new Resource(false, "Hello".getBytes(), "\"v1\""));
+
+        try {
+            fs.createDirectory(new Path("/file/dir"));
+            fail("Expected InvalidPathException");
+        } catch (InvalidPathException e) {
+            // expected
+        }
+
+        assertFalse(methods().contains("MKCOL /file/dir/"));
+    }
+
+    @Test
+    public void test_createDirectory_checksTargetAndParent() throws Exception {
+        resources.put("/parent", new Resource(true, null, null));
+
+        fs.createDirectory(new Path("/parent/dir"));
+
+        assertEquals(Arrays.asList("PROPFIND /parent/dir", "PROPFIND /parent", "MKCOL /parent/dir/"), methods());
+    }
+
+    @Test
+    public void test_rename_targetExists_preconditionFailedMapped() throws Exception {
+        resources.put("/a", new Resource(false, "A".getBytes(), "\"a\""));
+        resources.put("/b", new Resource(false, "B".getBytes(), "\"b\""));
+
+        try {
+            fs.rename(new Path("/a"), new Path("/b"));
+            fail("Expected PathAlreadyExistsException");
+        } catch (PathAlreadyExistsException e) {
+            // expected
+        }
+
+        // The target is not checked before the move, but by the server. It is only looked up to explain the failed precondition.
+        List<String> methods = methods();
+        assertTrue(methods.indexOf("MOVE /a") < methods.indexOf("PROPFIND /b"));
+        assertEquals("F", last("MOVE").headers.getFirst("Overwrite"));
+    }
+
+    @Test
+    public void test_rename_strongETag_ifMatch() throws Exception {
+        resources.put("/a", new Resource(false, "A".getBytes(), "\"a\""));
+
+        fs.rename(new Path("/a"), new Path("/b"));
+
+        assertArrayEquals("A".getBytes(), resources.get("/b").data);
+
+        Headers headers = last("MOVE").headers;
+        assertEquals("\"a\"", headers.getFirst("If-Match"));
+        assertNull(headers.getFirst("If-Unmodified-Since"));
+    }
+
+    @Test
+    public void test_rename_weakETag_ifUnmodifiedSince() throws Exception {
+        resources.put("/a", new Resource(false, "A".getBytes(), "W/\"a\""));
+
+        fs.rename(new Path("/a"), new Path("/b"));
+
+        Headers headers = last("MOVE").headers;
+        assertNull(headers.getFirst("If-Match"));
+        assertEquals(MODIFIED, headers.getFirst("If-Unmodified-Since"));
+    }
+
+    @Test
+    public void test_rename_modifiedAfterPropfind_throwsException() throws Exception {
+        Resource r = new Resource(false, "A".getBytes(), "\"v1\"");
+        resources.put("/a", r);
+
+        afterPropfind = () -> r.etag = "\"v2\"";
+
+        try {
+            fs.rename(new Path("/a"), new Path("/b"));
+            fail("Expected XenonException");
+        } catch (PathAlreadyExistsException e) {
+            fail("Expected the modified source to be reported");
+        } catch (XenonException e) {
+            assertTrue(e.getMessage().contains("modified"));
+        }
+
+        assertTrue(resources.containsKey("/a"));
+        assertFalse(resources.containsKey("/b"));
+    }
+
+    @Test
+    public void test_writeToFile_ifNoneMatch() throws Exception {
+        try (OutputStream out = fs.writeToFile(new Path("/file"), 5)) {
+            out.write("Hello".getBytes());
+        }
+
+        assertArrayEquals("Hello".getBytes(), resources.get("/file").data);
+        assertEquals("*", last("PUT").headers.getFirst("If-None-Match"));
+    }
+
+    @Test
+    public void test_writeToFile_createdConcurrently_throwsOnClose() throws Exception {
+        afterPropfind = () -> resources.putIfAbsent("/file", new Resource(false, "Other".getBytes(), "\"o\""));
+
+        OutputStream out = fs.writeToFile(new Path("/file"), 5);
+        out.write("Hello".getBytes());
+
+        try {
+            out.close();
+            fail("Expected IOException");
+        } catch (IOException e) {
+            // expected
+        }
+
+        assertArrayEquals("Other".getBytes(), resources.get("/file").data);
+    }
+}
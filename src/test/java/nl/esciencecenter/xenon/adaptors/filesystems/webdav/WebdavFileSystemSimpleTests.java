@@ -15,13 +15,27 @@
  */
 package nl.esciencecenter.xenon.adaptors.filesystems.webdav;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.HashMap;
+import java.util.Map;
+
 import org.junit.Test;
 
 import nl.esciencecenter.xenon.InvalidCredentialException;
 import nl.esciencecenter.xenon.InvalidLocationException;
+import nl.esciencecenter.xenon.InvalidPropertyException;
 import nl.esciencecenter.xenon.XenonException;
+import nl.esciencecenter.xenon.adaptors.NotConnectedException;
 import nl.esciencecenter.xenon.credentials.CredentialMap;
+import nl.esciencecenter.xenon.credentials.DefaultCredential;
 import nl.esciencecenter.xenon.credentials.PasswordCredential;
+import nl.esciencecenter.xenon.filesystems.FileSystem;
+import nl.esciencecenter.xenon.filesystems.Path;
 
 public class WebdavFileSystemSimpleTests {
 
@@ -44,4 +58,87 @@ public class WebdavFileSystemSimpleTests {
     public void test_location_empty() throws XenonException {
         new WebdavFileAdaptor().createFileSystem("", new PasswordCredential("aap", "noot".toCharArray()), null);
     }
+
+    @Test(expected = InvalidPropertyException.class)
+    public void test_maxConnections_invalid() throws XenonException {
+        Map<String, String> props = new HashMap<>();
+        props.put(WebdavFileAdaptor.MAX_CONNECTIONS, "0");
+        new WebdavFileAdaptor().createFileSystem("http://localhost", new DefaultCredential(), props);
+    }
+
+    @Test(expected = InvalidPropertyException.class)
+    public void test_maxConnectionsPerRoute_invalid() throws XenonException {
+        Map<String, String> props = new HashMap<>();
+        props.put(WebdavFileAdaptor.MAX_CONNECTIONS_PER_ROUTE, "0");
+        new WebdavFileAdaptor().createFileSystem("http://localhost", new DefaultCredential(), props);
+    }
+
+    @Test(expected = InvalidPropertyException.class)
+    public void test_uploadTimeout_invalid() throws XenonException {
+        Map<String, String> props = new HashMap<>();
+        props.put(WebdavFileAdaptor.UPLOAD_TIMEOUT, "0");
+        new WebdavFileAdaptor().createFileSystem("http://localhost", new DefaultCredential(), props);
+    }
+
+    @Test
+    public void test_maxConnectionsPerRoute_largerThanMax() throws XenonException {
+        Map<String, String> props = new HashMap<>();
+        props.put(WebdavFileAdaptor.MAX_CONNECTIONS, "4");
+        props.put(WebdavFileAdaptor.MAX_CONNECTIONS_PER_ROUTE, "5");
+
+        try {
+            new WebdavFileAdaptor().createFileSystem("http://localhost", new DefaultCredential(), props);
+            fail("Expected InvalidPropertyException");
+        } catch (InvalidPropertyException e) {
+            assertTrue(e.getMessage().contains("(must be between 1 and 4)"));
+        }
+    }
+
+    @Test
+    public void test_keepAlive_serverDurationLimited() {
+        assertEquals(1000, WebdavFileAdaptor.getKeepAliveDuration(5000, 1000));
+        assertEquals(500, WebdavFileAdaptor.getKeepAliveDuration(500, 1000));
+        assertEquals(1000, WebdavFileAdaptor.getKeepAliveDuration(-1, 1000));
+    }
+
+    @Test
+    public void test_keepAlive_zeroNotForever() {
+        // The pool keeps a connection with a duration of 0 forever.
+        assertEquals(1, WebdavFileAdaptor.getKeepAliveDuration(0, 1000));
+        assertEquals(1, WebdavFileAdaptor.getKeepAliveDuration(-1, 0));
+    }
+
+    @Test
+    public void test_keepAlive_zero() throws XenonException {
+        Map<String, String> props = new HashMap<>();
+        props.put(WebdavFileAdaptor.KEEP_ALIVE, "0");
+        FileSystem fs = new WebdavFileAdaptor().createFileSystem("http://localhost", new DefaultCredential(), props);
+        assertTrue(fs.isOpen());
+        fs.close();
+    }
+
+    @Test
+    public void test_close_twice() throws XenonException {
+        FileSystem fs = new WebdavFileAdaptor().createFileSystem("http://localhost", new PasswordCredential("aap", "noot".toCharArray()), null);
+        assertTrue(fs.isOpen());
+        fs.close();
+        assertFalse(fs.isOpen());
+        fs.close();
+    }
+
+    @Test(expected = NotConnectedException.class)
+    public void test_closed_throwsException() throws XenonException {
+        FileSystem fs = new WebdavFileAdaptor().createFileSystem("http://localhost", new DefaultCredential(), null);
+        fs.close();
+        fs.exists(new Path("/test"));
+    }
+
+    @Test
+    public void test_parseChecksum() {
+        String value = "SHA1:2EF7BDE608CE5404E97D5F042F95F89F1C232871 MD5:ed076287532e86365e841e92bfc50d8c ADLER32:1c49043e";
+        assertEquals("2ef7bde608ce5404e97d5f042f95f89f1c232871", WebdavFileSystem.parseChecksum(value, "SHA-1"));
+        assertEquals("ed076287532e86365e841e92bfc50d8c", WebdavFileSystem.parseChecksum(value, "MD5"));
+        assertNull(WebdavFileSystem.parseChecksum(value, "SHA-256"));
+        assertNull(WebdavFileSystem.parseChecksum(null, "MD5"));
+    }
 }
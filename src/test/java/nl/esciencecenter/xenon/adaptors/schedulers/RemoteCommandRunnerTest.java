@@ -15,12 +15,19 @@
  */
 package nl.esciencecenter.xenon.adaptors.schedulers;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.util.concurrent.CompletableFuture;
+
 import org.junit.Test;
 
 import nl.esciencecenter.xenon.XenonException;
+import nl.esciencecenter.xenon.filesystems.MockFileSystem;
+import nl.esciencecenter.xenon.credentials.DefaultCredential;
+import nl.esciencecenter.xenon.filesystems.Path;
+import nl.esciencecenter.xenon.schedulers.JobDescription;
 
 public class RemoteCommandRunnerTest {
 
@@ -50,4 +57,40 @@ public class RemoteCommandRunnerTest {
         RemoteCommandRunner r = new RemoteCommandRunner(s, "this is input", "/bin/foobar", new String[] { "p1", "p2" });
         assertFalse(r.success());
     }
+
+    @Test
+    public void test_runAsync_fallback() throws Exception {
+        MockScheduler s = new MockScheduler(false, null, 0);
+        CompletableFuture<RemoteCommandRunner> f = RemoteCommandRunner.runAsync(s, "this is input", "/bin/foobar", new String[] { "p1", "p2" });
+        assertTrue(f.isDone());
+        assertTrue(f.get().success());
+    }
+
+    @Test(expected = XenonException.class)
+    public void test_run_fails() throws XenonException {
+        MockScheduler s = new MockScheduler(true, null, 1);
+        RemoteCommandRunner.run(s, "this is input", "/bin/foobar", new String[] { "p1", "p2" });
+    }
+
+    @Test
+    public void test_run_usesFactory() throws Exception {
+
+        MockFileSystem fs = new MockFileSystem("FID", "MockFS", "local://", new Path("/home/xenon"));
+
+        MockInteractiveProcessFactory factory = new MockInteractiveProcessFactory() {
+            @Override
+            public CompletableFuture<RemoteCommandRunner> runCommand(JobDescription description, String workdir, String stdin, long timeoutInMillis) {
+                return CompletableFuture.completedFuture(new RemoteCommandRunner(3, description.getExecutable() + " " + workdir, stdin));
+            }
+        };
+
+        try (JobQueueScheduler s = new JobQueueScheduler("SID", "MockS", "location", new DefaultCredential(), factory, fs, new Path("/home/xenon"), 2, 100,
+                10000L, null)) {
+            RemoteCommandRunner r = RemoteCommandRunner.run(s, "this is input", "/bin/foobar", new String[] { "p1", "p2" });
+            assertEquals(3, r.getExitCode());
+            assertEquals("/bin/foobar /home/xenon", r.getStdout());
+            assertEquals("this is input", r.getStderr());
+            assertEquals(0, s.getJobs().length);
+        }
+    }
 }
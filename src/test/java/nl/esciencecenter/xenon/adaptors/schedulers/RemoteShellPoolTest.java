@@ -0,0 +1,300 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.schedulers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import nl.esciencecenter.xenon.XenonException;
+import nl.esciencecenter.xenon.credentials.DefaultCredential;
+import nl.esciencecenter.xenon.filesystems.FileSystem;
+import nl.esciencecenter.xenon.schedulers.JobDescription;
+import nl.esciencecenter.xenon.schedulers.JobStatus;
+import nl.esciencecenter.xenon.schedulers.QueueStatus;
+import nl.esciencecenter.xenon.schedulers.Scheduler;
+import nl.esciencecenter.xenon.schedulers.Streams;
+
+public class RemoteShellPoolTest {
+
+    /**
+     * Runs jobs on another scheduler, but fails to start the given number of shells.
+     */
+    private static class FailingScheduler extends Scheduler {
+
+        private final Scheduler scheduler;
+
+        private int failures;
+
+        FailingScheduler(Scheduler scheduler, int failures) {
+            super("FAILING", "failing", "", new DefaultCredential(), null);
+            this.scheduler = scheduler;
+            this.failures = failures;
+        }
+
+        synchronized void setFailures(int failures) {
+            this.failures = failures;
+        }
+
+        @Override
+        public Streams submitInteractiveJob(JobDescription description) throws XenonException {
+            synchronized (this) {
+                if (failures > 0 && description.getExecutable().equals("/bin/sh")) {
+                    failures--;
+                    throw new XenonException("failing", "Failed to start shell");
+                }
+            }
+            return scheduler.submitInteractiveJob(description);
+        }
+
+        @Override
+        public String[] getQueueNames() throws XenonException {
+            return scheduler.getQueueNames();
+        }
+
+        @Override
+        public void close() throws XenonException {
+            scheduler.close();
+        }
+
+        @Override
+        public boolean isOpen() throws XenonException {
+            return scheduler.isOpen();
+        }
+
+        @Override
+        public String getDefaultQueueName() throws XenonException {
+            return scheduler.getDefaultQueueName();
+        }
+
+        @Override
+        public int getDefaultRuntime() throws XenonException {
+            return scheduler.getDefaultRuntime();
+        }
+
+        @Override
+        public String[] getJobs(String... queueNames) throws XenonException {
+            return scheduler.getJobs(queueNames);
+        }
+
+        @Override
+        public QueueStatus getQueueStatus(String queueName) throws XenonException {
+            return scheduler.getQueueStatus(queueName);
+        }
+
+        @Override
+        public QueueStatus[] getQueueStatuses(String... queueNames) throws XenonException {
+            return scheduler.getQueueStatuses(queueNames);
+        }
+
+        @Override
+        public String submitBatchJob(JobDescription description) throws XenonException {
+            return scheduler.submitBatchJob(description);
+        }
+
+        @Override
+        public JobStatus getJobStatus(String jobIdentifier) throws XenonException {
+            return scheduler.getJobStatus(jobIdentifier);
+        }
+
+        @Override
+        public JobStatus cancelJob(String jobIdentifier) throws XenonException {
+            return scheduler.cancelJob(jobIdentifier);
+        }
+
+        @Override
+        public JobStatus waitUntilDone(String jobIdentifier, long timeout) throws XenonException {
+            return scheduler.waitUntilDone(jobIdentifier, timeout);
+        }
+
+        @Override
+        public JobStatus waitUntilRunning(String jobIdentifier, long timeout) throws XenonException {
+            return scheduler.waitUntilRunning(jobIdentifier, timeout);
+        }
+
+        @Override
+        public FileSystem getFileSystem() throws XenonException {
+            return scheduler.getFileSystem();
+        }
+    }
+
+    private Scheduler scheduler;
+    private RemoteShellPool pool;
+
+    @Before
+    public void setUp() throws XenonException {
+        scheduler = Scheduler.create("local");
+        pool = new RemoteShellPool(scheduler, 2);
+    }
+
+    @After
+    public void tearDown() throws XenonException {
+        pool.close();
+        scheduler.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_invalidSize() {
+        new RemoteShellPool(scheduler, 0);
+    }
+
+    @Test
+    public void test_output_noTrailingNewline() throws XenonException {
+        RemoteCommandRunner r = pool.run(null, "printf", "%s", "abc");
+        assertEquals("abc", r.getStdout());
+        assertEquals("", r.getStderr());
+        assertEquals(0, r.getExitCode());
+        assertTrue(r.success());
+    }
+
+    @Test
+    public void test_stderrAndExitCode() throws XenonException {
+        RemoteCommandRunner r = pool.run(null, "sh", "-c", "echo out; echo err >&2; exit 3");
+        assertEquals("out\n", r.getStdout());
+        assertEquals("err\n", r.getStderr());
+        assertEquals(3, r.getExitCode());
+    }
+
+    @Test
+    public void test_stdin() throws XenonException {
+        RemoteCommandRunner r = pool.run("line1\nit's line2", "cat");
+        assertEquals("line1\nit's line2", r.getStdout());
+    }
+
+    @Test
+    public void test_noStdin_doesNotReadShellInput() throws XenonException {
+        assertEquals("", pool.run(null, "cat").getStdout());
+        assertEquals("still here", pool.run(null, "echo", "still here").getStdout().trim());
+    }
+
+    @Test
+    public void test_argumentsQuoted() throws XenonException {
+        RemoteCommandRunner r = pool.run(null, "printf", "%s|", "a b", "it's", "$HOME", "*");
+        assertEquals("a b|it's|$HOME|*|", r.getStdout());
+    }
+
+    @Test
+    public void test_commandNotFound() throws XenonException {
+        RemoteCommandRunner r = pool.run(null, "xenon-no-such-command");
+        assertEquals(127, r.getExitCode());
+        assertTrue(r.getStderr().contains("xenon-no-such-command"));
+    }
+
+    @Test
+    public void test_shellReused() throws XenonException {
+        for (int i = 0; i < 10; i++) {
+            assertEquals(Integer.toString(i), pool.run(null, "echo", Integer.toString(i)).getStdout().trim());
+        }
+        assertEquals(1, pool.size());
+    }
+
+    @Test
+    public void test_concurrent_bounded() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+
+        try {
+            List<Future<String>> results = new ArrayList<>();
+
+            for (int i = 0; i < 32; i++) {
+                final String value = Integer.toString(i);
+                results.add(executor.submit(() -> pool.run(null, "echo", value).getStdout().trim()));
+            }
+
+            for (int i = 0; i < results.size(); i++) {
+                assertEquals(Integer.toString(i), results.get(i).get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertTrue(pool.size() <= 2);
+    }
+
+    @Test
+    public void test_restartAfterShellExits() throws XenonException {
+        pool.run(null, "true");
+
+        try {
+            // Kill the shell running the command.
+            pool.run(null, "sh", "-c", "kill -9 $PPID");
+        } catch (XenonException e) {
+            // expected, the shell died while running the command
+        }
+
+        RemoteCommandRunner r = pool.run(null, "echo", "restarted");
+        assertEquals("restarted\n", r.getStdout());
+        assertEquals(1, pool.size());
+    }
+
+    @Test
+    public void test_startFails_fallsBackToJobs() throws XenonException {
+        FailingScheduler failing = new FailingScheduler(scheduler, 1);
+        RemoteShellPool p = new RemoteShellPool(failing, 2);
+
+        try {
+            assertEquals("job\n", p.run(null, "echo", "job").getStdout());
+            assertEquals(0, p.size());
+
+            // No shell was ever started, so the pool does not try again.
+            assertEquals("job\n", p.run(null, "echo", "job").getStdout());
+            assertEquals(0, p.size());
+        } finally {
+            p.close();
+        }
+    }
+
+    @Test
+    public void test_startFailsAfterShellStarted_retried() throws XenonException {
+        FailingScheduler failing = new FailingScheduler(scheduler, 0);
+        RemoteShellPool p = new RemoteShellPool(failing, 2);
+
+        try {
+            p.run(null, "true");
+
+            try {
+                // Kill the shell running the command, so the next command needs a new shell.
+                p.run(null, "sh", "-c", "kill -9 $PPID");
+            } catch (XenonException e) {
+                // expected, the shell died while running the command
+            }
+
+            failing.setFailures(1);
+
+            assertEquals("job\n", p.run(null, "echo", "job").getStdout());
+            assertEquals(0, p.size());
+
+            assertEquals("shell\n", p.run(null, "echo", "shell").getStdout());
+            assertEquals(1, p.size());
+        } finally {
+            p.close();
+        }
+    }
+
+    @Test(expected = SchedulerClosedException.class)
+    public void test_closed() throws XenonException {
+        pool.close();
+        pool.run(null, "true");
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.schedulers;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class StreamBufferTest {
+
+    private static byte[] data(int size, int seed) {
+        byte[] result = new byte[size];
+        for (int i = 0; i < size; i++) {
+            result[i] = (byte) (i * 31 + seed);
+        }
+        return result;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] tmp = new byte[100];
+        int n;
+        while ((n = in.read(tmp)) != -1) {
+            out.write(tmp, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] readExactly(InputStream in, int len) throws IOException {
+        byte[] result = new byte[len];
+        int off = 0;
+        while (off < len) {
+            int n = in.read(result, off, len - off);
+            assertTrue(n > 0);
+            off += n;
+        }
+        return result;
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_create_negativeLimit() {
+        new StreamBuffer(-1);
+    }
+
+    @Test
+    public void test_inMemory() throws IOException {
+        StreamBuffer b = new StreamBuffer(1024);
+        byte[] d = data(500, 1);
+
+        b.getSink().write(d);
+        b.getSink().close();
+
+        assertFalse(b.isSpilled());
+        assertEquals(500, b.getSource().available());
+        assertArrayEquals(d, readAll(b.getSource()));
+    }
+
+    @Test
+    public void test_spill_keepsOrder() throws IOException {
+        StreamBuffer b = new StreamBuffer(100);
+        OutputStream sink = b.getSink();
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+
+        for (int i = 0; i < 10; i++) {
+            byte[] d = data(30, i);
+            sink.write(d);
+            expected.write(d);
+        }
+
+        assertTrue(b.isSpilled());
+        assertEquals(300, b.getSource().available());
+
+        sink.close();
+
+        assertArrayEquals(expected.toByteArray(), readAll(b.getSource()));
+        assertFalse(b.isSpilled());
+    }
+
+    @Test
+    public void test_spill_drainedFileIsReused() throws IOException {
+        StreamBuffer b = new StreamBuffer(10);
+        InputStream source = b.getSource();
+
+        b.getSink().write(data(50, 1));
+        assertTrue(b.isSpilled());
+        assertArrayEquals(data(50, 1), readExactly(source, 50));
+        assertFalse(b.isSpilled());
+
+        // Small writes go to memory again once the file has been drained
+        b.getSink().write(data(5, 2));
+        assertFalse(b.isSpilled());
+
+        b.getSink().write(data(50, 3));
+        assertTrue(b.isSpilled());
+
+        assertArrayEquals(data(5, 2), readExactly(source, 5));
+        assertArrayEquals(data(50, 3), readExactly(source, 50));
+    }
+
+    @Test
+    public void test_zeroLimit_spillsEverything() throws IOException {
+        StreamBuffer b = new StreamBuffer(0);
+        b.getSink().write(42);
+        assertTrue(b.isSpilled());
+        assertEquals(42, b.getSource().read());
+    }
+
+    @Test
+    public void test_readSingleBytes() throws IOException {
+        StreamBuffer b = new StreamBuffer(1024);
+        b.getSink().write(new byte[] { 1, (byte) 200 });
+        b.getSink().close();
+
+        assertEquals(1, b.getSource().read());
+        assertEquals(200, b.getSource().read());
+        assertEquals(-1, b.getSource().read());
+    }
+
+    @Test
+    public void test_read_blocksUntilData() throws Exception {
+        StreamBuffer b = new StreamBuffer(1024);
+
+        Thread t = new Thread(() -> {
+            try {
+                Thread.sleep(100);
+                b.getSink().write(7);
+            } catch (Exception e) {
+                // ignored
+            }
+        });
+        t.start();
+
+        assertEquals(7, b.getSource().read());
+        t.join();
+    }
+
+    @Test
+    public void test_listener() throws IOException {
+        StreamBuffer b = new StreamBuffer(1024);
+        AtomicInteger count = new AtomicInteger();
+
+        b.setListener(count::incrementAndGet);
+        assertEquals(0, count.get());
+
+        b.getSink().write(data(10, 1));
+        assertEquals(1, count.get());
+
+        b.getSink().close();
+        assertEquals(2, count.get());
+
+        // Closing twice does not notify again
+        b.getSink().close();
+        assertEquals(2, count.get());
+    }
+
+    @Test
+    public void test_listener_dataAlreadyAvailable() throws IOException {
+        StreamBuffer b = new StreamBuffer(1024);
+        AtomicInteger count = new AtomicInteger();
+
+        b.getSink().write(1);
+        b.setListener(count::incrementAndGet);
+
+        assertEquals(1, count.get());
+    }
+
+    @Test
+    public void test_closedSource_dropsData() throws IOException {
+        StreamBuffer b = new StreamBuffer(10);
+        b.getSink().write(data(50, 1));
+        b.getSource().close();
+
+        assertFalse(b.isSpilled());
+
+        b.getSink().write(data(50, 1));
+        assertFalse(b.isSpilled());
+        assertEquals(0, b.getSource().available());
+    }
+
+    @Test(expected = IOException.class)
+    public void test_closedSource_readFails() throws IOException {
+        StreamBuffer b = new StreamBuffer(10);
+        b.getSource().close();
+        b.getSource().read();
+    }
+
+    @Test(expected = IOException.class)
+    public void test_closedSink_writeFails() throws IOException {
+        StreamBuffer b = new StreamBuffer(10);
+        b.getSink().close();
+        b.getSink().write(1);
+    }
+}
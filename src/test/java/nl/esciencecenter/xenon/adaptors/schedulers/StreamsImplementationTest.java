@@ -61,6 +61,32 @@ public class StreamsImplementationTest {
         assertEquals(stderr, s.getStderr());
     }
 
+    @Test
+    public void test_outputListener_unsupported() throws Exception {
+        Streams s = new StreamsImplementation("JOB-42", new ByteArrayInputStream(new byte[0]), new ByteArrayOutputStream(),
+                new ByteArrayInputStream(new byte[0]));
+        assertFalse(s.setOutputListener(() -> {
+        }));
+    }
+
+    @Test
+    public void test_outputListener_buffered() throws Exception {
+        StreamBuffer stdout = new StreamBuffer(1024);
+        StreamBuffer stderr = new StreamBuffer(1024);
+
+        Streams s = new StreamsImplementation("JOB-42", stdout, new ByteArrayOutputStream(), stderr);
+
+        int[] count = new int[1];
+        assertTrue(s.setOutputListener(() -> count[0]++));
+
+        stdout.getSink().write(1);
+        stderr.getSink().write(2);
+
+        assertEquals(2, count[0]);
+        assertEquals(1, s.getStdout().available());
+        assertEquals(1, s.getStderr().available());
+    }
+
     @Test
     public void test_stdin() throws Exception {
         String id = "JOB-42";
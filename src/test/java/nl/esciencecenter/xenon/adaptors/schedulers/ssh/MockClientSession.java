@@ -82,7 +82,7 @@ public class MockClientSession implements ClientSession {
 
     boolean createChannelThrows;
 
-    MockClientSession(boolean closeFails) {
+    public MockClientSession(boolean closeFails) {
         this(closeFails, false);
     }
 
@@ -24,7 +24,7 @@ public class MockSSHConnection extends SSHConnection {
     boolean closed = false;
 
     protected MockSSHConnection() {
-        super(new MockSSHClient(), 0);
+        super();
     }
 
     @Override
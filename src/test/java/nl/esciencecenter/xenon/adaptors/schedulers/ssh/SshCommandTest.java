@@ -0,0 +1,121 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.schedulers.ssh;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.sshd.client.channel.ChannelExec;
+import org.apache.sshd.client.future.DefaultOpenFuture;
+import org.apache.sshd.client.future.OpenFuture;
+import org.apache.sshd.common.future.CloseFuture;
+import org.apache.sshd.common.future.DefaultCloseFuture;
+import org.apache.sshd.common.future.SshFutureListener;
+import org.junit.Test;
+
+import nl.esciencecenter.xenon.XenonException;
+import nl.esciencecenter.xenon.adaptors.schedulers.RemoteCommandRunner;
+import nl.esciencecenter.xenon.schedulers.JobDescription;
+
+public class SshCommandTest {
+
+    /**
+     * A channel that fails to open, and is closed either before or after the failure is reported, like sshd does.
+     */
+    private static class FailingChannel extends ChannelExec {
+
+        private final boolean closeFirst;
+
+        private SshFutureListener<CloseFuture> closeListener;
+
+        FailingChannel(boolean closeFirst) {
+            super("true", null, null);
+            this.closeFirst = closeFirst;
+        }
+
+        @Override
+        public void addCloseFutureListener(SshFutureListener<CloseFuture> listener) {
+            closeListener = listener;
+        }
+
+        private void closed() {
+            DefaultCloseFuture future = new DefaultCloseFuture("test", null);
+            future.setClosed();
+            closeListener.operationComplete(future);
+        }
+
+        @Override
+        public OpenFuture open() {
+
+            if (closeFirst) {
+                closed();
+            }
+
+            return new DefaultOpenFuture("test", null) {
+                @Override
+                public OpenFuture addListener(SshFutureListener<OpenFuture> listener) {
+                    super.addListener(listener);
+                    setException(new IOException("Open failed"));
+
+                    if (!closeFirst) {
+                        closed();
+                    }
+                    return this;
+                }
+            };
+        }
+    }
+
+    private void assertOpenFailure(boolean closeFirst) throws Exception {
+
+        MockClientSession session = new MockClientSession(false) {
+            @Override
+            public ChannelExec createExecChannel(String command) {
+                return new FailingChannel(closeFirst);
+            }
+        };
+
+        JobDescription description = new JobDescription();
+        description.setExecutable("true");
+
+        // Both outcomes are queued on the executor, so repeat to give the wrong one a chance to win.
+        for (int i = 0; i < 100; i++) {
+            CompletableFuture<RemoteCommandRunner> result = SshCommand.run(session, description, null, 0);
+
+            try {
+                result.get(10, TimeUnit.SECONDS);
+                fail("Expected the command to fail");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof XenonException);
+            }
+        }
+    }
+
+    @Test
+    public void test_openFails_closedAfterwards_fails() throws Exception {
+        assertOpenFailure(false);
+    }
+
+    @Test
+    public void test_openFails_closedFirst_fails() throws Exception {
+        assertOpenFailure(true);
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.shared.ssh;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.sshd.client.SshClient;
+import org.apache.sshd.common.NamedFactory;
+import org.apache.sshd.common.NamedResource;
+import org.apache.sshd.common.cipher.BuiltinCiphers;
+import org.apache.sshd.common.cipher.Cipher;
+import org.apache.sshd.common.compression.BuiltinCompressions;
+import org.apache.sshd.common.mac.Mac;
+import org.junit.Test;
+
+public class SSHAlgorithmsTest {
+
+    @Test
+    public void test_defaultCiphers_candidatesFirst() {
+        List<NamedFactory<Cipher>> ciphers = SSHAlgorithms.getCiphers("");
+
+        int candidates = 0;
+
+        for (BuiltinCiphers c : SSHAlgorithms.CIPHER_CANDIDATES) {
+            if (c.isSupported()) {
+                candidates++;
+            }
+        }
+
+        for (int i = 0; i < candidates; i++) {
+            assertTrue(SSHAlgorithms.CIPHER_CANDIDATES.contains(ciphers.get(i)));
+        }
+    }
+
+    @Test
+    public void test_defaultCiphers_includeDefaults() {
+        List<String> names = NamedResource.getNameList(SSHAlgorithms.getCiphers(""));
+        assertTrue(names.contains(BuiltinCiphers.aes128cbc.getName()));
+    }
+
+    @Test
+    public void test_defaultCiphers_benchmarkedOnce() {
+        assertSame(SSHAlgorithms.getCiphers(""), SSHAlgorithms.getCiphers(""));
+    }
+
+    @Test
+    public void test_defaultMacs_candidatesFirst() {
+        List<NamedFactory<Mac>> macs = SSHAlgorithms.getMacs("");
+        assertTrue(SSHAlgorithms.MAC_CANDIDATES.contains(macs.get(0)));
+        assertTrue(SSHAlgorithms.MAC_CANDIDATES.contains(macs.get(1)));
+    }
+
+    @Test
+    public void test_ciphers_explicit() {
+        List<String> names = NamedResource.getNameList(SSHAlgorithms.getCiphers("aes256-ctr,aes128-ctr"));
+        assertEquals(Arrays.asList("aes256-ctr", "aes128-ctr"), names);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_ciphers_unknown() {
+        SSHAlgorithms.getCiphers("aes128-ctr,rot13");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_ciphers_none() {
+        SSHAlgorithms.getCiphers(",");
+    }
+
+    @Test
+    public void test_macs_explicit() {
+        List<String> names = NamedResource.getNameList(SSHAlgorithms.getMacs("hmac-sha2-512"));
+        assertEquals(Arrays.asList("hmac-sha2-512"), names);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_macs_unknown() {
+        SSHAlgorithms.getMacs("hmac-foo");
+    }
+
+    @Test
+    public void test_compressions() {
+        assertEquals(Arrays.asList(BuiltinCompressions.none), SSHAlgorithms.getCompressions(SSHSettings.Compression.NONE));
+        assertEquals(BuiltinCompressions.delayedZlib, SSHAlgorithms.getCompressions(SSHSettings.Compression.ZLIB).get(0));
+        assertEquals(BuiltinCompressions.none, SSHAlgorithms.getCompressions(SSHSettings.Compression.AUTO).get(0));
+        assertTrue(SSHAlgorithms.getCompressions(SSHSettings.Compression.AUTO).contains(BuiltinCompressions.delayedZlib));
+    }
+
+    @Test
+    public void test_adaptCompression_notAuto() throws Exception {
+        // The session is not used unless compression is automatic.
+        assertFalse(SSHAlgorithms.adaptCompression(null, SSHSettings.Compression.ZLIB, 1000));
+    }
+
+    @Test
+    public void test_configure() {
+        SSHSettings settings = new SSHSettings();
+        settings.setCiphers("aes192-ctr");
+        settings.setCompression(SSHSettings.Compression.ZLIB);
+
+        SshClient client = SshClient.setUpDefaultClient();
+        SSHAlgorithms.configure(client, settings);
+
+        assertEquals("aes192-ctr", client.getCipherFactoriesNameList());
+        assertEquals("zlib@openssh.com,zlib,none", client.getCompressionFactoriesNameList());
+    }
+
+    @Test
+    public void test_settings_ciphers_trimmed() {
+        SSHSettings settings = new SSHSettings();
+        settings.setCiphers(" aes128-ctr ");
+        assertEquals("aes128-ctr", settings.getCiphers());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_settings_ciphers_invalid() {
+        new SSHSettings().setCiphers("rot13");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_settings_macs_invalid() {
+        new SSHSettings().setMacs("hmac-foo");
+    }
+
+    @Test
+    public void test_settings_compression_fromName() {
+        assertEquals(SSHSettings.Compression.AUTO, SSHSettings.Compression.fromName("Auto"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_settings_compression_fromName_unknown() {
+        SSHSettings.Compression.fromName("gzip");
+    }
+
+    @Test
+    public void test_settings_algorithms_notEqual() {
+        SSHSettings other = new SSHSettings();
+        other.setCompression(SSHSettings.Compression.AUTO);
+        assertNotEquals(new SSHSettings(), other);
+    }
+
+    @Test
+    public void test_settings_lifecycle_equal() {
+        SSHSettings other = new SSHSettings();
+        other.setIdleTimeout(1000);
+        other.setHealthCheckInterval(1000);
+        assertEquals(new SSHSettings(), other);
+    }
+
+    @Test
+    public void test_sharedClient_algorithms_notShared() {
+        SSHSettings other = new SSHSettings();
+        other.setMacs("hmac-sha2-256");
+
+        SshClient c1 = SSHUtil.acquireSharedClient(new SSHSettings());
+        SshClient c2 = SSHUtil.acquireSharedClient(other);
+
+        try {
+            assertNotSame(c1, c2);
+            assertEquals("hmac-sha2-256", c2.getMacFactoriesNameList());
+        } finally {
+            SSHUtil.releaseSharedClient(c1);
+            SSHUtil.releaseSharedClient(c2);
+        }
+    }
+}
@@ -0,0 +1,530 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.shared.ssh;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.sshd.client.session.ClientSession;
+import org.apache.sshd.common.util.buffer.Buffer;
+import org.apache.sshd.common.util.buffer.ByteArrayBuffer;
+import org.apache.sshd.common.util.net.SshdSocketAddress;
+import org.junit.Test;
+
+import nl.esciencecenter.xenon.XenonException;
+import nl.esciencecenter.xenon.adaptors.schedulers.ssh.MockClientSession;
+import nl.esciencecenter.xenon.credentials.DefaultCredential;
+import nl.esciencecenter.xenon.credentials.PasswordCredential;
+import nl.esciencecenter.xenon.credentials.UserCredential;
+
+public class SSHConnectionRegistryTest {
+
+    // A session that answers health checks while it is alive.
+    private static class ProbeSession extends MockClientSession {
+
+        volatile boolean alive = true;
+
+        ProbeSession() {
+            super(false);
+        }
+
+        @Override
+        public Buffer createBuffer(byte cmd) {
+            return new ByteArrayBuffer();
+        }
+
+        @Override
+        public Buffer request(String request, Buffer buffer, long timeout, TimeUnit unit) throws IOException {
+            if (!alive) {
+                throw new SocketTimeoutException("No response");
+            }
+            return null;
+        }
+    }
+
+    private final AtomicInteger connects = new AtomicInteger();
+
+    private static SSHConnectionRegistry.Key key(String host, UserCredential credential) {
+        return new SSHConnectionRegistry.Key(new SshdSocketAddress[] { new SshdSocketAddress(host, 22) }, new UserCredential[] { credential },
+                new SSHSettings());
+    }
+
+    private SSHSessionChain connect() {
+        connects.incrementAndGet();
+        return new SSHSessionChain(new MockClientSession(false), null, null);
+    }
+
+    private SSHSessionChain connectProbe() {
+        connects.incrementAndGet();
+        return new SSHSessionChain(new ProbeSession(), null, null);
+    }
+
+    private SSHConnection acquire(SSHConnectionRegistry.Key key) throws XenonException {
+        return new SSHConnection(SSHConnectionRegistry.acquire(key, 0, this::connect));
+    }
+
+    // Connect to a server behind the gateway, in the same way SSHUtil does.
+    private SSHSessionChain connectVia(SSHConnectionRegistry.Key gatewayKey) throws XenonException {
+        SSHSessionChain gateway = SSHConnectionRegistry.acquire(gatewayKey, 0, this::connect);
+        return new SSHSessionChain(new MockClientSession(false), gateway, null);
+    }
+
+    @Test
+    public void test_key_equals() {
+        assertEquals(key("host", new DefaultCredential("user")), key("host", new DefaultCredential("user")));
+        assertEquals(key("host", new DefaultCredential("user")).hashCode(), key("host", new DefaultCredential("user")).hashCode());
+    }
+
+    @Test
+    public void test_key_differentHost_notEquals() {
+        assertNotEquals(key("host1", new DefaultCredential("user")), key("host2", new DefaultCredential("user")));
+    }
+
+    @Test
+    public void test_key_differentCredential_notEquals() {
+        assertNotEquals(key("host", new DefaultCredential("user")), key("host", new PasswordCredential("user", "secret")));
+    }
+
+    @Test
+    public void test_key_differentSettings_notEquals() {
+        SshdSocketAddress[] locations = new SshdSocketAddress[] { new SshdSocketAddress("host", 22) };
+        UserCredential[] credentials = new UserCredential[] { new DefaultCredential("user") };
+
+        SSHSettings lenient = new SSHSettings();
+        lenient.setStrictHostKeyChecking(false);
+
+        assertNotEquals(new SSHConnectionRegistry.Key(locations, credentials, new SSHSettings()),
+                new SSHConnectionRegistry.Key(locations, credentials, lenient));
+    }
+
+    @Test
+    public void test_key_differentLifecycleSettings_equals() {
+        SshdSocketAddress[] locations = new SshdSocketAddress[] { new SshdSocketAddress("host", 22) };
+        UserCredential[] credentials = new UserCredential[] { new DefaultCredential("user") };
+
+        SSHSettings tuned = new SSHSettings();
+        tuned.setIdleTimeout(60000);
+        tuned.setGatewayIdleTimeout(0);
+        tuned.setHealthCheckInterval(0);
+        tuned.setKeepAliveInterval(0);
+        tuned.setConnectParallelism(1);
+        tuned.setIOThreads(2);
+
+        SSHConnectionRegistry.Key key = new SSHConnectionRegistry.Key(locations, credentials, new SSHSettings());
+        SSHConnectionRegistry.Key other = new SSHConnectionRegistry.Key(locations, credentials, tuned);
+
+        assertEquals(key, other);
+        assertEquals(key.hashCode(), other.hashCode());
+    }
+
+    @Test
+    public void test_acquire_sameKey_shared() throws XenonException {
+        SSHConnectionRegistry.Key key = key("test_acquire_sameKey_shared", new DefaultCredential("user"));
+
+        SSHConnection c1 = acquire(key);
+        SSHConnection c2 = acquire(key);
+
+        assertEquals(1, connects.get());
+        assertSame(c1.getSession(), c2.getSession());
+
+        c1.close();
+        c2.close();
+    }
+
+    @Test
+    public void test_acquire_differentKey_notShared() throws XenonException {
+        SSHConnection c1 = acquire(key("test_acquire_differentKey_notShared", new DefaultCredential("user1")));
+        SSHConnection c2 = acquire(key("test_acquire_differentKey_notShared", new DefaultCredential("user2")));
+
+        assertEquals(2, connects.get());
+        assertNotEquals(c1.getSession(), c2.getSession());
+
+        c1.close();
+        c2.close();
+    }
+
+    @Test
+    public void test_close_sessionOpenUntilLastRelease() throws XenonException {
+        SSHConnectionRegistry.Key key = key("test_close_sessionOpenUntilLastRelease", new DefaultCredential("user"));
+
+        SSHConnection c1 = acquire(key);
+        SSHConnection c2 = acquire(key);
+
+        c1.close();
+
+        assertTrue(c1.isClosed());
+        assertTrue(c2.isOpen());
+        assertTrue(c2.getSession().isOpen());
+
+        c2.close();
+
+        assertFalse(c2.getSession().isOpen());
+    }
+
+    @Test
+    public void test_close_twice_releasesOnce() throws XenonException {
+        SSHConnectionRegistry.Key key = key("test_close_twice_releasesOnce", new DefaultCredential("user"));
+
+        SSHConnection c1 = acquire(key);
+        SSHConnection c2 = acquire(key);
+
+        c1.close();
+        c1.close();
+
+        assertTrue(c2.getSession().isOpen());
+
+        c2.close();
+    }
+
+    @Test
+    public void test_acquire_afterLastRelease_reconnects() throws XenonException {
+        SSHConnectionRegistry.Key key = key("test_acquire_afterLastRelease_reconnects", new DefaultCredential("user"));
+
+        acquire(key).close();
+        SSHConnection c = acquire(key);
+
+        assertEquals(2, connects.get());
+        assertTrue(c.getSession().isOpen());
+
+        c.close();
+    }
+
+    @Test
+    public void test_acquire_closedSession_reconnects() throws Exception {
+        SSHConnectionRegistry.Key key = key("test_acquire_closedSession_reconnects", new DefaultCredential("user"));
+
+        SSHConnection c1 = acquire(key);
+
+        // Simulate a session closed by the server.
+        c1.getSession().close();
+
+        SSHConnection c2 = acquire(key);
+
+        assertEquals(2, connects.get());
+        assertNotEquals(c1.getSession(), c2.getSession());
+        assertTrue(c2.getSession().isOpen());
+
+        c1.close();
+
+        assertTrue(c2.getSession().isOpen());
+
+        c2.close();
+    }
+
+    @Test(expected = XenonException.class)
+    public void test_acquire_connectFails() throws XenonException {
+        SSHConnectionRegistry.acquire(key("test_acquire_connectFails", new DefaultCredential("user")), 0, () -> {
+            throw new XenonException("ssh", "failed");
+        });
+    }
+
+    // Acquire the connection for key from several threads at the same time.
+    private static List<Future<SSHSessionChain>> acquireConcurrently(SSHConnectionRegistry.Key key, SSHConnectionRegistry.Connector connector, int threads)
+            throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Callable<SSHSessionChain>> tasks = new ArrayList<>();
+
+        for (int i = 0; i < threads; i++) {
+            tasks.add(() -> SSHConnectionRegistry.acquire(key, 0, connector));
+        }
+
+        try {
+            return executor.invokeAll(tasks);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private SSHSessionChain connectSlowly() throws XenonException {
+        try {
+            Thread.sleep(200);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return connect();
+    }
+
+    @Test
+    public void test_acquire_concurrent_connectsOnce() throws Exception {
+        SSHConnectionRegistry.Key key = key("test_acquire_concurrent_connectsOnce", new DefaultCredential("user"));
+
+        List<Future<SSHSessionChain>> results = acquireConcurrently(key, this::connectSlowly, 8);
+
+        SSHSessionChain first = results.get(0).get();
+
+        for (Future<SSHSessionChain> f : results) {
+            assertSame(first, f.get());
+        }
+
+        assertEquals(1, connects.get());
+
+        for (Future<SSHSessionChain> f : results) {
+            SSHConnectionRegistry.release(f.get());
+        }
+
+        assertFalse(first.getSession().isOpen());
+    }
+
+    @Test
+    public void test_acquire_concurrent_failureShared() throws Exception {
+        SSHConnectionRegistry.Key key = key("test_acquire_concurrent_failureShared", new DefaultCredential("user"));
+
+        List<Future<SSHSessionChain>> results = acquireConcurrently(key, () -> {
+            connectSlowly();
+            throw new XenonException("ssh", "failed");
+        }, 4);
+
+        for (Future<SSHSessionChain> f : results) {
+            try {
+                f.get();
+                fail("Expected failure");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof XenonException);
+            }
+        }
+
+        assertEquals(1, connects.get());
+
+        // Nothing is left pending, so the next attempt connects again.
+        SSHConnection c = acquire(key);
+        assertEquals(2, connects.get());
+        c.close();
+    }
+
+    @Test
+    public void test_gateway_sharedBetweenServers() throws XenonException {
+        SSHConnectionRegistry.Key gatewayKey = key("test_gateway_sharedBetweenServers", new DefaultCredential("user"));
+
+        SSHConnection c1 = new SSHConnection(
+                SSHConnectionRegistry.acquire(key("test_gateway_sharedBetweenServers_1", new DefaultCredential("user")), 0, () -> connectVia(gatewayKey)));
+        SSHConnection c2 = new SSHConnection(
+                SSHConnectionRegistry.acquire(key("test_gateway_sharedBetweenServers_2", new DefaultCredential("user")), 0, () -> connectVia(gatewayKey)));
+
+        SSHSessionChain gateway = SSHConnectionRegistry.acquire(gatewayKey, 0, this::connect);
+
+        // Only the gateway session was set up using connect.
+        assertEquals(1, connects.get());
+        assertNotEquals(c1.getSession(), c2.getSession());
+
+        c1.close();
+        c2.close();
+
+        assertTrue(gateway.getSession().isOpen());
+
+        // Release the reference we got ourselves.
+        SSHConnectionRegistry.release(gateway);
+
+        assertFalse(gateway.getSession().isOpen());
+    }
+
+    @Test
+    public void test_idleTimeout_keepsConnection() throws XenonException {
+        SSHConnectionRegistry.Key key = key("test_idleTimeout_keepsConnection", new DefaultCredential("user"));
+
+        SSHSessionChain c1 = SSHConnectionRegistry.acquire(key, 60000, this::connect);
+        SSHConnectionRegistry.release(c1);
+
+        assertTrue(c1.getSession().isOpen());
+
+        SSHSessionChain c2 = SSHConnectionRegistry.acquire(key, 0, this::connect);
+
+        assertEquals(1, connects.get());
+        assertSame(c1, c2);
+
+        // Close it without waiting for the idle timeout.
+        c2.close();
+    }
+
+    @Test
+    public void test_idleTimeout_evicts() throws Exception {
+        SSHConnectionRegistry.Key key = key("test_idleTimeout_evicts", new DefaultCredential("user"));
+
+        SSHSessionChain chain = SSHConnectionRegistry.acquire(key, 50, this::connect);
+        SSHConnectionRegistry.release(chain);
+
+        Thread.sleep(500);
+
+        assertFalse(chain.getSession().isOpen());
+        assertTrue(chain.isClosed());
+    }
+
+    @Test
+    public void test_idleTimeout_reuseCancelsEviction() throws Exception {
+        SSHConnectionRegistry.Key key = key("test_idleTimeout_reuseCancelsEviction", new DefaultCredential("user"));
+
+        SSHSessionChain chain = SSHConnectionRegistry.acquire(key, 200, this::connect);
+        SSHConnectionRegistry.release(chain);
+        SSHConnectionRegistry.acquire(key, 0, this::connect);
+
+        Thread.sleep(500);
+
+        assertTrue(chain.getSession().isOpen());
+
+        SSHConnectionRegistry.release(chain);
+
+        Thread.sleep(500);
+
+        assertFalse(chain.getSession().isOpen());
+    }
+
+    @Test
+    public void test_idleTimeout_differentSettings_sharedWithLongest() throws XenonException {
+        SSHSettings shortIdle = new SSHSettings();
+        shortIdle.setIdleTimeout(10);
+
+        SSHSettings longIdle = new SSHSettings();
+        longIdle.setIdleTimeout(60000);
+
+        SshdSocketAddress[] locations = new SshdSocketAddress[] { new SshdSocketAddress("test_idleTimeout_differentSettings", 22) };
+        UserCredential[] credentials = new UserCredential[] { new DefaultCredential("user") };
+
+        SSHSessionChain c1 = SSHConnectionRegistry.acquire(new SSHConnectionRegistry.Key(locations, credentials, shortIdle), 10, this::connect);
+        SSHSessionChain c2 = SSHConnectionRegistry.acquire(new SSHConnectionRegistry.Key(locations, credentials, longIdle), 60000, this::connect);
+
+        assertEquals(1, connects.get());
+        assertSame(c1, c2);
+        assertEquals(60000, c1.idleTimeout);
+
+        SSHConnectionRegistry.release(c1);
+        c2.close();
+    }
+
+    @Test
+    public void test_healthCheck_differentSettings_shortestInterval() throws XenonException {
+        SSHSettings none = new SSHSettings();
+        none.setHealthCheckInterval(0);
+
+        SSHSettings slow = new SSHSettings();
+        slow.setHealthCheckInterval(60000);
+
+        SSHSettings fast = new SSHSettings();
+        fast.setHealthCheckInterval(30000);
+
+        SshdSocketAddress[] locations = new SshdSocketAddress[] { new SshdSocketAddress("test_healthCheck_differentSettings", 22) };
+        UserCredential[] credentials = new UserCredential[] { new DefaultCredential("user") };
+
+        SSHSessionChain chain = SSHConnectionRegistry.acquire(new SSHConnectionRegistry.Key(locations, credentials, none), 0, this::connectProbe);
+        assertEquals(0, chain.healthCheckInterval);
+
+        SSHConnectionRegistry.acquire(new SSHConnectionRegistry.Key(locations, credentials, fast), 0, this::connectProbe);
+        assertEquals(30000, chain.healthCheckInterval);
+
+        SSHConnectionRegistry.acquire(new SSHConnectionRegistry.Key(locations, credentials, slow), 0, this::connectProbe);
+        assertEquals(30000, chain.healthCheckInterval);
+
+        assertEquals(1, connects.get());
+
+        SSHConnectionRegistry.release(chain);
+        SSHConnectionRegistry.release(chain);
+        SSHConnectionRegistry.release(chain);
+
+        assertTrue(chain.isClosed());
+        assertEquals(0, chain.healthCheckInterval);
+    }
+
+    @Test
+    public void test_checkHealth_alive() throws Exception {
+        SSHConnection c = new SSHConnection(connectProbe());
+
+        assertEquals(-1, c.getLatency());
+        assertTrue(c.checkHealth(1000) >= 0);
+        assertTrue(c.getLatency() >= 0);
+        assertTrue(c.isHealthy());
+
+        c.close();
+    }
+
+    @Test
+    public void test_checkHealth_dead() throws Exception {
+        SSHConnection c = new SSHConnection(connectProbe());
+
+        ((ProbeSession) c.getSession()).alive = false;
+
+        try {
+            c.checkHealth(1000);
+            fail("Health check should fail");
+        } catch (SocketTimeoutException e) {
+            // expected
+        }
+
+        assertFalse(c.isHealthy());
+
+        c.close();
+    }
+
+    @Test
+    public void test_healthCheck_failed_replacedInBackground() throws Exception {
+        SSHSettings settings = new SSHSettings();
+        settings.setHealthCheckInterval(50);
+
+        SSHConnectionRegistry.Key key = new SSHConnectionRegistry.Key(new SshdSocketAddress[] { new SshdSocketAddress("test_healthCheck_failed", 22) },
+                new UserCredential[] { new DefaultCredential("user") }, settings);
+
+        SSHConnectionRegistry.Connector reconnector = () -> SSHConnectionRegistry.acquire(key, 0, this::connectProbe);
+        SSHConnection c = new SSHConnection(reconnector.connect(), reconnector);
+
+        ProbeSession first = (ProbeSession) c.getSession();
+        first.alive = false;
+
+        long deadline = System.currentTimeMillis() + 5000;
+
+        while (connects.get() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        // The failed session is closed, and a replacement is set up before the connection is used again.
+        assertEquals(2, connects.get());
+        assertFalse(first.isOpen());
+
+        ClientSession second = c.getSession();
+
+        assertNotEquals(first, second);
+        assertTrue(second.isOpen());
+        assertEquals(2, connects.get());
+
+        c.close();
+
+        assertFalse(second.isOpen());
+    }
+
+    @Test
+    public void test_getSession_failedUnshared_keepsSession() throws Exception {
+        SSHConnection c = new SSHConnection(connectProbe());
+
+        ClientSession session = c.getSession();
+        session.close();
+
+        assertSame(session, c.getSession());
+
+        c.close();
+    }
+}
@@ -17,19 +17,30 @@ package nl.esciencecenter.xenon.adaptors.shared.ssh;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Semaphore;
 
+import org.apache.sshd.client.SshClient;
 import org.apache.sshd.common.util.net.SshdSocketAddress;
 import org.junit.Test;
 
 import nl.esciencecenter.xenon.InvalidLocationException;
+import nl.esciencecenter.xenon.InvalidPropertyException;
 import nl.esciencecenter.xenon.UnknownAdaptorException;
+import nl.esciencecenter.xenon.XenonException;
+import nl.esciencecenter.xenon.XenonPropertyDescription;
+import nl.esciencecenter.xenon.XenonPropertyDescription.Type;
+import nl.esciencecenter.xenon.adaptors.XenonProperties;
 import nl.esciencecenter.xenon.adaptors.filesystems.sftp.SftpFileAdaptor;
 import nl.esciencecenter.xenon.adaptors.schedulers.ssh.SshSchedulerAdaptor;
 import nl.esciencecenter.xenon.adaptors.shared.ssh.SSHUtil.PasswordProvider;
@@ -379,4 +390,151 @@ public class SSHUtilTest {
 
         SSHUtil.extractCredentials("test", address, cm);
     }
+
+    @Test
+    public void test_sharedClient_sameSettings_shared() {
+        SshClient c1 = SSHUtil.acquireSharedClient(new SSHSettings());
+        SshClient c2 = SSHUtil.acquireSharedClient(new SSHSettings());
+
+        try {
+            assertSame(c1, c2);
+            assertTrue(c1.isStarted());
+        } finally {
+            SSHUtil.releaseSharedClient(c1);
+            SSHUtil.releaseSharedClient(c2);
+        }
+    }
+
+    @Test
+    public void test_sharedClient_sessionSettings_shared() {
+        SSHSettings lenient = new SSHSettings();
+        lenient.setStrictHostKeyChecking(false);
+        lenient.setLoadSSHConfig(false);
+
+        SshClient c1 = SSHUtil.acquireSharedClient(new SSHSettings());
+        SshClient c2 = SSHUtil.acquireSharedClient(lenient);
+
+        try {
+            assertSame(c1, c2);
+        } finally {
+            SSHUtil.releaseSharedClient(c1);
+            SSHUtil.releaseSharedClient(c2);
+        }
+    }
+
+    @Test
+    public void test_sharedClient_differentIOThreads_notShared() {
+        SSHSettings other = new SSHSettings();
+        other.setIOThreads(2);
+
+        SshClient c1 = SSHUtil.acquireSharedClient(new SSHSettings());
+        SshClient c2 = SSHUtil.acquireSharedClient(other);
+
+        try {
+            assertNotSame(c1, c2);
+        } finally {
+            SSHUtil.releaseSharedClient(c1);
+            SSHUtil.releaseSharedClient(c2);
+        }
+    }
+
+    @Test
+    public void test_sharedClient_stoppedAfterLastRelease() {
+        SshClient c1 = SSHUtil.acquireSharedClient(new SSHSettings());
+        SshClient c2 = SSHUtil.acquireSharedClient(new SSHSettings());
+
+        SSHUtil.releaseSharedClient(c1);
+        assertTrue(c2.isStarted());
+
+        SSHUtil.releaseSharedClient(c2);
+        assertFalse(c2.isStarted());
+        assertEquals(0, SSHUtil.getSharedClientCount());
+    }
+
+    @Test
+    public void test_connect_runtimeException_releasesSharedClient() throws XenonException {
+        PasswordCredential credential = new PasswordCredential("user", "password".toCharArray()) {
+            @Override
+            public String getUsername() {
+                throw new IllegalStateException("No username");
+            }
+        };
+
+        try {
+            SSHUtil.connect("test", "localhost", credential, 1000, new SSHSettings());
+            fail("Expected the connection setup to fail");
+        } catch (IllegalStateException e) {
+            assertEquals(0, SSHUtil.getSharedClientCount());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_settings_negativeIOThreads_throwsException() {
+        new SSHSettings().setIOThreads(-1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_settings_negativeConnectParallelism_throwsException() {
+        new SSHSettings().setConnectParallelism(-1);
+    }
+
+    @Test
+    public void test_connectPermits_unlimited() {
+        assertNull(SSHUtil.getConnectPermits(0));
+    }
+
+    @Test
+    public void test_connectPermits_sharedPerSetting() {
+        Semaphore s = SSHUtil.getConnectPermits(3);
+
+        assertEquals(3, s.availablePermits());
+        assertSame(s, SSHUtil.getConnectPermits(3));
+        assertNotSame(s, SSHUtil.getConnectPermits(4));
+    }
+
+    @Test
+    public void test_createSettings_fromPrefixedProperties() throws XenonException {
+        XenonPropertyDescription[] valid = SSHUtil.withSettingsProperties("test.", new XenonPropertyDescription("test.other", Type.STRING, "", "Other."));
+
+        Map<String, String> properties = new HashMap<>();
+        properties.put("test.strictHostKeyChecking", "false");
+        properties.put("test.idleTimeout", "5000");
+        properties.put("test.compression", "zlib");
+
+        SSHSettings settings = SSHUtil.createSettings("test", new XenonProperties(valid, properties), "test.");
+
+        assertEquals("test.other", valid[valid.length - 1].getName());
+        assertFalse(settings.getStrictHostKeyChecking());
+        assertTrue(settings.getLoadKnownHosts());
+        assertEquals(5000, settings.getIdleTimeout());
+        assertEquals(SSHSettings.Compression.ZLIB, settings.getCompression());
+    }
+
+    @Test(expected = InvalidPropertyException.class)
+    public void test_createSettings_invalidCompression_throwsException() throws XenonException {
+        Map<String, String> properties = new HashMap<>();
+        properties.put("test.compression", "gzip");
+
+        SSHUtil.createSettings("test", new XenonProperties(SSHUtil.withSettingsProperties("test."), properties), "test.");
+    }
+
+    private static boolean supports(XenonPropertyDescription[] properties, String name) {
+        for (XenonPropertyDescription p : properties) {
+            if (p.getName().equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    public void test_adaptors_shareSettingsProperties() {
+        XenonPropertyDescription[] sftp = new SftpFileAdaptor().getSupportedProperties();
+        XenonPropertyDescription[] ssh = new SshSchedulerAdaptor().getSupportedProperties();
+
+        for (XenonPropertyDescription p : SSHUtil.withSettingsProperties("")) {
+            assertTrue(supports(sftp, SftpFileAdaptor.PREFIX + p.getName()));
+            assertTrue(supports(ssh, SshSchedulerAdaptor.PREFIX + p.getName()));
+        }
+    }
 }
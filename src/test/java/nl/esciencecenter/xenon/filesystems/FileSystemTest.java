@@ -16,23 +16,31 @@
 package nl.esciencecenter.xenon.filesystems;
 
 import static org.hamcrest.Matchers.instanceOf;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.junit.Test;
 
 import nl.esciencecenter.xenon.UnknownAdaptorException;
+import nl.esciencecenter.xenon.UnsupportedOperationException;
 import nl.esciencecenter.xenon.XenonException;
 import nl.esciencecenter.xenon.XenonPropertyDescription;
 import nl.esciencecenter.xenon.XenonPropertyDescription.Type;
@@ -874,6 +882,36 @@ public class FileSystemTest {
         f0.copyFile(f, f1, f, CopyMode.CREATE, f0.createCallback(0));
     }
 
+    @Test
+    public void test_copyFileCancelImmediately_nativeCopyNotStarted() throws XenonException {
+        Path entry = new Path("/test");
+
+        AtomicBoolean started = new AtomicBoolean(false);
+
+        MockFileSystem f0 = new MockFileSystem("0", "TEST0", "MEM", entry) {
+            @Override
+            protected long nativeCopyFile(Path source, FileSystem destinationFS, Path destination, CopyMode mode) {
+                started.set(true);
+                return 0;
+            }
+        };
+
+        MockFileSystem f1 = new MockFileSystem("1", "TEST1", "MEM", entry);
+
+        Path f = new Path("/test/aap");
+
+        f0.createFile(f);
+
+        try {
+            f0.copyFile(f, f1, f, CopyMode.CREATE, f0.createCallback(0));
+            fail("Copy should be cancelled");
+        } catch (CopyCancelledException e) {
+            // expected
+        }
+
+        assertFalse(started.get());
+    }
+
     // copy
 
     @Test(expected = IllegalArgumentException.class)
@@ -1420,4 +1458,174 @@ public class FileSystemTest {
         }
     }
 
+    @Test
+    public void test_readFromFileOffset() throws Exception {
+        MockFileSystem f = new MockFileSystem("0", "TEST0", "MEM", new Path("/test"));
+        Path file = new Path("/test/aap");
+        f.createFile(file);
+        f.addData(file, new byte[] { 0, 1, 2, 3, 4, 5, 6, 7 });
+
+        try (InputStream in = f.readFromFile(file, 5)) {
+            assertEquals(5, in.read());
+            assertEquals(6, in.read());
+            assertEquals(7, in.read());
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test
+    public void test_readFromFileOffsetBeyondEnd() throws Exception {
+        MockFileSystem f = new MockFileSystem("0", "TEST0", "MEM", new Path("/test"));
+        Path file = new Path("/test/aap");
+        f.createFile(file);
+        f.addData(file, new byte[] { 0, 1, 2, 3 });
+
+        try (InputStream in = f.readFromFile(file, 42)) {
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_readFromFileOffsetNegative() throws Exception {
+        MockFileSystem f = new MockFileSystem("0", "TEST0", "MEM", new Path("/test"));
+        Path file = new Path("/test/aap");
+        f.createFile(file);
+        f.readFromFile(file, -1);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void test_writeToFileAtUnsupported() throws Exception {
+        MockFileSystem f = new MockFileSystem("0", "TEST0", "MEM", new Path("/test"));
+        Path file = new Path("/test/aap");
+        f.createFile(file);
+        f.writeToFileAt(file, 0);
+    }
+
+    private MockFileSystem createChannelTestFileSystem(Path file, byte[] data) throws Exception {
+        MockFileSystem f = new MockFileSystem("0", "TEST0", "MEM", new Path("/test"));
+        f.createFile(file);
+        f.addData(file, data);
+
+        PathAttributesImplementation a = new PathAttributesImplementation();
+        a.setPath(file);
+        a.setRegular(true);
+        a.setSize(data.length);
+        f.addAttributes(file, a);
+        return f;
+    }
+
+    @Test
+    public void test_openChannelRead() throws Exception {
+        Path file = new Path("/test/aap");
+        MockFileSystem f = createChannelTestFileSystem(file, new byte[] { 0, 1, 2, 3, 4, 5, 6, 7 });
+
+        try (SeekableByteChannel channel = f.openChannel(file, false)) {
+            assertEquals(8, channel.size());
+
+            ByteBuffer buffer = ByteBuffer.allocate(3);
+            channel.position(5);
+            assertEquals(3, channel.read(buffer));
+            assertArrayEquals(new byte[] { 5, 6, 7 }, buffer.array());
+            assertEquals(8, channel.position());
+            assertEquals(-1, channel.read(ByteBuffer.allocate(1)));
+
+            buffer = ByteBuffer.allocateDirect(2);
+            channel.position(1);
+            assertEquals(2, channel.read(buffer));
+            buffer.flip();
+            assertEquals(1, buffer.get());
+            assertEquals(2, buffer.get());
+
+            // A small forward seek skips on the open stream.
+            buffer = ByteBuffer.allocate(1);
+            channel.position(6);
+            assertEquals(1, channel.read(buffer));
+            assertEquals(6, buffer.get(0));
+        }
+    }
+
+    @Test(expected = NonWritableChannelException.class)
+    public void test_openChannelReadOnly_writeThrowsException() throws Exception {
+        Path file = new Path("/test/aap");
+        MockFileSystem f = createChannelTestFileSystem(file, new byte[] { 0, 1, 2, 3 });
+
+        try (SeekableByteChannel channel = f.openChannel(file, false)) {
+            channel.write(ByteBuffer.allocate(1));
+        }
+    }
+
+    @Test(expected = ClosedChannelException.class)
+    public void test_openChannelClosed_readThrowsException() throws Exception {
+        Path file = new Path("/test/aap");
+        MockFileSystem f = createChannelTestFileSystem(file, new byte[] { 0, 1, 2, 3 });
+
+        SeekableByteChannel channel = f.openChannel(file, false);
+        channel.close();
+        assertFalse(channel.isOpen());
+        channel.read(ByteBuffer.allocate(1));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void test_openChannelWriteUnsupported() throws Exception {
+        Path file = new Path("/test/aap");
+        MockFileSystem f = createChannelTestFileSystem(file, new byte[] { 0, 1, 2, 3 });
+        f.openChannel(file, true);
+    }
+
+    @Test
+    public void test_readToBuffer() throws Exception {
+        Path file = new Path("/test/aap");
+        MockFileSystem f = createChannelTestFileSystem(file, new byte[] { 0, 1, 2, 3, 4, 5, 6, 7 });
+
+        ByteBuffer buffer = f.readToBuffer(file, 2, 3);
+        assertEquals(0, buffer.position());
+        assertEquals(3, buffer.remaining());
+        assertEquals(2, buffer.get());
+        assertEquals(3, buffer.get());
+        assertEquals(4, buffer.get());
+
+        assertEquals(2, f.readToBuffer(file, 6, 100).remaining());
+        assertEquals(0, f.readToBuffer(file, 42, 100).remaining());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_readToBufferNegativeLength() throws Exception {
+        Path file = new Path("/test/aap");
+        MockFileSystem f = createChannelTestFileSystem(file, new byte[] { 0, 1, 2, 3 });
+        f.readToBuffer(file, 0, -1);
+    }
+
+    @Test
+    public void test_writeFromBufferDirect() throws Exception {
+        MockFileSystem f = new MockFileSystem("0", "TEST0", "MEM", new Path("/test"));
+        Path file = new Path("/test/aap");
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(4);
+        buffer.put(new byte[] { 1, 2, 3, 4 });
+        buffer.flip();
+
+        f.writeFromBuffer(file, buffer);
+
+        assertFalse(buffer.hasRemaining());
+        assertArrayEquals(new byte[] { 1, 2, 3, 4 }, f.getData(file));
+    }
+
+    @Test
+    public void test_writeFromBufferHeapSlice() throws Exception {
+        MockFileSystem f = new MockFileSystem("0", "TEST0", "MEM", new Path("/test"));
+        Path file = new Path("/test/aap");
+
+        ByteBuffer buffer = ByteBuffer.wrap(new byte[] { 0, 1, 2, 3, 4, 5 }, 1, 4).slice();
+        buffer.position(1);
+
+        f.writeFromBuffer(file, buffer);
+
+        assertArrayEquals(new byte[] { 2, 3, 4 }, f.getData(file));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_writeFromBufferNull() throws Exception {
+        MockFileSystem f = new MockFileSystem("0", "TEST0", "MEM", new Path("/test"));
+        f.writeFromBuffer(new Path("/test/aap"), null);
+    }
 }
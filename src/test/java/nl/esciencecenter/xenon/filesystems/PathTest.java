@@ -18,6 +18,7 @@ package nl.esciencecenter.xenon.filesystems;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -961,4 +962,67 @@ public class PathTest {
         assertEquals(s, q.toString());
     }
 
+    @Test
+    public void testResolveSharesParent() {
+        Path p = new Path("/aap/noot");
+        Path q = p.resolve("mies");
+        assertSame(p, q.getParent());
+    }
+
+    @Test
+    public void testResolveMultipleElementsString() {
+        Path p = new Path("/aap");
+        assertEquals(new Path("/aap/noot/mies"), p.resolve("noot//mies/"));
+    }
+
+    @Test
+    public void testResolveOtherSeparator() {
+        Path p = new Path('\\', "c:\\aap");
+        Path q = new Path("noot/mies");
+        assertEquals("c:\\aap\\noot\\mies", p.resolve(q).toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testResolveOtherSeparatorInElement() {
+        Path p = new Path('\\', "c:\\aap");
+        Path q = new Path("noot\\mies");
+        p.resolve(q);
+    }
+
+    @Test
+    public void testResolveSiblingSingleElement() {
+        Path p = new Path("/aap");
+        assertEquals(new Path("/noot"), p.resolveSibling(new Path("noot")));
+    }
+
+    @Test
+    public void testEqualsDifferentConstruction() {
+        Path p = new Path("/aap/noot/mies");
+        Path q = new Path(true, "aap").resolve("noot").resolve(new Path("mies"));
+        assertEquals(p, q);
+        assertEquals(p.hashCode(), q.hashCode());
+        assertEquals(p.toString(), q.toString());
+    }
+
+    @Test
+    public void testNormalizeAlreadyNormalReturnsSame() {
+        Path p = new Path("/aap/noot/mies");
+        assertSame(p, p.normalize());
+    }
+
+    @Test
+    public void testNormalizeLeadingDoubleDotReturnsSame() {
+        Path p = new Path("../../aap");
+        assertSame(p, p.normalize());
+    }
+
+    @Test
+    public void testIteratorReturnsPrefixes() {
+        Path p = new Path("/aap/noot/mies");
+        Iterator<Path> it = p.iterator();
+        assertSame(p.getParent().getParent(), it.next());
+        assertSame(p.getParent(), it.next());
+        assertSame(p, it.next());
+        assertFalse(it.hasNext());
+    }
 }
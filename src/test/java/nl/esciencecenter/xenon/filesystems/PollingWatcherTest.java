@@ -0,0 +1,103 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.filesystems;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import nl.esciencecenter.xenon.adaptors.filesystems.PathAttributesImplementation;
+
+public class PollingWatcherTest {
+
+    private static PathAttributes file(String path, long size, long time) {
+        PathAttributesImplementation a = new PathAttributesImplementation();
+        a.setPath(new Path(path));
+        a.setRegular(true);
+        a.setSize(size);
+        a.setLastModifiedTime(time);
+        return a;
+    }
+
+    private static PathAttributes directory(String path, long time) {
+        PathAttributesImplementation a = new PathAttributesImplementation();
+        a.setPath(new Path(path));
+        a.setDirectory(true);
+        a.setLastModifiedTime(time);
+        return a;
+    }
+
+    private static Map<Path, PathAttributes> listing(PathAttributes... attributes) {
+        Map<Path, PathAttributes> result = new HashMap<>();
+
+        for (PathAttributes a : attributes) {
+            result.put(a.getPath(), a);
+        }
+
+        return result;
+    }
+
+    private static WatchEvent event(WatchEvent.Kind kind, String path) {
+        return new WatchEvent(kind, new Path(path));
+    }
+
+    @Test
+    public void test_diff_unchanged() {
+        Map<Path, PathAttributes> a = listing(file("/d/a", 1, 10), directory("/d/b", 10));
+        assertTrue(PollingWatcher.diff(a, listing(file("/d/a", 1, 10), directory("/d/b", 10))).isEmpty());
+    }
+
+    @Test
+    public void test_diff_created() {
+        List<WatchEvent> result = PollingWatcher.diff(listing(), listing(file("/d/a", 1, 10)));
+        assertEquals(Arrays.asList(event(WatchEvent.Kind.CREATED, "/d/a")), result);
+    }
+
+    @Test
+    public void test_diff_deleted() {
+        List<WatchEvent> result = PollingWatcher.diff(listing(file("/d/a", 1, 10)), listing());
+        assertEquals(Arrays.asList(event(WatchEvent.Kind.DELETED, "/d/a")), result);
+    }
+
+    @Test
+    public void test_diff_modified_size() {
+        List<WatchEvent> result = PollingWatcher.diff(listing(file("/d/a", 1, 10)), listing(file("/d/a", 2, 10)));
+        assertEquals(Arrays.asList(event(WatchEvent.Kind.MODIFIED, "/d/a")), result);
+    }
+
+    @Test
+    public void test_diff_modified_time() {
+        List<WatchEvent> result = PollingWatcher.diff(listing(file("/d/a", 1, 10)), listing(file("/d/a", 1, 20)));
+        assertEquals(Arrays.asList(event(WatchEvent.Kind.MODIFIED, "/d/a")), result);
+    }
+
+    @Test
+    public void test_diff_directoryTime_ignored() {
+        assertTrue(PollingWatcher.diff(listing(directory("/d/b", 10)), listing(directory("/d/b", 20))).isEmpty());
+    }
+
+    @Test
+    public void test_diff_typeChanged() {
+        List<WatchEvent> result = PollingWatcher.diff(listing(file("/d/a", 1, 10)), listing(directory("/d/a", 20)));
+        assertEquals(Arrays.asList(event(WatchEvent.Kind.DELETED, "/d/a"), event(WatchEvent.Kind.CREATED, "/d/a")), result);
+    }
+}
@@ -24,6 +24,8 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
@@ -367,6 +369,24 @@ public abstract class FileSystemTestInfrastructure {
         return buffer.toByteArray();
     }
 
+    /**
+     * Read from a channel until the buffer is full.
+     *
+     * @param channel
+     *            the channel to read.
+     * @param buffer
+     *            the buffer to fill.
+     * @throws IOException
+     *             if an I/O error was produced while reading the channel, or the channel ended before the buffer was full.
+     */
+    public static void readFully(SeekableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new IOException("Unexpected end of channel");
+            }
+        }
+    }
+
     protected void assertReadsExpected(Path file, byte[] expected) throws Exception {
 
         InputStream in = fileSystem.readFromFile(file);
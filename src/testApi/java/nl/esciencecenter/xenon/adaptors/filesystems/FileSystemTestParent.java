@@ -25,11 +25,16 @@ import static org.junit.Assume.assumeTrue;
 
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
 import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import org.hamcrest.core.Is;
 import org.junit.Assert;
@@ -37,6 +42,7 @@ import org.junit.Assume;
 import org.junit.Ignore;
 import org.junit.Test;
 
+import nl.esciencecenter.xenon.UnsupportedOperationException;
 import nl.esciencecenter.xenon.XenonException;
 import nl.esciencecenter.xenon.adaptors.NotConnectedException;
 import nl.esciencecenter.xenon.filesystems.CopyMode;
@@ -46,10 +52,12 @@ import nl.esciencecenter.xenon.filesystems.FileSystem;
 import nl.esciencecenter.xenon.filesystems.InvalidPathException;
 import nl.esciencecenter.xenon.filesystems.NoSuchCopyException;
 import nl.esciencecenter.xenon.filesystems.NoSuchPathException;
+import nl.esciencecenter.xenon.filesystems.NoSuchWatchException;
 import nl.esciencecenter.xenon.filesystems.Path;
 import nl.esciencecenter.xenon.filesystems.PathAlreadyExistsException;
 import nl.esciencecenter.xenon.filesystems.PathAttributes;
 import nl.esciencecenter.xenon.filesystems.PosixFilePermission;
+import nl.esciencecenter.xenon.filesystems.WatchEvent;
 import nl.esciencecenter.xenon.utils.LocalFileSystemUtils;
 import nl.esciencecenter.xenon.utils.OutputReader;
 
@@ -930,6 +938,215 @@ public abstract class FileSystemTestParent extends FileSystemTestInfrastructure
         fileSystem.appendToFile(p);
     }
 
+    @Test
+    public void test_readFromFile_offset() throws Exception {
+        generateAndCreateTestDir();
+        Path file = createTestFile(testDir, "Hello world!".getBytes());
+
+        InputStream in = fileSystem.readFromFile(file, 6);
+        byte[] data = readAllBytes(in);
+        in.close();
+
+        assertEquals("world!", new String(data));
+    }
+
+    @Test
+    public void test_readFromFile_offsetBeyondEnd_empty() throws Exception {
+        generateAndCreateTestDir();
+        Path file = createTestFile(testDir, "Hello world!".getBytes());
+
+        InputStream in = fileSystem.readFromFile(file, 100);
+        byte[] data = readAllBytes(in);
+        in.close();
+
+        assertEquals(0, data.length);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_readFromFile_negativeOffset_throwsException() throws Exception {
+        generateAndCreateTestDir();
+        Path file = createTestFile(testDir, "Hello world!".getBytes());
+        fileSystem.readFromFile(file, -1);
+    }
+
+    @Test
+    public void test_writeToFileAt_end_appends() throws Exception {
+        assumeTrue(description.canWriteAtOffset());
+        generateAndCreateTestDir();
+        Path file = createTestFile(testDir, "Hello ".getBytes());
+
+        OutputStream out = fileSystem.writeToFileAt(file, 6);
+        out.write("world!".getBytes());
+        out.close();
+
+        assertContents(file, "Hello world!".getBytes());
+    }
+
+    @Test
+    public void test_writeToFileAt_middle_overwrites() throws Exception {
+        assumeTrue(description.canWriteAtOffset());
+        generateAndCreateTestDir();
+        Path file = createTestFile(testDir, "Hello world!".getBytes());
+
+        OutputStream out = fileSystem.writeToFileAt(file, 6);
+        out.write("there!".getBytes());
+        out.close();
+
+        assertContents(file, "Hello there!".getBytes());
+    }
+
+    @Test(expected = NoSuchPathException.class)
+    public void test_writeToFileAt_fileDoesNotExist_throwsException() throws Exception {
+        assumeTrue(description.canWriteAtOffset());
+        generateAndCreateTestDir();
+        Path file = createNewTestFileName(testDir);
+        fileSystem.writeToFileAt(file, 0);
+    }
+
+    @Test(expected = InvalidPathException.class)
+    public void test_writeToFileAt_isDirectory_throwsException() throws Exception {
+        assumeTrue(description.canWriteAtOffset());
+        generateAndCreateTestDir();
+        Path p = createTestSubDir(testDir);
+        fileSystem.writeToFileAt(p, 0);
+    }
+
+    @Test
+    public void test_openChannel_readAtPositions() throws Exception {
+        generateAndCreateTestDir();
+        Path file = createTestFile(testDir, "Hello world!".getBytes());
+
+        try (SeekableByteChannel channel = fileSystem.openChannel(file, false)) {
+            assertEquals(12, channel.size());
+
+            ByteBuffer buffer = ByteBuffer.allocate(6);
+            channel.position(6);
+            readFully(channel, buffer);
+            assertEquals("world!", new String(buffer.array()));
+
+            buffer = ByteBuffer.allocate(5);
+            channel.position(0);
+            readFully(channel, buffer);
+            assertEquals("Hello", new String(buffer.array()));
+
+            channel.position(12);
+            assertEquals(-1, channel.read(ByteBuffer.allocate(1)));
+        }
+    }
+
+    @Test(expected = NoSuchPathException.class)
+    public void test_openChannel_fileDoesNotExist_throwsException() throws Exception {
+        generateAndCreateTestDir();
+        Path file = createNewTestFileName(testDir);
+        fileSystem.openChannel(file, false);
+    }
+
+    @Test(expected = InvalidPathException.class)
+    public void test_openChannel_isDirectory_throwsException() throws Exception {
+        generateAndCreateTestDir();
+        Path p = createTestSubDir(testDir);
+        fileSystem.openChannel(p, false);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void test_openChannel_writeNotSupported_throwsException() throws Exception {
+        assumeFalse(description.canOpenWritableChannel());
+        generateAndCreateTestDir();
+        Path file = createTestFile(testDir, "Hello world!".getBytes());
+        fileSystem.openChannel(file, true);
+    }
+
+    @Test
+    public void test_openChannel_writeAtPositions() throws Exception {
+        assumeTrue(description.canOpenWritableChannel());
+        generateAndCreateTestDir();
+        Path file = createTestFile(testDir, "Hello world!".getBytes());
+
+        try (SeekableByteChannel channel = fileSystem.openChannel(file, true)) {
+            channel.position(6);
+            channel.write(ByteBuffer.wrap("there!".getBytes()));
+            channel.position(12);
+            channel.write(ByteBuffer.wrap(" Bye.".getBytes()));
+            assertEquals(17, channel.size());
+        }
+
+        assertContents(file, "Hello there! Bye.".getBytes());
+    }
+
+    @Test
+    public void test_openChannel_truncate() throws Exception {
+        assumeTrue(description.canOpenWritableChannel());
+        generateAndCreateTestDir();
+        Path file = createTestFile(testDir, "Hello world!".getBytes());
+
+        try (SeekableByteChannel channel = fileSystem.openChannel(file, true)) {
+            channel.position(10);
+            channel.truncate(5);
+            assertEquals(5, channel.position());
+            assertEquals(5, channel.size());
+        }
+
+        assertContents(file, "Hello".getBytes());
+    }
+
+    @Test
+    public void test_readToBuffer_region() throws Exception {
+        generateAndCreateTestDir();
+        Path file = createTestFile(testDir, "Hello world!".getBytes());
+
+        ByteBuffer buffer = fileSystem.readToBuffer(file, 6, 5);
+
+        byte[] data = new byte[buffer.remaining()];
+        buffer.get(data);
+        assertEquals("world", new String(data));
+    }
+
+    @Test
+    public void test_readToBuffer_lengthBeyondEnd_truncated() throws Exception {
+        generateAndCreateTestDir();
+        Path file = createTestFile(testDir, "Hello world!".getBytes());
+
+        assertEquals(6, fileSystem.readToBuffer(file, 6, 100).remaining());
+        assertEquals(0, fileSystem.readToBuffer(file, 100, 100).remaining());
+    }
+
+    @Test(expected = NoSuchPathException.class)
+    public void test_readToBuffer_fileDoesNotExist_throwsException() throws Exception {
+        generateAndCreateTestDir();
+        Path file = createNewTestFileName(testDir);
+        fileSystem.readToBuffer(file, 0, 10);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_readToBuffer_negativeLength_throwsException() throws Exception {
+        generateAndCreateTestDir();
+        Path file = createTestFile(testDir, "Hello world!".getBytes());
+        fileSystem.readToBuffer(file, 0, -1);
+    }
+
+    @Test
+    public void test_writeFromBuffer_directBuffer() throws Exception {
+        generateAndCreateTestDir();
+        Path file = createNewTestFileName(testDir);
+
+        byte[] data = "Hello world!".getBytes();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+        buffer.put(data);
+        buffer.flip();
+
+        fileSystem.writeFromBuffer(file, buffer);
+
+        assertFalse(buffer.hasRemaining());
+        assertContents(file, data);
+    }
+
+    @Test(expected = PathAlreadyExistsException.class)
+    public void test_writeFromBuffer_fileExists_throwsException() throws Exception {
+        generateAndCreateTestDir();
+        Path file = createTestFile(testDir, "Hello world!".getBytes());
+        fileSystem.writeFromBuffer(file, ByteBuffer.wrap("Bye".getBytes()));
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void test_copy_null_throwsException() throws Exception {
         fileSystem.copy(null, null, null, null, false);
@@ -1124,6 +1341,149 @@ public abstract class FileSystemTestParent extends FileSystemTestInfrastructure
         assertContents(file4, data4);
     }
 
+    @Test
+    public void test_copy_rec_sync() throws Throwable {
+        byte[] data = "Hello World!".getBytes();
+        byte[] data2 = "Party people!".getBytes();
+        byte[] data3 = "yes | rm -rf ".getBytes();
+        byte[] data4 = "Use Xenon!".getBytes();
+        generateAndCreateTestDir();
+        Path target = createTestSubDir(testDir);
+        Path subtarget = createTestSubDir(target);
+        Path source = createTestSubDir(testDir);
+        Path subsource = source.resolve(subtarget.getFileName());
+        fileSystem.createDirectory(subsource);
+        Path file = createTestFile(subtarget, data3);
+        Path file2 = createTestFile(subtarget, data2);
+        Path file3 = createTestFile(subtarget, data3);
+        Path file4 = createTestFile(subtarget, data4);
+
+        Path srcFile = createNamedTestFile(subsource.resolve(file.getFileName()), data);
+        Path srcFile2 = createNamedTestFile(subsource.resolve(file2.getFileName()), data2);
+
+        copySync(source, target, CopyMode.SYNC, true);
+        assertContents(file, data);
+        assertContents(file2, data2);
+        assertContents(file3, data3);
+        assertContents(file4, data4);
+    }
+
+    @Test
+    public void test_checksum_file() throws Exception {
+        generateAndCreateTestDir();
+        Path file = createTestFile(testDir, "Hello World!".getBytes());
+
+        assertEquals("ed076287532e86365e841e92bfc50d8c", fileSystem.checksum(file, "MD5"));
+        assertEquals("7f83b1657ff1fc53b92dc18148a1d65dfc2d4b1fa3d677284addd200126d9069", fileSystem.checksum(file, "sha256"));
+    }
+
+    @Test(expected = InvalidPathException.class)
+    public void test_checksum_directory_throwsException() throws Exception {
+        generateAndCreateTestDir();
+        fileSystem.checksum(testDir, "MD5");
+    }
+
+    @Test(expected = NoSuchPathException.class)
+    public void test_checksum_nonExistingFile_throwsException() throws Exception {
+        generateAndCreateTestDir();
+        fileSystem.checksum(testDir.resolve("foo"), "MD5");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_checksum_unknownAlgorithm_throwsException() throws Exception {
+        generateAndCreateTestDir();
+        Path file = createTestFile(testDir, "Hello World!".getBytes());
+        fileSystem.checksum(file, "FOO");
+    }
+
+    @Test
+    public void test_checksums_recursive() throws Exception {
+        generateAndCreateTestDir();
+        Path file = createTestFile(testDir, "Hello World!".getBytes());
+        Path subDir = createTestSubDir(testDir);
+        Path file2 = createTestFile(subDir, "Party people!".getBytes());
+
+        Map<Path, String> result = fileSystem.checksums(testDir, "SHA-1", true);
+
+        assertEquals(2, result.size());
+        assertEquals("2ef7bde608ce5404e97d5f042f95f89f1c232871", result.get(file));
+        assertEquals("ceb05fbda51a095709c09da9c6e7b00dae94d70c", result.get(file2));
+    }
+
+    @Test
+    public void test_checksums_nonRecursive() throws Exception {
+        generateAndCreateTestDir();
+        Path file = createTestFile(testDir, "Hello World!".getBytes());
+        Path subDir = createTestSubDir(testDir);
+        createTestFile(subDir, "Party people!".getBytes());
+
+        Map<Path, String> result = fileSystem.checksums(testDir, "MD5", false);
+
+        assertEquals(1, result.size());
+        assertEquals("ed076287532e86365e841e92bfc50d8c", result.get(file));
+    }
+
+    private static void awaitEvent(BlockingQueue<WatchEvent> events, WatchEvent.Kind kind, Path path) throws InterruptedException {
+
+        long deadline = System.currentTimeMillis() + 10000;
+
+        for (long now = System.currentTimeMillis(); now < deadline; now = System.currentTimeMillis()) {
+            WatchEvent event = events.poll(deadline - now, TimeUnit.MILLISECONDS);
+
+            if (event != null && event.getKind() == kind && event.getPath().equals(path)) {
+                return;
+            }
+        }
+
+        throw new AssertionError("No " + kind + " event received for " + path);
+    }
+
+    @Test
+    public void test_watch_createAndDelete() throws Exception {
+        generateAndCreateTestDir();
+        BlockingQueue<WatchEvent> events = new LinkedBlockingQueue<>();
+
+        String watch = fileSystem.watch(testDir, false, 100, events::add);
+
+        try {
+            Path file = createTestFile(testDir, "Hello World!".getBytes());
+            awaitEvent(events, WatchEvent.Kind.CREATED, file);
+
+            fileSystem.delete(file, false);
+            awaitEvent(events, WatchEvent.Kind.DELETED, file);
+        } finally {
+            fileSystem.cancelWatch(watch);
+        }
+    }
+
+    @Test
+    public void test_watch_recursive() throws Exception {
+        generateAndCreateTestDir();
+        Path subDir = createTestSubDir(testDir);
+        BlockingQueue<WatchEvent> events = new LinkedBlockingQueue<>();
+
+        String watch = fileSystem.watch(testDir, true, 100, events::add);
+
+        try {
+            Path file = createTestFile(subDir, "Hello World!".getBytes());
+            awaitEvent(events, WatchEvent.Kind.CREATED, file);
+        } finally {
+            fileSystem.cancelWatch(watch);
+        }
+    }
+
+    @Test(expected = NoSuchPathException.class)
+    public void test_watch_nonExistingDirectory_throwsException() throws Exception {
+        generateAndCreateTestDir();
+        fileSystem.watch(testDir.resolve("foo"), false, event -> {
+        });
+    }
+
+    @Test(expected = NoSuchWatchException.class)
+    public void test_cancelWatch_unknown_throwsException() throws Exception {
+        fileSystem.cancelWatch("foo");
+    }
+
     @Test(expected = PathAlreadyExistsException.class)
     public void test_copy_target_directory_source_file_create() throws Throwable {
         byte[] data = "Hello World!".getBytes();